@@ -45,6 +45,8 @@ android {
 }
 
 dependencies {
+    implementation(project(":kirin-core"))
+
     implementation("androidx.appcompat:appcompat:1.6.1")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
     implementation("androidx.preference:preference:1.2.1")
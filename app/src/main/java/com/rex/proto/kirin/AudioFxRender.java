@@ -5,27 +5,57 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.HandlerThread;
+import android.view.Choreographer;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 
 import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
 
+import com.rex.proto.kirin.dsp.WaterfallMapper;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draw FFT and waveform on a surface from its own thread, paced by vsync
+ * Producers hand data over through triple buffers and never block, updates arriving within one frame
+ * are coalesced and only the latest is drawn.
+ * In waterfall mode every FFT frame becomes one column of a ring bitmap instead of bars, the producer maps
+ * it to pixels and the render thread uploads only the new columns, then blits the ring in two parts at the
+ * wrap offset so the cost per frame does not depend on the history length.
+ */
 public class AudioFxRender implements SurfaceHolder.Callback {
 
     private static final Logger sLogger = LoggerFactory.getLogger(AudioFxRender.class);
 
-    private Surface mSurface;
-    private RenderThread mThread;
-    private boolean mDirty;
-    private float[] mFftData;
-    private float[] mWavData;
+    private static final long DEFAULT_FRAME_INTERVAL = 16666667; // ns, 60Hz
+    private static final float FFT_FULL_SCALE = 128f; // Visualizer magnitudes of 8 bits samples
+
+    private final FloatTripleBuffer mFftBuffer = new FloatTripleBuffer();
+    private final FloatTripleBuffer mWavBuffer = new FloatTripleBuffer();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private volatile Surface mSurface;
+    private volatile RenderThread mThread;
+    private volatile int mWidth;
+    private volatile int mHeight;
+    private volatile long mFrameInterval = DEFAULT_FRAME_INTERVAL;
+    private volatile long mRenderedFrames;
+    private volatile long mDroppedFrames;
 
-    private Bitmap mBgImage;
-    private int mBgColor = Color.WHITE;
+    private volatile boolean mWaterfall;
+    private int mWaterfallColumns = 256;
+    private int mWaterfallRows = 256;
+    private float mWaterfallRange = 60f;
+    private WaterfallMapper mMapper;            // Producer only
+    private int[][] mColumns;                   // Ring of mapped columns, published by mColumnCount
+    private volatile long mColumnCount;
+
+    private volatile Bitmap mBgImage;
+    private volatile int mBgColor = Color.WHITE;
 
     public AudioFxRender() {
         sLogger.trace("");
@@ -46,63 +76,154 @@ public class AudioFxRender implements SurfaceHolder.Callback {
         return this;
     }
 
+    /** Draw a scrolling spectrogram instead of the FFT bars */
+    public AudioFxRender setWaterfall(boolean enabled) {
+        sLogger.trace("enabled={}", enabled);
+        mWaterfall = enabled;
+        requestRender();
+        return this;
+    }
+
+    /**
+     * Waterfall resolution, set before the surface is created
+     * @param columns FFT frames of history
+     * @param rows    log frequency rows
+     * @param rangeDb dynamic range below full scale
+     */
+    public AudioFxRender setWaterfall(int columns, int rows, float rangeDb) {
+        sLogger.trace("columns={} rows={} rangeDb={}", columns, rows, rangeDb);
+        mWaterfallColumns = columns;
+        mWaterfallRows = rows;
+        mWaterfallRange = rangeDb;
+        return this;
+    }
+
+    /** Display refresh rate, a frame finished later than one interval after its vsync counts as dropped */
+    public AudioFxRender setRefreshRate(float hz) {
+        sLogger.trace("hz={}", hz);
+        if (hz > 0) {
+            mFrameInterval = (long) (1000000000L / hz);
+        }
+        return this;
+    }
+
     @Override // SurfaceHolder.Callback
-    synchronized public void surfaceCreated(@NonNull SurfaceHolder holder) {
+    public void surfaceCreated(@NonNull SurfaceHolder holder) {
         sLogger.trace("");
         mSurface = holder.getSurface();
         if (mThread == null) {
             mThread = new RenderThread();
-            mThread.setName("Render");
             mThread.start();
         }
     }
 
     @Override // SurfaceHolder.Callback
-    synchronized public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
+    public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
         sLogger.trace("format={} width={} height={}", format, width, height);
         mSurface = holder.getSurface();
+        mWidth = width; // Render thread lays out again on next frame
+        mHeight = height;
+        requestRender();
     }
 
     @Override // SurfaceHolder.Callback
     public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
         sLogger.trace("+");
-        try {
-            if (mThread != null) {
-                mThread.interrupt();
-                synchronized (AudioFxRender.this) {
-                    notifyAll();
-                }
-                mThread.join();
-                mThread = null;
+        RenderThread thread = mThread;
+        if (thread != null) {
+            mThread = null;
+            thread.quitSafely(); // Frame in progress completes, later vsync callbacks are dropped
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("interrupted - {}", ex.getMessage());
+                Thread.currentThread().interrupt(); // Restore interrupted state
             }
-        } catch (InterruptedException ex) {
-            sLogger.warn("interrupted - {}", ex.getMessage());
-            Thread.currentThread().interrupt(); // Restore interrupted state
+            thread.release();
         }
+        mScheduled.set(false);
         mSurface = null;
+        sLogger.debug("Render frames:{} dropped:{} coalesced:{}", mRenderedFrames, mDroppedFrames, getCoalescedCount());
         sLogger.trace("-");
     }
 
-    synchronized void updateFftData(float[] data) {
+    // Copied into the triple buffer, caller recycles data after return
+    void updateFftData(float[] data) {
         //sLogger.trace("data={} {}", data.length, data);
-        mFftData = data;
-        mDirty = true;
-        notifyAll();
+        mFftBuffer.publish(data, data.length);
+        if (mWaterfall && data.length >= 3) {
+            pushColumn(data);
+        }
+        requestRender();
     }
 
-    synchronized void updateWavData(float[] data) {
+    // Map on the producer so columns coalesced by the render thread are not lost from the history
+    private void pushColumn(float[] data) {
+        if (mMapper == null || mMapper.getBins() != data.length) {
+            mMapper = new WaterfallMapper(mWaterfallRows, data.length, FFT_FULL_SCALE, mWaterfallRange);
+        }
+        int[][] columns = mColumns;
+        if (columns == null) {
+            columns = mColumns = new int[mWaterfallColumns][mWaterfallRows];
+        }
+        long count = mColumnCount;
+        mMapper.map(data, columns[(int) (count % columns.length)]);
+        mColumnCount = count + 1; // Publish the column
+    }
+
+    // Copied into the triple buffer, caller recycles data after return
+    void updateWavData(float[] data) {
         //sLogger.trace("data={} {}", data.length, data);
-        mWavData = data;
-        mDirty = true;
-        notifyAll();
+        mWavBuffer.publish(data, data.length);
+        requestRender();
+    }
+
+    /** Frames drawn since created */
+    public long getRenderedFrames() {
+        return mRenderedFrames;
+    }
+
+    /** Vsync intervals missed because drawing took longer than a frame */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /** Updates replaced by a newer one before they were drawn */
+    public long getCoalescedCount() {
+        return mFftBuffer.getCoalescedCount() + mWavBuffer.getCoalescedCount();
     }
 
-    private class RenderThread extends Thread {
-        final Rect mBounds = new Rect();
+    // One frame callback pending at most, updates before it runs are drawn together
+    private void requestRender() {
+        RenderThread thread = mThread;
+        if (thread != null) {
+            thread.schedule();
+        }
+    }
+
+    private class RenderThread extends HandlerThread implements Choreographer.FrameCallback {
+        final Rect mBgSrc = new Rect();
+        final Rect mBgDst = new Rect();
+        final float[] mBorderPoints = new float[16];
+        float[] mFftPoints = new float[0];      // Bars as segments, x fixed by layout
+        float[] mWavPoints = new float[0];      // Polyline as segments, x fixed by layout
+        int mLayoutWidth = -1;
+        int mLayoutHeight = -1;
+        Bitmap mLayoutImage;
+        int mFftLength;
+        int mWavLength;
+        Bitmap mWaterfallImage;
+        int mWaterfallX;        // Next column written, the oldest one shown
+        long mColumnRead;
+        final Rect mWaterfallSrc = new Rect();
+        final Rect mWaterfallDst = new Rect();
+        final Paint mWaterfallPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
         final Paint mBorderPaint;
         final Paint mWavPaint;
         final Paint mFftPaint;
+        volatile Choreographer mChoreographer;
         public RenderThread() {
+            super("Render");
             sLogger.trace("");
 
             mBorderPaint = new Paint();
@@ -117,97 +238,197 @@ public class AudioFxRender implements SurfaceHolder.Callback {
             mFftPaint.setColor(Color.BLUE);
             mFftPaint.setStrokeWidth(3f);
         }
-        @Override
-        public void run() {
-            sLogger.trace("+");
+        @Override // HandlerThread
+        protected void onLooperPrepared() {
+            sLogger.trace("");
+            mChoreographer = Choreographer.getInstance(); // Bound to this looper
+            schedule(); // First frame, background before any data
+        }
+        void schedule() {
+            Choreographer choreographer = mChoreographer;
+            if (choreographer != null && mScheduled.compareAndSet(false, true)) {
+                choreographer.postFrameCallback(this);
+            }
+        }
+        @Override // Choreographer.FrameCallback
+        public void doFrame(long frameTimeNanos) {
+            mScheduled.set(false); // Updates from now on need another frame
+            mFftBuffer.update();
+            mWavBuffer.update();
+            Surface surface = mSurface;
+            if (surface == null) {
+                return;
+            }
             try {
-                while (!Thread.interrupted()) {
-                    synchronized (AudioFxRender.this) {
-                        if (!mDirty) {
-                            //sLogger.trace("wait");
-                            try {
-                                AudioFxRender.this.wait();
-                            } catch (InterruptedException ex) {
-                                sLogger.warn("interrupted - {}", ex.getMessage());
-                                Thread.currentThread().interrupt(); // Restore interrupted state
-                            }
-                            //sLogger.trace("wakeup");
-                            continue;
-                        }
-
-                        Canvas canvas;
-                        try {
-                            canvas = mSurface.lockHardwareCanvas();
-                        } catch (Exception ex) {
-                            sLogger.warn("failed to lockHardwareCanvas - {}", ex.getMessage());
-                            canvas = mSurface.lockCanvas(null);
-                        }
-                        if (canvas == null) {
-                            sLogger.warn("failed to lockCanvas");
-                            return;
-                        }
-                        canvas.getWidth();
-                        canvas.getClipBounds(mBounds);
-                        //sLogger.trace("bounds={}", mBounds);
-
-                        canvas.drawColor(mBgColor);
-                        canvas.drawLine(0, 0, 0, mBounds.height(), mBorderPaint); // left
-                        canvas.drawLine(0, mBounds.height(), mBounds.width(), mBounds.height(), mBorderPaint); // bottom
-                        canvas.drawLine(mBounds.width(), mBounds.height(), mBounds.width(), 0, mBorderPaint); // right
-                        canvas.drawLine(mBounds.width(), 0, 0, 0, mBorderPaint); // top
-
-                        if (mBgImage != null) {
-                            float ratioX = (float) mBounds.width() / mBgImage.getWidth();
-                            float ratioY = (float) mBounds.height() / mBgImage.getHeight();
-                            float ratio = Math.min(ratioX, ratioY);
-                            int scaleWidth = (int) (mBgImage.getWidth() * ratio);
-                            int scaleHeight = (int) (mBgImage.getHeight() * ratio);
-                            int left = (mBounds.width() - scaleWidth) / 2;
-                            int top = (mBounds.height() - scaleHeight) / 2;
-                            int right = left + scaleWidth;
-                            int bottom = top + scaleHeight;
-                            canvas.drawBitmap(mBgImage,
-                                    new Rect(0, 0, mBgImage.getWidth(), mBgImage.getHeight()),
-                                    new Rect(left, top, right, bottom),
-                                    null);
-                        }
-
-                        if (mFftData != null) {
-                            mFftPaint.setStrokeWidth((float) mBounds.width() / mFftData.length);
-                            float dc = mFftData[0];
-                            float nyquist = mFftData[mFftData.length - 1];
-                            for (int i = 1; i < mFftData.length - 1; i++) {
-                                float startX = (float) mBounds.width() / mFftData.length * i;
-                                float startY = mBounds.height();
-                                float stopX  = startX;
-                                float stopY  = mBounds.height() - (mBounds.height() * mFftData[i] / 128 / 2);
-                                //sLogger.trace("start=({},{}) stop=({},{})", startX, startY, stopX, stopY);
-                                canvas.drawLine(startX, startY, stopX, stopY, mFftPaint);
-                            }
-                        }
-
-                        if (mWavData != null) {
-                            for (int i = 0; i < mWavData.length - 1; i++) {
-                                float startX = (float) mBounds.width() * i / (mWavData.length - 1);
-                                float startY = (float) mBounds.height() / 2 - (mBounds.height() / 3f) * mWavData[i];
-                                float stopX  = (float) mBounds.width() * (i + 1) / (mWavData.length - 1);
-                                float stopY  = (float) mBounds.height() / 2 - (mBounds.height() / 3f) * mWavData[i + 1];
-                                //sLogger.trace("start=({},{}) stop=({},{})", startX, startY, stopX, stopY);
-                                canvas.drawLine(startX, startY, stopX, stopY, mWavPaint);
-                            }
-                        }
-                        mDirty = false;
-                        try {
-                            mSurface.unlockCanvasAndPost(canvas);
-                        } catch (Exception ex) {
-                            sLogger.warn("failed to unlockCanvasAndPost - {}", ex.getMessage());
-                        }
-                    }
+                Canvas canvas;
+                try {
+                    canvas = surface.lockHardwareCanvas();
+                } catch (Exception ex) {
+                    sLogger.warn("failed to lockHardwareCanvas - {}", ex.getMessage());
+                    canvas = surface.lockCanvas(null);
+                }
+                if (canvas == null) {
+                    sLogger.warn("failed to lockCanvas");
+                    return;
+                }
+                draw(canvas);
+                try {
+                    surface.unlockCanvasAndPost(canvas);
+                } catch (Exception ex) {
+                    sLogger.warn("failed to unlockCanvasAndPost - {}", ex.getMessage());
                 }
             } catch (Exception ex) {
                 sLogger.warn("failed to draw - {}", ex.getMessage());
             }
-            sLogger.trace("-");
+            mRenderedFrames++;
+            long late = System.nanoTime() - frameTimeNanos;
+            if (late > mFrameInterval) {
+                mDroppedFrames += late / mFrameInterval;
+            }
+        }
+        // Everything that depends only on size, recomputed when the surface or background changes
+        private void layout(int width, int height, Bitmap image) {
+            sLogger.trace("width={} height={}", width, height);
+            mLayoutWidth = width;
+            mLayoutHeight = height;
+            mLayoutImage = image;
+            mFftLength = 0;
+            mWavLength = 0;
+
+            float[] border = mBorderPoints;
+            border[0]  = 0;     border[1]  = 0;      border[2]  = 0;     border[3]  = height; // left
+            border[4]  = 0;     border[5]  = height; border[6]  = width; border[7]  = height; // bottom
+            border[8]  = width; border[9]  = height; border[10] = width; border[11] = 0;      // right
+            border[12] = width; border[13] = 0;      border[14] = 0;     border[15] = 0;      // top
+
+            if (image != null) {
+                float ratioX = (float) width / image.getWidth();
+                float ratioY = (float) height / image.getHeight();
+                float ratio = Math.min(ratioX, ratioY);
+                int scaleWidth = (int) (image.getWidth() * ratio);
+                int scaleHeight = (int) (image.getHeight() * ratio);
+                int left = (width - scaleWidth) / 2;
+                int top = (height - scaleHeight) / 2;
+                mBgSrc.set(0, 0, image.getWidth(), image.getHeight());
+                mBgDst.set(left, top, left + scaleWidth, top + scaleHeight);
+            }
+        }
+        // Bins 1 to length - 2, DC and nyquist are not drawn
+        private void layoutFft(int length) {
+            mFftLength = length;
+            int count = Math.max(0, length - 2) * 4;
+            if (mFftPoints.length < count) {
+                mFftPoints = new float[count];
+            }
+            float step = (float) mLayoutWidth / length;
+            for (int i = 1, j = 0; i < length - 1; i++, j += 4) {
+                mFftPoints[j]     = step * i;
+                mFftPoints[j + 1] = mLayoutHeight;
+                mFftPoints[j + 2] = step * i;
+            }
+            mFftPaint.setStrokeWidth(step);
+        }
+        private void layoutWav(int length) {
+            mWavLength = length;
+            int count = Math.max(0, length - 1) * 4;
+            if (mWavPoints.length < count) {
+                mWavPoints = new float[count];
+            }
+            for (int i = 0, j = 0; i < length - 1; i++, j += 4) {
+                mWavPoints[j]     = (float) mLayoutWidth * i / (length - 1);
+                mWavPoints[j + 2] = (float) mLayoutWidth * (i + 1) / (length - 1);
+            }
+        }
+        // No allocation once laid out, one draw call per layer
+        private void draw(Canvas canvas) {
+            Bitmap image = mBgImage;
+            int width = mWidth;
+            int height = mHeight;
+            if (width <= 0 || height <= 0) { // Frame before surfaceChanged
+                width = canvas.getWidth();
+                height = canvas.getHeight();
+            }
+            if (width != mLayoutWidth || height != mLayoutHeight || image != mLayoutImage) {
+                layout(width, height, image);
+            }
+
+            canvas.drawColor(mBgColor);
+            boolean waterfall = mWaterfall;
+            if (waterfall) {
+                drawWaterfall(canvas, width, height);
+            } else if (image != null) {
+                canvas.drawBitmap(image, mBgSrc, mBgDst, null);
+            }
+            canvas.drawLines(mBorderPoints, mBorderPaint);
+
+            float[] fftData = mFftBuffer.front();
+            if (!waterfall && fftData != null && fftData.length > 2) {
+                if (fftData.length != mFftLength) {
+                    layoutFft(fftData.length);
+                }
+                float[] points = mFftPoints;
+                float scale = height / 128f / 2;
+                for (int i = 1, j = 3; i < fftData.length - 1; i++, j += 4) {
+                    points[j] = height - scale * fftData[i];
+                }
+                canvas.drawLines(points, 0, (fftData.length - 2) * 4, mFftPaint);
+            }
+
+            float[] wavData = mWavBuffer.front();
+            if (wavData != null && wavData.length > 1) {
+                if (wavData.length != mWavLength) {
+                    layoutWav(wavData.length);
+                }
+                float[] points = mWavPoints;
+                float center = height / 2f;
+                float scale = height / 3f;
+                float y = center - scale * wavData[0];
+                for (int i = 1, j = 1; i < wavData.length; i++, j += 4) {
+                    points[j] = y;
+                    y = center - scale * wavData[i];
+                    points[j + 2] = y;
+                }
+                canvas.drawLines(points, 0, (wavData.length - 1) * 4, mWavPaint);
+            }
+        }
+        // Upload the columns pushed since last frame, then show oldest to newest from left to right
+        private void drawWaterfall(Canvas canvas, int width, int height) {
+            long count = mColumnCount;
+            int[][] columns = mColumns;
+            if (columns == null) {
+                return;
+            }
+            int size = columns.length;
+            int rows = columns[0].length;
+            if (mWaterfallImage == null) {
+                mWaterfallImage = Bitmap.createBitmap(size, rows, Bitmap.Config.ARGB_8888);
+                mWaterfallImage.eraseColor(Color.BLACK);
+                mWaterfallX = 0;
+                mColumnRead = Math.max(0, count - size);
+            }
+            for (long c = Math.max(mColumnRead, count - size); c < count; c++) {
+                mWaterfallImage.setPixels(columns[(int) (c % size)], 0, 1, mWaterfallX, 0, 1, rows);
+                mWaterfallX = (mWaterfallX + 1) % size;
+            }
+            mColumnRead = count;
+
+            int x = mWaterfallX;
+            int split = Math.round((float) width * (size - x) / size);
+            mWaterfallSrc.set(x, 0, size, rows);
+            mWaterfallDst.set(0, 0, split, height);
+            canvas.drawBitmap(mWaterfallImage, mWaterfallSrc, mWaterfallDst, mWaterfallPaint);
+            if (x > 0) {
+                mWaterfallSrc.set(0, 0, x, rows);
+                mWaterfallDst.set(split, 0, width, height);
+                canvas.drawBitmap(mWaterfallImage, mWaterfallSrc, mWaterfallDst, mWaterfallPaint);
+            }
+        }
+        // Called once the looper ended
+        void release() {
+            if (mWaterfallImage != null) {
+                mWaterfallImage.recycle();
+                mWaterfallImage = null;
+            }
         }
     }
 }
@@ -2,23 +2,76 @@ package com.rex.proto.kirin;
 
 import android.media.AudioAttributes;
 import android.media.AudioFormat;
+import android.media.AudioTimestamp;
 import android.media.AudioTrack;
 import android.os.Build;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import com.rex.proto.kirin.dsp.FractionalResampler;
+import com.rex.proto.kirin.dsp.PcmConvert;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 
 public class AudioSinkPlayer implements AudioSink {
 
     private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkPlayer.class);
 
+    private static final long DRIFT_INTERVAL = 500000; // us between playback head timestamps
+
     private AudioTrack mTrack;
     private AudioSessionProvider mProvider;
+    private LatencyHistogram mWriteLatency;
     private final boolean mVoice;
+    private int mTargetDelay;       // ms, 0 for blocking writes
+    private JitterBuffer mJitter;
+    private int mBytesPerFrame;
+    private int mFramesWritten;     // Wraps like the playback head position
+    private boolean mPlaying;
+    private AudioTrackTuner.Store mTuningStore;
+    private AudioTrackTuner mTuner;
+    private EchoReference mEchoReference;
+    private int mSampleRate;
+    private int mNumChannels;
+    private boolean mDriftCompensation;
+    private ClockDriftEstimator mDrift;
+    private FractionalResampler mResampler;
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+    private long mTimestampTime;
+    private long mFramesReceived;
+    private int mSampleBits;
+    private float[] mResampleIn;
+    private float[] mResampleOut;
+    private short[] mScratch;
+    private ByteBuffer mResampled;
+    private ShortBuffer mResampledShorts;
+    private FloatBuffer mResampledFloats;
+    private ByteBuffer mSource;             // Buffer the views below read, reused while the source recycles it
+    private ShortBuffer mSourceShorts;
+    private FloatBuffer mSourceFloats;
+
+    // Non-blocking writes from the jitter buffer, queued frames from the playback head
+    private final JitterBuffer.Output mOutput = new JitterBuffer.Output() {
+        @Override // JitterBuffer.Output
+        public int write(@NonNull ByteBuffer buffer, int size) {
+            int written = mTrack.write(buffer, size, AudioTrack.WRITE_NON_BLOCKING);
+            if (written > 0) {
+                mFramesWritten += written / mBytesPerFrame;
+            }
+            return written;
+        }
+        @Override // JitterBuffer.Output
+        public int getQueuedFrames() {
+            return mFramesWritten - mTrack.getPlaybackHeadPosition();
+        }
+    };
 
     public AudioSinkPlayer() {
         this(false);
@@ -35,6 +88,51 @@ public class AudioSinkPlayer implements AudioSink {
         return this;
     }
 
+    /** Record capture to AudioTrack.write returned latency, the frame is queued in the track by then */
+    public AudioSinkPlayer setWriteLatency(LatencyHistogram histogram) {
+        sLogger.trace("histogram:{}", histogram);
+        mWriteLatency = histogram;
+        return this;
+    }
+
+    /**
+     * Play through a jitter buffer holding the capture to output delay at the target, 0 for blocking writes
+     * Apply on next onStart, the writes never block so no ring is needed in front.
+     */
+    public AudioSinkPlayer setTargetDelay(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mTargetDelay = ms;
+        return this;
+    }
+
+    /**
+     * Resample by the capture to playback clock drift so the target delay holds without dropping audio
+     * Needs a target delay and 16 bits or float samples, apply on next onStart. The jitter buffer still
+     * corrects larger errors on silent frames.
+     */
+    public AudioSinkPlayer setDriftCompensation(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mDriftCompensation = enable;
+        return this;
+    }
+
+    /** Write what is played with its presentation time, the far end of AudioSinkEchoCanceller, null to disable */
+    public AudioSinkPlayer setEchoReference(EchoReference reference) {
+        sLogger.trace("reference:{}", reference);
+        mEchoReference = reference;
+        return this;
+    }
+
+    /**
+     * Low latency mode, request the fast path and learn the smallest buffer without underruns, null to disable
+     * Needs API-26, the learned size is kept in the store per output format.
+     */
+    public AudioSinkPlayer setLowLatency(AudioTrackTuner.Store store) {
+        sLogger.trace("store:{}", store);
+        mTuningStore = store;
+        return this;
+    }
+
     @Override // AudioSink
     public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
         sLogger.trace("sampleRate={} sampleBits={} frameSize={} numChannels={}", sampleRate, sampleBits, frameSize, numChannels);
@@ -58,6 +156,44 @@ public class AudioSinkPlayer implements AudioSink {
             minBufferSize = sampleBits / Byte.SIZE * minFrameSize * numChannels * 8; // at least 8 frames, about 3840 samples for 480 frame size
         }
         int bufferSize = minBufferSize * 2;
+        int bytesPerFrame = numChannels * sampleBits / Byte.SIZE;
+        int targetFrames = sampleRate * mTargetDelay / 1000;
+        mBytesPerFrame = bytesPerFrame;
+        if (mTargetDelay > 0) { // Room for the target, the jitter buffer keeps the queue at the target
+            bufferSize = Math.max(minBufferSize, 2 * (targetFrames * bytesPerFrame + frameSize));
+            mJitter = new JitterBuffer(sampleRate, sampleBits, numChannels, targetFrames,
+                    4 * targetFrames + 2 * frameSize / bytesPerFrame);
+        } else {
+            mJitter = null;
+        }
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mNumChannels = numChannels;
+        if (mEchoReference != null) {
+            mEchoReference.start(sampleRate);
+        }
+        if (mJitter != null && mDriftCompensation && (sampleBits == 16 || sampleBits == 32)) {
+            int inFrames = frameSize / bytesPerFrame;
+            mDrift = new ClockDriftEstimator(sampleRate).setInterval(DRIFT_INTERVAL);
+            mResampler = new FractionalResampler(numChannels);
+            int outFrames = mResampler.maxOutput(inFrames);
+            mResampleIn = new float[inFrames * numChannels];
+            mResampleOut = new float[outFrames * numChannels];
+            mScratch = new short[256];
+            mResampled = ByteBuffer.allocateDirect(outFrames * bytesPerFrame).order(ByteOrder.nativeOrder());
+            mResampledShorts = mResampled.asShortBuffer();
+            mResampledFloats = mResampled.asFloatBuffer();
+            mSource = null;
+        } else {
+            mDrift = null;
+            mResampler = null;
+        }
+        mFramesReceived = 0;
+        mTimestampTime = 0;
+        mFramesWritten = 0;
+        mPlaying = false;
+        mTuner = null;
+        boolean lowLatency = (mTuningStore != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O); // API-26
         try {
             AudioTrack.Builder builder = new AudioTrack.Builder()
                     .setAudioAttributes(new AudioAttributes.Builder()
@@ -71,12 +207,20 @@ public class AudioSinkPlayer implements AudioSink {
                             .build())
                     .setBufferSizeInBytes(bufferSize)
                     .setTransferMode(AudioTrack.MODE_STREAM);
+            if (lowLatency) { // Buffer size is the capacity, the tuner shrinks the used part
+                builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+            }
             int sessionId = (mProvider != null) ? mProvider.get() : 0; // AudioManager.AUDIO_SESSION_ID_GENERATE
             if (sessionId > 0) {
                 sLogger.debug("Player audioSessionId={}", sessionId);
                 builder.setSessionId(sessionId);
             }
             mTrack = builder.build();
+            if (lowLatency) {
+                String key = "track_" + sampleRate + "_" + numChannels + "_" + sampleBits + (mVoice ? "_voice" : "_media");
+                mTuner = new AudioTrackTuner(new TunerTrack(mTrack), mTuningStore, key);
+                mTuner.start();
+            }
 
             sLogger.trace("audioSessionId={} bufferSizeInFrames={}",
                     mTrack.getAudioSessionId(),
@@ -104,9 +248,39 @@ public class AudioSinkPlayer implements AudioSink {
             return;
         }
         try {
-            buffer.position(offset);
-            mTrack.play();
-            mTrack.write(buffer, size, AudioTrack.WRITE_BLOCKING);
+            if (mJitter != null) {
+                if (mResampler != null) {
+                    size = resample(buffer, offset, size, timestamp);
+                    buffer = mResampled;
+                    offset = 0;
+                }
+                if (mJitter.push(buffer, offset, size, mOutput) && !mPlaying) {
+                    mTrack.play();
+                    mPlaying = true;
+                }
+            } else {
+                if (!mPlaying) {
+                    mTrack.play();
+                    mPlaying = true;
+                }
+                buffer.position(offset);
+                int written = mTrack.write(buffer, size, AudioTrack.WRITE_BLOCKING);
+                if (written > 0) {
+                    mFramesWritten += written / mBytesPerFrame;
+                }
+            }
+            if (mEchoReference != null) { // Queued ahead of this data in the track and the jitter buffer
+                int frames = size / mBytesPerFrame;
+                int pending = mFramesWritten - mTrack.getPlaybackHeadPosition() + ((mJitter != null) ? mJitter.getFillFrames() : 0);
+                long presented = LatencyTracer.now() + Math.max(0, pending - frames) * 1000000L / mSampleRate;
+                mEchoReference.write(buffer, offset, size, mSampleBits, mNumChannels, presented);
+            }
+            if (mWriteLatency != null) {
+                mWriteLatency.record(LatencyTracer.now() - timestamp);
+            }
+            if (mTuner != null) {
+                mTuner.update(timestamp);
+            }
         } catch (Exception ex) {
             sLogger.warn("Failed to play data - {}", ex.getMessage());
         }
@@ -115,6 +289,20 @@ public class AudioSinkPlayer implements AudioSink {
     @Override // AudioSink
     public void onStop() {
         sLogger.trace("");
+        if (mTuner != null) {
+            sLogger.debug("Tuned buffer:{} frames grow:{}", mTuner.getBufferSize(), mTuner.getGrowCount());
+        }
+        if (mJitter != null) {
+            sLogger.debug("Jitter latency:{}ms underruns:{} overruns:{} dropped:{} inserted:{}", getLatencyMillis(),
+                    getUnderrunCount(), getOverrunCount(), mJitter.getDroppedFrames(), mJitter.getInsertedFrames());
+        }
+        if (mDrift != null) {
+            sLogger.debug("Drift:{}ppm locked:{} outliers:{} restarts:{}", String.format("%.1f", mDrift.getDriftPpm()),
+                    mDrift.isLocked(), mDrift.getOutlierCount(), mDrift.getRestartCount());
+        }
+        if (mEchoReference != null) {
+            mEchoReference.stop();
+        }
         try {
             if (mTrack != null) {
                 mTrack.stop();
@@ -123,9 +311,126 @@ public class AudioSinkPlayer implements AudioSink {
         } catch (Exception ex) {
             sLogger.warn("Failed to stop player - {}", ex.getMessage());
         }
+        mSource = null;
+        mSourceShorts = null;
+        mSourceFloats = null;
     }
 
     public int getSessionId() {
         return (mTrack != null) ? mTrack.getAudioSessionId() : 0;
     }
+
+    /** Frames of the track buffer in use, the learned size in low latency mode */
+    public int getBufferSizeInFrames() {
+        AudioTrack track = mTrack;
+        return (track != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) ? track.getBufferSizeInFrames() : 0;
+    }
+
+    /** Capture to output delay held by the jitter buffer, 0 with blocking writes */
+    public float getLatencyMillis() {
+        JitterBuffer jitter = mJitter;
+        return (jitter != null) ? jitter.getLatencyMillis() : 0;
+    }
+
+    /** Measured playback clock rate against the capture clock, 0 before locked or without drift compensation */
+    public double getDriftPpm() {
+        ClockDriftEstimator drift = mDrift;
+        return (drift != null && drift.isLocked()) ? drift.getDriftPpm() : 0;
+    }
+
+    /** Output underruns, counted by the track since API-24 */
+    public int getUnderrunCount() {
+        AudioTrack track = mTrack;
+        if (track != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) { // API-24
+            return track.getUnderrunCount();
+        }
+        JitterBuffer jitter = mJitter;
+        return (jitter != null) ? (int) jitter.getUnderrunCount() : 0;
+    }
+
+    /** Jitter buffer overflows, each dropped the oldest queued audio */
+    public long getOverrunCount() {
+        JitterBuffer jitter = mJitter;
+        return (jitter != null) ? jitter.getOverrunCount() : 0;
+    }
+
+    /** Silent frames dropped to catch up with the target */
+    public long getDroppedFrames() {
+        JitterBuffer jitter = mJitter;
+        return (jitter != null) ? jitter.getDroppedFrames() : 0;
+    }
+
+    /** Silent frames repeated to slow down to the target */
+    public long getInsertedFrames() {
+        JitterBuffer jitter = mJitter;
+        return (jitter != null) ? jitter.getInsertedFrames() : 0;
+    }
+
+    // Feed both clocks and convert the frame at the ratio holding the target, returns bytes in mResampled
+    private int resample(ByteBuffer buffer, int offset, int size, long timestamp) {
+        int channels = mResampler.channels();
+        int frames = Math.min(size / mBytesPerFrame, mResampleIn.length / channels);
+        mDrift.addSource(mFramesReceived, timestamp);
+        mFramesReceived += frames;
+        if (mPlaying && timestamp - mTimestampTime >= DRIFT_INTERVAL) { // Capture and track both on CLOCK_MONOTONIC
+            mTimestampTime = timestamp;
+            if (mTrack.getTimestamp(mTimestamp)) {
+                mDrift.addSink(mTimestamp.framePosition, mTimestamp.nanoTime / 1000);
+            }
+        }
+        int error = mJitter.isPrimed() ? mJitter.getLatencyFrames() - mJitter.getTargetFrames() : 0;
+        mResampler.setRatio(mDrift.getRatio(error));
+
+        int samples = frames * channels;
+        if (buffer != mSource) { // Typed views over the whole buffer, frames only move their position
+            mSource = buffer;
+            ByteBuffer view = buffer.duplicate().order(ByteOrder.nativeOrder());
+            view.clear();
+            mSourceShorts = view.asShortBuffer();
+            mSourceFloats = view.asFloatBuffer();
+        }
+        if (mSampleBits == 16) {
+            mSourceShorts.clear();
+            mSourceShorts.limit(offset / 2 + samples).position(offset / 2);
+            PcmConvert.s16ToFloat(mSourceShorts, mResampleIn, 0, mScratch);
+        } else {
+            mSourceFloats.clear();
+            mSourceFloats.limit(offset / 4 + samples).position(offset / 4);
+            PcmConvert.f32ToFloat(mSourceFloats, mResampleIn, 0);
+        }
+        int produced = mResampler.process(mResampleIn, frames, mResampleOut);
+        if (mSampleBits == 16) {
+            mResampledShorts.clear();
+            PcmConvert.floatToS16(mResampleOut, 0, produced * channels, mResampledShorts, mScratch);
+        } else {
+            mResampledFloats.clear();
+            mResampledFloats.put(mResampleOut, 0, produced * channels);
+        }
+        return produced * mBytesPerFrame;
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private static class TunerTrack implements AudioTrackTuner.Track {
+        private final AudioTrack mTrack;
+        TunerTrack(AudioTrack track) {
+            mTrack = track;
+        }
+        @Override // AudioTrackTuner.Track
+        public int setBufferSizeInFrames(int frames) {
+            int result = mTrack.setBufferSizeInFrames(frames);
+            return (result > 0) ? result : mTrack.getBufferSizeInFrames();
+        }
+        @Override // AudioTrackTuner.Track
+        public int getBufferSizeInFrames() {
+            return mTrack.getBufferSizeInFrames();
+        }
+        @Override // AudioTrackTuner.Track
+        public int getBufferCapacityInFrames() {
+            return mTrack.getBufferCapacityInFrames();
+        }
+        @Override // AudioTrackTuner.Track
+        public int getUnderrunCount() {
+            return mTrack.getUnderrunCount();
+        }
+    }
 }
@@ -24,11 +24,11 @@ public class AudioSinkVisualizer extends AudioSink.Wrapper {
     private Visualizer mVisualizer;
     private AudioSessionProvider mProvider;
     private Callback mCallback;
+    private float[] mWave;          // Reused for every capture, only touched by the listener thread
+    private float[] mMagnitudes;
 
-    public interface Callback {
-        int WAV = 1;
-        int FFT = 2;
-        void onData(int fmt, float[] data);
+    // Data arrays are reused for every capture, copy them if need keep after return
+    public interface Callback extends AudioFxCallback {
     }
 
     public AudioSinkVisualizer(AudioSink sink) {
@@ -80,6 +80,13 @@ public class AudioSinkVisualizer extends AudioSink.Wrapper {
         //sLogger.trace("buffer:{} offset:{} size:{} timestamp:{}", buffer, offset, size, timestamp);
     }
 
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        if (mSink != null) { // Data not touched here, keep the frame ownership for downstream
+            mSink.onFrame(frame);
+        }
+    }
+
     @Override // AudioSink
     public void onStop() {
         super.onStop();
@@ -98,7 +105,10 @@ public class AudioSinkVisualizer extends AudioSink.Wrapper {
             //sLogger.trace("visualizer:{} waveform.length:{} samplingRate:{}", visualizer.hashCode(), waveform.length, samplingRate);
             //sLogger.trace("waveform:{} {}", waveform.length, waveform);
             int n = waveform.length;
-            float[] wave = new float[n];
+            if (mWave == null || mWave.length != n) {
+                mWave = new float[n];
+            }
+            float[] wave = mWave;
             for (int i = 0; i < n; i++) {
                 wave[i] = (float) (waveform[i] + 128) / 0xFF; // Normalize to [0,1]
             }
@@ -113,7 +123,10 @@ public class AudioSinkVisualizer extends AudioSink.Wrapper {
             //sLogger.trace("visualizer:{} fft.length:{} samplingRate:{}", visualizer.hashCode(), fft.length, samplingRate);
             //sLogger.trace("fft:{} {}", fft.length, fft);
             int n = fft.length;
-            float[] magnitudes = new float[n / 2 + 1];
+            if (mMagnitudes == null || mMagnitudes.length != n / 2 + 1) {
+                mMagnitudes = new float[n / 2 + 1];
+            }
+            float[] magnitudes = mMagnitudes;
             //float[] phases = new float[n / 2 + 1];
             magnitudes[0] = (float) Math.abs(fft[0]);      // DC
             magnitudes[n / 2] = (float) Math.abs(fft[1]);  // Nyquist
@@ -23,10 +23,16 @@ public class AudioSourceMic implements AudioSource {
 
     private static final Logger sLogger = LoggerFactory.getLogger(AudioSourceMic.class);
 
+    private static final int FRAME_POOL_SIZE = 32; // 320ms with 10ms frames held by async consumers
+
     private final int mSource;
     private final List<AudioEffect> mEffectList = new ArrayList<>();
     private AudioSink mOutput;
+    private AudioSink mChain;       // Output behind the software fallbacks of missing platform effects
+    private EchoReference mEchoReference;
+    private boolean mSoftwareEffects = true;
     private AudioRecord mRecorder;
+    private FramePool mPool;
     private Thread mThread;
 
     public AudioSourceMic(int source) {
@@ -50,6 +56,20 @@ public class AudioSourceMic implements AudioSource {
         return this;
     }
 
+    /** Cancel the echo of the reference in software when the platform AcousticEchoCanceler is missing, null to disable */
+    public AudioSourceMic setEchoReference(EchoReference reference) {
+        sLogger.trace("reference={}", reference);
+        mEchoReference = reference;
+        return this;
+    }
+
+    /** Suppress noise and control the gain in software when the platform NoiseSuppressor or AutomaticGainControl is missing */
+    public AudioSourceMic setSoftwareEffects(boolean enable) {
+        sLogger.trace("enable={}", enable);
+        mSoftwareEffects = enable;
+        return this;
+    }
+
     @RequiresPermission(Manifest.permission.RECORD_AUDIO)
     @Override // AudioSource
     public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) throws IllegalArgumentException, UnsupportedOperationException {
@@ -86,14 +106,17 @@ public class AudioSourceMic implements AudioSource {
             sLogger.warn("Failed to build AudioRecord - {}", ex.getMessage());
         }
 
+        boolean aecEnabled = false;
         if (AcousticEchoCanceler.isAvailable()) {
             AcousticEchoCanceler aec = AcousticEchoCanceler.create(mRecorder.getAudioSessionId());
             if (aec != null) {
                 if (!aec.getEnabled()) {
                     int result = aec.setEnabled(true);
                     sLogger.info("Recorder AEC enable {}", (result == AudioEffect.SUCCESS) ? "success" : ("failed (" + result + ")"));
+                    aecEnabled = (result == AudioEffect.SUCCESS);
                 } else {
                     sLogger.info("Recorder AEC enable by default");
+                    aecEnabled = true;
                 }
                 mEffectList.add(aec);
             }
@@ -101,14 +124,17 @@ public class AudioSourceMic implements AudioSource {
             sLogger.warn("Recorder AEC not available");
         }
 
+        boolean agcEnabled = false;
         if (AutomaticGainControl.isAvailable()) {
             AutomaticGainControl agc = AutomaticGainControl.create(mRecorder.getAudioSessionId());
             if (agc != null) {
                 if (!agc.getEnabled()) {
                     int result = agc.setEnabled(true);
                     sLogger.info("Recorder AGC enable {}", (result == AudioEffect.SUCCESS) ? "success" : ("failed (" + result + ")"));
+                    agcEnabled = (result == AudioEffect.SUCCESS);
                 } else {
                     sLogger.info("Recorder AGC enable by default");
+                    agcEnabled = true;
                 }
                 mEffectList.add(agc);
             }
@@ -116,14 +142,17 @@ public class AudioSourceMic implements AudioSource {
             sLogger.warn("Recorder AGC not available");
         }
 
+        boolean ansEnabled = false;
         if (NoiseSuppressor.isAvailable()) {
             NoiseSuppressor ans = NoiseSuppressor.create(mRecorder.getAudioSessionId());
             if (ans != null) {
                 if (!ans.getEnabled()) {
                     int result = ans.setEnabled(true);
                     sLogger.info("Recorder ANS enable {}", (result == AudioEffect.SUCCESS) ? "success" : ("failed (" + result + ")"));
+                    ansEnabled = (result == AudioEffect.SUCCESS);
                 } else {
                     sLogger.info("Recorder ANS enable by default");
+                    ansEnabled = true;
                 }
                 mEffectList.add(ans);
             }
@@ -131,6 +160,23 @@ public class AudioSourceMic implements AudioSource {
             sLogger.warn("Recorder ANS not available");
         }
 
+        // Software fallbacks run in the order of the platform effects, echo first, then noise and gain
+        mChain = mOutput;
+        if (mChain != null) {
+            if (!agcEnabled && mSoftwareEffects) {
+                sLogger.info("Recorder AGC in software");
+                mChain = new AudioSinkAutoGain(mChain);
+            }
+            if (!ansEnabled && mSoftwareEffects) {
+                sLogger.info("Recorder ANS in software");
+                mChain = new AudioSinkNoiseSuppressor(mChain);
+            }
+            if (!aecEnabled && mEchoReference != null) {
+                sLogger.info("Recorder AEC in software");
+                mChain = new AudioSinkEchoCanceller(mChain, mEchoReference);
+            }
+        }
+
         try {
             mRecorder.startRecording();
         } catch (IllegalStateException ex) {
@@ -140,11 +186,13 @@ public class AudioSourceMic implements AudioSource {
 
         int frameSize = samplePerFrame * numChannels * sampleBits / Byte.SIZE; // Buffer size in bytes
         sLogger.debug("minBuffSize:{} frameSize:{}", minBuffSize, frameSize);
-        if (mOutput != null) {
-            mOutput.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        if (mChain != null) {
+            mChain.onStart(sampleRate, sampleBits, frameSize, numChannels);
         }
 
-        mThread = new AudioRecThread(frameSize);
+        mPool = new FramePool(frameSize, FRAME_POOL_SIZE)
+                .setLeakDetection(BuildConfig.DEBUG);
+        mThread = new AudioRecThread(frameSize, sampleRate, sampleBits, numChannels);
         mThread.start();
         return (mRecorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING);
     }
@@ -167,8 +215,18 @@ public class AudioSourceMic implements AudioSource {
             }
             mThread = null;
         }
-        if (mOutput != null) {
-            mOutput.onStop();
+        if (mChain != null) {
+            mChain.onStop();
+            mChain = null;
+        }
+        if (mPool != null) {
+            if (BuildConfig.DEBUG && mPool.checkLeaks() > 0) {
+                sLogger.warn("Frames leaked by sinks");
+            }
+            if (mPool.getExhaustedCount() > 0) {
+                sLogger.warn("Frame pool exhausted {} times", mPool.getExhaustedCount());
+            }
+            mPool = null;
         }
 
         for (AudioEffect effect : mEffectList) {
@@ -187,35 +245,59 @@ public class AudioSourceMic implements AudioSource {
 
     private class AudioRecThread extends Thread {
         private final int mFrameSize;
-        public AudioRecThread(int frameSize) {
+        private final int mSampleRate;
+        private final int mBytesPerFrame;
+        private final int mSampleBits;
+        private final int mNumChannels;
+        public AudioRecThread(int frameSize, int sampleRate, int sampleBits, int numChannels) {
             super("AudioRec");
             mFrameSize = frameSize;
+            mSampleRate = sampleRate;
+            mSampleBits = sampleBits;
+            mNumChannels = numChannels;
+            mBytesPerFrame = numChannels * sampleBits / Byte.SIZE;
         }
         @Override
         public void run() {
             sLogger.debug("+");
-            ByteBuffer buffer = ByteBuffer.allocateDirect(mFrameSize);
+            ByteBuffer fallback = ByteBuffer.allocateDirect(mFrameSize); // Used only when the pool is exhausted
+            AudioTimestamp ts = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) ? new AudioTimestamp() : null;
+            long position = 0; // Frames read so far, position of the first frame in buffer
             try {
                 while (!isInterrupted()) {
-                    int size = mRecorder.read(buffer, mFrameSize);
-                    if (size < 0) { // Failed
-                        sLogger.warn("Failed to read from recorder - {}", size);
-                        break;
-                    } else if (size > 0) { // Success with valid data
-                        long timestamp;
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                            AudioTimestamp ts = new AudioTimestamp();
-                            mRecorder.getTimestamp(ts, AudioTimestamp.TIMEBASE_MONOTONIC);
-                            timestamp = Math.round(ts.nanoTime / 1000.0);
-                        } else {
-                            timestamp = Math.round(System.nanoTime() / 1000.0);
+                    AudioFrame frame = mPool.acquire();
+                    ByteBuffer buffer = (frame != null) ? frame.buffer() : fallback;
+                    try {
+                        int size = mRecorder.read(buffer, mFrameSize);
+                        if (size < 0) { // Failed
+                            sLogger.warn("Failed to read from recorder - {}", size);
+                            break;
+                        } else if (size > 0) { // Success with valid data
+                            // Capture time of the first frame in buffer, the timestamp pairs an earlier position with its time
+                            long frames = size / mBytesPerFrame;
+                            long timestamp;
+                            if (ts != null && mRecorder.getTimestamp(ts, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+                                timestamp = (ts.nanoTime + (position - ts.framePosition) * 1000000000L / mSampleRate) / 1000;
+                            } else { // Read returns once the last frame is captured
+                                timestamp = (System.nanoTime() - frames * 1000000000L / mSampleRate) / 1000;
+                            }
+                            position += frames;
+                            //sLogger.trace("size:{} buffer:{} timestamp:{}", size, buffer, timestamp);
+                            AudioSink output = mChain;
+                            if (output != null) {
+                                if (frame != null) {
+                                    output.onFrame(frame.setFormat(mSampleBits, mNumChannels).set(size, timestamp));
+                                } else {
+                                    output.onData(buffer, 0, size, timestamp);
+                                }
+                            }
                         }
-                        //sLogger.trace("size:{} buffer:{} timestamp:{}", size, buffer, timestamp);
-                        if (mOutput != null) {
-                            mOutput.onData(buffer, 0, size, timestamp);
+                        // size == 0, succeed but no data, continue read
+                    } finally {
+                        if (frame != null) {
+                            frame.release();
                         }
                     }
-                    // size == 0, succeed but no data, continue read
                 }
             } catch (Exception ex) {
                 sLogger.warn("Failed to record audio - {}", ex.getMessage());
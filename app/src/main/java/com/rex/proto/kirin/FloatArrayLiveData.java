@@ -0,0 +1,42 @@
+package com.rex.proto.kirin;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * LiveData of float arrays recycled through a FloatTripleBuffer
+ * post() from any thread copies into a recycled array, main thread only dispatches the latest one.
+ * The value array is reused after the next dispatch, observers must copy if keep it.
+ */
+public class FloatArrayLiveData extends LiveData<float[]> {
+
+    private final FloatTripleBuffer mBuffer = new FloatTripleBuffer();
+    private final AtomicBoolean mPending = new AtomicBoolean();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            mPending.set(false);
+            if (mBuffer.update()) {
+                setValue(mBuffer.front());
+            }
+        }
+    };
+
+    /** Only one producer thread at the same time */
+    public void post(@NonNull float[] data) {
+        mBuffer.publish(data, data.length);
+        if (mPending.compareAndSet(false, true)) {
+            mHandler.post(mDispatch);
+        }
+    }
+
+    public long getCoalescedCount() {
+        return mBuffer.getCoalescedCount();
+    }
+}
@@ -10,6 +10,7 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.preference.PreferenceManager;
 
 import com.rex.proto.kirin.databinding.FragmentMainBinding;
 
@@ -101,6 +102,15 @@ public class MainFragment extends Fragment {
         mState = mViewModel.getState().getValue();
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        sLogger.trace("");
+        boolean waterfall = PreferenceManager.getDefaultSharedPreferences(requireContext())
+                .getBoolean("PREFS_WATERFALL", false);
+        mFxRender.setWaterfall(waterfall);
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
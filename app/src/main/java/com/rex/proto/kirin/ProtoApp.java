@@ -5,6 +5,8 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.StrictMode;
 
+import androidx.annotation.NonNull;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,4 +47,19 @@ public class ProtoApp extends Application {
     public SharedPreferences getSharedPreferences() {
         return getSharedPreferences("ProtoCompat", Context.MODE_PRIVATE);
     }
+
+    /** Learned playback buffer sizes of this device */
+    public AudioTrackTuner.Store getTuningStore() {
+        final SharedPreferences prefs = getSharedPreferences();
+        return new AudioTrackTuner.Store() {
+            @Override // AudioTrackTuner.Store
+            public int load(@NonNull String key, int defaultValue) {
+                return prefs.getInt(key, defaultValue);
+            }
+            @Override // AudioTrackTuner.Store
+            public void save(@NonNull String key, int value) {
+                prefs.edit().putInt(key, value).apply();
+            }
+        };
+    }
 }
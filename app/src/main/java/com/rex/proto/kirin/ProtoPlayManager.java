@@ -5,6 +5,10 @@ import android.media.MediaRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 //
 public class ProtoPlayManager {
 
@@ -13,10 +17,26 @@ public class ProtoPlayManager {
     private AudioSource.Factory mSourceFactory = () -> new AudioSourceMic(MediaRecorder.AudioSource.VOICE_COMMUNICATION);
     private AudioSink.Factory mSinkFactory = () -> new AudioSinkPlayer(true);
 
+    private final Map<AudioSource.Factory, Float> mMixSources = new LinkedHashMap<>();
     private AudioSource mSource;
     private AudioSink mSink;
+    private int mSampleRate = 48000;
+    private int mSampleBits = 16;
+    private int mNumChannels = 2;
     private Callback mCallback;
+    private boolean mPcmAnalyzer;
+    private boolean mVoiceGate;
+    private File mRecordFile;
+    private boolean mLatencyTrace;
+    private int mPlaybackDelay;
+    private boolean mDriftCompensation;
+    private boolean mEchoCanceller = true;
+    private boolean mSoftwareEffects = true;
+    private AudioTrackTuner.Store mTuningStore;
+    private volatile LatencyTracer mTracer;
+    private volatile AudioPipeline mPipeline;
 
+    // Data arrays are recycled by the producer, copy them if need keep after return
     public interface Callback {
         void onWavData(float[] data);
         void onFftData(float[] data);
@@ -31,48 +51,198 @@ public class ProtoPlayManager {
         mSourceFactory = factory;
     }
 
+    /** Mix another source with the main one, e.g. file replay or synthesized prompts, aligned by timestamps */
+    public void addMixSource(AudioSource.Factory factory, float gain) {
+        sLogger.trace("factory:{} gain:{}", factory, gain);
+        mMixSources.put(factory, gain);
+    }
+
+    public void clearMixSources() {
+        sLogger.trace("");
+        mMixSources.clear();
+    }
+
     public void setSink(AudioSink.Factory factory) {
         sLogger.trace("factory:{}", factory);
         mSinkFactory = factory;
     }
 
+    /** Capture format, checked against every stage when the pipeline is built, 10ms frames */
+    public void setFormat(int sampleRate, int sampleBits, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} numChannels:{}", sampleRate, sampleBits, numChannels);
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mNumChannels = numChannels;
+    }
+
     public void setCallback(Callback cb) {
         sLogger.trace("cb:{}", cb);
         mCallback = cb;
     }
 
+    /** Analyze the captured PCM with AudioSinkAnalyzer instead of the platform Visualizer */
+    public void setPcmAnalyzer(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mPcmAnalyzer = enable;
+    }
+
+    /** Skip the downstream sinks while the capture is silent */
+    public void setVoiceGate(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mVoiceGate = enable;
+    }
+
+    /** Record the capture losslessly into a FLAC file next to the playback, null to disable */
+    public void setRecordFile(File file) {
+        sLogger.trace("file:{}", file);
+        mRecordFile = file;
+    }
+
+    /** Hold the playback delay at the target with a jitter buffer and non-blocking writes, in ms, 0 to disable */
+    public void setPlaybackDelay(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mPlaybackDelay = ms;
+    }
+
+    /** Resample the playback by the measured capture to playback clock drift, needs a playback delay */
+    public void setDriftCompensation(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mDriftCompensation = enable;
+    }
+
+    /** Cancel the playback echo in software when the platform AcousticEchoCanceler is missing or fails, on by default */
+    public void setEchoCanceller(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mEchoCanceller = enable;
+    }
+
+    /** Suppress noise and control the gain in software when the platform effects are missing, on by default */
+    public void setSoftwareEffects(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mSoftwareEffects = enable;
+    }
+
+    /** Low latency playback learning the smallest buffer, sizes kept in the store e.g. ProtoApp.getTuningStore(), null to disable */
+    public void setLowLatency(AudioTrackTuner.Store store) {
+        sLogger.trace("store:{}", store);
+        mTuningStore = store;
+    }
+
+    /** Trace capture to stage latency of every sink in the chain, see getLatencyTracer() */
+    public void setLatencyTrace(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mLatencyTrace = enable;
+    }
+
+    /** Tracer of the running chain, null when stopped or tracing disabled */
+    public LatencyTracer getLatencyTracer() {
+        return mTracer;
+    }
+
+    /** Stages of the running pipeline with their threads and load, null when stopped */
+    public AudioPipeline getPipeline() {
+        return mPipeline;
+    }
+
     public boolean start() {
         sLogger.trace("");
         mSource = (mSourceFactory != null) ? mSourceFactory.create() : null;
+        EchoReference reference = mEchoCanceller ? new EchoReference() : null;
+        if (mSource instanceof AudioSourceMic) {
+            ((AudioSourceMic) mSource).setEchoReference(reference)
+                    .setSoftwareEffects(mSoftwareEffects);
+        }
+        if (mSource != null && !mMixSources.isEmpty()) {
+            AudioMixer mixer = new AudioMixer().addInput(mSource, 1f);
+            for (Map.Entry<AudioSource.Factory, Float> entry : mMixSources.entrySet()) {
+                mixer.addInput(entry.getKey().create(), entry.getValue());
+            }
+            mSource = mixer;
+        }
         mSink = (mSinkFactory != null) ? mSinkFactory.create() : null;
+        if (mSource == null) {
+            return true;
+        }
+
+        LatencyTracer tracer = mLatencyTrace ? new LatencyTracer() : null;
+        AudioPipeline.Builder builder = new AudioPipeline.Builder()
+                .setTracer(tracer)
+                .source("read", mSource, new AudioPipeline.Format(mSampleRate, mSampleBits, mNumChannels), mSampleRate / 100);
+        String input = "read";
+        if (mVoiceGate) {
+            builder.stage("gate", AudioSinkVoiceGate::new).requireBits(8, 16, 32)
+                    .edge(input, "gate");
+            input = "gate";
+        }
+        if (mRecordFile != null) {
+            builder.sink("flac", new AudioSinkFlac(mRecordFile), AudioPipeline.Mode.BLOCKING).requireBits(8, 16, 32).requireChannels(1, 8)
+                    .edge(input, "flac");
+        }
         if (mSink instanceof AudioSinkPlayer) {
             AudioSinkPlayer sinkPlayer = (AudioSinkPlayer) mSink;
-            AudioSinkVisualizer visualizer = new AudioSinkVisualizer(mSink)
-                    .setSessionProvider(() -> sinkPlayer.getSessionId())
-                    .setCallback((fmt, data) -> {
-                        //sLogger.trace("fmt={} data.length={}", fmt, data.length);
-                        if (mCallback != null) {
-                            switch (fmt) {
-                            case AudioSinkVisualizer.Callback.WAV: mCallback.onWavData(data); break;
-                            case AudioSinkVisualizer.Callback.FFT: mCallback.onFftData(data); break;
-                            }
-                        }
-                    });
-            mSink = visualizer;
+            sinkPlayer.setTargetDelay(mPlaybackDelay)
+                    .setDriftCompensation(mDriftCompensation)
+                    .setEchoReference(reference)
+                    .setLowLatency(mTuningStore);
+            AudioFxCallback callback = (fmt, data) -> {
+                //sLogger.trace("fmt={} data.length={}", fmt, data.length);
+                if (mCallback != null) {
+                    switch (fmt) {
+                    case AudioFxCallback.WAV: mCallback.onWavData(data); break;
+                    case AudioFxCallback.FFT: mCallback.onFftData(data); break;
+                    }
+                }
+            };
+            // Blocking AudioTrack write on its own thread, the jitter buffer writes without blocking
+            AudioPipeline.Mode mode = (mPlaybackDelay > 0) ? AudioPipeline.Mode.INLINE : AudioPipeline.Mode.BLOCKING;
+            builder.sink("player", sinkPlayer, mode).requireBits(8, 16, 32).requireChannels(1, 2);
+            if (mPcmAnalyzer) { // Playback and analysis consume the capture in parallel
+                builder.sink("analyzer", new AudioSinkAnalyzer(null).setCallback(callback), AudioPipeline.Mode.HEAVY).requireBits(8, 16, 32)
+                        .edge(input, "player")
+                        .edge(input, "analyzer");
+            } else {
+                builder.stage("visualizer", next -> new AudioSinkVisualizer(next)
+                                .setSessionProvider(() -> sinkPlayer.getSessionId())
+                                .setCallback(callback::onData))
+                        .chain(input, "visualizer", "player");
+            }
+        } else if (mSink != null) {
+            builder.sink("sink", mSink, AudioPipeline.Mode.INLINE)
+                    .edge(input, "sink");
+        }
+        try {
+            mPipeline = builder.build();
+        } catch (IllegalStateException ex) {
+            sLogger.warn("Failed to build pipeline - {}", ex.getMessage());
+            mSource = null; // Mixer inputs and sinks were never started, drop them with the source
+            mSink = null;
+            return false;
         }
-        if (mSource != null) {
-            mSource.setOutput(mSink);
-            mSource.start(48000, 16, 480, 2);
+        if (tracer != null && mSink instanceof AudioSinkPlayer) {
+            ((AudioSinkPlayer) mSink).setWriteLatency(tracer.stage("write"));
+        }
+        mTracer = tracer;
+        if (!mPipeline.start()) { // Release what the source did open
+            sLogger.warn("Failed to start pipeline");
+            stop();
+            return false;
         }
         return true;
     }
 
     public boolean stop() {
         sLogger.trace("");
-        if (mSource != null) {
-            mSource.stop();
+        if (mPipeline != null) {
+            mPipeline.stop();
+            mPipeline = null;
         }
         mSink = null;
+        if (mTracer != null) {
+            for (LatencyHistogram.Snapshot snapshot : mTracer.snapshot()) {
+                sLogger.info("Latency {}", snapshot);
+            }
+            mTracer = null;
+        }
         return true;
     }
 }
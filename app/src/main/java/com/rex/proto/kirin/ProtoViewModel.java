@@ -1,27 +1,36 @@
 package com.rex.proto.kirin;
 
 import android.app.Application;
+import android.content.SharedPreferences;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.preference.PreferenceManager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 // Hold LiveData, focus on serving UI
 public class ProtoViewModel extends AndroidViewModel {
 
     private static final Logger sLogger = LoggerFactory.getLogger(ProtoViewModel.class);
 
+    private static final long LATENCY_INTERVAL = 1000; // ms
+
     private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
     private final MutableLiveData<State> mState = new MutableLiveData<>();
-    private final MutableLiveData<float[]> mWavData = new MutableLiveData<>();
-    private final MutableLiveData<float[]> mFftData = new MutableLiveData<>();
+    private final FloatArrayLiveData mWavData = new FloatArrayLiveData();
+    private final FloatArrayLiveData mFftData = new FloatArrayLiveData();
+    private final MutableLiveData<List<LatencyHistogram.Snapshot>> mLatency = new MutableLiveData<>();
     private final ProtoPlayManager mManager;
+    private ScheduledFuture<?> mLatencyPoll;
 
     public enum State { STARTING, START, STOPPING, STOP }
 
@@ -34,14 +43,15 @@ public class ProtoViewModel extends AndroidViewModel {
             @Override
             public void onWavData(float[] data) {
                 //sLogger.trace("data.length={}", data.length);
-                mWavData.postValue(data);
+                mWavData.post(data);
             }
             @Override
             public void onFftData(float[] data) {
                 //sLogger.trace("data.length={}", data.length);
-                mFftData.postValue(data);
+                mFftData.post(data);
             }
         });
+        mManager.setLatencyTrace(BuildConfig.DEBUG); // Diagnostic, costs a clock read per stage and frame
         mState.setValue(State.STOP);
     }
 
@@ -56,8 +66,16 @@ public class ProtoViewModel extends AndroidViewModel {
             public void run() {
                 sLogger.trace("onHandleStart+");
                 mState.postValue(State.STARTING);
-                mManager.start();
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(getApplication());
+                boolean lowLatency = prefs.getBoolean("PREFS_LOW_LATENCY", true);
+                mManager.setLowLatency(lowLatency ? ((ProtoApp) getApplication()).getTuningStore() : null);
+                if (!mManager.start()) {
+                    mState.postValue(State.STOP);
+                    sLogger.trace("onHandleStart- failed");
+                    return;
+                }
                 mState.postValue(State.START);
+                mLatencyPoll = mExecutor.scheduleWithFixedDelay(() -> postLatency(), LATENCY_INTERVAL, LATENCY_INTERVAL, TimeUnit.MILLISECONDS);
                 sLogger.trace("onHandleStart-");
             }
         });
@@ -74,6 +92,11 @@ public class ProtoViewModel extends AndroidViewModel {
             public void run() {
                 sLogger.trace("onHandleStop+");
                 mState.postValue(State.STOPPING);
+                if (mLatencyPoll != null) {
+                    mLatencyPoll.cancel(false);
+                    mLatencyPoll = null;
+                }
+                postLatency(); // Final numbers of the session
                 mManager.stop();
                 mState.postValue(State.STOP);
                 sLogger.trace("onHandleStop-");
@@ -81,6 +104,13 @@ public class ProtoViewModel extends AndroidViewModel {
         });
     }
 
+    private void postLatency() {
+        LatencyTracer tracer = mManager.getLatencyTracer();
+        if (tracer != null) {
+            mLatency.postValue(tracer.snapshot());
+        }
+    }
+
     private void submit(Runnable runnable) {
         mExecutor.execute(() -> {
             try {
@@ -102,4 +132,9 @@ public class ProtoViewModel extends AndroidViewModel {
     public LiveData<float[]> getFftData() {
         return mFftData;
     }
+
+    /** Capture to stage latency since start per stage in chain order, updated every second while started */
+    public LiveData<List<LatencyHistogram.Snapshot>> getLatency() {
+        return mLatency;
+    }
 }
@@ -0,0 +1,40 @@
+plugins {
+    id("java")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    implementation(project(":kirin-core"))
+
+    implementation("org.openjdk.jmh:jmh-core:1.37")
+    annotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+
+    runtimeOnly("org.slf4j:slf4j-nop:2.0.7")
+}
+
+// Run all benchmarks with the GC profiler, ./gradlew :kirin-bench:jmh
+// Select benchmarks with -Pjmh.include=<regex>, extra JMH options with -Pjmh.args="-f 2 -wi 5"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Run JMH benchmarks of sink chain and DSP stages"
+    dependsOn(tasks.named("classes"))
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    val include = providers.gradleProperty("jmh.include").orElse(".*")
+    val extra = providers.gradleProperty("jmh.args").orElse("")
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(include.get(), "-prof", "gc", "-rf", "json", "-rff", results.get().asFile.path) +
+                extra.get().split(" ").filter { it.isNotBlank() }
+    })
+    outputs.file(results)
+    outputs.upToDateWhen { false }
+    doFirst {
+        results.get().asFile.parentFile.mkdirs()
+    }
+}
@@ -0,0 +1,53 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.dsp.Decimator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Integer factor decimation of one mono 10ms frame from 48kHz, the path AudioSinkMelFeature uses to reach 16kHz
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecimatorBenchmark {
+
+    @Param({ "3" })
+    public int factor;
+
+    @Param({ "16" })
+    public int tapsPerFactor;
+
+    private Decimator mDecimator;
+    private float[] mIn;
+    private float[] mOut;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mDecimator = new Decimator(factor, tapsPerFactor);
+        mIn = Pcm.floats(Pcm.FRAME_SAMPLES, 1);
+        mOut = new float[Pcm.FRAME_SAMPLES / factor + 1];
+    }
+
+    @Benchmark
+    public int process(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return mDecimator.process(mIn, 0, Pcm.FRAME_SAMPLES, mOut, 0);
+    }
+}
@@ -0,0 +1,68 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.AudioSinkEchoCanceller;
+import com.rex.proto.kirin.EchoReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Software echo cancellation of one 10ms 48kHz frame with the far end active, per echo tail
+ * The reference is written 20ms ahead like the output does, so every block adapts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EchoCancellerBenchmark {
+
+    @Param({ "85", "170" })
+    public int tail;
+
+    @Param({ "1", "2" })
+    public int channels;
+
+    private EchoReference mReference;
+    private AudioSinkEchoCanceller mAec;
+    private float[] mFar;
+    private ByteBuffer mNear;
+    private long mTime;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mReference = new EchoReference();
+        mReference.start(Pcm.SAMPLE_RATE);
+        mAec = new AudioSinkEchoCanceller(null, mReference).setTail(tail);
+        mNear = Pcm.buffer(Pcm.FRAME_SAMPLES, channels, 16);
+        mAec.onStart(Pcm.SAMPLE_RATE, 16, mNear.capacity(), channels);
+        mFar = Pcm.floats(Pcm.FRAME_SAMPLES, 1);
+        for (int i = 0; i < mFar.length; i++) { // Louder than the near end, no double talk
+            mFar[i] *= 4;
+        }
+        mTime = 1000000;
+    }
+
+    @Benchmark
+    public long frame(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        mReference.write(mFar, Pcm.FRAME_SAMPLES, mTime + 2 * Pcm.FRAME_DURATION);
+        mAec.onData(mNear, 0, mNear.capacity(), mTime);
+        mTime += Pcm.FRAME_DURATION;
+        return mTime;
+    }
+}
@@ -0,0 +1,103 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.dsp.Fft;
+import com.rex.proto.kirin.dsp.MelFilterBank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spectrum cost per analysis frame
+ * visualizerHypot is the magnitude loop of AudioSinkVisualizer over the 8-bit platform FFT capture,
+ * visualizerSqrt the same loop without Math.hypot overflow guard, both on a capture of size bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FftBenchmark {
+
+    @Param({ "512", "1024", "2048" })
+    public int size;
+
+    private Fft mFft;
+    private MelFilterBank mMel;
+    private float[] mIn;
+    private float[] mMagnitudes;
+    private float[] mMelOut;
+    private byte[] mCapture;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mFft = new Fft(size);
+        mMel = new MelFilterBank(64, size, Pcm.SAMPLE_RATE, 125f, 7500f);
+        mIn = Pcm.floats(size, 1);
+        mMagnitudes = new float[size / 2 + 1];
+        mMelOut = new float[64];
+        mCapture = new byte[size];
+        for (int i = 0; i < size; i++) {
+            mCapture[i] = (byte) Math.round(mIn[i] * 127f);
+        }
+    }
+
+    @Benchmark
+    public float[] magnitude(Pcm.Counter counter) {
+        mFft.magnitude(mIn, mMagnitudes);
+        counter.samples += size;
+        return mMagnitudes;
+    }
+
+    @Benchmark
+    public float[] magnitudeMel(Pcm.Counter counter) {
+        mFft.magnitude(mIn, mMagnitudes);
+        mMel.apply(mMagnitudes, mMelOut, 0);
+        counter.samples += size;
+        return mMelOut;
+    }
+
+    @Benchmark
+    public float[] visualizerHypot(Pcm.Counter counter) {
+        byte[] fft = mCapture;
+        int n = fft.length;
+        float[] magnitudes = mMagnitudes;
+        magnitudes[0] = (float) Math.abs(fft[0]);
+        magnitudes[n / 2] = (float) Math.abs(fft[1]);
+        for (int k = 1; k < n / 2; k++) {
+            int i = k * 2;
+            magnitudes[k] = (float) Math.hypot(fft[i], fft[i + 1]);
+        }
+        counter.samples += n;
+        return magnitudes;
+    }
+
+    @Benchmark
+    public float[] visualizerSqrt(Pcm.Counter counter) {
+        byte[] fft = mCapture;
+        int n = fft.length;
+        float[] magnitudes = mMagnitudes;
+        magnitudes[0] = (float) Math.abs(fft[0]);
+        magnitudes[n / 2] = (float) Math.abs(fft[1]);
+        for (int k = 1; k < n / 2; k++) {
+            int i = k * 2;
+            int re = fft[i];
+            int im = fft[i + 1];
+            magnitudes[k] = (float) Math.sqrt(re * re + im * im);
+        }
+        counter.samples += n;
+        return magnitudes;
+    }
+}
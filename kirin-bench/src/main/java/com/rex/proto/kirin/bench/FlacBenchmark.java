@@ -0,0 +1,96 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.codec.FlacDecoder;
+import com.rex.proto.kirin.codec.FlacEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FLAC encode and decode of one block over 1s of synthetic audio, blocks cycled
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlacBenchmark {
+
+    @Param({ "1", "2" })
+    public int channels;
+
+    @Param({ "16" })
+    public int bitsPerSample;
+
+    @Param({ "4096" })
+    public int blockSize;
+
+    private FlacEncoder mEncoder;
+    private FlacDecoder mDecoder;
+    private int[][][] mBlocks;
+    private int[][] mDecoded;
+    private byte[] mOut;
+    private ByteBuffer mStream;
+    private int[] mFrameOffsets;
+    private int mBlock;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int count = Pcm.SAMPLE_RATE / blockSize;
+        int[][] samples = Pcm.ints(count * blockSize, channels, bitsPerSample);
+        mBlocks = new int[count][channels][blockSize];
+        for (int b = 0; b < count; b++) {
+            for (int c = 0; c < channels; c++) {
+                System.arraycopy(samples[c], b * blockSize, mBlocks[b][c], 0, blockSize);
+            }
+        }
+        mEncoder = new FlacEncoder(Pcm.SAMPLE_RATE, bitsPerSample, channels, blockSize);
+        mOut = new byte[mEncoder.getMaxFrameSize()];
+
+        // Encode the whole clip once as the decode input
+        FlacEncoder encoder = new FlacEncoder(Pcm.SAMPLE_RATE, bitsPerSample, channels, blockSize);
+        byte[] stream = new byte[FlacEncoder.HEADER_SIZE + count * encoder.getMaxFrameSize()];
+        int pos = encoder.writeHeader(stream, 0);
+        mFrameOffsets = new int[count + 1];
+        for (int b = 0; b < count; b++) {
+            mFrameOffsets[b] = pos;
+            pos += encoder.encode(mBlocks[b], blockSize, stream, pos);
+        }
+        mFrameOffsets[count] = pos;
+        mStream = ByteBuffer.allocateDirect(pos);
+        mStream.put(stream, 0, pos).clear();
+        mDecoder = new FlacDecoder();
+        mDecoder.readHeader(mStream, 0, pos);
+        mDecoded = new int[channels][blockSize];
+    }
+
+    @Benchmark
+    public int encode(Pcm.Counter counter) {
+        int[][] block = mBlocks[mBlock];
+        mBlock = (mBlock + 1) % mBlocks.length;
+        counter.samples += blockSize;
+        return mEncoder.encode(block, blockSize, mOut, 0);
+    }
+
+    @Benchmark
+    public int decode(Pcm.Counter counter) {
+        int b = mBlock;
+        mBlock = (mBlock + 1) % mBlocks.length;
+        counter.samples += blockSize;
+        return mDecoder.decode(mStream, mFrameOffsets[b], mFrameOffsets[b + 1], mDecoded);
+    }
+}
@@ -0,0 +1,76 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.AudioBuffers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PCM format conversion of one 10ms frame between native byte order buffers and floats
+ * heapBuffer runs the same loops on a heap buffer, as a stage sees when the source hands out byte arrays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({ "8", "16", "32" })
+    public int sampleBits;
+
+    @Param({ "2" })
+    public int channels;
+
+    @Param({ "false", "true" })
+    public boolean heapBuffer;
+
+    private ByteBuffer mBuffer;
+    private int mSize;
+    private float[] mSamples;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ByteBuffer direct = Pcm.buffer(Pcm.FRAME_SAMPLES, channels, sampleBits);
+        if (heapBuffer) {
+            mBuffer = ByteBuffer.allocate(direct.capacity()).order(direct.order());
+            mBuffer.put(direct).clear();
+        } else {
+            mBuffer = direct;
+        }
+        mSize = mBuffer.capacity();
+        mSamples = new float[Pcm.FRAME_SAMPLES * channels];
+    }
+
+    @Benchmark
+    public int readMono(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return AudioBuffers.readMono(mBuffer, 0, mSize, sampleBits, channels, mSamples);
+    }
+
+    @Benchmark
+    public int readSamples(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return AudioBuffers.readSamples(mBuffer, 0, mSize, sampleBits, mSamples);
+    }
+
+    @Benchmark
+    public int writeSamples(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return AudioBuffers.writeSamples(mSamples, mSamples.length, sampleBits, mBuffer, 0);
+    }
+}
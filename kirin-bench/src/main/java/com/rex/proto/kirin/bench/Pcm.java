@@ -0,0 +1,93 @@
+package com.rex.proto.kirin.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Synthetic PCM shared by all benchmarks, 48kHz with 10ms frames like the capture path
+ * Signal is a chirp over pink-ish noise so spectral stages and the FLAC predictor see realistic input.
+ */
+public final class Pcm {
+
+    public static final int SAMPLE_RATE = 48000;
+    public static final int FRAME_SAMPLES = 480; // 10ms per channel
+    public static final long FRAME_DURATION = 10000; // us
+
+    private Pcm() {
+    }
+
+    /** Interleaved floats in [-1, 1], length samples * channels */
+    public static float[] floats(int samples, int channels) {
+        float[] out = new float[samples * channels];
+        Random random = new Random(48000);
+        double phase = 0;
+        float noise = 0;
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            phase += 2 * Math.PI * (200 + 3800 * (t % 1.0)) / SAMPLE_RATE;
+            noise = 0.95f * noise + 0.05f * (float) random.nextGaussian();
+            float v = (float) (0.4 * Math.sin(phase)) + 0.1f * noise;
+            for (int c = 0; c < channels; c++) {
+                out[i * channels + c] = (c == 0) ? v : 0.8f * v + 0.02f * (float) random.nextGaussian();
+            }
+        }
+        return out;
+    }
+
+    /** Direct buffer in native byte order holding samples * channels samples of sampleBits 8, 16 or 32 float */
+    public static ByteBuffer buffer(int samples, int channels, int sampleBits) {
+        float[] in = floats(samples, channels);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(in.length * sampleBits / 8).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < in.length; i++) {
+            switch (sampleBits) {
+            case 8:
+                buffer.put(i, (byte) (Math.round(in[i] * 127f) + 128));
+                break;
+            case 16:
+                buffer.putShort(i * 2, (short) Math.round(in[i] * 32767f));
+                break;
+            case 32:
+                buffer.putFloat(i * 4, in[i]);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported sample bits " + sampleBits);
+            }
+        }
+        return buffer;
+    }
+
+    /** Integer samples per channel for the FLAC encoder */
+    public static int[][] ints(int samples, int channels, int bitsPerSample) {
+        float[] in = floats(samples, channels);
+        int scale = (1 << (bitsPerSample - 1)) - 1;
+        int[][] out = new int[channels][samples];
+        for (int i = 0; i < samples; i++) {
+            for (int c = 0; c < channels; c++) {
+                out[c][i] = Math.round(in[i * channels + c] * scale);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Samples per channel processed, reported next to the frame score so throughput also reads as samples/us
+     * Only meaningful in Throughput mode.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counter {
+        public long samples;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            samples = 0;
+        }
+    }
+}
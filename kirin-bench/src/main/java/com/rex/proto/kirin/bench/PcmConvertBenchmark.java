@@ -0,0 +1,164 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.AudioBuffers;
+import com.rex.proto.kirin.AudioFrame;
+import com.rex.proto.kirin.FramePool;
+import com.rex.proto.kirin.dsp.PcmConvert;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PcmConvert kernels on one 10ms stereo frame, against the per sample ByteBuffer loops of AudioBuffers
+ * threeStages* compare three stages that need mono floats, decoding on their own or sharing the frame decode.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PcmConvertBenchmark {
+
+    private static final int CHANNELS = 2;
+    private static final int SAMPLES = Pcm.FRAME_SAMPLES * CHANNELS;
+
+    private ByteBuffer mBuffer;
+    private ShortBuffer mShortView;
+    private short[] mShorts;
+    private byte[] mBytes;
+    private short[] mScratch;
+    private float[] mFloats;
+    private float[] mMono;
+    private float[][] mPlanes;
+    private FramePool mPool;
+    private AudioFrame mFrame;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mBuffer = Pcm.buffer(Pcm.FRAME_SAMPLES, CHANNELS, 16);
+        mShortView = PcmConvert.shortView(mBuffer, 0, mBuffer.capacity(), ByteOrder.nativeOrder());
+        mShorts = new short[SAMPLES];
+        mShortView.get(mShorts);
+        mBytes = new byte[SAMPLES];
+        mScratch = new short[256];
+        mFloats = Pcm.floats(Pcm.FRAME_SAMPLES, CHANNELS);
+        mMono = new float[Pcm.FRAME_SAMPLES];
+        mPlanes = new float[CHANNELS][Pcm.FRAME_SAMPLES];
+        PcmConvert.floatToU8(mFloats, 0, mBytes, 0, SAMPLES);
+        mPool = new FramePool(mBuffer.capacity(), 1);
+        mFrame = mPool.acquire();
+        mFrame.buffer().put(mBuffer.duplicate()).clear();
+        mFrame.setFormat(16, CHANNELS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mFrame.release();
+    }
+
+    @Benchmark
+    public float[] s16ToFloat(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.s16ToFloat(mShorts, 0, mFloats, 0, SAMPLES);
+        return mFloats;
+    }
+
+    @Benchmark
+    public int s16ToFloatView(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        mShortView.clear();
+        return PcmConvert.s16ToFloat(mShortView, mFloats, 0, mScratch);
+    }
+
+    @Benchmark
+    public int s16ToFloatPerSample(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return AudioBuffers.readSamples(mBuffer, 0, mBuffer.capacity(), 16, mFloats);
+    }
+
+    @Benchmark
+    public short[] floatToS16(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.floatToS16(mFloats, 0, mShorts, 0, SAMPLES);
+        return mShorts;
+    }
+
+    @Benchmark
+    public int floatToS16PerSample(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return AudioBuffers.writeSamples(mFloats, SAMPLES, 16, mBuffer, 0);
+    }
+
+    @Benchmark
+    public float[] u8ToFloat(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.u8ToFloat(mBytes, 0, mFloats, 0, SAMPLES);
+        return mFloats;
+    }
+
+    @Benchmark
+    public byte[] floatToU8(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.floatToU8(mFloats, 0, mBytes, 0, SAMPLES);
+        return mBytes;
+    }
+
+    @Benchmark
+    public float[][] deinterleave(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.deinterleave(mFloats, CHANNELS, Pcm.FRAME_SAMPLES, mPlanes);
+        return mPlanes;
+    }
+
+    @Benchmark
+    public float[] interleave(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.interleave(mPlanes, CHANNELS, Pcm.FRAME_SAMPLES, mFloats);
+        return mFloats;
+    }
+
+    @Benchmark
+    public float[] downmix(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        PcmConvert.downmix(mFloats, CHANNELS, Pcm.FRAME_SAMPLES, mMono);
+        return mMono;
+    }
+
+    @Benchmark
+    public float threeStagesReadMono(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        float sum = 0;
+        for (int stage = 0; stage < 3; stage++) {
+            AudioBuffers.readMono(mBuffer, 0, mBuffer.capacity(), 16, CHANNELS, mMono);
+            sum += mMono[stage];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float threeStagesFrameMono(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        mFrame.set(mBuffer.capacity(), 0); // New content, first stage decodes
+        float sum = 0;
+        for (int stage = 0; stage < 3; stage++) {
+            sum += mFrame.mono()[stage];
+        }
+        return sum;
+    }
+}
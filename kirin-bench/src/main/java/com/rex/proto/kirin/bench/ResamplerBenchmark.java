@@ -0,0 +1,56 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.dsp.PolyphaseResampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sample rate conversion of one 10ms frame from 48kHz, per quality tier and target rate
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResamplerBenchmark {
+
+    @Param({ "LOW", "MEDIUM", "HIGH" })
+    public PolyphaseResampler.Quality quality;
+
+    @Param({ "16000", "44100" })
+    public int outRate;
+
+    @Param({ "2" })
+    public int channels;
+
+    private PolyphaseResampler mResampler;
+    private float[] mIn;
+    private float[] mOut;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mResampler = new PolyphaseResampler(Pcm.SAMPLE_RATE, outRate, channels, quality);
+        mIn = Pcm.floats(Pcm.FRAME_SAMPLES, channels);
+        mOut = new float[mResampler.maxOutput(Pcm.FRAME_SAMPLES) * channels];
+    }
+
+    @Benchmark
+    public int polyphase(Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return mResampler.process(mIn, Pcm.FRAME_SAMPLES, mOut);
+    }
+}
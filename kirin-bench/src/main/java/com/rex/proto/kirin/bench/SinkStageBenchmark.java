@@ -0,0 +1,173 @@
+package com.rex.proto.kirin.bench;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.AudioPipeline;
+import com.rex.proto.kirin.AudioSink;
+import com.rex.proto.kirin.AudioSinkAnalyzer;
+import com.rex.proto.kirin.AudioSinkMelFeature;
+import com.rex.proto.kirin.AudioSinkResampler;
+import com.rex.proto.kirin.AudioSinkRing;
+import com.rex.proto.kirin.AudioSinkTee;
+import com.rex.proto.kirin.AudioSinkVoiceGate;
+import com.rex.proto.kirin.AudioSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AudioSink.onData per 10ms frame through each sink stage, fed the way AudioSourceMic does
+ * wrapperN is a chain of N pass-through Wrappers, the dispatch overhead every stage pays.
+ * pipeline4 is the same chain fused by AudioPipeline, the difference is its per stage timing. pipeline4threads gives
+ * every stage its own thread, only the handoff to the first ring is on the measured thread.
+ * Asynchronous stages tee and ring measure the producer side only, their worker threads drain into the terminal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SinkStageBenchmark {
+
+    private static final int FRAMES = 100; // 1s of audio cycled
+
+    @Param({ "wrapper1", "wrapper4", "wrapper16", "pipeline4", "pipeline4threads", "tee", "ring", "analyzer", "melFeature", "voiceGate", "resampler16k" })
+    public String stage;
+
+    @Param({ "2" })
+    public int channels;
+
+    @Param({ "16" })
+    public int sampleBits;
+
+    private final Terminal mTerminal = new Terminal();
+    private AudioSink mSink;
+    private ByteBuffer mBuffer;
+    private int mFrameSize;
+    private int mFrame;
+    private long mTimestamp;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mSink = create(stage, mTerminal);
+        mFrameSize = Pcm.FRAME_SAMPLES * channels * sampleBits / 8;
+        mBuffer = Pcm.buffer(Pcm.FRAME_SAMPLES * FRAMES, channels, sampleBits);
+        mSink.onStart(Pcm.SAMPLE_RATE, sampleBits, mFrameSize, channels);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mSink.onStop();
+    }
+
+    @Benchmark
+    public long onData(Pcm.Counter counter) {
+        mSink.onData(mBuffer, mFrame * mFrameSize, mFrameSize, mTimestamp);
+        mFrame = (mFrame + 1) % FRAMES;
+        mTimestamp += Pcm.FRAME_DURATION;
+        counter.samples += Pcm.FRAME_SAMPLES;
+        return mTerminal.mConsumed;
+    }
+
+    private static AudioSink create(String stage, AudioSink terminal) {
+        switch (stage) {
+        case "wrapper1":
+            return wrap(terminal, 1);
+        case "wrapper4":
+            return wrap(terminal, 4);
+        case "wrapper16":
+            return wrap(terminal, 16);
+        case "pipeline4":
+            return pipeline(terminal, 4, AudioPipeline.Mode.INLINE);
+        case "pipeline4threads":
+            return pipeline(terminal, 4, AudioPipeline.Mode.HEAVY);
+        case "tee":
+            return new AudioSinkTee()
+                    .addBranch(new Terminal())
+                    .addBranch(new Terminal());
+        case "ring":
+            return new AudioSinkRing(terminal);
+        case "analyzer":
+            return new AudioSinkAnalyzer(terminal);
+        case "melFeature":
+            return new AudioSinkMelFeature(terminal);
+        case "voiceGate":
+            return new AudioSinkVoiceGate(terminal);
+        case "resampler16k":
+            return new AudioSinkResampler(terminal, 16000);
+        }
+        throw new IllegalArgumentException("Unknown stage " + stage);
+    }
+
+    private static AudioSink wrap(AudioSink sink, int depth) {
+        for (int i = 0; i < depth; i++) {
+            sink = new AudioSink.Wrapper(sink);
+        }
+        return sink;
+    }
+
+    // Entry of a pipeline of pass-through stages, the source only hands it over
+    private static AudioSink pipeline(AudioSink sink, int depth, AudioPipeline.Mode mode) {
+        Entry source = new Entry();
+        AudioPipeline.Builder builder = new AudioPipeline.Builder()
+                .source("source", source, new AudioPipeline.Format(Pcm.SAMPLE_RATE, 16, 2), Pcm.FRAME_SAMPLES);
+        String input = "source";
+        for (int i = 0; i < depth; i++) {
+            builder.stage("stage" + i, AudioSink.Wrapper::new, mode)
+                    .edge(input, "stage" + i);
+            input = "stage" + i;
+        }
+        builder.sink("terminal", sink, AudioPipeline.Mode.INLINE)
+                .edge(input, "terminal")
+                .build()
+                .start();
+        return source.mOutput;
+    }
+
+    static class Entry implements AudioSource {
+        AudioSink mOutput;
+        @Override // AudioSource
+        public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+            return true;
+        }
+        @Override // AudioSource
+        public boolean stop() {
+            return true;
+        }
+        @Override // AudioSource
+        public AudioSource setOutput(AudioSink sink) {
+            mOutput = sink;
+            return this;
+        }
+    }
+
+    /** End of chain, touches the data so the chain is not dead code */
+    static class Terminal implements AudioSink {
+        long mConsumed;
+        @Override // AudioSink
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override // AudioSink
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            mConsumed += size + buffer.get(offset);
+        }
+        @Override // AudioSink
+        public void onStop() {
+        }
+    }
+}
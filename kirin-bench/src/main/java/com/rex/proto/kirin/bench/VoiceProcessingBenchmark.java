@@ -0,0 +1,76 @@
+package com.rex.proto.kirin.bench;
+
+import com.rex.proto.kirin.AudioSink;
+import com.rex.proto.kirin.AudioSinkAutoGain;
+import com.rex.proto.kirin.AudioSinkNoiseSuppressor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Software noise suppression and gain control of one 10ms 48kHz 16 bits frame, per stage and chained
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VoiceProcessingBenchmark {
+
+    @Param({ "1", "2" })
+    public int channels;
+
+    private AudioSink mNoise;
+    private AudioSink mGain;
+    private AudioSink mChain;
+    private ByteBuffer mBuffer;
+    private long mTime;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mBuffer = Pcm.buffer(Pcm.FRAME_SAMPLES, channels, 16);
+        mNoise = new AudioSinkNoiseSuppressor(null);
+        mGain = new AudioSinkAutoGain(null);
+        mChain = new AudioSinkNoiseSuppressor(new AudioSinkAutoGain(null));
+        for (AudioSink sink : new AudioSink[] { mNoise, mGain, mChain }) {
+            sink.onStart(Pcm.SAMPLE_RATE, 16, mBuffer.capacity(), channels);
+        }
+        mTime = 1000000;
+    }
+
+    @Benchmark
+    public long noiseSuppressor(Pcm.Counter counter) {
+        return frame(mNoise, counter);
+    }
+
+    @Benchmark
+    public long autoGain(Pcm.Counter counter) {
+        return frame(mGain, counter);
+    }
+
+    @Benchmark
+    public long chain(Pcm.Counter counter) {
+        return frame(mChain, counter);
+    }
+
+    private long frame(AudioSink sink, Pcm.Counter counter) {
+        counter.samples += Pcm.FRAME_SAMPLES;
+        sink.onData(mBuffer, 0, mBuffer.capacity(), mTime);
+        mTime += Pcm.FRAME_DURATION;
+        return mTime;
+    }
+}
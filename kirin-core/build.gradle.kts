@@ -0,0 +1,18 @@
+plugins {
+    id("java-library")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    api("androidx.annotation:annotation:1.7.1")
+    implementation("org.slf4j:slf4j-api:2.0.7")
+
+    testImplementation("junit:junit:4.13.2")
+
+    testImplementation("ch.qos.logback:logback-core:1.4.14")
+    testImplementation("ch.qos.logback:logback-classic:1.4.14")
+}
@@ -0,0 +1,142 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Helpers to move PCM bytes between buffers by absolute offsets
+ */
+public final class AudioBuffers {
+
+    private AudioBuffers() {
+    }
+
+    /**
+     * Copy bytes without allocating a view, the position and limit of both buffers are restored
+     */
+    public static void copy(@NonNull ByteBuffer src, int srcOffset, @NonNull ByteBuffer dst, int dstOffset, int size) {
+        int srcPos = src.position();
+        int srcLimit = src.limit();
+        int dstPos = dst.position();
+        int dstLimit = dst.limit();
+        src.limit(srcOffset + size);
+        src.position(srcOffset);
+        dst.limit(dstOffset + size);
+        dst.position(dstOffset);
+        dst.put(src);
+        src.limit(srcLimit);
+        src.position(srcPos);
+        dst.limit(dstLimit);
+        dst.position(dstPos);
+    }
+
+    /**
+     * Decode interleaved PCM and downmix to mono floats in [-1, 1]
+     * @param view       buffer in native byte order
+     * @param sampleBits 8 unsigned, 16 signed or 32 float
+     * @return number of mono samples written
+     */
+    public static int readMono(@NonNull ByteBuffer view, int offset, int size, int sampleBits, int numChannels, @NonNull float[] out) {
+        final int channels = Math.max(1, numChannels);
+        final float gain = 1f / channels;
+        switch (sampleBits) {
+        case 8: {
+            int frames = size / channels;
+            for (int i = 0, pos = offset; i < frames; i++) {
+                float sum = 0;
+                for (int c = 0; c < channels; c++, pos++) {
+                    sum += ((view.get(pos) & 0xFF) - 128) / 128f;
+                }
+                out[i] = sum * gain;
+            }
+            return frames;
+        }
+        case 16: {
+            int frames = size / (2 * channels);
+            for (int i = 0, pos = offset; i < frames; i++) {
+                float sum = 0;
+                for (int c = 0; c < channels; c++, pos += 2) {
+                    sum += view.getShort(pos) / 32768f;
+                }
+                out[i] = sum * gain;
+            }
+            return frames;
+        }
+        case 32: {
+            int frames = size / (4 * channels);
+            for (int i = 0, pos = offset; i < frames; i++) {
+                float sum = 0;
+                for (int c = 0; c < channels; c++, pos += 4) {
+                    sum += view.getFloat(pos);
+                }
+                out[i] = sum * gain;
+            }
+            return frames;
+        }
+        }
+        return 0;
+    }
+
+    /**
+     * Decode interleaved PCM into interleaved floats in [-1, 1]
+     * @param view buffer in native byte order
+     * @return number of samples written, all channels counted
+     */
+    public static int readSamples(@NonNull ByteBuffer view, int offset, int size, int sampleBits, @NonNull float[] out) {
+        switch (sampleBits) {
+        case 8: {
+            for (int i = 0; i < size; i++) {
+                out[i] = ((view.get(offset + i) & 0xFF) - 128) / 128f;
+            }
+            return size;
+        }
+        case 16: {
+            int count = size / 2;
+            for (int i = 0; i < count; i++) {
+                out[i] = view.getShort(offset + i * 2) / 32768f;
+            }
+            return count;
+        }
+        case 32: {
+            int count = size / 4;
+            for (int i = 0; i < count; i++) {
+                out[i] = view.getFloat(offset + i * 4);
+            }
+            return count;
+        }
+        }
+        return 0;
+    }
+
+    /**
+     * Encode interleaved floats into PCM, clipped to the sample range
+     * @param view buffer in native byte order
+     * @return number of bytes written
+     */
+    public static int writeSamples(@NonNull float[] in, int count, int sampleBits, @NonNull ByteBuffer view, int offset) {
+        switch (sampleBits) {
+        case 8: {
+            for (int i = 0; i < count; i++) {
+                int v = Math.round(in[i] * 128f) + 128;
+                view.put(offset + i, (byte) Math.max(0, Math.min(255, v)));
+            }
+            return count;
+        }
+        case 16: {
+            for (int i = 0; i < count; i++) {
+                int v = Math.round(in[i] * 32768f);
+                view.putShort(offset + i * 2, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v)));
+            }
+            return count * 2;
+        }
+        case 32: {
+            for (int i = 0; i < count; i++) {
+                view.putFloat(offset + i * 4, in[i]);
+            }
+            return count * 4;
+        }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,212 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.PcmConvert;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted PCM frame owned by a FramePool
+ * Acquired with one reference, every extra owner calls retain() and each owner calls release() once,
+ * the last release hands the buffer back to the pool. Buffer is direct and in native byte order.
+ * When the producer sets the format, samples() and mono() decode the content to floats on first use and
+ * share the result with every other owner, so stages that need floats do not convert it again each.
+ */
+public final class AudioFrame {
+
+    private final FramePool mPool;
+    private final ByteBuffer mBuffer;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private final ByteBuffer mByteView;     // Private views, owners may move the position of mBuffer
+    private final ShortBuffer mShortView;
+    private final FloatBuffer mFloatView;
+    private int mSize;
+    private long mTimestamp;
+    private int mSampleBits;
+    private int mNumChannels;
+    private float[] mSamples;               // Decoded on demand, valid until next set()
+    private float[] mMono;
+    private short[] mShorts;
+    private byte[] mBytes;
+    private boolean mSamplesValid;
+    private boolean mMonoValid;
+    Throwable mTrace; // Acquire call site, only with leak detection
+
+    AudioFrame(FramePool pool, ByteBuffer buffer) {
+        mPool = pool;
+        mBuffer = buffer;
+        mByteView = buffer.duplicate().order(ByteOrder.nativeOrder());
+        mShortView = mByteView.asShortBuffer();
+        mFloatView = mByteView.asFloatBuffer();
+    }
+
+    /** Whole backing buffer, valid data is [0, size) */
+    @NonNull
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    public int capacity() {
+        return mBuffer.capacity();
+    }
+
+    /** Valid bytes */
+    public int size() {
+        return mSize;
+    }
+
+    /** Capture time in monotonic microseconds */
+    public long timestamp() {
+        return mTimestamp;
+    }
+
+    /** Producer side, describe the content after filling the buffer */
+    public AudioFrame set(int size, long timestamp) {
+        if (size < 0 || size > mBuffer.capacity()) {
+            throw new IllegalArgumentException("Invalid size " + size + " capacity " + mBuffer.capacity());
+        }
+        mSize = size;
+        mTimestamp = timestamp;
+        mSamplesValid = false;
+        mMonoValid = false;
+        return this;
+    }
+
+    /**
+     * Producer side, sample format of the content, kept when the frame is recycled
+     * @param sampleBits 8 unsigned, 16 signed or 32 float
+     */
+    public AudioFrame setFormat(int sampleBits, int numChannels) {
+        if ((sampleBits != 8 && sampleBits != 16 && sampleBits != 32) || numChannels <= 0) {
+            throw new IllegalArgumentException("Invalid format " + sampleBits + "/" + numChannels);
+        }
+        mSampleBits = sampleBits;
+        mNumChannels = numChannels;
+        mSamplesValid = false;
+        mMonoValid = false;
+        return this;
+    }
+
+    /** False until the producer sets the format, samples() and mono() need it */
+    public boolean hasFormat() {
+        return mSampleBits != 0;
+    }
+
+    public int sampleBits() {
+        return mSampleBits;
+    }
+
+    public int numChannels() {
+        return mNumChannels;
+    }
+
+    /** Samples of all channels */
+    public int sampleCount() {
+        return hasFormat() ? mSize / (mSampleBits / Byte.SIZE) : 0;
+    }
+
+    /** Samples per channel */
+    public int frameCount() {
+        return hasFormat() ? sampleCount() / mNumChannels : 0;
+    }
+
+    /**
+     * Interleaved floats in [-1, 1], decoded once and shared, never modify them
+     * @return array of at least sampleCount() values, valid while the frame is held
+     */
+    @NonNull
+    public synchronized float[] samples() {
+        if (!hasFormat()) {
+            throw new IllegalStateException("Frame format not set");
+        }
+        if (!mSamplesValid) {
+            int count = sampleCount();
+            if (mSamples == null) {
+                mSamples = new float[mBuffer.capacity() / (mSampleBits / Byte.SIZE)];
+            }
+            switch (mSampleBits) {
+            case 8:
+                if (mBytes == null) {
+                    mBytes = new byte[mBuffer.capacity()];
+                }
+                mByteView.clear();
+                mByteView.get(mBytes, 0, count);
+                PcmConvert.u8ToFloat(mBytes, 0, mSamples, 0, count);
+                break;
+            case 16:
+                if (mShorts == null) {
+                    mShorts = new short[mBuffer.capacity() / 2];
+                }
+                mShortView.clear().limit(count);
+                PcmConvert.s16ToFloat(mShortView, mSamples, 0, mShorts);
+                break;
+            case 32:
+                mFloatView.clear().limit(count);
+                PcmConvert.f32ToFloat(mFloatView, mSamples, 0);
+                break;
+            }
+            mSamplesValid = true;
+        }
+        return mSamples;
+    }
+
+    /**
+     * Average of all channels, decoded once and shared, never modify them
+     * @return array of at least frameCount() values, valid while the frame is held
+     */
+    @NonNull
+    public synchronized float[] mono() {
+        float[] samples = samples();
+        if (mNumChannels == 1) {
+            return samples;
+        }
+        if (!mMonoValid) {
+            if (mMono == null) {
+                mMono = new float[samples.length / mNumChannels];
+            }
+            PcmConvert.downmix(samples, mNumChannels, frameCount(), mMono);
+            mMonoValid = true;
+        }
+        return mMono;
+    }
+
+    public AudioFrame retain() {
+        int count;
+        do {
+            count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame already released");
+            }
+        } while (!mRefCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    public int refCount() {
+        return mRefCount.get();
+    }
+
+    void acquired() {
+        mRefCount.set(1);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "AudioFrame{size=" + mSize + " timestamp=" + mTimestamp + " refCount=" + mRefCount.get() + "}";
+    }
+}
@@ -0,0 +1,197 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single producer single consumer queue of AudioFrame references
+ * Same counters scheme as AudioRingBuffer but frames are shared instead of copied,
+ * the queue owns one reference of every queued frame and releases the ones it drops.
+ */
+public class AudioFrameQueue {
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<AudioFrame> mSlots;
+    private final long[] mEnqueueTimes;
+    private final AudioRingBuffer.Overflow mOverflow;
+
+    private final PaddedAtomicLong mHead = new PaddedAtomicLong(); // Next slot to read
+    private final PaddedAtomicLong mTail = new PaddedAtomicLong(); // Next slot to write
+    private final AtomicLong mDropped = new AtomicLong();
+
+    private volatile Thread mConsumerWaiter;
+    private volatile Thread mProducerWaiter;
+    private volatile boolean mClosed;
+    private long mPollEnqueueTime; // Consumer side only
+    private long mReadPosition;    // Consumer side only
+
+    /**
+     * @param capacity frames count, round up to power of two
+     */
+    public AudioFrameQueue(int capacity, @NonNull AudioRingBuffer.Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mCapacity = (Integer.bitCount(capacity) == 1) ? capacity : Integer.highestOneBit(capacity) << 1;
+        mMask = mCapacity - 1;
+        mSlots = new AtomicReferenceArray<>(mCapacity);
+        mEnqueueTimes = new long[mCapacity];
+        mOverflow = overflow;
+    }
+
+    /**
+     * Producer side, hand over one reference of the frame, caller must retain() before if still use it
+     * @return false if the frame got dropped and released
+     */
+    public boolean offer(@NonNull AudioFrame frame) {
+        final long tail = mTail.get();
+        while (tail - mHead.get() >= mCapacity) { // Full
+            switch (mOverflow) {
+            case DROP_NEWEST:
+                mDropped.incrementAndGet();
+                frame.release();
+                return false;
+            case DROP_OLDEST: {
+                long head = mHead.get();
+                AudioFrame oldest = mSlots.get((int) (head & mMask));
+                if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                    mDropped.incrementAndGet();
+                    oldest.release();
+                }
+                break;
+            }
+            case BLOCK:
+                if (mClosed) {
+                    mDropped.incrementAndGet();
+                    frame.release();
+                    return false;
+                }
+                mProducerWaiter = Thread.currentThread();
+                if (tail - mHead.get() >= mCapacity) {
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                }
+                mProducerWaiter = null;
+                break;
+            }
+        }
+
+        int slot = (int) (tail & mMask);
+        mEnqueueTimes[slot] = System.nanoTime();
+        mSlots.lazySet(slot, frame);
+        mTail.set(tail + 1); // Publish
+
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side, take the oldest frame, caller owns one reference and must release() it
+     * @return frame or null if empty
+     */
+    @Nullable
+    public AudioFrame poll() {
+        while (true) {
+            final long head = mHead.get();
+            if (head >= mTail.get()) {
+                mReadPosition = head;
+                return null;
+            }
+            int slot = (int) (head & mMask);
+            AudioFrame frame = mSlots.get(slot);
+            long enqueueTime = mEnqueueTimes[slot];
+            if (mHead.compareAndSet(head, head + 1)) {
+                mReadPosition = head;
+                mPollEnqueueTime = enqueueTime;
+                Thread waiter = mProducerWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+                return frame;
+            }
+            // Producer dropped this frame, retry with the next one
+        }
+    }
+
+    /** Consumer side, System.nanoTime() when the frame returned by last poll was queued */
+    public long getPollEnqueueTime() {
+        return mPollEnqueueTime;
+    }
+
+    /**
+     * Consumer side, position of the frame returned by last poll,
+     * or of the next frame to come when it found the queue empty
+     */
+    public long getReadPosition() {
+        return mReadPosition;
+    }
+
+    /** Producer side, position the next offered frame gets, counting every frame ever written */
+    public long getWritePosition() {
+        return mTail.get();
+    }
+
+    /** Consumer side, wait until data available, timeout or close */
+    public void await(long timeout, @NonNull TimeUnit unit) {
+        mConsumerWaiter = Thread.currentThread();
+        if (!mClosed && isEmpty()) {
+            LockSupport.parkNanos(this, unit.toNanos(timeout));
+        }
+        mConsumerWaiter = null;
+    }
+
+    /** Wake up a waiting consumer without data, e.g. for signals queued aside */
+    public void wakeConsumer() {
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** Wake up both sides, a blocked producer gives up */
+    public void close() {
+        mClosed = true;
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        waiter = mProducerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** Consumer side, release every queued frame */
+    public void clear() {
+        AudioFrame frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    public int getFillLevel() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public long getDroppedFrames() {
+        return mDropped.get();
+    }
+}
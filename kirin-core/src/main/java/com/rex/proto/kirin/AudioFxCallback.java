@@ -0,0 +1,10 @@
+package com.rex.proto.kirin;
+
+/**
+ * Visualization data contract shared by AudioSinkVisualizer and AudioSinkAnalyzer
+ */
+public interface AudioFxCallback {
+    int WAV = 1;
+    int FFT = 2;
+    void onData(int fmt, float[] data);
+}
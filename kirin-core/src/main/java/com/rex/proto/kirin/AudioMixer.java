@@ -0,0 +1,434 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mix several audio sources into one frame stream, aligned by their capture timestamps
+ * Every input queues its frames in its own lock-free queue, the mixer thread runs on its own clock and takes
+ * from each input the samples captured during the output frame, delayed by the mix latency to absorb delivery
+ * jitter. Inputs that start late, pause or underrun are mixed as silence and never hold back the others,
+ * data arriving after its time was mixed is dropped. Output frames are pooled, the mixing loop never allocates.
+ * Inputs must run at the mixer sample rate, mono inputs are spread to all channels and any input is
+ * downmixed for a mono output.
+ */
+public class AudioMixer implements AudioSource {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioMixer.class);
+
+    private static final long DEFAULT_LATENCY = 30000; // us
+    private static final int DEFAULT_CAPACITY = 16;    // Frames queued per input
+    private static final int OUTPUT_FRAMES = 16;       // Output frames downstream may hold at once
+
+    private final List<Input> mInputs = new ArrayList<>();
+    private AudioSink mOutput;
+    private long mLatency = DEFAULT_LATENCY;
+    private int mSampleRate;
+    private int mSampleBits;
+    private int mNumChannels;
+    private int mSamplePerFrame;
+    private FramePool mPool;
+    private float[] mMix;
+    private long mBase;             // Capture time of output sample 0, in us
+    private long mStartNanos;
+    private boolean mManualClock;
+    private MixThread mThread;
+    private volatile long mFramesMixed;
+    private volatile long mDroppedFrames;
+
+    public AudioMixer() {
+        sLogger.trace("");
+    }
+
+    /** Add an input before start, the mixer owns the source output and starts it with the mixer format */
+    public AudioMixer addInput(@NonNull AudioSource source, float gain) {
+        return addInput(source, gain, DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity frames queued for this input, the oldest are dropped beyond */
+    public AudioMixer addInput(@NonNull AudioSource source, float gain, int capacity) {
+        sLogger.trace("source:{} gain:{} capacity:{}", source, gain, capacity);
+        Input input = new Input(source, gain, capacity);
+        source.setOutput(input);
+        mInputs.add(input);
+        return this;
+    }
+
+    public List<Input> getInputs() {
+        return Collections.unmodifiableList(mInputs);
+    }
+
+    /** Delay between capture and mix, longer absorbs more delivery jitter, in us */
+    public AudioMixer setLatency(long us) {
+        sLogger.trace("us:{}", us);
+        mLatency = Math.max(0, us);
+        return this;
+    }
+
+    // Tests drive mixFrame() themselves instead of the mixer thread
+    AudioMixer setManualClock(boolean manual) {
+        mManualClock = manual;
+        return this;
+    }
+
+    @Override // AudioSource
+    public AudioMixer setOutput(AudioSink sink) {
+        sLogger.trace("sink:{}", sink);
+        mOutput = sink;
+        return this;
+    }
+
+    @Override // AudioSource
+    public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} samplePerFrame:{} numChannels:{}", sampleRate, sampleBits, samplePerFrame, numChannels);
+        if (sampleRate <= 0 || (sampleBits != 8 && sampleBits != 16 && sampleBits != 32) || samplePerFrame <= 0 || numChannels <= 0) {
+            throw new IllegalArgumentException("Invalid format " + sampleRate + "/" + sampleBits + "/" + samplePerFrame + "/" + numChannels);
+        }
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mSamplePerFrame = samplePerFrame;
+        mNumChannels = numChannels;
+        int frameSize = samplePerFrame * numChannels * sampleBits / Byte.SIZE;
+        mPool = new FramePool(frameSize, OUTPUT_FRAMES);
+        mMix = new float[samplePerFrame * numChannels];
+        mFramesMixed = 0;
+        mDroppedFrames = 0;
+        if (mOutput != null) {
+            mOutput.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        }
+        mStartNanos = System.nanoTime();
+        mBase = mStartNanos / 1000 - mLatency;
+        for (Input input : mInputs) {
+            input.reset();
+            try {
+                if (!input.mSource.start(sampleRate, sampleBits, samplePerFrame, numChannels)) {
+                    sLogger.warn("Failed to start input {}", input.mSource);
+                }
+            } catch (Exception ex) {
+                sLogger.warn("Failed to start input {} - {}", input.mSource, ex.getMessage());
+            }
+        }
+        if (!mManualClock) {
+            mThread = new MixThread();
+            mThread.start();
+        }
+        sLogger.debug("Mixer inputs:{} latency:{}us", mInputs.size(), mLatency);
+        return true;
+    }
+
+    @Override // AudioSource
+    public boolean stop() {
+        sLogger.trace("");
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("interrupted - {}", ex.getMessage());
+                Thread.currentThread().interrupt(); // Restore interrupted state
+            }
+            mThread = null;
+        }
+        for (Input input : mInputs) {
+            input.mSource.stop();
+            input.clear();
+        }
+        if (mOutput != null) {
+            mOutput.onStop();
+        }
+        sLogger.debug("Mixer frames:{} dropped:{}", mFramesMixed, mDroppedFrames);
+        return true;
+    }
+
+    /** Capture time mixed into the first output sample, monotonic us */
+    public long getBaseTimestamp() {
+        return mBase;
+    }
+
+    public long getFramesMixed() {
+        return mFramesMixed;
+    }
+
+    /** Output frames not produced because downstream held every pooled frame */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    // Mix the next output frame from what every input has queued
+    void mixFrame() {
+        long index = mFramesMixed;
+        long first = index * mSamplePerFrame; // Output sample position
+        float[] mix = mMix;
+        Arrays.fill(mix, 0);
+        for (int i = 0; i < mInputs.size(); i++) {
+            mInputs.get(i).mixInto(mix, first, mSamplePerFrame);
+        }
+        mFramesMixed = index + 1;
+        AudioFrame frame = mPool.acquire();
+        if (frame == null) {
+            mDroppedFrames++;
+            return;
+        }
+        try {
+            int size = AudioBuffers.writeSamples(mix, mix.length, mSampleBits, frame.buffer(), 0);
+            frame.setFormat(mSampleBits, mNumChannels).set(size, mBase + first * 1000000L / mSampleRate);
+            if (mOutput != null) {
+                mOutput.onFrame(frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    // Output sample position of a capture timestamp
+    private long positionOf(long timestamp) {
+        return Math.round((timestamp - mBase) * (double) mSampleRate / 1000000);
+    }
+
+    /**
+     * One input of the mixer, the sink of its source
+     * Frames shared with onFrame are queued by reference, data from onData is copied once into a pooled frame.
+     */
+    public final class Input implements AudioSink {
+        private final AudioSource mSource;
+        private final int mCapacity;
+        private final AudioFrameQueue mQueue;
+        private volatile float mGain;
+        private volatile boolean mEnabled;
+        private volatile boolean mActive;   // Delivering data, a missing frame is an underrun
+        private int mSampleBits;
+        private int mNumChannels;
+        private FramePool mPool;
+        private AudioFrame mCurrent;        // Mixer side
+        private long mCurrentPos;           // Output sample position of the first sample of mCurrent
+        private long mExpected = -1;        // Position right after the previous frame
+        private volatile long mUnderruns;
+        private volatile long mLateFrames;
+        private volatile long mMissed;
+
+        Input(AudioSource source, float gain, int capacity) {
+            mSource = source;
+            mGain = gain;
+            mCapacity = capacity;
+            mQueue = new AudioFrameQueue(capacity, AudioRingBuffer.Overflow.DROP_OLDEST);
+        }
+
+        @NonNull
+        public AudioSource getSource() {
+            return mSource;
+        }
+
+        public float getGain() {
+            return mGain;
+        }
+
+        /** Linear gain, applies from the next mixed frame */
+        public Input setGain(float gain) {
+            sLogger.trace("gain:{}", gain);
+            mGain = gain;
+            return this;
+        }
+
+        /** Output frames this input was active but had no data for */
+        public long getUnderrunCount() {
+            return mUnderruns;
+        }
+
+        /** Frames arrived after their time was mixed, dropped */
+        public long getLateFrames() {
+            return mLateFrames;
+        }
+
+        /** Frames dropped because the queue was full */
+        public long getOverrunFrames() {
+            return mQueue.getDroppedFrames() + mMissed;
+        }
+
+        @Override // AudioSink
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+            int output = AudioMixer.this.mNumChannels;
+            boolean layout = numChannels == output || numChannels == 1 || output == 1;
+            if (sampleRate != mSampleRate || (sampleBits != 8 && sampleBits != 16 && sampleBits != 32) || numChannels <= 0 || !layout) {
+                sLogger.warn("Input {} format {}/{}/{} not mixable into {}/{}, ignored",
+                        mSource, sampleRate, sampleBits, numChannels, mSampleRate, output);
+                mEnabled = false;
+                return;
+            }
+            mSampleBits = sampleBits;
+            mNumChannels = numChannels;
+            mPool = new FramePool(frameSize, mCapacity + 2); // Queued plus the one being mixed and the one being filled
+            mEnabled = true;
+        }
+
+        @Override // AudioSink
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            FramePool pool = mPool;
+            if (!mEnabled || pool == null) {
+                return;
+            }
+            AudioFrame frame = (size <= pool.getFrameSize()) ? pool.acquire() : null;
+            if (frame == null) {
+                mMissed++;
+                return;
+            }
+            AudioBuffers.copy(buffer, offset, frame.buffer(), 0, size);
+            mActive = true;
+            mQueue.offer(frame.setFormat(mSampleBits, mNumChannels).set(size, timestamp));
+        }
+
+        @Override // AudioSink
+        public void onFrame(@NonNull AudioFrame frame) {
+            if (!mEnabled) {
+                return;
+            }
+            if (frame.hasFormat() && frame.sampleBits() == mSampleBits && frame.numChannels() == mNumChannels) {
+                mActive = true;
+                mQueue.offer(frame.retain());
+            } else {
+                onData(frame.buffer(), 0, frame.size(), frame.timestamp());
+            }
+        }
+
+        @Override // AudioSink
+        public void onStop() {
+            sLogger.trace("");
+            mActive = false;
+        }
+
+        @Override // AudioSink
+        public void onGap(long timestamp) {
+            mActive = false; // Silence until data comes again, not an underrun
+        }
+
+        void reset() {
+            clear();
+            mExpected = -1;
+            mActive = false;
+            mUnderruns = 0;
+            mLateFrames = 0;
+            mMissed = 0;
+        }
+
+        void clear() {
+            if (mCurrent != null) {
+                mCurrent.release();
+                mCurrent = null;
+            }
+            mQueue.clear();
+        }
+
+        // Add the samples of the output positions [first, first + count) to mix, gaps stay silent
+        void mixInto(float[] mix, long first, int count) {
+            float gain = mGain;
+            long end = first + count;
+            long pos = first;
+            while (pos < end) {
+                if (mCurrent == null && !next()) {
+                    if (mActive) {
+                        mUnderruns++;
+                    }
+                    return;
+                }
+                long frameEnd = mCurrentPos + mCurrent.frameCount();
+                if (frameEnd <= pos) { // Entirely in the past
+                    mLateFrames++;
+                    releaseCurrent();
+                    continue;
+                }
+                if (mCurrentPos >= end) { // Starts after this output frame
+                    return;
+                }
+                if (mCurrentPos > pos) { // Gap before it, stays silent
+                    pos = mCurrentPos;
+                }
+                int n = (int) (Math.min(frameEnd, end) - pos);
+                add(mCurrent, (int) (pos - mCurrentPos), mix, (int) (pos - first), n, gain);
+                pos += n;
+                if (pos >= frameEnd) {
+                    releaseCurrent();
+                }
+            }
+        }
+
+        private boolean next() {
+            AudioFrame frame = mQueue.poll();
+            if (frame == null) {
+                return false;
+            }
+            long pos = positionOf(frame.timestamp());
+            long tolerance = mSampleRate / 500; // 2ms of timestamp jitter keeps frames contiguous
+            if (mExpected >= 0 && Math.abs(pos - mExpected) <= tolerance) {
+                pos = mExpected;
+            }
+            mCurrent = frame;
+            mCurrentPos = pos;
+            mExpected = pos + frame.frameCount();
+            return true;
+        }
+
+        private void releaseCurrent() {
+            mCurrent.release();
+            mCurrent = null;
+        }
+
+        private void add(AudioFrame frame, int from, float[] mix, int to, int count, float gain) {
+            int out = AudioMixer.this.mNumChannels;
+            int in = frame.numChannels();
+            if (in == out) {
+                float[] samples = frame.samples();
+                for (int i = 0, s = from * in, m = to * out; i < count * out; i++) {
+                    mix[m + i] += gain * samples[s + i];
+                }
+            } else if (out == 1) {
+                float[] samples = frame.mono();
+                for (int i = 0; i < count; i++) {
+                    mix[to + i] += gain * samples[from + i];
+                }
+            } else { // Mono spread to all channels
+                float[] samples = frame.samples();
+                for (int i = 0; i < count; i++) {
+                    float v = gain * samples[from + i];
+                    for (int c = 0, m = (to + i) * out; c < out; c++) {
+                        mix[m + c] += v;
+                    }
+                }
+            }
+        }
+    }
+
+    private class MixThread extends Thread {
+        MixThread() {
+            super("AudioMixer");
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            try {
+                while (!isInterrupted()) {
+                    // Frame k covers captures up to its end minus the latency, mix it once that end is reached
+                    long deadline = mStartNanos + (mFramesMixed + 1) * mSamplePerFrame * 1000000000L / mSampleRate;
+                    long wait;
+                    while ((wait = deadline - System.nanoTime()) > 0 && !isInterrupted()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (!isInterrupted()) {
+                        mixFrame();
+                    }
+                }
+            } catch (Exception ex) {
+                sLogger.warn("Failed to mix - {}", ex.getMessage());
+            }
+            sLogger.debug("-");
+        }
+    }
+}
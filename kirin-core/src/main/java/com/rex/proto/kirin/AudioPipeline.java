@@ -0,0 +1,605 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Tree of sink stages fed by one source, declared by name and edges, built into nested sinks
+ * build() checks the graph and carries the source format along the edges, so a stage that can't take the
+ * format of its input fails there instead of at onStart. INLINE stages run on the thread of their input,
+ * a chain of them costs plain calls, HEAVY and BLOCKING stages get an AudioSinkRing and its thread in front.
+ * A stage with several outputs calls the inline ones in turn and queues for the others.
+ * Every node is timed while running, getNodes() tells its thread and the share of a core it takes.
+ */
+public class AudioPipeline {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioPipeline.class);
+
+    public enum Mode {
+        INLINE,     // Cheap and never blocks, runs on the thread of its input
+        HEAVY,      // Takes a good part of a frame period, own thread so the input keeps pace
+        BLOCKING,   // May wait, e.g. AudioTrack or file writes, own thread
+    }
+
+    /** Create the sink of a stage in front of the downstream one, next is null for a leaf */
+    public interface Stage {
+        AudioSink create(AudioSink next);
+    }
+
+    public static final class Format {
+        public final int sampleRate;
+        public final int sampleBits;
+        public final int numChannels;
+
+        public Format(int sampleRate, int sampleBits, int numChannels) {
+            this.sampleRate = sampleRate;
+            this.sampleBits = sampleBits;
+            this.numChannels = numChannels;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Format)) {
+                return false;
+            }
+            Format other = (Format) obj;
+            return sampleRate == other.sampleRate && sampleBits == other.sampleBits && numChannels == other.numChannels;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sampleRate * 31 + sampleBits) * 31 + numChannels;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return sampleRate + "Hz/" + sampleBits + "bit/" + numChannels + "ch";
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, Node> mNodes = new LinkedHashMap<>();
+        private final List<String[]> mEdges = new ArrayList<>();
+        private Node mSource;
+        private Node mLast;
+        private AudioSource mAudioSource;
+        private Format mFormat;
+        private int mSamplesPerFrame;
+        private LatencyTracer mTracer;
+        private boolean mBuilt;
+
+        /** The root of the graph, started with the format */
+        public Builder source(@NonNull String name, @NonNull AudioSource source, @NonNull Format format, int samplesPerFrame) {
+            sLogger.trace("name:{} source:{} format:{} samplesPerFrame:{}", name, source, format, samplesPerFrame);
+            if (mSource != null) {
+                throw new IllegalArgumentException("Second source " + name + ", mix sources with AudioMixer");
+            }
+            mSource = add(new Node(name, null, Mode.INLINE, false));
+            mAudioSource = source;
+            mFormat = format;
+            mSamplesPerFrame = samplesPerFrame;
+            return this;
+        }
+
+        /** An inline stage */
+        public Builder stage(@NonNull String name, @NonNull Stage stage) {
+            return stage(name, stage, Mode.INLINE);
+        }
+
+        public Builder stage(@NonNull String name, @NonNull Stage stage, @NonNull Mode mode) {
+            sLogger.trace("name:{} mode:{}", name, mode);
+            add(new Node(name, stage, mode, false));
+            return this;
+        }
+
+        /** A leaf stage, no edge may leave it */
+        public Builder sink(@NonNull String name, @NonNull AudioSink sink, @NonNull Mode mode) {
+            sLogger.trace("name:{} sink:{} mode:{}", name, sink, mode);
+            add(new Node(name, next -> sink, mode, true));
+            return this;
+        }
+
+        /** Sample rate the last declared stage needs */
+        public Builder requireRate(int sampleRate) {
+            last().mRequiredRate = sampleRate;
+            return this;
+        }
+
+        /** Sample bits the last declared stage handles, any of them */
+        public Builder requireBits(int... sampleBits) {
+            last().mRequiredBits = sampleBits.clone();
+            return this;
+        }
+
+        /** Channels the last declared stage handles, from min to max */
+        public Builder requireChannels(int min, int max) {
+            Node node = last();
+            node.mMinChannels = min;
+            node.mMaxChannels = max;
+            return this;
+        }
+
+        /** Format the last declared stage gives out, 0 keeps that part of its input, e.g. the rate of a resampler */
+        public Builder output(int sampleRate, int sampleBits, int numChannels) {
+            last().mDeclared = new Format(sampleRate, sampleBits, numChannels);
+            return this;
+        }
+
+        /** Frames queued in front of the last declared stage when it runs on its own thread */
+        public Builder capacity(int frames) {
+            last().mCapacity = frames;
+            return this;
+        }
+
+        public Builder edge(@NonNull String from, @NonNull String to) {
+            sLogger.trace("from:{} to:{}", from, to);
+            mEdges.add(new String[] { from, to });
+            return this;
+        }
+
+        /** Edges from each name to the next */
+        public Builder chain(@NonNull String... names) {
+            for (int i = 1; i < names.length; i++) {
+                edge(names[i - 1], names[i]);
+            }
+            return this;
+        }
+
+        /** Record the capture to stage latency of every node, named after it */
+        public Builder setTracer(LatencyTracer tracer) {
+            sLogger.trace("tracer:{}", tracer);
+            mTracer = tracer;
+            return this;
+        }
+
+        /**
+         * Check the graph and formats, then create the sinks from the leaves up, once per builder
+         * @throws IllegalStateException with the first problem found
+         */
+        @NonNull
+        public AudioPipeline build() {
+            if (mBuilt) {
+                throw new IllegalStateException("Already built");
+            }
+            if (mSource == null) {
+                throw new IllegalStateException("No source");
+            }
+            mBuilt = true;
+            for (String[] edge : mEdges) {
+                Node from = mNodes.get(edge[0]);
+                Node to = mNodes.get(edge[1]);
+                if (from == null || to == null) {
+                    throw new IllegalStateException("Edge " + edge[0] + "->" + edge[1] + " to unknown stage " + ((from == null) ? edge[0] : edge[1]));
+                }
+                if (from.mLeaf) {
+                    throw new IllegalStateException("Edge " + edge[0] + "->" + edge[1] + " leaves sink " + from.mName);
+                }
+                if (to == mSource) {
+                    throw new IllegalStateException("Edge " + edge[0] + "->" + edge[1] + " into the source");
+                }
+                if (to.mParent != null) {
+                    throw new IllegalStateException("Stage " + to.mName + " fed by " + to.mParent.mName + " and " + from.mName + ", mix sources with AudioMixer");
+                }
+                to.mParent = from;
+                from.mChildren.add(to);
+            }
+
+            // Source first, each node before its outputs, formats and threads follow the edges
+            List<Node> order = new ArrayList<>(mNodes.size());
+            mSource.mInput = mFormat;
+            mSource.mOutput = mFormat;
+            mSource.mThread = mSource.mName;
+            visit(mSource, order);
+            if (order.size() != mNodes.size()) {
+                for (Node node : mNodes.values()) {
+                    if (!order.contains(node)) {
+                        throw new IllegalStateException("Stage " + node.mName + " not reached from the source");
+                    }
+                }
+            }
+
+            AudioSink root = create(mSource);
+            if (mTracer != null) {
+                for (Node node : order) {
+                    node.mProbe.mHistogram = mTracer.stage(node.mName);
+                }
+            }
+            AudioPipeline pipeline = new AudioPipeline(mAudioSource, mFormat, mSamplesPerFrame, root, order);
+            sLogger.debug("Built\n{}", pipeline.describe());
+            return pipeline;
+        }
+
+        private Node add(Node node) {
+            if (mNodes.containsKey(node.mName)) {
+                throw new IllegalArgumentException("Duplicate stage " + node.mName);
+            }
+            mNodes.put(node.mName, node);
+            mLast = node;
+            return node;
+        }
+
+        private Node last() {
+            if (mLast == null) {
+                throw new IllegalStateException("No stage declared");
+            }
+            return mLast;
+        }
+
+        private void visit(Node node, List<Node> order) {
+            order.add(node);
+            for (Node child : node.mChildren) {
+                Format input = node.mOutput;
+                child.check(input);
+                child.mInput = input;
+                Format output = child.mDeclared;
+                child.mOutput = new Format(
+                        (output.sampleRate > 0) ? output.sampleRate : input.sampleRate,
+                        (output.sampleBits > 0) ? output.sampleBits : input.sampleBits,
+                        (output.numChannels > 0) ? output.numChannels : input.numChannels);
+                child.mThread = (child.mMode == Mode.INLINE) ? node.mThread : child.mName;
+                visit(child, order);
+            }
+        }
+
+        // Sink entering the node, the outputs created first
+        private AudioSink create(Node node) {
+            List<AudioSink> outputs = new ArrayList<>(node.mChildren.size());
+            for (Node child : node.mChildren) {
+                AudioSink entry = create(child);
+                if (child.mMode != Mode.INLINE) {
+                    child.mRing = new AudioSinkRing(entry)
+                            .setCapacity(child.mCapacity)
+                            .setThreadName("Pipeline-" + child.mName);
+                    entry = child.mRing;
+                }
+                outputs.add(entry);
+            }
+            AudioSink next = null;
+            if (outputs.size() == 1) {
+                next = outputs.get(0);
+            } else if (outputs.size() > 1) {
+                next = new Fanout(outputs);
+            }
+            AudioSink sink = (node.mStage != null) ? node.mStage.create(next) : next;
+            node.mProbe = new Probe(sink);
+            return node.mProbe;
+        }
+    }
+
+    /** Runtime view of a stage */
+    public static class Node {
+        private final String mName;
+        private final Stage mStage;
+        private final Mode mMode;
+        private final boolean mLeaf;
+        private final List<Node> mChildren = new ArrayList<>();
+        private Node mParent;
+        private int mRequiredRate;
+        private int[] mRequiredBits;
+        private int mMinChannels;
+        private int mMaxChannels;
+        private int mCapacity = 16;
+        private Format mDeclared = new Format(0, 0, 0);
+        private Format mInput;
+        private Format mOutput;
+        private String mThread;
+        private Probe mProbe;
+        private AudioSinkRing mRing;
+        private volatile long mStartTime; // ns
+
+        Node(String name, Stage stage, Mode mode, boolean leaf) {
+            mName = name;
+            mStage = stage;
+            mMode = mode;
+            mLeaf = leaf;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Mode getMode() {
+            return mMode;
+        }
+
+        /** Name of the thread running the stage, the source name for the thread of the source */
+        public String getThread() {
+            return mThread;
+        }
+
+        public Format getInput() {
+            return mInput;
+        }
+
+        public Format getOutput() {
+            return mOutput;
+        }
+
+        /** Stages fed by this one */
+        @NonNull
+        public List<String> getOutputs() {
+            List<String> names = new ArrayList<>(mChildren.size());
+            for (Node child : mChildren) {
+                names.add(child.mName);
+            }
+            return names;
+        }
+
+        /** Frames entered since start */
+        public long getFrames() {
+            return mProbe.mFrames;
+        }
+
+        /** Time in the stage itself per frame, the inline stages it feeds excluded, in microseconds */
+        public long getAverageTime() {
+            long frames = mProbe.mFrames;
+            return (frames > 0) ? getSelfTime() / frames / 1000 : 0;
+        }
+
+        /** Share of one core taken by the stage itself since start */
+        public float getLoad() {
+            long elapsed = System.nanoTime() - mStartTime;
+            return (mStartTime != 0 && elapsed > 0) ? (float) getSelfTime() / elapsed : 0;
+        }
+
+        /** Frames waiting in front of a stage on its own thread */
+        public int getFillLevel() {
+            AudioSinkRing ring = mRing;
+            return (ring != null) ? ring.getFillLevel() : 0;
+        }
+
+        /** Frames dropped in front of a stage on its own thread */
+        public long getDropped() {
+            AudioSinkRing ring = mRing;
+            return (ring != null) ? ring.getDroppedFrames() : 0;
+        }
+
+        private long getSelfTime() {
+            long time = mProbe.mTime;
+            for (Node child : mChildren) {
+                if (child.mMode == Mode.INLINE) { // Called from here, queued ones run elsewhere
+                    time -= child.mProbe.mTime;
+                }
+            }
+            return Math.max(0, time);
+        }
+
+        private void check(Format input) {
+            boolean bits = (mRequiredBits == null || mRequiredBits.length == 0);
+            for (int i = 0; !bits && i < mRequiredBits.length; i++) {
+                bits = (mRequiredBits[i] == input.sampleBits);
+            }
+            if (!bits
+                    || (mRequiredRate > 0 && mRequiredRate != input.sampleRate)
+                    || (mMinChannels > 0 && input.numChannels < mMinChannels)
+                    || (mMaxChannels > 0 && input.numChannels > mMaxChannels)) {
+                throw new IllegalStateException("Stage " + mName + " can't take " + input + " from " + mParent.mName);
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Node{" + mName +
+                    " mode=" + mMode +
+                    " thread=" + mThread +
+                    " format=" + mOutput +
+                    " frames=" + getFrames() +
+                    " avgTime=" + getAverageTime() + "us" +
+                    " load=" + String.format(Locale.US, "%.2f%%", getLoad() * 100) +
+                    ((mRing != null) ? " fill=" + getFillLevel() + " dropped=" + getDropped() : "") + "}";
+        }
+    }
+
+    private final AudioSource mSource;
+    private final Format mFormat;
+    private final int mSamplesPerFrame;
+    private final AudioSink mRoot;
+    private final List<Node> mNodes;
+
+    private AudioPipeline(AudioSource source, Format format, int samplesPerFrame, AudioSink root, List<Node> nodes) {
+        mSource = source;
+        mFormat = format;
+        mSamplesPerFrame = samplesPerFrame;
+        mRoot = root;
+        mNodes = Collections.unmodifiableList(nodes);
+    }
+
+    public boolean start() {
+        sLogger.trace("");
+        long now = System.nanoTime();
+        for (Node node : mNodes) {
+            node.mProbe.reset();
+            node.mStartTime = now;
+        }
+        mSource.setOutput(mRoot);
+        return mSource.start(mFormat.sampleRate, mFormat.sampleBits, mSamplesPerFrame, mFormat.numChannels);
+    }
+
+    public boolean stop() {
+        sLogger.trace("");
+        boolean result = mSource.stop();
+        sLogger.debug("Stopped\n{}", describe());
+        return result;
+    }
+
+    @NonNull
+    public AudioSource getSource() {
+        return mSource;
+    }
+
+    @NonNull
+    public Format getFormat() {
+        return mFormat;
+    }
+
+    /** Stages in source order, each before the stages it feeds */
+    @NonNull
+    public List<Node> getNodes() {
+        return mNodes;
+    }
+
+    public Node getNode(@NonNull String name) {
+        for (Node node : mNodes) {
+            if (node.mName.equals(name)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /** Threads running stages, the source thread included */
+    @NonNull
+    public List<String> getThreads() {
+        List<String> threads = new ArrayList<>();
+        for (Node node : mNodes) {
+            if (!threads.contains(node.mThread)) {
+                threads.add(node.mThread);
+            }
+        }
+        return threads;
+    }
+
+    /** Share of one core taken by the stages of the thread */
+    public float getThreadLoad(@NonNull String thread) {
+        float load = 0;
+        for (Node node : mNodes) {
+            if (node.mThread.equals(thread)) {
+                load += node.getLoad();
+            }
+        }
+        return load;
+    }
+
+    /** Tree of the stages with their threads and load, one line per stage */
+    @NonNull
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        describe(mNodes.get(0), 0, sb);
+        for (String thread : getThreads()) {
+            sb.append(String.format(Locale.US, "thread %s load=%.2f%%%n", thread, getThreadLoad(thread) * 100));
+        }
+        return sb.toString();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "AudioPipeline{" + mFormat + " stages=" + mNodes.size() + " threads=" + getThreads().size() + "}";
+    }
+
+    private static void describe(Node node, int depth, StringBuilder sb) {
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+        sb.append(node).append('\n');
+        for (Node child : node.mChildren) {
+            describe(child, depth + 1, sb);
+        }
+    }
+
+    // Count and time what enters a stage, the inline stages behind it included
+    private static class Probe extends AudioSink.Wrapper {
+        volatile LatencyHistogram mHistogram;
+        // Written by the thread of the stage only, read by anyone
+        volatile long mFrames;
+        volatile long mTime;    // ns
+
+        Probe(AudioSink sink) {
+            super(sink);
+        }
+
+        void reset() {
+            mFrames = 0;
+            mTime = 0;
+        }
+
+        @Override // AudioSink
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            LatencyHistogram histogram = mHistogram;
+            if (histogram != null) {
+                histogram.record(LatencyTracer.now() - timestamp);
+            }
+            long start = System.nanoTime();
+            super.onData(buffer, offset, size, timestamp);
+            mTime = mTime + (System.nanoTime() - start);
+            mFrames = mFrames + 1;
+        }
+
+        @Override // AudioSink
+        public void onFrame(@NonNull AudioFrame frame) {
+            LatencyHistogram histogram = mHistogram;
+            if (histogram != null) {
+                histogram.record(LatencyTracer.now() - frame.timestamp());
+            }
+            long start = System.nanoTime();
+            if (mSink != null) {
+                mSink.onFrame(frame);
+            }
+            mTime = mTime + (System.nanoTime() - start);
+            mFrames = mFrames + 1;
+        }
+    }
+
+    // Outputs of one stage called in turn, each returns before the next starts so frames and buffers stay valid
+    private static class Fanout implements AudioSink {
+        private final AudioSink[] mOutputs;
+
+        Fanout(List<AudioSink> outputs) {
+            mOutputs = outputs.toArray(new AudioSink[0]);
+        }
+
+        @Override // AudioSink
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            for (AudioSink sink : mOutputs) {
+                sink.onStart(sampleRate, sampleBits, frameSize, numChannels);
+            }
+        }
+
+        @Override // AudioSink
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            for (AudioSink sink : mOutputs) {
+                sink.onData(buffer, offset, size, timestamp);
+            }
+        }
+
+        @Override // AudioSink
+        public void onFrame(@NonNull AudioFrame frame) {
+            for (AudioSink sink : mOutputs) {
+                sink.onFrame(frame);
+            }
+        }
+
+        @Override // AudioSink
+        public void onStop() {
+            for (AudioSink sink : mOutputs) {
+                sink.onStop();
+            }
+        }
+
+        @Override // AudioSink
+        public void onGap(long timestamp) {
+            for (AudioSink sink : mOutputs) {
+                sink.onGap(timestamp);
+            }
+        }
+
+        @Override // AudioSink
+        public void onResume(long timestamp) {
+            for (AudioSink sink : mOutputs) {
+                sink.onResume(timestamp);
+            }
+        }
+    }
+}
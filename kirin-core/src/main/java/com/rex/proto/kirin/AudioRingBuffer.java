@@ -0,0 +1,218 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single producer single consumer ring of PCM frames
+ * Frames live in one off-heap direct buffer split into power of two fixed size slots.
+ * Head and tail counters grow forever and sit on their own cache lines, slot index is counter & mask.
+ * For DROP_OLDEST the producer may advance the head too, so the consumer copies a slot out first
+ * and only keeps it when its CAS on the head succeeds.
+ */
+public class AudioRingBuffer {
+
+    public enum Overflow {
+        DROP_OLDEST,    // Discard the oldest queued frame, keep latency bounded
+        DROP_NEWEST,    // Discard the incoming frame, keep queued data intact
+        BLOCK,          // Wait for the consumer, back pressure to producer
+    }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mSlotSize;
+    private final ByteBuffer mWriteView; // Producer and consumer own separate position and limit
+    private final ByteBuffer mReadView;
+    private final int[] mSizes;
+    private final long[] mTimestamps;
+    private final Overflow mOverflow;
+
+    private final PaddedAtomicLong mHead = new PaddedAtomicLong(); // Next slot to read
+    private final PaddedAtomicLong mTail = new PaddedAtomicLong(); // Next slot to write
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mWritten = new AtomicLong();
+
+    private volatile Thread mConsumerWaiter;
+    private volatile Thread mProducerWaiter;
+    private volatile boolean mClosed;
+    private long mReadTimestamp; // Consumer side only
+    private long mReadPosition;  // Consumer side only
+
+    /**
+     * @param capacity slots count, round up to power of two
+     * @param slotSize max bytes of one frame
+     */
+    public AudioRingBuffer(int capacity, int slotSize, @NonNull Overflow overflow) {
+        if (capacity <= 0 || slotSize <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity + " or slot size " + slotSize);
+        }
+        mCapacity = (Integer.bitCount(capacity) == 1) ? capacity : Integer.highestOneBit(capacity) << 1;
+        mMask = mCapacity - 1;
+        mSlotSize = slotSize;
+        ByteBuffer data = ByteBuffer.allocateDirect(mCapacity * slotSize).order(ByteOrder.nativeOrder());
+        mWriteView = data.duplicate();
+        mReadView = data.duplicate();
+        mSizes = new int[mCapacity];
+        mTimestamps = new long[mCapacity];
+        mOverflow = overflow;
+    }
+
+    /**
+     * Producer side, copy one frame into the ring
+     * @return false if the frame, or with BLOCK policy the ring is closed, got dropped
+     */
+    public boolean offer(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        if (size > mSlotSize) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        final long tail = mTail.get();
+        while (tail - mHead.get() >= mCapacity) { // Full
+            switch (mOverflow) {
+            case DROP_NEWEST:
+                mDropped.incrementAndGet();
+                return false;
+            case DROP_OLDEST: {
+                long head = mHead.get();
+                if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                    mDropped.incrementAndGet();
+                }
+                break;
+            }
+            case BLOCK:
+                if (mClosed) {
+                    mDropped.incrementAndGet();
+                    return false;
+                }
+                mProducerWaiter = Thread.currentThread();
+                if (tail - mHead.get() >= mCapacity) {
+                    LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                }
+                mProducerWaiter = null;
+                break;
+            }
+        }
+
+        int slot = (int) (tail & mMask);
+        AudioBuffers.copy(buffer, offset, mWriteView, slot * mSlotSize, size);
+        mSizes[slot] = size;
+        mTimestamps[slot] = timestamp;
+        mTail.set(tail + 1); // Publish
+        mWritten.incrementAndGet();
+
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
+    }
+
+    /**
+     * Consumer side, copy the oldest frame out of the ring
+     * @param dst receive the frame from offset 0, capacity at least slot size
+     * @return frame size in bytes, or -1 if empty
+     */
+    public int poll(@NonNull ByteBuffer dst) {
+        while (true) {
+            final long head = mHead.get();
+            if (head >= mTail.get()) {
+                mReadPosition = head;
+                return -1;
+            }
+            int slot = (int) (head & mMask);
+            int size = mSizes[slot];
+            long timestamp = mTimestamps[slot];
+            AudioBuffers.copy(mReadView, slot * mSlotSize, dst, 0, size);
+            if (mHead.compareAndSet(head, head + 1)) {
+                mReadPosition = head;
+                mReadTimestamp = timestamp;
+                Thread waiter = mProducerWaiter;
+                if (waiter != null) {
+                    LockSupport.unpark(waiter);
+                }
+                return size;
+            }
+            // Producer dropped this slot while copying, retry with the next one
+        }
+    }
+
+    /** Consumer side, timestamp of the frame returned by last poll */
+    public long getReadTimestamp() {
+        return mReadTimestamp;
+    }
+
+    /**
+     * Consumer side, position of the frame returned by last poll,
+     * or of the next frame to come when it found the ring empty
+     */
+    public long getReadPosition() {
+        return mReadPosition;
+    }
+
+    /** Producer side, position the next offered frame gets, counting every frame ever written */
+    public long getWritePosition() {
+        return mTail.get();
+    }
+
+    /** Consumer side, wait until data available, timeout or close */
+    public void await(long timeout, @NonNull TimeUnit unit) {
+        mConsumerWaiter = Thread.currentThread();
+        if (!mClosed && isEmpty()) {
+            LockSupport.parkNanos(this, unit.toNanos(timeout));
+        }
+        mConsumerWaiter = null;
+    }
+
+    /** Wake up a waiting consumer without data, e.g. for signals queued aside */
+    public void wakeConsumer() {
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /** Wake up both sides, a blocked producer gives up */
+    public void close() {
+        mClosed = true;
+        Thread waiter = mConsumerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        waiter = mProducerWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() >= mTail.get();
+    }
+
+    /** Frames currently queued */
+    public int getFillLevel() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getSlotSize() {
+        return mSlotSize;
+    }
+
+    public long getDroppedFrames() {
+        return mDropped.get();
+    }
+
+    public long getWrittenFrames() {
+        return mWritten.get();
+    }
+}
@@ -0,0 +1,49 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Gap and resume signals kept in order with the frames of an AudioRingBuffer or AudioFrameQueue
+ * The producer tags each signal with the write position of the queue, the consumer delivers it
+ * right before the first frame written after it, or once it drained every frame written before it.
+ * Frames dropped on overflow never take signals with them.
+ */
+class AudioSignalQueue {
+
+    private final ConcurrentLinkedQueue<Signal> mSignals = new ConcurrentLinkedQueue<>();
+
+    /** Producer side, position is the write position of the frame queue */
+    void offer(long position, boolean gap, long timestamp) {
+        mSignals.offer(new Signal(position, gap, timestamp));
+    }
+
+    /** Consumer side, call onGap or onResume for signals queued before the frame at position */
+    void deliver(long position, @NonNull AudioSink sink) {
+        Signal signal;
+        while ((signal = mSignals.peek()) != null && signal.mPosition <= position) {
+            mSignals.poll();
+            if (signal.mGap) {
+                sink.onGap(signal.mTimestamp);
+            } else {
+                sink.onResume(signal.mTimestamp);
+            }
+        }
+    }
+
+    void clear() {
+        mSignals.clear();
+    }
+
+    private static final class Signal {
+        final long mPosition;
+        final boolean mGap;
+        final long mTimestamp;
+        Signal(long position, boolean gap, long timestamp) {
+            mPosition = position;
+            mGap = gap;
+            mTimestamp = timestamp;
+        }
+    }
+}
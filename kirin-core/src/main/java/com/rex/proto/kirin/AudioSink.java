@@ -10,6 +10,27 @@ public interface AudioSink {
     void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp);
     void onStop();
 
+    /**
+     * Ownership aware alternative of onData, the frame is valid until return,
+     * retain() it to keep using it asynchronously and release() when done, never modify its content.
+     * Sinks not aware of frames get the bytes through onData.
+     * Stages that need floats use frame.samples() or frame.mono(), decoded once and shared by all of them.
+     */
+    default void onFrame(@NonNull AudioFrame frame) {
+        onData(frame.buffer(), 0, frame.size(), frame.timestamp());
+    }
+
+    /**
+     * Upstream stops delivering data from timestamp on, the stream is not stopped,
+     * sinks can pause their work until onResume.
+     */
+    default void onGap(long timestamp) {
+    }
+
+    /** Data delivery continues from timestamp on, after an onGap */
+    default void onResume(long timestamp) {
+    }
+
     class Wrapper implements AudioSink {
         protected final AudioSink mSink;
         public Wrapper(AudioSink sink) {
@@ -33,6 +54,18 @@ public interface AudioSink {
                 mSink.onStop();
             }
         }
+        @Override // AudioSink
+        public void onGap(long timestamp) {
+            if (mSink != null) {
+                mSink.onGap(timestamp);
+            }
+        }
+        @Override // AudioSink
+        public void onResume(long timestamp) {
+            if (mSink != null) {
+                mSink.onResume(timestamp);
+            }
+        }
     }
 
     interface Factory {
@@ -0,0 +1,178 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.Fft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Analyze PCM audio data in pure Java, replacement of AudioSinkVisualizer without platform Visualizer
+ * Downmix to mono, apply Hann window and compute FFT magnitudes every hop, all buffers preallocated in onStart.
+ * Output follows AudioFxCallback like AudioSinkVisualizer, FFT magnitudes are scaled so full scale sine peaks at 128
+ * like the 8-bit platform Visualizer, waveform is normalized to [0,1].
+ * The data arrays are reused, callback must copy them if need keep after return.
+ */
+public class AudioSinkAnalyzer extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkAnalyzer.class);
+
+    private static final int DEFAULT_FFT_SIZE = 1024;
+
+    private int mFftSize = DEFAULT_FFT_SIZE;
+    private int mHopSize;
+    private AudioFxCallback mCallback;
+
+    private Fft mFft;
+    private float[] mWindow;
+    private float[] mHistory;   // Ring of latest mono samples
+    private float[] mFrame;     // Windowed samples in time order
+    private float[] mMagnitudes;
+    private float[] mWave;
+    private float[] mMono;      // Decoded samples of one frame
+    private float mScale;
+    private int mWritePos;
+    private int mPending;       // Samples since last analysis
+    private int mSampleBits;
+    private int mNumChannels;
+    private ByteBuffer mSource; // Last non native order buffer seen, to reuse its view
+    private ByteBuffer mView;
+
+    public AudioSinkAnalyzer(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+    }
+
+    /** FFT size in samples, power of two, spectrum has size/2+1 bins */
+    public AudioSinkAnalyzer setFftSize(int size) {
+        sLogger.trace("size:{}", size);
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Invalid FFT size " + size);
+        }
+        mFftSize = size;
+        return this;
+    }
+
+    /** Samples between two analysis, 0 for half of the FFT size */
+    public AudioSinkAnalyzer setHopSize(int size) {
+        sLogger.trace("size:{}", size);
+        mHopSize = size;
+        return this;
+    }
+
+    public AudioSinkAnalyzer setCallback(AudioFxCallback callback) {
+        sLogger.trace("callback:{}", callback);
+        mCallback = callback;
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        mSampleBits = sampleBits;
+        mNumChannels = Math.max(1, numChannels);
+        if (mHopSize <= 0 || mHopSize > mFftSize) {
+            mHopSize = mFftSize / 2;
+        }
+        mFft = new Fft(mFftSize);
+        mWindow = new float[mFftSize];
+        for (int i = 0; i < mFftSize; i++) {
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / mFftSize)); // Periodic Hann
+        }
+        mHistory = new float[mFftSize];
+        mFrame = new float[mFftSize];
+        mMono = new float[Math.max(frameSize, 1)];
+        mMagnitudes = new float[mFft.bins()];
+        mWave = new float[mFftSize];
+        mScale = 128f * 4 / mFftSize; // Hann coherent gain 0.5, single side amplitude A*N/4
+        mWritePos = 0;
+        mPending = 0;
+        mSource = null;
+        mView = null;
+        sLogger.debug("Analyzer fftSize:{} hopSize:{} rate:{}Hz", mFftSize, mHopSize, (float) sampleRate / mHopSize);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        super.onData(buffer, offset, size, timestamp);
+        //sLogger.trace("buffer:{} offset:{} size:{} timestamp:{}", buffer, offset, size, timestamp);
+        if (mFft == null) {
+            return;
+        }
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            if (buffer != mSource) { // Buffer is usually reused by source, create the view only once
+                mSource = buffer;
+                mView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mView;
+        }
+        if (mMono == null || mMono.length < size) {
+            mMono = new float[size]; // Only on the first frame or a bigger one
+        }
+        int count = AudioBuffers.readMono(view, offset, size, mSampleBits, mNumChannels, mMono);
+        for (int i = 0; i < count; i++) {
+            push(mMono[i]);
+        }
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        if (mFft == null || !frame.hasFormat()) {
+            super.onFrame(frame);
+            return;
+        }
+        if (mSink != null) {
+            mSink.onFrame(frame);
+        }
+        float[] mono = frame.mono(); // Shared with the other stages reading this frame
+        int count = frame.frameCount();
+        for (int i = 0; i < count; i++) {
+            push(mono[i]);
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        super.onStop();
+        sLogger.trace("");
+        mFft = null;
+        mSource = null;
+        mView = null;
+    }
+
+    private void push(float sample) {
+        mHistory[mWritePos] = sample;
+        mWritePos = (mWritePos + 1) & (mFftSize - 1);
+        if (++mPending >= mHopSize) {
+            mPending = 0;
+            analyze();
+        }
+    }
+
+    private void analyze() {
+        final int n = mFftSize;
+        final int tail = n - mWritePos; // History ring starts at write position
+        System.arraycopy(mHistory, mWritePos, mWave, 0, tail);
+        System.arraycopy(mHistory, 0, mWave, tail, mWritePos);
+        for (int i = 0; i < n; i++) {
+            mFrame[i] = mWave[i] * mWindow[i];
+        }
+        mFft.magnitude(mFrame, mMagnitudes);
+        for (int k = 0; k < mMagnitudes.length; k++) {
+            mMagnitudes[k] *= mScale;
+        }
+        for (int i = 0; i < n; i++) {
+            mWave[i] = (mWave[i] + 1) * 0.5f; // Normalize to [0,1]
+        }
+        if (mCallback != null) {
+            mCallback.onData(AudioFxCallback.WAV, mWave);
+            mCallback.onData(AudioFxCallback.FFT, mMagnitudes);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.AutoGain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bring the capture to a steady level, software fallback of the platform AutomaticGainControl
+ * Output keeps the frame sizes and lags the look-ahead of the AutoGain limiter, timestamps are moved back by it.
+ */
+public class AudioSinkAutoGain extends AudioSinkSampleFilter {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkAutoGain.class);
+
+    private static final int DEFAULT_LOOK_AHEAD = 5;    // ms
+    private static final float DEFAULT_TARGET = -18;    // dBFS
+    private static final float DEFAULT_MAX_GAIN = 30;   // dB
+
+    private int mLookAheadMillis = DEFAULT_LOOK_AHEAD;
+    private float mTarget = DEFAULT_TARGET;
+    private float mMaxGain = DEFAULT_MAX_GAIN;
+    private AutoGain mAgc;
+    private long mLatency;          // us
+    private float[] mOut;
+
+    public AudioSinkAutoGain(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+    }
+
+    /** Time the limiter sees peaks coming, also the added latency, in ms */
+    public AudioSinkAutoGain setLookAhead(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mLookAheadMillis = ms;
+        return this;
+    }
+
+    /** RMS level of the output, in dBFS */
+    public AudioSinkAutoGain setTargetLevel(float dbfs) {
+        sLogger.trace("dbfs:{}", dbfs);
+        mTarget = dbfs;
+        return this;
+    }
+
+    /** Largest gain applied to a soft input, in dB */
+    public AudioSinkAutoGain setMaxGain(float db) {
+        sLogger.trace("db:{}", db);
+        mMaxGain = db;
+        return this;
+    }
+
+    @Override // AudioSinkSampleFilter
+    protected boolean onSampleStart(int sampleRate, int numChannels, int frames) {
+        sLogger.trace("sampleRate:{} numChannels:{} frames:{}", sampleRate, numChannels, frames);
+        int lookAhead = Math.max(0, mLookAheadMillis * sampleRate / 1000);
+        mAgc = new AutoGain(sampleRate, numChannels, lookAhead).setTargetLevel(mTarget).setMaxGain(mMaxGain);
+        mLatency = lookAhead * 1000000L / sampleRate;
+        mOut = new float[frames * numChannels];
+        sLogger.debug("AGC target:{}dBFS maxGain:{}dB lookAhead:{}", mTarget, mMaxGain, lookAhead);
+        return true;
+    }
+
+    // Shared frame samples are read only, the gain goes to the own array
+    @Override // AudioSinkSampleFilter
+    protected void onSamples(@NonNull float[] samples, int frames, long timestamp) {
+        int count = frames * mAgc.channels();
+        if (count > mOut.length) { // Bigger frame than announced in onStart
+            mOut = new float[count];
+        }
+        mAgc.process(samples, mOut, frames);
+        output(mOut, frames, timestamp - mLatency);
+    }
+
+    @Override // AudioSinkSampleFilter
+    protected void onSampleStop() {
+        sLogger.debug("AGC gain:{}dB limited:{}/{}", String.format("%.1f", mAgc.getGain()),
+                mAgc.getLimitedCount(), mAgc.getFrameCount());
+    }
+
+    /** Gain applied to the latest frame in dB, 0 when bypassed */
+    public float getGain() {
+        AutoGain agc = mAgc;
+        return (agc != null && !isBypassed()) ? agc.getGain() : 0;
+    }
+}
@@ -0,0 +1,115 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Base of stages filtering interleaved float samples in fixed size blocks, e.g. FFT based filters
+ * Frames are cut into the blocks asked by onBlockStart, output keeps the frame sizes and lags one block plus
+ * the delay of the filter, timestamps are moved back by the same amount. Buffers are allocated on start,
+ * only a frame bigger than announced allocates again.
+ */
+public abstract class AudioSinkBlockFilter extends AudioSinkSampleFilter {
+
+    private int mSampleRate;
+    private int mNumChannels;
+    private int mBlock;             // Frames
+    private long mLatency;          // us
+    private int mFrames;            // Largest frame the buffers hold
+    private float[] mNear;          // Input waiting for a full block
+    private int mNearCount;         // Frames
+    private float[] mOut;           // Filtered samples waiting for output
+    private int mOutCount;
+    private float[] mBlockIn;
+    private float[] mBlockOut;
+
+    public AudioSinkBlockFilter(AudioSink sink) {
+        super(sink);
+    }
+
+    /**
+     * Prepare the filter for the stream
+     * @return frames per block, 0 to pass the stream through untouched
+     */
+    protected abstract int onBlockStart(int sampleRate, int numChannels);
+
+    /**
+     * Filter one block
+     * @param in        block interleaved samples
+     * @param out       block interleaved samples
+     * @param timestamp capture time of the first input frame
+     */
+    protected abstract void onBlock(@NonNull float[] in, @NonNull float[] out, long timestamp);
+
+    protected void onBlockStop() {
+    }
+
+    /** Delay of the filter itself in frames, on top of the block */
+    protected int getFilterDelay() {
+        return 0;
+    }
+
+    @Override // AudioSinkSampleFilter
+    protected boolean onSampleStart(int sampleRate, int numChannels, int frames) {
+        mSampleRate = sampleRate;
+        mNumChannels = numChannels;
+        mBlock = onBlockStart(sampleRate, numChannels);
+        if (mBlock <= 0) {
+            return false;
+        }
+        mLatency = (mBlock + getFilterDelay()) * 1000000L / sampleRate;
+        mNear = null;
+        allocate(frames);
+        mBlockIn = new float[mBlock * numChannels];
+        mBlockOut = new float[mBlock * numChannels];
+        mNearCount = 0;
+        mOutCount = mBlock; // One block of silence keeps every output frame full
+        Arrays.fill(mOut, 0);
+        return true;
+    }
+
+    @Override // AudioSinkSampleFilter
+    protected void onSampleStop() {
+        onBlockStop();
+    }
+
+    private void allocate(int frames) {
+        int channels = mNumChannels;
+        float[] near = new float[(mBlock + frames) * channels];
+        float[] out = new float[(2 * mBlock + frames) * channels];
+        if (mNear != null) { // Keep what is pending
+            System.arraycopy(mNear, 0, near, 0, mNearCount * channels);
+            System.arraycopy(mOut, 0, out, 0, mOutCount * channels);
+        }
+        mNear = near;
+        mOut = out;
+        mFrames = frames;
+    }
+
+    @Override // AudioSinkSampleFilter
+    protected void onSamples(@NonNull float[] samples, int frames, long timestamp) {
+        final int channels = mNumChannels;
+        final int block = mBlock;
+        if (frames > mFrames) { // Bigger frame than announced in onStart
+            allocate(frames);
+        }
+        long first = timestamp - mNearCount * 1000000L / mSampleRate; // Capture time of the first pending frame
+        System.arraycopy(samples, 0, mNear, mNearCount * channels, frames * channels);
+        mNearCount += frames;
+        int done = 0;
+        while (mNearCount - done >= block) {
+            System.arraycopy(mNear, done * channels, mBlockIn, 0, block * channels);
+            onBlock(mBlockIn, mBlockOut, first + done * 1000000L / mSampleRate);
+            System.arraycopy(mBlockOut, 0, mOut, mOutCount * channels, block * channels);
+            mOutCount += block;
+            done += block;
+        }
+        mNearCount -= done;
+        System.arraycopy(mNear, done * channels, mNear, 0, mNearCount * channels);
+
+        output(mOut, frames, timestamp - mLatency);
+        mOutCount -= frames;
+        System.arraycopy(mOut, frames * channels, mOut, 0, mOutCount * channels);
+    }
+}
@@ -0,0 +1,99 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.EchoCanceller;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Remove the echo of the played far end from the capture, software fallback of the platform AcousticEchoCanceler
+ * Capture is cut in blocks for the EchoCanceller, each block reads the reference presented at its capture time
+ * plus a lead, so an echo heard a little before the estimated presentation time is still causal for the filter.
+ * Output keeps the frame sizes and lags one block.
+ */
+public class AudioSinkEchoCanceller extends AudioSinkBlockFilter {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkEchoCanceller.class);
+
+    private static final int DEFAULT_TAIL = 170;        // ms
+    private static final long DEFAULT_LEAD = 10000;     // us
+
+    private final EchoReference mReference;
+    private int mTailMillis = DEFAULT_TAIL;
+    private long mLead = DEFAULT_LEAD;
+    private EchoCanceller mAec;
+    private int mSampleRate;
+    private float[] mFar;
+    private boolean mRateWarned;
+
+    /** @param reference far end written by the output, e.g. AudioSinkPlayer.setEchoReference */
+    public AudioSinkEchoCanceller(AudioSink sink, @NonNull EchoReference reference) {
+        super(sink);
+        sLogger.trace("sink:{} reference:{}", sink, reference);
+        mReference = reference;
+    }
+
+    /** Longest echo path covered by the filter, output latency error included, in ms */
+    public AudioSinkEchoCanceller setTail(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mTailMillis = ms;
+        return this;
+    }
+
+    /** How much earlier than its estimated presentation time an echo may be heard, in us */
+    public AudioSinkEchoCanceller setLead(long us) {
+        sLogger.trace("us:{}", us);
+        mLead = us;
+        return this;
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected int onBlockStart(int sampleRate, int numChannels) {
+        sLogger.trace("sampleRate:{} numChannels:{}", sampleRate, numChannels);
+        mSampleRate = sampleRate;
+        int block = Integer.highestOneBit(Math.max(32, sampleRate / 150)); // About 5ms
+        int partitions = Math.max(1, (int) Math.ceil((double) mTailMillis * sampleRate / 1000 / block));
+        mAec = new EchoCanceller(block, partitions, numChannels);
+        mFar = new float[block];
+        mRateWarned = false;
+        sLogger.debug("AEC block:{} partitions:{} tail:{}ms", block, partitions, partitions * block * 1000 / sampleRate);
+        return block;
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected void onBlock(@NonNull float[] in, @NonNull float[] out, long timestamp) {
+        int rate = mReference.getSampleRate();
+        if (rate == mSampleRate) {
+            mReference.read(mFar, mFar.length, timestamp + mLead);
+        } else {
+            if (rate != 0 && !mRateWarned) {
+                sLogger.warn("Echo reference rate {} differs from capture {}, echo kept", rate, mSampleRate);
+                mRateWarned = true;
+            }
+            Arrays.fill(mFar, 0);
+        }
+        mAec.process(mFar, in, out);
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected void onBlockStop() {
+        sLogger.debug("AEC erle:{}dB blocks:{} adapted:{} doubleTalk:{}", String.format("%.1f", mAec.getErle()),
+                mAec.getBlockCount(), mAec.getAdaptedCount(), mAec.getDoubleTalkCount());
+    }
+
+    /** Echo return loss enhancement while only the far end talks, 0 when bypassed */
+    public float getErle() {
+        EchoCanceller aec = mAec;
+        return (aec != null && !isBypassed()) ? aec.getErle() : 0;
+    }
+
+    /** Blocks that held the adaptation for the near end talking */
+    public long getDoubleTalkCount() {
+        EchoCanceller aec = mAec;
+        return (aec != null && !isBypassed()) ? aec.getDoubleTalkCount() : 0;
+    }
+}
@@ -0,0 +1,255 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record PCM into a WAV file without blocking the producer
+ * onData only copies the frame into a lock-free AudioRingBuffer, a writer thread coalesces frames
+ * into one large chunk and writes it with a single FileChannel.write at chunk aligned file offsets.
+ * The RIFF header is written with zero sizes and patched on onStop.
+ */
+public class AudioSinkFile implements AudioSink {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkFile.class);
+
+    private static final int DEFAULT_CAPACITY = 128;        // 1.28s with 10ms frames, covers storage stalls
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 44;
+
+    private final File mFile;
+    private int mCapacity = DEFAULT_CAPACITY;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private volatile AudioRingBuffer mRing;
+    private volatile boolean mRunning;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private Thread mThread;
+    private int mSampleBits;
+
+    private volatile long mMaxEnqueueNanos;
+    private volatile long mBytesWritten;    // PCM bytes, without header
+    private volatile long mWriteNanos;      // Time spent in FileChannel.write
+    private volatile long mWriteCount;
+
+    public AudioSinkFile(@NonNull File file) {
+        sLogger.trace("file:{}", file);
+        mFile = file;
+    }
+
+    /** Frames capacity of the queue, round up to power of two, apply on next onStart */
+    public AudioSinkFile setCapacity(int frames) {
+        sLogger.trace("frames:{}", frames);
+        mCapacity = frames;
+        return this;
+    }
+
+    /** Bytes per FileChannel write, round up to multiple of 4KiB, apply on next onStart */
+    public AudioSinkFile setChunkSize(int bytes) {
+        sLogger.trace("bytes:{}", bytes);
+        mChunkSize = Math.max(4096, (bytes + 4095) & ~4095);
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        try {
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mRaf.setLength(0);
+            mChannel = mRaf.getChannel();
+        } catch (IOException ex) {
+            sLogger.warn("Failed to open file {} - {}", mFile, ex.getMessage());
+            close();
+            return;
+        }
+        mSampleBits = sampleBits;
+        mMaxEnqueueNanos = 0;
+        mBytesWritten = 0;
+        mWriteNanos = 0;
+        mWriteCount = 0;
+        mRing = new AudioRingBuffer(mCapacity, frameSize, AudioRingBuffer.Overflow.DROP_NEWEST);
+        mRunning = true;
+        mThread = new WriterThread(mRing, header(sampleRate, sampleBits, numChannels));
+        mThread.start();
+        sLogger.debug("File {} capacity:{} chunk:{}", mFile.getName(), mRing.getCapacity(), mChunkSize);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            long begin = System.nanoTime();
+            ring.offer(buffer, offset, size, timestamp);
+            long cost = System.nanoTime() - begin;
+            if (cost > mMaxEnqueueNanos) { // Only written by the producer thread
+                mMaxEnqueueNanos = cost;
+            }
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        mRunning = false;
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.close();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("Failed to join thread - {}", ex.getMessage());
+                Thread.currentThread().interrupt(); // Restore interrupted state
+            }
+            mThread = null;
+        }
+        if (mChannel != null) {
+            try {
+                ByteBuffer size = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                size.putInt(0, (int) Math.min(0xFFFFFFFFL, mBytesWritten + HEADER_SIZE - 8));
+                mChannel.write(size, 4);
+                size.clear();
+                size.putInt(0, (int) Math.min(0xFFFFFFFFL, mBytesWritten));
+                mChannel.write(size, HEADER_SIZE - 4);
+            } catch (IOException ex) {
+                sLogger.warn("Failed to patch header - {}", ex.getMessage());
+            }
+        }
+        if (ring != null) {
+            sLogger.debug("File bytes:{} writes:{} dropped:{} throughput:{}MB/s maxEnqueue:{}us", mBytesWritten, mWriteCount,
+                    ring.getDroppedFrames(), getWriteThroughput(), getMaxEnqueueLatency());
+        }
+        close();
+    }
+
+    /** PCM bytes written to the file */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /** Sustained write speed in MB/s, bytes over the time spent inside FileChannel.write */
+    public double getWriteThroughput() {
+        long nanos = mWriteNanos;
+        return (nanos > 0) ? mBytesWritten * 1000.0 / nanos : 0;
+    }
+
+    /** Longest time onData took on the producer thread, in microseconds */
+    public long getMaxEnqueueLatency() {
+        return mMaxEnqueueNanos / 1000;
+    }
+
+    public long getDroppedFrames() {
+        AudioRingBuffer ring = mRing;
+        return (ring != null) ? ring.getDroppedFrames() : 0;
+    }
+
+    private void close() {
+        mRing = null;
+        mChannel = null;
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close file - {}", ex.getMessage());
+            }
+            mRaf = null;
+        }
+    }
+
+    private static ByteBuffer header(int sampleRate, int sampleBits, int numChannels) {
+        int blockAlign = numChannels * sampleBits / Byte.SIZE;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(0).putInt(0x45564157); // RIFF size WAVE, size patched on stop
+        header.putInt(0x20746d66).putInt(16)
+                .putShort((short) ((sampleBits == 32) ? 3 : 1)) // IEEE float or PCM
+                .putShort((short) numChannels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) sampleBits);
+        header.putInt(0x61746164).putInt(0); // data size, patched on stop
+        header.flip();
+        return header;
+    }
+
+    private class WriterThread extends Thread {
+        private final AudioRingBuffer mQueue;
+        private final ByteBuffer mFrame;
+        private final ByteBuffer mChunk;    // Pending bytes, flushed by mChunkSize
+        private long mFilePos;
+        public WriterThread(AudioRingBuffer ring, ByteBuffer header) {
+            super("AudioSinkFile");
+            mQueue = ring;
+            mFrame = ByteBuffer.allocateDirect(ring.getSlotSize()).order(ByteOrder.nativeOrder());
+            mChunk = ByteBuffer.allocateDirect(mChunkSize + ring.getSlotSize() + HEADER_SIZE);
+            mChunk.put(header); // Header shares the first chunk, later writes stay aligned
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            try {
+                while (true) {
+                    int size = mQueue.poll(mFrame);
+                    if (size >= 0) {
+                        append(size);
+                        if (mChunk.position() >= mChunkSize) {
+                            write(mChunkSize);
+                        }
+                    } else if (mRunning) {
+                        mQueue.await(50, TimeUnit.MILLISECONDS);
+                    } else {
+                        break; // Drained after stop
+                    }
+                }
+                write(mChunk.position());
+            } catch (Exception ex) {
+                sLogger.warn("Failed to write audio - {}", ex.getMessage());
+            }
+            sLogger.debug("-");
+        }
+        private void append(int size) {
+            if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN || mSampleBits == 8) {
+                mFrame.limit(size).position(0);
+                mChunk.put(mFrame);
+                mFrame.clear();
+            } else if (mSampleBits == 16) { // WAV is little endian
+                for (int i = 0; i + 1 < size; i += 2) {
+                    mChunk.putShort(Short.reverseBytes(mFrame.getShort(i)));
+                }
+            } else {
+                for (int i = 0; i + 3 < size; i += 4) {
+                    mChunk.putInt(Integer.reverseBytes(mFrame.getInt(i)));
+                }
+            }
+        }
+        private void write(int bytes) throws IOException {
+            if (bytes <= 0) {
+                return;
+            }
+            mChunk.flip();
+            int end = mChunk.limit();
+            mChunk.limit(bytes);
+            long begin = System.nanoTime();
+            while (mChunk.hasRemaining()) {
+                mFilePos += mChannel.write(mChunk, mFilePos);
+            }
+            mWriteNanos += System.nanoTime() - begin;
+            mWriteCount++;
+            mBytesWritten = mFilePos - HEADER_SIZE;
+            mChunk.limit(end);
+            mChunk.compact(); // Keep the tail for the next chunk
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.codec.FlacEncoder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Record PCM into a FLAC file, lossless compressed on a background thread
+ * onData only copies the frame into a lock-free AudioRingBuffer like AudioSinkFile, the encoder thread collects
+ * blocks of samples, encodes them straight into the write chunk and writes the chunk with one FileChannel.write.
+ * STREAMINFO is rewritten with the final sample count and frame sizes on onStop.
+ * 8 and 16 bits PCM is kept as is, 32 bits float is stored as 24 bits integer.
+ */
+public class AudioSinkFlac implements AudioSink {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkFlac.class);
+
+    private static final int DEFAULT_CAPACITY = 128;        // 1.28s with 10ms frames
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private int mCapacity = DEFAULT_CAPACITY;
+    private int mBlockSize = FlacEncoder.DEFAULT_BLOCK_SIZE;
+    private volatile AudioRingBuffer mRing;
+    private volatile boolean mRunning;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private FlacEncoder mEncoder;
+    private Thread mThread;
+    private int mSampleRate;
+    private int mSampleBits;
+    private int mNumChannels;
+
+    private volatile long mBytesIn;         // PCM bytes encoded
+    private volatile long mBytesOut;        // FLAC bytes written
+    private volatile long mEncodeNanos;
+
+    public AudioSinkFlac(@NonNull File file) {
+        sLogger.trace("file:{}", file);
+        mFile = file;
+    }
+
+    /** Frames capacity of the queue, round up to power of two, apply on next onStart */
+    public AudioSinkFlac setCapacity(int frames) {
+        sLogger.trace("frames:{}", frames);
+        mCapacity = frames;
+        return this;
+    }
+
+    /** Samples per channel of one FLAC frame, apply on next onStart */
+    public AudioSinkFlac setBlockSize(int samples) {
+        sLogger.trace("samples:{}", samples);
+        mBlockSize = samples;
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        try {
+            mEncoder = new FlacEncoder(sampleRate, (sampleBits == 32) ? 24 : sampleBits, numChannels, mBlockSize);
+            mRaf = new RandomAccessFile(mFile, "rw");
+            mRaf.setLength(0);
+            mChannel = mRaf.getChannel();
+        } catch (IllegalArgumentException | IOException ex) {
+            sLogger.warn("Failed to open file {} - {}", mFile, ex.getMessage());
+            close();
+            return;
+        }
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mNumChannels = numChannels;
+        mBytesIn = 0;
+        mBytesOut = 0;
+        mEncodeNanos = 0;
+        mRing = new AudioRingBuffer(mCapacity, frameSize, AudioRingBuffer.Overflow.DROP_NEWEST);
+        mRunning = true;
+        mThread = new EncoderThread(mRing, mEncoder);
+        mThread.start();
+        sLogger.debug("Flac {} capacity:{} block:{}", mFile.getName(), mRing.getCapacity(), mBlockSize);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.offer(buffer, offset, size, timestamp);
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        mRunning = false;
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.close();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("Failed to join thread - {}", ex.getMessage());
+                Thread.currentThread().interrupt(); // Restore interrupted state
+            }
+            mThread = null;
+        }
+        if (mChannel != null) {
+            try {
+                byte[] header = new byte[FlacEncoder.HEADER_SIZE];
+                mEncoder.writeHeader(header, 0);
+                mChannel.write(ByteBuffer.wrap(header), 0);
+            } catch (IOException ex) {
+                sLogger.warn("Failed to patch header - {}", ex.getMessage());
+            }
+        }
+        if (ring != null) {
+            sLogger.debug("Flac in:{} out:{} ratio:{} speed:{}x dropped:{}", mBytesIn, mBytesOut, getCompressionRatio(),
+                    getEncodeSpeed(), ring.getDroppedFrames());
+        }
+        close();
+    }
+
+    /** PCM bytes over FLAC bytes */
+    public double getCompressionRatio() {
+        long out = mBytesOut;
+        return (out > 0) ? (double) mBytesIn / out : 0;
+    }
+
+    /** Seconds of audio encoded per second of encoder time */
+    public double getEncodeSpeed() {
+        long nanos = mEncodeNanos;
+        long bytesPerSecond = (long) mSampleRate * mNumChannels * (mSampleBits / Byte.SIZE);
+        return (nanos > 0 && bytesPerSecond > 0) ? (double) mBytesIn / bytesPerSecond / (nanos / 1e9) : 0;
+    }
+
+    public long getBytesWritten() {
+        return mBytesOut;
+    }
+
+    public long getDroppedFrames() {
+        AudioRingBuffer ring = mRing;
+        return (ring != null) ? ring.getDroppedFrames() : 0;
+    }
+
+    private void close() {
+        mRing = null;
+        mChannel = null;
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close file - {}", ex.getMessage());
+            }
+            mRaf = null;
+        }
+    }
+
+    private class EncoderThread extends Thread {
+        private final AudioRingBuffer mQueue;
+        private final FlacEncoder mCodec;
+        private final ByteBuffer mFrame;
+        private final int[][] mBlock;
+        private final byte[] mChunk;    // Encoded frames pending, flushed by DEFAULT_CHUNK_SIZE
+        private final ByteBuffer mChunkBuffer;
+        private int mFill;              // Samples per channel in mBlock
+        private int mChunkPos;
+        private long mFilePos;
+        public EncoderThread(AudioRingBuffer ring, FlacEncoder encoder) {
+            super("AudioSinkFlac");
+            mQueue = ring;
+            mCodec = encoder;
+            mFrame = ByteBuffer.allocateDirect(ring.getSlotSize()).order(ByteOrder.nativeOrder());
+            mBlock = new int[mNumChannels][encoder.getBlockSize()];
+            mChunk = new byte[DEFAULT_CHUNK_SIZE + encoder.getMaxFrameSize()];
+            mChunkBuffer = ByteBuffer.wrap(mChunk);
+            mChunkPos = encoder.writeHeader(mChunk, 0); // Placeholder, rewritten on stop
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            try {
+                while (true) {
+                    int size = mQueue.poll(mFrame);
+                    if (size >= 0) {
+                        append(size);
+                    } else if (mRunning) {
+                        mQueue.await(50, TimeUnit.MILLISECONDS);
+                    } else {
+                        break; // Drained after stop
+                    }
+                }
+                if (mFill > 0) {
+                    encode();
+                }
+                flush();
+            } catch (Exception ex) {
+                sLogger.warn("Failed to encode audio - {}", ex.getMessage());
+            }
+            sLogger.debug("-");
+        }
+        private void append(int size) throws IOException {
+            long begin = System.nanoTime();
+            int channels = mNumChannels;
+            int bytes = mSampleBits / Byte.SIZE;
+            int frames = size / (bytes * channels);
+            int blockSize = mBlock[0].length;
+            for (int i = 0, pos = 0; i < frames; i++) {
+                for (int c = 0; c < channels; c++, pos += bytes) {
+                    int value;
+                    switch (mSampleBits) {
+                    case 8: value = (mFrame.get(pos) & 0xFF) - 128; break;
+                    case 16: value = mFrame.getShort(pos); break;
+                    default: value = (int) (Math.max(-1f, Math.min(1f, mFrame.getFloat(pos))) * 8388607); break;
+                    }
+                    mBlock[c][mFill] = value;
+                }
+                if (++mFill == blockSize) {
+                    encode();
+                }
+            }
+            mBytesIn += size;
+            mEncodeNanos += System.nanoTime() - begin; // Includes the writes, they are part of the sustained speed
+        }
+        private void encode() throws IOException {
+            mChunkPos += mCodec.encode(mBlock, mFill, mChunk, mChunkPos);
+            mFill = 0;
+            if (mChunkPos >= DEFAULT_CHUNK_SIZE) {
+                flush();
+            }
+        }
+        private void flush() throws IOException {
+            mChunkBuffer.limit(mChunkPos).position(0);
+            while (mChunkBuffer.hasRemaining()) {
+                mFilePos += mChannel.write(mChunkBuffer, mFilePos);
+            }
+            mBytesOut = mFilePos;
+            mChunkPos = 0;
+        }
+    }
+}
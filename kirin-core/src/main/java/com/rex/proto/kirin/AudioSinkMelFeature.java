@@ -0,0 +1,234 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.Decimator;
+import com.rex.proto.kirin.dsp.Fft;
+import com.rex.proto.kirin.dsp.MelFilterBank;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streaming log-mel spectrogram features in YAMnet layout, pass PCM through unchanged
+ * Downmix to mono, decimate to 16kHz, 25ms window with 10ms hop, 512 points FFT magnitude,
+ * 64 mel bands 125-7500Hz and log(mel + 0.001). Every STFT frame is computed once and kept in a ring,
+ * 0.96s patches of 96 frames are assembled from the ring every patch hop into one reused array.
+ * Ref: <a href="https://github.com/tensorflow/models/tree/master/research/audioset/yamnet">...</a>
+ */
+public class AudioSinkMelFeature extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkMelFeature.class);
+
+    public static final int SAMPLE_RATE = 16000;
+    public static final int WINDOW_SIZE = 400;  // 25ms
+    public static final int HOP_SIZE = 160;     // 10ms
+    public static final int FFT_SIZE = 512;
+    public static final int MEL_BANDS = 64;
+    public static final int PATCH_FRAMES = 96;  // 0.96s
+    private static final int DEFAULT_PATCH_HOP = 48; // 0.48s
+    private static final float MEL_LOW_HZ = 125;
+    private static final float MEL_HIGH_HZ = 7500;
+    private static final float LOG_OFFSET = 0.001f;
+
+    public interface Callback {
+        /**
+         * @param patch     frames x bands log-mel values in row major order, reused after return
+         * @param timestamp time of the first sample of the first frame, in microseconds
+         */
+        void onPatch(float[] patch, int frames, int bands, long timestamp);
+    }
+
+    private final MelFilterBank mMel = new MelFilterBank(MEL_BANDS, FFT_SIZE, SAMPLE_RATE, MEL_LOW_HZ, MEL_HIGH_HZ);
+    private final Fft mFft = new Fft(FFT_SIZE);
+    private final float[] mWindow = new float[WINDOW_SIZE];
+    private final float[] mSamples = new float[FFT_SIZE];   // Ring of latest 16kHz samples
+    private final float[] mFrame = new float[FFT_SIZE];     // Windowed and zero padded
+    private final float[] mSpectrum = new float[FFT_SIZE / 2 + 1];
+    private final float[] mMelRing = new float[PATCH_FRAMES * MEL_BANDS];
+    private final long[] mFrameTimes = new long[PATCH_FRAMES];
+    private final float[] mPatch = new float[PATCH_FRAMES * MEL_BANDS];
+
+    private int mPatchHop = DEFAULT_PATCH_HOP;
+    private Callback mCallback;
+
+    private Decimator mDecimator;
+    private float[] mMono;
+    private float[] mDecimated;
+    private int mSampleBits;
+    private int mNumChannels;
+    private ByteBuffer mSource;
+    private ByteBuffer mView;
+    private int mSamplePos;         // Write position in mSamples
+    private long mSampleCount;      // 16kHz samples received
+    private int mHopPending;        // Samples since last STFT frame
+    private long mFrameCount;       // STFT frames computed
+    private int mPatchPending;      // Frames since last patch
+    private long mBaseTimestamp;
+    private long mFrameCost;        // Nanoseconds spent in feature extraction
+
+    public AudioSinkMelFeature(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / WINDOW_SIZE)); // Periodic Hann
+        }
+    }
+
+    /** STFT frames between two patches, 1 to 96 */
+    public AudioSinkMelFeature setPatchHop(int frames) {
+        sLogger.trace("frames:{}", frames);
+        mPatchHop = Math.max(1, Math.min(PATCH_FRAMES, frames));
+        return this;
+    }
+
+    public AudioSinkMelFeature setCallback(Callback callback) {
+        sLogger.trace("callback:{}", callback);
+        mCallback = callback;
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        if (sampleRate % SAMPLE_RATE != 0) {
+            sLogger.warn("Unsupported sample rate {}, need multiple of {}", sampleRate, SAMPLE_RATE);
+            mDecimator = null;
+            return;
+        }
+        mDecimator = new Decimator(sampleRate / SAMPLE_RATE, 16);
+        mSampleBits = sampleBits;
+        mNumChannels = Math.max(1, numChannels);
+        mMono = new float[Math.max(frameSize, 1)];
+        mDecimated = new float[Math.max(frameSize, 1)];
+        mSource = null;
+        mView = null;
+        mSamplePos = 0;
+        mSampleCount = 0;
+        mHopPending = 0;
+        mFrameCount = 0;
+        mPatchPending = 0;
+        mFrameCost = 0;
+        sLogger.debug("Mel factor:{} weights:{}", mDecimator.factor(), mMel.weights());
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        super.onData(buffer, offset, size, timestamp);
+        if (mDecimator == null) {
+            return;
+        }
+        long begin = System.nanoTime();
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            if (buffer != mSource) {
+                mSource = buffer;
+                mView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mView;
+        }
+        if (mMono.length < size) {
+            mMono = new float[size];
+            mDecimated = new float[size];
+        }
+        int count = AudioBuffers.readMono(view, offset, size, mSampleBits, mNumChannels, mMono);
+        process(mMono, count, timestamp);
+        mFrameCost += System.nanoTime() - begin;
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        if (mDecimator == null || !frame.hasFormat()) {
+            super.onFrame(frame);
+            return;
+        }
+        if (mSink != null) {
+            mSink.onFrame(frame);
+        }
+        long begin = System.nanoTime();
+        int count = frame.frameCount();
+        if (mDecimated.length < count) {
+            mDecimated = new float[count];
+        }
+        process(frame.mono(), count, frame.timestamp());
+        mFrameCost += System.nanoTime() - begin;
+    }
+
+    private void process(float[] mono, int count, long timestamp) {
+        if (mSampleCount == 0) { // Decimator delay shifts the output, compensate in the time base
+            mBaseTimestamp = timestamp - (long) mDecimator.delay() * 1000000L / (SAMPLE_RATE * mDecimator.factor());
+        }
+        int produced = mDecimator.process(mono, 0, count, mDecimated, 0);
+        for (int i = 0; i < produced; i++) {
+            mSamples[mSamplePos] = mDecimated[i];
+            mSamplePos = (mSamplePos + 1) & (FFT_SIZE - 1);
+            mSampleCount++;
+            if (++mHopPending >= HOP_SIZE && mSampleCount >= WINDOW_SIZE) {
+                mHopPending = 0;
+                computeFrame();
+            }
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        super.onStop();
+        sLogger.trace("");
+        if (mDecimator != null && mSampleCount > 0) {
+            double audio = (double) mSampleCount / SAMPLE_RATE;
+            sLogger.debug("Mel frames:{} audio:{}s cost:{}ms", mFrameCount, audio, mFrameCost / 1000000);
+        }
+        mDecimator = null;
+    }
+
+    /** Wall time spent per second of audio, less than 1 means faster than real time */
+    public double getRealTimeFactor() {
+        return (mSampleCount > 0) ? mFrameCost / 1e9 / ((double) mSampleCount / SAMPLE_RATE) : 0;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    private void computeFrame() {
+        // Last WINDOW_SIZE samples end right before the write position
+        int start = (mSamplePos - WINDOW_SIZE) & (FFT_SIZE - 1);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            mFrame[i] = mSamples[(start + i) & (FFT_SIZE - 1)] * mWindow[i];
+        }
+        for (int i = WINDOW_SIZE; i < FFT_SIZE; i++) {
+            mFrame[i] = 0;
+        }
+        mFft.magnitude(mFrame, mSpectrum);
+
+        int slot = (int) (mFrameCount % PATCH_FRAMES);
+        int base = slot * MEL_BANDS;
+        mMel.apply(mSpectrum, mMelRing, base);
+        for (int b = 0; b < MEL_BANDS; b++) {
+            mMelRing[base + b] = (float) Math.log(mMelRing[base + b] + LOG_OFFSET);
+        }
+        long firstSample = mSampleCount - WINDOW_SIZE;
+        mFrameTimes[slot] = mBaseTimestamp + firstSample * 1000000L / SAMPLE_RATE;
+        mFrameCount++;
+
+        if (++mPatchPending >= mPatchHop && mFrameCount >= PATCH_FRAMES) {
+            mPatchPending = 0;
+            emitPatch();
+        }
+    }
+
+    private void emitPatch() {
+        // Oldest frame of the ring is the next slot to write
+        int oldest = (int) (mFrameCount % PATCH_FRAMES);
+        int tail = (PATCH_FRAMES - oldest) * MEL_BANDS;
+        System.arraycopy(mMelRing, oldest * MEL_BANDS, mPatch, 0, tail);
+        System.arraycopy(mMelRing, 0, mPatch, tail, oldest * MEL_BANDS);
+        if (mCallback != null) {
+            mCallback.onPatch(mPatch, PATCH_FRAMES, MEL_BANDS, mFrameTimes[oldest]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.NoiseReducer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suppress stationary background noise, software fallback of the platform NoiseSuppressor
+ * Capture is cut in blocks of about 5ms for the NoiseReducer, output keeps the frame sizes and lags two blocks,
+ * one for the block and one for the overlap of its analysis frames.
+ */
+public class AudioSinkNoiseSuppressor extends AudioSinkBlockFilter {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkNoiseSuppressor.class);
+
+    private static final float DEFAULT_REDUCTION = 15;  // dB
+
+    private float mReduction = DEFAULT_REDUCTION;
+    private NoiseReducer mReducer;
+
+    public AudioSinkNoiseSuppressor(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+    }
+
+    /** Most attenuation applied to noise, in dB */
+    public AudioSinkNoiseSuppressor setReduction(float db) {
+        sLogger.trace("db:{}", db);
+        mReduction = db;
+        return this;
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected int onBlockStart(int sampleRate, int numChannels) {
+        sLogger.trace("sampleRate:{} numChannels:{}", sampleRate, numChannels);
+        int block = Integer.highestOneBit(Math.max(32, sampleRate / 150)); // About 5ms
+        mReducer = new NoiseReducer(sampleRate, block, numChannels).setReduction(mReduction);
+        sLogger.debug("NS block:{} reduction:{}dB", block, mReduction);
+        return block;
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected int getFilterDelay() {
+        return mReducer.block();
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected void onBlock(@NonNull float[] in, @NonNull float[] out, long timestamp) {
+        mReducer.process(in, out);
+    }
+
+    @Override // AudioSinkBlockFilter
+    protected void onBlockStop() {
+        sLogger.debug("NS blocks:{} gain:{}dB", mReducer.getBlockCount(), String.format("%.1f", mReducer.getGain()));
+    }
+
+    /** Mean gain over the bins of the latest block in dB, 0 when bypassed */
+    public float getGain() {
+        NoiseReducer reducer = mReducer;
+        return (reducer != null && !isBypassed()) ? reducer.getGain() : 0;
+    }
+}
@@ -0,0 +1,109 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.PolyphaseResampler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Convert the sample rate of the stream for downstream sink, keep sample bits and channels
+ * onStart forwards the target rate and the converted frame size, filter state survives across onData.
+ * Same rate input passes through untouched.
+ */
+public class AudioSinkResampler extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkResampler.class);
+
+    private final int mTargetRate;
+    private PolyphaseResampler.Quality mQuality = PolyphaseResampler.Quality.MEDIUM;
+    private PolyphaseResampler mResampler;
+    private int mSampleBits;
+    private int mNumChannels;
+    private long mDelay;            // Filter group delay in microseconds
+    private float[] mInput;
+    private float[] mOutput;
+    private ByteBuffer mBuffer;     // Converted PCM for downstream
+    private ByteBuffer mSource;
+    private ByteBuffer mView;
+
+    public AudioSinkResampler(AudioSink sink, int targetRate) {
+        super(sink);
+        sLogger.trace("sink:{} targetRate:{}", sink, targetRate);
+        mTargetRate = targetRate;
+    }
+
+    public AudioSinkResampler setQuality(@NonNull PolyphaseResampler.Quality quality) {
+        sLogger.trace("quality:{}", quality);
+        mQuality = quality;
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        mSampleBits = sampleBits;
+        mNumChannels = Math.max(1, numChannels);
+        if (sampleRate == mTargetRate) {
+            mResampler = null;
+            super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+            return;
+        }
+        mResampler = new PolyphaseResampler(sampleRate, mTargetRate, mNumChannels, mQuality);
+        mDelay = Math.round(mResampler.delay() * 1000000 / sampleRate);
+        int bytesPerSample = sampleBits / Byte.SIZE;
+        int inFrames = frameSize / (bytesPerSample * mNumChannels);
+        int outFrames = mResampler.maxOutput(inFrames) + 1;
+        mInput = new float[inFrames * mNumChannels];
+        mOutput = new float[outFrames * mNumChannels];
+        mBuffer = ByteBuffer.allocateDirect(outFrames * mNumChannels * bytesPerSample).order(ByteOrder.nativeOrder());
+        mSource = null;
+        mView = null;
+        sLogger.debug("Resample {}->{} quality:{} delay:{}us", sampleRate, mTargetRate, mQuality, mDelay);
+        super.onStart(mTargetRate, sampleBits, mBuffer.capacity(), numChannels);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        PolyphaseResampler resampler = mResampler;
+        if (resampler == null) {
+            super.onData(buffer, offset, size, timestamp);
+            return;
+        }
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            if (buffer != mSource) {
+                mSource = buffer;
+                mView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mView;
+        }
+        int bytesPerSample = mSampleBits / Byte.SIZE;
+        int inFrames = size / (bytesPerSample * mNumChannels);
+        if (inFrames * mNumChannels > mInput.length) { // Bigger frame than announced in onStart
+            int outFrames = resampler.maxOutput(inFrames) + 1;
+            mInput = new float[inFrames * mNumChannels];
+            mOutput = new float[outFrames * mNumChannels];
+            mBuffer = ByteBuffer.allocateDirect(outFrames * mNumChannels * bytesPerSample).order(ByteOrder.nativeOrder());
+        }
+        AudioBuffers.readSamples(view, offset, inFrames * mNumChannels * bytesPerSample, mSampleBits, mInput);
+        int outFrames = resampler.process(mInput, inFrames, mOutput);
+        if (outFrames > 0) {
+            int bytes = AudioBuffers.writeSamples(mOutput, outFrames * mNumChannels, mSampleBits, mBuffer, 0);
+            super.onData(mBuffer, 0, bytes, timestamp - mDelay);
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        super.onStop();
+        mResampler = null;
+        mSource = null;
+        mView = null;
+    }
+}
@@ -0,0 +1,170 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouple the downstream sink from the producer thread with a lock-free AudioRingBuffer
+ * onData only copies the frame into the ring, downstream onData runs on its own consumer thread,
+ * so a slow sink e.g. AudioSinkPlayer with WRITE_BLOCKING never stalls AudioRecord.read
+ * onGap and onResume are queued along, the consumer thread delivers them in order with the frames.
+ */
+public class AudioSinkRing extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkRing.class);
+
+    private static final int DEFAULT_CAPACITY = 16; // 160ms with 10ms frames
+
+    private int mCapacity = DEFAULT_CAPACITY;
+    private AudioRingBuffer.Overflow mOverflow = AudioRingBuffer.Overflow.DROP_OLDEST;
+    private String mThreadName = "AudioSinkRing";
+    private final AudioSignalQueue mSignals = new AudioSignalQueue();
+    private volatile AudioRingBuffer mRing;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    public AudioSinkRing(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+    }
+
+    /** Frames capacity, round up to power of two, apply on next onStart */
+    public AudioSinkRing setCapacity(int frames) {
+        sLogger.trace("frames:{}", frames);
+        mCapacity = frames;
+        return this;
+    }
+
+    public AudioSinkRing setOverflow(@NonNull AudioRingBuffer.Overflow overflow) {
+        sLogger.trace("overflow:{}", overflow);
+        mOverflow = overflow;
+        return this;
+    }
+
+    /** Name of the consumer thread, apply on next onStart */
+    public AudioSinkRing setThreadName(@NonNull String name) {
+        sLogger.trace("name:{}", name);
+        mThreadName = name;
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        mRing = new AudioRingBuffer(mCapacity, frameSize, mOverflow);
+        mSignals.clear();
+        mRunning = true;
+        mThread = new ConsumerThread(mRing, mThreadName);
+        mThread.start();
+        sLogger.debug("Ring capacity:{} slotSize:{} overflow:{}", mRing.getCapacity(), frameSize, mOverflow);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.offer(buffer, offset, size, timestamp);
+        }
+    }
+
+    @Override // AudioSink
+    public void onGap(long timestamp) {
+        signal(true, timestamp);
+    }
+
+    @Override // AudioSink
+    public void onResume(long timestamp) {
+        signal(false, timestamp);
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        mRunning = false;
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            ring.close();
+        }
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("Failed to join thread - {}", ex.getMessage());
+                Thread.currentThread().interrupt(); // Restore interrupted state
+            }
+            mThread = null;
+        }
+        if (ring != null) {
+            sLogger.debug("Ring written:{} dropped:{}", ring.getWrittenFrames(), ring.getDroppedFrames());
+        }
+        super.onStop();
+    }
+
+    private void signal(boolean gap, long timestamp) {
+        AudioRingBuffer ring = mRing;
+        if (ring != null) {
+            mSignals.offer(ring.getWritePosition(), gap, timestamp);
+            ring.wakeConsumer();
+        }
+    }
+
+    /** Frames queued but not yet consumed */
+    public int getFillLevel() {
+        AudioRingBuffer ring = mRing;
+        return (ring != null) ? ring.getFillLevel() : 0;
+    }
+
+    public int getCapacity() {
+        AudioRingBuffer ring = mRing;
+        return (ring != null) ? ring.getCapacity() : mCapacity;
+    }
+
+    public long getDroppedFrames() {
+        AudioRingBuffer ring = mRing;
+        return (ring != null) ? ring.getDroppedFrames() : 0;
+    }
+
+    private class ConsumerThread extends Thread {
+        private final AudioRingBuffer mQueue;
+        private final ByteBuffer mBuffer;
+        public ConsumerThread(AudioRingBuffer ring, String name) {
+            super(name);
+            mQueue = ring;
+            mBuffer = ByteBuffer.allocateDirect(ring.getSlotSize()).order(ByteOrder.nativeOrder());
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            try {
+                while (true) {
+                    int size = mQueue.poll(mBuffer);
+                    if (mSink != null) {
+                        mSignals.deliver(mQueue.getReadPosition(), mSink);
+                    }
+                    if (size >= 0) {
+                        if (mSink != null) {
+                            mSink.onData(mBuffer, 0, size, mQueue.getReadTimestamp());
+                        }
+                    } else if (mRunning) {
+                        mQueue.await(10, TimeUnit.MILLISECONDS);
+                    } else {
+                        break; // Drained after stop
+                    }
+                }
+                if (mSink != null) {
+                    mSignals.deliver(Long.MAX_VALUE, mSink); // Signals sent right before stop
+                }
+            } catch (Exception ex) {
+                sLogger.warn("Failed to consume audio - {}", ex.getMessage());
+            }
+            sLogger.debug("-");
+        }
+    }
+}
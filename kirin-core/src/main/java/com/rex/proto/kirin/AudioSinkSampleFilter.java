@@ -0,0 +1,126 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base of stages processing interleaved float samples, handles the PCM around them
+ * 8, 16 and 32 bits input comes as floats in [-1, 1], frames carrying their format share their decode,
+ * other formats pass through untouched. output() encodes back to the input format through one reused buffer.
+ */
+public abstract class AudioSinkSampleFilter extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkSampleFilter.class);
+
+    private int mSampleBits;
+    private int mNumChannels;
+    private boolean mBypassed = true;
+    private float[] mInput;
+    private ByteBuffer mBuffer;
+    private ByteBuffer mSource;
+    private ByteBuffer mView;
+
+    public AudioSinkSampleFilter(AudioSink sink) {
+        super(sink);
+    }
+
+    /**
+     * Prepare the processing for the stream
+     * @param frames samples per channel of the announced frame size
+     * @return false to pass the stream through untouched
+     */
+    protected abstract boolean onSampleStart(int sampleRate, int numChannels, int frames);
+
+    /**
+     * Process one frame, hand the result to output()
+     * @param samples interleaved samples, read only, may be shared with other stages
+     */
+    protected abstract void onSamples(@NonNull float[] samples, int frames, long timestamp);
+
+    protected void onSampleStop() {
+    }
+
+    protected boolean isBypassed() {
+        return mBypassed;
+    }
+
+    /** Encode frames interleaved samples to the input format and pass them downstream */
+    protected void output(@NonNull float[] samples, int frames, long timestamp) {
+        int count = frames * mNumChannels;
+        if (count * mSampleBits / Byte.SIZE > mBuffer.capacity()) {
+            mBuffer = ByteBuffer.allocateDirect(count * mSampleBits / Byte.SIZE).order(ByteOrder.nativeOrder());
+        }
+        int bytes = AudioBuffers.writeSamples(samples, count, mSampleBits, mBuffer, 0);
+        super.onData(mBuffer, 0, bytes, timestamp);
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        mSampleBits = sampleBits;
+        mNumChannels = Math.max(1, numChannels);
+        if (sampleBits == 8 || sampleBits == 16 || sampleBits == 32) {
+            int frames = frameSize / (mNumChannels * sampleBits / Byte.SIZE);
+            mBypassed = !onSampleStart(sampleRate, mNumChannels, frames);
+            if (!mBypassed) {
+                mInput = new float[frames * mNumChannels];
+                mBuffer = ByteBuffer.allocateDirect(frames * mNumChannels * sampleBits / Byte.SIZE).order(ByteOrder.nativeOrder());
+                mSource = null;
+                mView = null;
+            }
+        } else {
+            mBypassed = true;
+            sLogger.warn("{} bypassed for {} bits samples", getClass().getSimpleName(), sampleBits);
+        }
+        super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        if (mBypassed) {
+            if (mSink != null) mSink.onFrame(frame);
+            return;
+        }
+        if (frame.hasFormat()) { // Decoded once for all stages reading the frame
+            onSamples(frame.samples(), frame.frameCount(), frame.timestamp());
+        } else {
+            onData(frame.buffer(), 0, frame.size(), frame.timestamp());
+        }
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        if (mBypassed) {
+            super.onData(buffer, offset, size, timestamp);
+            return;
+        }
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            if (buffer != mSource) {
+                mSource = buffer;
+                mView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mView;
+        }
+        int frames = size / (mNumChannels * mSampleBits / Byte.SIZE);
+        if (frames * mNumChannels > mInput.length) { // Bigger frame than announced in onStart
+            mInput = new float[frames * mNumChannels];
+        }
+        AudioBuffers.readSamples(view, offset, frames * mNumChannels * mSampleBits / Byte.SIZE, mSampleBits, mInput);
+        onSamples(mInput, frames, timestamp);
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        if (!mBypassed) {
+            onSampleStop();
+        }
+        super.onStop();
+        mSource = null;
+        mView = null;
+    }
+}
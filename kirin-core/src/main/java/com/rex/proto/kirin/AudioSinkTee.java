@@ -0,0 +1,297 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan out one stream to several sinks, each branch with its own bounded queue, worker thread and drop policy
+ * Frames from onFrame are shared by reference, data from onData is copied once into a pooled frame,
+ * so the slowest branch only drops its own frames and never sets the pace of the others.
+ * Each branch reads the shared frames through its own buffer view, since sinks move position and limit.
+ * onGap and onResume are queued per branch and reach each sink in order with its frames.
+ */
+public class AudioSinkTee implements AudioSink {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkTee.class);
+
+    private static final int DEFAULT_CAPACITY = 16; // 160ms with 10ms frames
+
+    private final List<Branch> mBranches = new ArrayList<>();
+    private FramePool mPool;
+
+    public AudioSinkTee() {
+        sLogger.trace("");
+    }
+
+    public AudioSinkTee addBranch(@NonNull AudioSink sink) {
+        return addBranch(sink, DEFAULT_CAPACITY, AudioRingBuffer.Overflow.DROP_OLDEST);
+    }
+
+    /**
+     * Add branch before onStart
+     * @param capacity frames queued for this branch
+     */
+    public AudioSinkTee addBranch(@NonNull AudioSink sink, int capacity, @NonNull AudioRingBuffer.Overflow overflow) {
+        sLogger.trace("sink:{} capacity:{} overflow:{}", sink, capacity, overflow);
+        mBranches.add(new Branch(sink, capacity, overflow));
+        return this;
+    }
+
+    public List<Branch> getBranches() {
+        return Collections.unmodifiableList(mBranches);
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        int frames = 1;
+        for (Branch branch : mBranches) {
+            frames += branch.mCapacity + 1; // Queued plus the one in process
+        }
+        mPool = new FramePool(frameSize, frames);
+        for (Branch branch : mBranches) {
+            branch.mSink.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        }
+        for (Branch branch : mBranches) {
+            branch.start();
+        }
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        FramePool pool = mPool;
+        AudioFrame frame = (pool != null && size <= pool.getFrameSize()) ? pool.acquire() : null;
+        if (frame == null) {
+            for (Branch branch : mBranches) {
+                branch.mMissed++;
+            }
+            return;
+        }
+        AudioBuffers.copy(buffer, offset, frame.buffer(), 0, size);
+        frame.set(size, timestamp);
+        onFrame(frame);
+        frame.release();
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        for (int i = 0; i < mBranches.size(); i++) {
+            Branch branch = mBranches.get(i);
+            AudioFrameQueue queue = branch.mQueue;
+            if (queue != null) {
+                queue.offer(frame.retain());
+            }
+        }
+    }
+
+    @Override // AudioSink
+    public void onGap(long timestamp) {
+        for (int i = 0; i < mBranches.size(); i++) {
+            mBranches.get(i).signal(true, timestamp);
+        }
+    }
+
+    @Override // AudioSink
+    public void onResume(long timestamp) {
+        for (int i = 0; i < mBranches.size(); i++) {
+            mBranches.get(i).signal(false, timestamp);
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        for (Branch branch : mBranches) {
+            branch.stop();
+        }
+        for (Branch branch : mBranches) {
+            branch.mSink.onStop();
+            sLogger.debug("{}", branch);
+        }
+        if (mPool != null && mPool.checkLeaks() > 0) {
+            sLogger.warn("Frames leaked by branches");
+        }
+        mPool = null;
+    }
+
+    public static class Branch {
+        private final AudioSink mSink;
+        private final int mCapacity;
+        private final AudioRingBuffer.Overflow mOverflow;
+        private final AudioSignalQueue mSignals = new AudioSignalQueue();
+        private volatile AudioFrameQueue mQueue;
+        private volatile boolean mRunning;
+        private Thread mThread;
+        private ByteBuffer mSource;     // Worker side, pooled buffer mView duplicates
+        private ByteBuffer mView;
+        // Written by producer or worker only, read by anyone
+        private volatile long mMissed;
+        private volatile long mDelivered;
+        private volatile long mErrors;
+        private volatile long mLatencySum;
+        private volatile long mLatencyMax;
+
+        Branch(AudioSink sink, int capacity, AudioRingBuffer.Overflow overflow) {
+            mSink = sink;
+            mCapacity = capacity;
+            mOverflow = overflow;
+        }
+
+        public String getName() {
+            return mSink.getClass().getSimpleName();
+        }
+
+        public AudioSink getSink() {
+            return mSink;
+        }
+
+        /** Frames delivered to the sink */
+        public long getDelivered() {
+            return mDelivered;
+        }
+
+        /** Frames and signals the sink threw on */
+        public long getErrors() {
+            return mErrors;
+        }
+
+        /** Frames dropped by queue overflow or pool exhausted */
+        public long getDropped() {
+            AudioFrameQueue queue = mQueue;
+            return mMissed + ((queue != null) ? queue.getDroppedFrames() : 0);
+        }
+
+        public int getFillLevel() {
+            AudioFrameQueue queue = mQueue;
+            return (queue != null) ? queue.getFillLevel() : 0;
+        }
+
+        /** From enqueue to sink returned, in microseconds */
+        public long getAverageLatency() {
+            long delivered = mDelivered;
+            return (delivered > 0) ? mLatencySum / delivered / 1000 : 0;
+        }
+
+        /** From enqueue to sink returned, in microseconds */
+        public long getMaxLatency() {
+            return mLatencyMax / 1000;
+        }
+
+        void start() {
+            mMissed = 0;
+            mDelivered = 0;
+            mErrors = 0;
+            mLatencySum = 0;
+            mLatencyMax = 0;
+            mQueue = new AudioFrameQueue(mCapacity, mOverflow);
+            mSignals.clear();
+            mRunning = true;
+            mThread = new Thread(this::run, "AudioTee-" + getName());
+            mThread.start();
+        }
+
+        void stop() {
+            mRunning = false;
+            AudioFrameQueue queue = mQueue;
+            if (queue != null) {
+                queue.close();
+            }
+            if (mThread != null) {
+                try {
+                    mThread.join();
+                } catch (InterruptedException ex) {
+                    sLogger.warn("Failed to join thread - {}", ex.getMessage());
+                    Thread.currentThread().interrupt(); // Restore interrupted state
+                }
+                mThread = null;
+            }
+            if (queue != null) {
+                queue.clear();
+            }
+            mSource = null;
+            mView = null;
+        }
+
+        void signal(boolean gap, long timestamp) {
+            AudioFrameQueue queue = mQueue;
+            if (queue != null) {
+                mSignals.offer(queue.getWritePosition(), gap, timestamp);
+                queue.wakeConsumer();
+            }
+        }
+
+        private void run() {
+            sLogger.debug("+");
+            final AudioFrameQueue queue = mQueue;
+            try {
+                while (true) {
+                    AudioFrame frame = queue.poll();
+                    deliverSignals(queue.getReadPosition());
+                    if (frame != null) {
+                        try {
+                            mSink.onData(view(frame), 0, frame.size(), frame.timestamp());
+                        } catch (Exception ex) { // Keep the branch alive for the next frames
+                            mErrors = mErrors + 1;
+                            sLogger.warn("Failed to deliver audio - {}", ex.getMessage());
+                        } finally {
+                            frame.release();
+                        }
+                        long latency = System.nanoTime() - queue.getPollEnqueueTime();
+                        mDelivered = mDelivered + 1;
+                        mLatencySum = mLatencySum + latency;
+                        if (latency > mLatencyMax) {
+                            mLatencyMax = latency;
+                        }
+                    } else if (mRunning) {
+                        queue.await(10, TimeUnit.MILLISECONDS);
+                    } else {
+                        break; // Drained after stop
+                    }
+                }
+                deliverSignals(Long.MAX_VALUE); // Signals sent right before stop
+            } catch (Exception ex) {
+                sLogger.warn("Failed to deliver audio - {}", ex.getMessage());
+            }
+            sLogger.debug("-");
+        }
+
+        private void deliverSignals(long position) {
+            try {
+                mSignals.deliver(position, mSink);
+            } catch (Exception ex) {
+                mErrors = mErrors + 1;
+                sLogger.warn("Failed to deliver signal - {}", ex.getMessage());
+            }
+        }
+
+        // Pool buffers come back again and again, one duplicate of each is enough
+        private ByteBuffer view(AudioFrame frame) {
+            ByteBuffer buffer = frame.buffer();
+            if (buffer != mSource) {
+                mSource = buffer;
+                mView = buffer.duplicate().order(buffer.order());
+            }
+            mView.clear();
+            return mView;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Branch{" + getName() +
+                    " delivered=" + getDelivered() +
+                    " dropped=" + getDropped() +
+                    " errors=" + getErrors() +
+                    " avgLatency=" + getAverageLatency() + "us" +
+                    " maxLatency=" + getMaxLatency() + "us}";
+        }
+    }
+}
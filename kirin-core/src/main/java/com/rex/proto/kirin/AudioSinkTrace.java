@@ -0,0 +1,50 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Record the capture to here latency of every frame then pass it on untouched
+ * Frames keep their zero-copy path, onFrame is forwarded as onFrame.
+ */
+public class AudioSinkTrace extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkTrace.class);
+
+    private final LatencyHistogram mHistogram;
+
+    public AudioSinkTrace(AudioSink sink, @NonNull LatencyHistogram histogram) {
+        super(sink);
+        sLogger.trace("sink:{} histogram:{}", sink, histogram.getName());
+        mHistogram = histogram;
+    }
+
+    @NonNull
+    public LatencyHistogram getHistogram() {
+        return mHistogram;
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        mHistogram.record(LatencyTracer.now() - timestamp);
+        super.onData(buffer, offset, size, timestamp);
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        mHistogram.record(LatencyTracer.now() - frame.timestamp());
+        if (mSink != null) {
+            mSink.onFrame(frame);
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        super.onStop();
+        sLogger.debug("{}", mHistogram.snapshot());
+    }
+}
@@ -0,0 +1,340 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.dsp.Fft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Voice activity gate, forward frames only while speech or other events are active
+ * Every frame is classified with cheap features: energy above an adaptive noise floor, zero crossing rate
+ * and spectral flatness. Active frames keep the gate open for the hangover time, the latest pre-roll frames
+ * are kept while closed and replayed with their own timestamps on opening, so onsets are not lost.
+ * Downstream gets onGap with the timestamp of the first skipped frame and onResume with the timestamp
+ * of the first replayed frame.
+ */
+public class AudioSinkVoiceGate extends AudioSink.Wrapper {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkVoiceGate.class);
+
+    private static final int MAX_FFT_SIZE = 1024;
+    private static final int FLOOR_WINDOW_MS = 2000;    // Noise floor is the minimum level over this window
+    private static final int FLOOR_BLOCKS = 4;
+    private static final float MIN_LEVEL_DB = -100f;
+
+    private float mThresholdDb = 9f;        // Above noise floor
+    private float mMinLevelDb = -55f;       // Absolute, dBFS
+    private float mMaxFlatness = 0.45f;     // Below is tonal or voiced
+    private float mFricativeHz = 3000f;     // Zero crossing frequency above is unvoiced speech
+    private int mHangoverMs = 300;
+    private int mPreRollMs = 100;
+
+    private int mSampleRate;
+    private int mSampleBits;
+    private int mNumChannels;
+    private Fft mFft;
+    private float[] mWindow;
+    private float[] mFrame;
+    private float[] mSpectrum;
+    private float[] mMono;
+    private ByteBuffer mSource;
+    private ByteBuffer mView;
+
+    private ByteBuffer[] mPreRoll;          // Ring of the latest skipped frames
+    private int[] mPreRollSize;
+    private long[] mPreRollTime;
+    private int mPreRollHead;               // Oldest entry
+    private int mPreRollCount;
+
+    private boolean mOpen;
+    private boolean mStarted;               // Any frame seen since onStart
+    private long mHangoverUntil;            // Timestamp the gate closes without new activity
+    private float mFloorDb;
+    private float mLevelDb;
+    private final float[] mBlockMin = new float[FLOOR_BLOCKS]; // Minimum level of the past blocks
+    private int mBlock;
+    private int mBlockFrames;
+    private int mBlockLength;           // Frames per block
+    private float mCurrentMin;
+
+    private long mFrames;
+    private long mSkipped;
+
+    public AudioSinkVoiceGate(AudioSink sink) {
+        super(sink);
+        sLogger.trace("sink:{}", sink);
+    }
+
+    /** Level above the adaptive noise floor to detect activity, in dB */
+    public AudioSinkVoiceGate setThreshold(float db) {
+        sLogger.trace("db:{}", db);
+        mThresholdDb = db;
+        return this;
+    }
+
+    /** Absolute level below which frames are always silence, in dBFS */
+    public AudioSinkVoiceGate setMinLevel(float db) {
+        sLogger.trace("db:{}", db);
+        mMinLevelDb = db;
+        return this;
+    }
+
+    /** Time the gate stays open after the last active frame */
+    public AudioSinkVoiceGate setHangover(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mHangoverMs = Math.max(0, ms);
+        return this;
+    }
+
+    /** Audio before the onset replayed when the gate opens */
+    public AudioSinkVoiceGate setPreRoll(int ms) {
+        sLogger.trace("ms:{}", ms);
+        mPreRollMs = Math.max(0, ms);
+        return this;
+    }
+
+    @Override // AudioSink
+    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        super.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        sLogger.trace("sampleRate:{} sampleBits:{} frameSize:{} numChannels:{}", sampleRate, sampleBits, frameSize, numChannels);
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mNumChannels = Math.max(1, numChannels);
+        int samples = Math.max(1, frameSize / (mNumChannels * Math.max(1, sampleBits / Byte.SIZE)));
+        int fftSize = Math.max(64, Math.min(MAX_FFT_SIZE, Integer.highestOneBit(samples - 1) << 1));
+        mFft = new Fft(fftSize);
+        mWindow = new float[fftSize];
+        for (int i = 0; i < fftSize; i++) {
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / fftSize));
+        }
+        mFrame = new float[fftSize];
+        mSpectrum = new float[mFft.bins()];
+        mMono = new float[Math.max(frameSize, 1)];
+        mSource = null;
+        mView = null;
+
+        int frameMs = Math.max(1, samples * 1000 / Math.max(1, sampleRate));
+        int slots = (mPreRollMs + frameMs - 1) / frameMs;
+        mPreRoll = new ByteBuffer[slots];
+        mPreRollSize = new int[slots];
+        mPreRollTime = new long[slots];
+        for (int i = 0; i < slots; i++) {
+            mPreRoll[i] = ByteBuffer.allocateDirect(Math.max(frameSize, 1)).order(ByteOrder.nativeOrder());
+        }
+        mPreRollHead = 0;
+        mPreRollCount = 0;
+        mOpen = true; // Downstream assumes data until the first onGap
+        mStarted = false;
+        Arrays.fill(mBlockMin, Float.MAX_VALUE);
+        mBlock = 0;
+        mBlockFrames = 0;
+        mBlockLength = Math.max(1, FLOOR_WINDOW_MS / FLOOR_BLOCKS / frameMs);
+        mCurrentMin = Float.MAX_VALUE;
+        mFloorDb = MIN_LEVEL_DB;
+        mFrames = 0;
+        mSkipped = 0;
+        sLogger.debug("VoiceGate fftSize:{} preRoll:{} frames hangover:{}ms", fftSize, slots, mHangoverMs);
+    }
+
+    @Override // AudioSink
+    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+        if (mFft == null) {
+            super.onData(buffer, offset, size, timestamp);
+            return;
+        }
+        if (update(classify(buffer, offset, size), timestamp)) {
+            super.onData(buffer, offset, size, timestamp);
+        } else {
+            keep(buffer, offset, size, timestamp);
+        }
+    }
+
+    @Override // AudioSink
+    public void onFrame(@NonNull AudioFrame frame) {
+        if (mFft == null) {
+            if (mSink != null) mSink.onFrame(frame);
+            return;
+        }
+        boolean active = frame.hasFormat()
+                ? classify(frame.mono(), frame.frameCount()) // Decoded once for all stages reading the frame
+                : classify(frame.buffer(), 0, frame.size());
+        if (update(active, frame.timestamp())) {
+            if (mSink != null) mSink.onFrame(frame); // Keep the zero copy path for pass through
+        } else {
+            keep(frame.buffer(), 0, frame.size(), frame.timestamp());
+        }
+    }
+
+    @Override // AudioSink
+    public void onStop() {
+        sLogger.trace("");
+        if (mFrames > 0) {
+            sLogger.debug("VoiceGate frames:{} skipped:{} ratio:{}", mFrames, mSkipped, getSkippedRatio());
+        }
+        mFft = null;
+        mPreRoll = null;
+        mSource = null;
+        mView = null;
+        super.onStop();
+    }
+
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getSkippedFrames() {
+        return mSkipped;
+    }
+
+    /** Fraction of frames not forwarded downstream, the work saved by the gate */
+    public double getSkippedRatio() {
+        return (mFrames > 0) ? (double) mSkipped / mFrames : 0;
+    }
+
+    /** Level of the last frame in dBFS */
+    public float getLevel() {
+        return mLevelDb;
+    }
+
+    public float getNoiseFloor() {
+        return mFloorDb;
+    }
+
+    // Update the gate state with the class of the frame, return true to forward it
+    private boolean update(boolean active, long timestamp) {
+        mFrames++;
+        if (active) {
+            mHangoverUntil = timestamp + mHangoverMs * 1000L;
+        }
+        if (!mStarted) {
+            mStarted = true;
+            if (!active) { // Open since onStart, close right away on silence
+                mOpen = false;
+                super.onGap(timestamp);
+            }
+        } else if (mOpen && !active && timestamp >= mHangoverUntil) {
+            mOpen = false;
+            super.onGap(timestamp);
+        }
+        if (!mOpen && active) {
+            mOpen = true;
+            flush(timestamp);
+        }
+        if (!mOpen) {
+            mSkipped++;
+        }
+        return mOpen;
+    }
+
+    private boolean classify(ByteBuffer buffer, int offset, int size) {
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) {
+            if (buffer != mSource) {
+                mSource = buffer;
+                mView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mView;
+        }
+        if (mMono.length < size) {
+            mMono = new float[size];
+        }
+        int count = AudioBuffers.readMono(view, offset, size, mSampleBits, mNumChannels, mMono);
+        return classify(mMono, count);
+    }
+
+    private boolean classify(float[] mono, int count) {
+        if (count == 0) {
+            return false;
+        }
+
+        double energy = 0;
+        int crossings = 0;
+        for (int i = 0; i < count; i++) {
+            float x = mono[i];
+            energy += x * x;
+            if (i > 0 && (x >= 0) != (mono[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        mLevelDb = (float) Math.max(MIN_LEVEL_DB, 10 * Math.log10(energy / count + 1e-12));
+        float zeroCrossHz = (float) crossings * mSampleRate / (2f * count);
+
+        // Spectral flatness of the latest fftSize samples, geometric over arithmetic mean of the power
+        int fftSize = mFrame.length;
+        int start = Math.max(0, count - fftSize);
+        int n = count - start;
+        for (int i = 0; i < fftSize; i++) {
+            mFrame[i] = (i < n) ? mono[start + i] * mWindow[i] : 0;
+        }
+        mFft.magnitude(mFrame, mSpectrum);
+        double logSum = 0;
+        double sum = 0;
+        int bins = mSpectrum.length - 1;
+        for (int k = 1; k <= bins; k++) { // Skip DC
+            double power = (double) mSpectrum[k] * mSpectrum[k] + 1e-12;
+            logSum += Math.log(power);
+            sum += power;
+        }
+        float flatness = (float) (Math.exp(logSum / bins) / (sum / bins));
+
+        // Minimum statistics, speech pauses pull the floor down, stationary noise lifts it within the window
+        mCurrentMin = Math.min(mCurrentMin, mLevelDb);
+        float floor = mCurrentMin;
+        for (float min : mBlockMin) {
+            floor = Math.min(floor, min);
+        }
+        mFloorDb = floor;
+        if (++mBlockFrames >= mBlockLength) {
+            mBlockMin[mBlock] = mCurrentMin;
+            mBlock = (mBlock + 1) % FLOOR_BLOCKS;
+            mBlockFrames = 0;
+            mCurrentMin = Float.MAX_VALUE;
+        }
+
+        boolean loud = mLevelDb >= mMinLevelDb && mLevelDb >= mFloorDb + mThresholdDb;
+        return loud && (flatness <= mMaxFlatness || zeroCrossHz >= mFricativeHz);
+    }
+
+    private void keep(ByteBuffer buffer, int offset, int size, long timestamp) {
+        int slots = mPreRoll.length;
+        if (slots == 0) {
+            return;
+        }
+        int index = (mPreRollHead + mPreRollCount) % slots;
+        if (mPreRollCount == slots) { // Full, overwrite the oldest
+            index = mPreRollHead;
+            mPreRollHead = (mPreRollHead + 1) % slots;
+        } else {
+            mPreRollCount++;
+        }
+        if (mPreRoll[index].capacity() < size) {
+            mPreRoll[index] = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+        AudioBuffers.copy(buffer, offset, mPreRoll[index], 0, size);
+        mPreRollSize[index] = size;
+        mPreRollTime[index] = timestamp;
+    }
+
+    private void flush(long timestamp) {
+        long resume = (mPreRollCount > 0) ? mPreRollTime[mPreRollHead] : timestamp;
+        super.onResume(resume);
+        while (mPreRollCount > 0) {
+            int index = mPreRollHead;
+            super.onData(mPreRoll[index], 0, mPreRollSize[index], mPreRollTime[index]);
+            mPreRollHead = (mPreRollHead + 1) % mPreRoll.length;
+            mPreRollCount--;
+            mSkipped--; // Delivered after all
+        }
+        mPreRollHead = 0;
+    }
+}
@@ -0,0 +1,262 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replay a WAV or raw PCM file as audio source, for tests and benchmarks without device
+ * The PCM data is memory mapped and every frame is a slice of the mapping passed by offset, nothing is copied.
+ * WAV files use their own format, raw files use the format given to start().
+ * Timestamps are derived from the sample position, relative to the monotonic time of start().
+ */
+public class AudioSourceFile implements AudioSource {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSourceFile.class);
+
+    public enum Pacing {
+        REALTIME,       // Deliver frames at the sample rate of the file
+        UNTHROTTLED,    // Deliver frames as fast as sinks consume them
+    }
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 3;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+    // SubFormat GUID of WAVE_FORMAT_EXTENSIBLE after its format tag, {0000XXXX-0000-0010-8000-00AA00389B71}
+    private static final byte[] KSDATAFORMAT_SUBTYPE = {
+            0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38, (byte) 0x9B, 0x71 };
+
+    private final File mFile;
+    private Pacing mPacing = Pacing.REALTIME;
+    private AudioSink mOutput;
+    private RandomAccessFile mRaf;
+    private MappedByteBuffer mData;
+    private Thread mThread;
+    private CountDownLatch mEnd;
+    private volatile long mFramesDelivered;
+
+    public AudioSourceFile(@NonNull File file) {
+        sLogger.trace("file={}", file);
+        mFile = file;
+    }
+
+    public AudioSourceFile setPacing(@NonNull Pacing pacing) {
+        sLogger.trace("pacing={}", pacing);
+        mPacing = pacing;
+        return this;
+    }
+
+    @Override // AudioSource
+    public AudioSourceFile setOutput(AudioSink sink) {
+        sLogger.trace("sink={}", sink);
+        mOutput = sink;
+        return this;
+    }
+
+    @Override // AudioSource
+    public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} samplePerFrame:{} numChannels:{}", sampleRate, sampleBits, samplePerFrame, numChannels);
+        long dataOffset = 0;
+        long dataLength;
+        try {
+            mRaf = new RandomAccessFile(mFile, "r");
+            FileChannel channel = mRaf.getChannel();
+            dataLength = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(header, 0) == 12 && header.getInt(0) == 0x46464952 && header.getInt(8) == 0x45564157) { // RIFF WAVE
+                int[] format = new int[3];
+                long[] data = new long[2];
+                parseWave(channel, format, data);
+                sampleRate = format[0];
+                sampleBits = format[1];
+                numChannels = format[2];
+                dataOffset = data[0];
+                dataLength = data[1];
+            }
+            if (sampleRate <= 0 || numChannels <= 0 || (sampleBits != 8 && sampleBits != 16 && sampleBits != 32)) {
+                throw new IOException("Unsupported format " + sampleRate + "/" + sampleBits + "/" + numChannels);
+            }
+            if (dataLength > Integer.MAX_VALUE) { // One mapping only
+                throw new IOException("Data too large " + dataLength);
+            }
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataLength);
+            mData.order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException ex) {
+            sLogger.warn("Failed to map file {} - {}", mFile, ex.getMessage());
+            close();
+            return false;
+        }
+
+        int bytesPerFrame = numChannels * sampleBits / Byte.SIZE;
+        int frameSize = samplePerFrame * bytesPerFrame; // Buffer size in bytes
+        sLogger.debug("{} rate:{} bits:{} channels:{} length:{} pacing:{}", mFile.getName(), sampleRate, sampleBits, numChannels,
+                dataLength, mPacing);
+        if (mOutput != null) {
+            mOutput.onStart(sampleRate, sampleBits, frameSize, numChannels);
+        }
+
+        mFramesDelivered = 0;
+        mEnd = new CountDownLatch(1);
+        mThread = new FileReadThread(sampleRate, bytesPerFrame, frameSize);
+        mThread.start();
+        return true;
+    }
+
+    @Override // AudioSource
+    public boolean stop() {
+        sLogger.trace("");
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("Failed to join thread - {}", ex.getMessage());
+            }
+            mThread = null;
+        }
+        if (mOutput != null) {
+            mOutput.onStop();
+        }
+        close();
+        return true;
+    }
+
+    /** Wait the whole file delivered, the stream is still open until stop() */
+    public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch end = mEnd;
+        return end == null || end.await(timeout, unit);
+    }
+
+    /** Audio frames, samples per channel, delivered since start */
+    public long getFramesDelivered() {
+        return mFramesDelivered;
+    }
+
+    private void close() {
+        mData = null; // Unmapped by GC
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close file - {}", ex.getMessage());
+            }
+            mRaf = null;
+        }
+    }
+
+    // Walk the chunks for fmt and data, format is {rate, bits, channels} and data is {offset, length}
+    // Only what the pipeline takes, 8 or 16 bits PCM and 32 bits float, passes
+    private static void parseWave(FileChannel channel, int[] format, long[] data) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = 12;
+        long size = channel.size();
+        boolean hasFormat = false;
+        while (pos + 8 <= size) {
+            chunk.clear();
+            chunk.limit(8);
+            channel.read(chunk, pos);
+            int id = chunk.getInt(0);
+            long length = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (id == 0x20746d66) { // "fmt "
+                if (length < 16) {
+                    throw new IOException("WAVE fmt too short " + length);
+                }
+                chunk.clear();
+                chunk.limit((int) Math.min(length, 40));
+                channel.read(chunk, pos + 8);
+                int tag = chunk.getShort(0) & 0xFFFF;
+                int channels = chunk.getShort(2) & 0xFFFF;
+                int rate = chunk.getInt(4);
+                int bits = chunk.getShort(14) & 0xFFFF;
+                if (tag == WAVE_FORMAT_EXTENSIBLE) {
+                    if (chunk.position() < 40 || !isSubFormat(chunk)) {
+                        throw new IOException("Unsupported WAVE_FORMAT_EXTENSIBLE SubFormat");
+                    }
+                    tag = chunk.getShort(24) & 0xFFFF;
+                }
+                if (!(tag == WAVE_FORMAT_PCM && (bits == 8 || bits == 16)) && !(tag == WAVE_FORMAT_IEEE_FLOAT && bits == 32)) {
+                    throw new IOException("Unsupported WAVE format " + tag + " with " + bits + " bits");
+                }
+                if (channels <= 0 || rate <= 0) {
+                    throw new IOException("Invalid WAVE format " + rate + "Hz " + channels + " channels");
+                }
+                format[0] = rate;
+                format[1] = bits;
+                format[2] = channels;
+                hasFormat = true;
+            } else if (id == 0x61746164) { // "data"
+                if (!hasFormat) {
+                    throw new IOException("WAVE data before fmt");
+                }
+                data[0] = pos + 8;
+                data[1] = Math.min(length, size - data[0]); // Truncated recordings keep what was written
+                return;
+            }
+            pos += 8 + length + (length & 1); // Chunks are word aligned
+        }
+        throw new IOException("WAVE without data");
+    }
+
+    private static boolean isSubFormat(ByteBuffer fmt) {
+        for (int i = 0; i < KSDATAFORMAT_SUBTYPE.length; i++) {
+            if (fmt.get(26 + i) != KSDATAFORMAT_SUBTYPE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class FileReadThread extends Thread {
+        private final int mSampleRate;
+        private final int mBytesPerFrame;
+        private final int mFrameSize;
+        public FileReadThread(int sampleRate, int bytesPerFrame, int frameSize) {
+            super("AudioFile");
+            mSampleRate = sampleRate;
+            mBytesPerFrame = bytesPerFrame;
+            mFrameSize = frameSize;
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            ByteBuffer data = mData;
+            long begin = System.nanoTime();
+            long base = begin / 1000;
+            int limit = data.capacity() - data.capacity() % mBytesPerFrame;
+            try {
+                for (int offset = 0; offset < limit && !isInterrupted(); ) {
+                    int size = Math.min(mFrameSize, limit - offset);
+                    long position = offset / mBytesPerFrame;
+                    long pts = position * 1000000L / mSampleRate;
+                    if (mPacing == Pacing.REALTIME) {
+                        long wait;
+                        while ((wait = begin + pts * 1000 - System.nanoTime()) > 0 && !isInterrupted()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    if (mOutput != null) {
+                        mOutput.onData(data, offset, size, base + pts);
+                    }
+                    offset += size;
+                    mFramesDelivered = position + size / mBytesPerFrame;
+                }
+            } catch (Exception ex) {
+                sLogger.warn("Failed to replay file - {}", ex.getMessage());
+            }
+            mEnd.countDown();
+            sLogger.debug("- frames:{} cost:{}ms", mFramesDelivered, (System.nanoTime() - begin) / 1000000);
+        }
+    }
+}
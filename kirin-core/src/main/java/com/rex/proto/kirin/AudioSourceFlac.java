@@ -0,0 +1,206 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import com.rex.proto.kirin.codec.FlacDecoder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replay a FLAC file as audio source, counterpart of AudioSinkFlac
+ * The file is memory mapped and decoded frame by frame into one reused PCM buffer, every FLAC frame is one onData.
+ * Format comes from STREAMINFO, the arguments of start() are ignored. Up to 8 bits decode to 8 bits PCM,
+ * up to 16 bits to 16 bits PCM, deeper streams to 32 bits float.
+ * Timestamps are derived from the sample position, relative to the monotonic time of start().
+ */
+public class AudioSourceFlac implements AudioSource {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSourceFlac.class);
+
+    private final File mFile;
+    private AudioSourceFile.Pacing mPacing = AudioSourceFile.Pacing.REALTIME;
+    private AudioSink mOutput;
+    private RandomAccessFile mRaf;
+    private MappedByteBuffer mData;
+    private FlacDecoder mDecoder;
+    private Thread mThread;
+    private CountDownLatch mEnd;
+    private volatile long mFramesDelivered;
+    private volatile long mDecodeNanos;
+
+    public AudioSourceFlac(@NonNull File file) {
+        sLogger.trace("file={}", file);
+        mFile = file;
+    }
+
+    public AudioSourceFlac setPacing(@NonNull AudioSourceFile.Pacing pacing) {
+        sLogger.trace("pacing={}", pacing);
+        mPacing = pacing;
+        return this;
+    }
+
+    @Override // AudioSource
+    public AudioSourceFlac setOutput(AudioSink sink) {
+        sLogger.trace("sink={}", sink);
+        mOutput = sink;
+        return this;
+    }
+
+    @Override // AudioSource
+    public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+        sLogger.trace("sampleRate:{} sampleBits:{} samplePerFrame:{} numChannels:{}", sampleRate, sampleBits, samplePerFrame, numChannels);
+        int offset;
+        try {
+            mRaf = new RandomAccessFile(mFile, "r");
+            FileChannel channel = mRaf.getChannel();
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mDecoder = new FlacDecoder();
+            offset = mDecoder.readHeader(mData, 0, mData.capacity());
+        } catch (IOException | IllegalArgumentException ex) {
+            sLogger.warn("Failed to open file {} - {}", mFile, ex.getMessage());
+            close();
+            return false;
+        }
+
+        int bits = mDecoder.getBitsPerSample();
+        int outBits = (bits <= 8) ? 8 : (bits <= 16) ? 16 : 32;
+        int channels = mDecoder.getChannels();
+        int frameSize = mDecoder.getMaxBlockSize() * channels * outBits / Byte.SIZE;
+        sLogger.debug("{} rate:{} bits:{} channels:{} samples:{} pacing:{}", mFile.getName(), mDecoder.getSampleRate(), bits,
+                channels, mDecoder.getTotalSamples(), mPacing);
+        if (mOutput != null) {
+            mOutput.onStart(mDecoder.getSampleRate(), outBits, frameSize, channels);
+        }
+
+        mFramesDelivered = 0;
+        mDecodeNanos = 0;
+        mEnd = new CountDownLatch(1);
+        mThread = new FileDecodeThread(offset, outBits, frameSize);
+        mThread.start();
+        return true;
+    }
+
+    @Override // AudioSource
+    public boolean stop() {
+        sLogger.trace("");
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                mThread.join();
+            } catch (InterruptedException ex) {
+                sLogger.warn("Failed to join thread - {}", ex.getMessage());
+            }
+            mThread = null;
+        }
+        if (mOutput != null) {
+            mOutput.onStop();
+        }
+        close();
+        return true;
+    }
+
+    /** Wait the whole file delivered, the stream is still open until stop() */
+    public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+        CountDownLatch end = mEnd;
+        return end == null || end.await(timeout, unit);
+    }
+
+    /** Audio frames, samples per channel, delivered since start */
+    public long getFramesDelivered() {
+        return mFramesDelivered;
+    }
+
+    /** Seconds of audio decoded per second of decoder time */
+    public double getDecodeSpeed() {
+        long nanos = mDecodeNanos;
+        FlacDecoder decoder = mDecoder;
+        return (nanos > 0 && decoder != null) ? (double) mFramesDelivered / decoder.getSampleRate() / (nanos / 1e9) : 0;
+    }
+
+    private void close() {
+        mData = null; // Unmapped by GC
+        if (mRaf != null) {
+            try {
+                mRaf.close();
+            } catch (IOException ex) {
+                sLogger.warn("Failed to close file - {}", ex.getMessage());
+            }
+            mRaf = null;
+        }
+    }
+
+    private class FileDecodeThread extends Thread {
+        private final int mOffset;
+        private final int mOutBits;
+        private final ByteBuffer mBuffer;
+        public FileDecodeThread(int offset, int outBits, int frameSize) {
+            super("AudioFlac");
+            mOffset = offset;
+            mOutBits = outBits;
+            mBuffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.nativeOrder());
+        }
+        @Override
+        public void run() {
+            sLogger.debug("+");
+            FlacDecoder decoder = mDecoder;
+            ByteBuffer data = mData;
+            int limit = data.capacity();
+            int channels = decoder.getChannels();
+            int sampleRate = decoder.getSampleRate();
+            int shift = mOutBits - decoder.getBitsPerSample(); // Left align shallow streams
+            float scale = 1f / (1L << (decoder.getBitsPerSample() - 1)); // 32 bits streams too
+            int[][] samples = new int[channels][Math.max(1, decoder.getMaxBlockSize())];
+            long begin = System.nanoTime();
+            long base = begin / 1000;
+            long position = 0;
+            try {
+                for (int offset = mOffset; offset < limit && !isInterrupted(); ) {
+                    long start = System.nanoTime();
+                    offset += decoder.decode(data, offset, limit, samples);
+                    int count = decoder.getBlockSize();
+                    int pos = 0;
+                    for (int i = 0; i < count; i++) {
+                        for (int c = 0; c < channels; c++) {
+                            int value = samples[c][i];
+                            switch (mOutBits) {
+                            case 8: mBuffer.put(pos, (byte) ((value << shift) + 128)); pos += 1; break;
+                            case 16: mBuffer.putShort(pos, (short) (value << shift)); pos += 2; break;
+                            default: mBuffer.putFloat(pos, value * scale); pos += 4; break;
+                            }
+                        }
+                    }
+                    mDecodeNanos += System.nanoTime() - start;
+
+                    long pts = position * 1000000L / sampleRate;
+                    if (mPacing == AudioSourceFile.Pacing.REALTIME) {
+                        long wait;
+                        while ((wait = begin + pts * 1000 - System.nanoTime()) > 0 && !isInterrupted()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    if (mOutput != null) {
+                        mOutput.onData(mBuffer, 0, pos, base + pts);
+                    }
+                    position += count;
+                    mFramesDelivered = position;
+                }
+            } catch (Exception ex) {
+                sLogger.warn("Failed to replay file - {}", ex.getMessage());
+            }
+            mEnd.countDown();
+            sLogger.debug("- frames:{} cost:{}ms", mFramesDelivered, (System.nanoTime() - begin) / 1000000);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learn the smallest playback buffer a device sustains without underruns
+ * Start from the learned size, or the smallest the track accepts, and grow one burst each time the
+ * underrun count increases. The grown size is saved right away so the next start begins at the optimum.
+ */
+public class AudioTrackTuner {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioTrackTuner.class);
+
+    private static final long DEFAULT_CHECK_INTERVAL = 100000; // us
+
+    /** Buffer control of a streaming track, AudioTrack since API-24 */
+    public interface Track {
+        /** @return actual size, may be rounded up to the burst size */
+        int setBufferSizeInFrames(int frames);
+        int getBufferSizeInFrames();
+        int getBufferCapacityInFrames();
+        int getUnderrunCount();
+    }
+
+    /** Persisted learned sizes, e.g. SharedPreferences */
+    public interface Store {
+        int load(@NonNull String key, int defaultValue);
+        void save(@NonNull String key, int value);
+    }
+
+    private final Track mTrack;
+    private final Store mStore;
+    private final String mKey;
+    private long mCheckInterval = DEFAULT_CHECK_INTERVAL;
+    private int mBurst;
+    private int mCapacity;
+    private int mSize;
+    private int mUnderruns;
+    private int mGrowCount;
+    private long mLastCheck = Long.MIN_VALUE;
+
+    /**
+     * @param key identify the device output and format, e.g. sample rate, channels and usage
+     */
+    public AudioTrackTuner(@NonNull Track track, @NonNull Store store, @NonNull String key) {
+        sLogger.trace("key:{}", key);
+        mTrack = track;
+        mStore = store;
+        mKey = key;
+    }
+
+    /** Time between underrun checks, in us */
+    public AudioTrackTuner setCheckInterval(long us) {
+        sLogger.trace("us:{}", us);
+        mCheckInterval = us;
+        return this;
+    }
+
+    /** Apply the learned size or the smallest one, call once the track is built */
+    public int start() {
+        mCapacity = mTrack.getBufferCapacityInFrames();
+        mBurst = Math.max(1, mTrack.setBufferSizeInFrames(1)); // Clamped up to the smallest size the track accepts
+        int learned = mStore.load(mKey, 0);
+        mSize = (learned > mBurst) ? mTrack.setBufferSizeInFrames(Math.min(learned, mCapacity)) : mBurst;
+        mUnderruns = mTrack.getUnderrunCount();
+        mGrowCount = 0;
+        mLastCheck = Long.MIN_VALUE;
+        sLogger.debug("Track buffer burst:{} learned:{} size:{} capacity:{}", mBurst, learned, mSize, mCapacity);
+        return mSize;
+    }
+
+    /**
+     * Grow the buffer if underruns happened since the last check
+     * @param timestamp monotonic time in us, checks are spaced by the check interval
+     * @return current buffer size in frames
+     */
+    public int update(long timestamp) {
+        if (mLastCheck != Long.MIN_VALUE && timestamp - mLastCheck < mCheckInterval) {
+            return mSize;
+        }
+        mLastCheck = timestamp;
+        int underruns = mTrack.getUnderrunCount();
+        if (underruns > mUnderruns && mSize < mCapacity) {
+            int size = mTrack.setBufferSizeInFrames(Math.min(mSize + mBurst, mCapacity));
+            sLogger.debug("Track underruns:{} grow buffer {} -> {}", underruns - mUnderruns, mSize, size);
+            if (size > mSize) {
+                mSize = size;
+                mGrowCount++;
+                mStore.save(mKey, size);
+            } else {
+                mCapacity = mSize; // Track refused to grow, stop trying
+            }
+        }
+        mUnderruns = underruns;
+        return mSize;
+    }
+
+    public int getBufferSize() {
+        return mSize;
+    }
+
+    public int getBurstSize() {
+        return mBurst;
+    }
+
+    /** Times the buffer grew since start */
+    public int getGrowCount() {
+        return mGrowCount;
+    }
+}
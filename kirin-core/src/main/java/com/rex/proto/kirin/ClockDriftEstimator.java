@@ -0,0 +1,238 @@
+package com.rex.proto.kirin;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Estimate the rate of a consuming clock against a producing clock, e.g. playback against capture
+ * Both clocks report frame positions with their monotonic time in microseconds, capture frames with their
+ * timestamps and the playback head with AudioTrack.getTimestamp, or the frames of a file paced by the system
+ * clock. Each clock is fitted with an exponentially weighted linear regression of position over time, points
+ * far from the fit are rejected and a run of them restarts the fit, e.g. after the track was paused.
+ * getRatio() adds a slow trim on the buffer occupancy error to the drift, so a resampler running at that
+ * ratio holds the occupancy still instead of only its slope.
+ * Single thread, statistics readable from any thread.
+ */
+public class ClockDriftEstimator {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(ClockDriftEstimator.class);
+
+    private static final long DEFAULT_INTERVAL = 500000;    // us between fitted points of one clock
+    private static final double DEFAULT_WINDOW = 60;        // Seconds of points weighted by the fit
+    private static final double MIN_SPAN = 10;              // Seconds of points before the fit is trusted
+    private static final int MIN_POINTS = 8;                // Points before outliers are rejected
+    private static final double OUTLIER_SECONDS = 0.002;
+    private static final int MAX_OUTLIERS = 8;              // Consecutive rejected points that restart the fit
+    private static final double MAX_DRIFT = 0.01;
+    private static final double TRIM_SECONDS = 30;          // Time constant of the occupancy correction
+    private static final double MAX_TRIM = 0.0005;
+
+    private final int mSampleRate;
+    private final Clock mSource = new Clock("source");
+    private final Clock mSink = new Clock("sink");
+    private long mInterval = DEFAULT_INTERVAL;
+    private double mWindow = DEFAULT_WINDOW;
+    private int mWindowPoints;
+
+    private volatile double mDrift = 1;
+    private volatile boolean mLocked;
+    private volatile long mOutliers;
+    private volatile long mRestarts;
+
+    /** @param sampleRate nominal rate of both clocks */
+    public ClockDriftEstimator(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("Invalid rate " + sampleRate);
+        }
+        mSampleRate = sampleRate;
+        mWindowPoints = windowPoints();
+    }
+
+    /** Shortest time between two fitted points of one clock, closer points are skipped */
+    public ClockDriftEstimator setInterval(long us) {
+        sLogger.trace("us:{}", us);
+        mInterval = Math.max(1000, us);
+        mWindowPoints = windowPoints();
+        return this;
+    }
+
+    /** Seconds of history weighted by the fit, longer is steadier but follows temperature changes slower */
+    public ClockDriftEstimator setWindow(double seconds) {
+        sLogger.trace("seconds:{}", seconds);
+        mWindow = seconds;
+        mWindowPoints = windowPoints();
+        return this;
+    }
+
+    /**
+     * Position of the producing clock
+     * @param frames frames produced before the one captured at the time
+     * @return false when skipped or rejected
+     */
+    public boolean addSource(long frames, long timeUs) {
+        return add(mSource, frames, timeUs);
+    }
+
+    /**
+     * Position of the consuming clock
+     * @param frames frames consumed at the time, e.g. AudioTimestamp.framePosition
+     * @return false when skipped or rejected
+     */
+    public boolean addSink(long frames, long timeUs) {
+        return add(mSink, frames, timeUs);
+    }
+
+    /** Both fits cover enough time, getDrift() is 1 before */
+    public boolean isLocked() {
+        return mLocked;
+    }
+
+    /** Consumed frames per produced frame, above 1 when the consumer runs faster */
+    public double getDrift() {
+        return mDrift;
+    }
+
+    public double getDriftPpm() {
+        return (mDrift - 1) * 1e6;
+    }
+
+    /**
+     * Resampling ratio, output frames per input frame, that follows the drift and slowly brings the
+     * occupancy error back to 0
+     * @param occupancyError buffered frames above the target, negative below
+     */
+    public double getRatio(double occupancyError) {
+        double trim = -occupancyError / (mSampleRate * TRIM_SECONDS);
+        return mDrift * (1 + Math.max(-MAX_TRIM, Math.min(MAX_TRIM, trim)));
+    }
+
+    /** Measured rate of the producing clock, the nominal rate before the fit is trusted */
+    public double getSourceRate() {
+        return mLocked ? mSource.slope() : mSampleRate;
+    }
+
+    /** Measured rate of the consuming clock, the nominal rate before the fit is trusted */
+    public double getSinkRate() {
+        return mLocked ? mSink.slope() : mSampleRate;
+    }
+
+    /** Points rejected as too far from the fit */
+    public long getOutlierCount() {
+        return mOutliers;
+    }
+
+    /** Fits started over after a run of outliers */
+    public long getRestartCount() {
+        return mRestarts;
+    }
+
+    public void reset() {
+        sLogger.trace("");
+        mSource.clear();
+        mSink.clear();
+        mDrift = 1;
+        mLocked = false;
+    }
+
+    private int windowPoints() {
+        return Math.max(MIN_POINTS, (int) (mWindow * 1000000 / mInterval));
+    }
+
+    private boolean add(Clock clock, long frames, long timeUs) {
+        if (clock.mCount > 0 && timeUs - clock.mLastTime < mInterval) {
+            return false;
+        }
+        if (clock.mCount >= MIN_POINTS) {
+            double residual = clock.residual(frames, timeUs);
+            if (Math.abs(residual) > OUTLIER_SECONDS * mSampleRate) {
+                mOutliers++;
+                clock.mLastTime = timeUs; // Rejected points are paced like fitted ones
+                if (++clock.mRejected < MAX_OUTLIERS) {
+                    return false;
+                }
+                sLogger.debug("Restart {} fit, residual:{} frames", clock.mName, Math.round(residual));
+                mRestarts++;
+                clock.clear();
+            }
+        }
+        clock.add(frames, timeUs, mWindowPoints);
+        update();
+        return true;
+    }
+
+    private void update() {
+        if (mSource.span() < MIN_SPAN || mSink.span() < MIN_SPAN) {
+            return;
+        }
+        double drift = mSink.slope() / mSource.slope();
+        if (Math.abs(drift - 1) > MAX_DRIFT) { // Not the same nominal rate, or a broken timestamp source
+            return;
+        }
+        if (!mLocked) {
+            sLogger.debug("Locked drift:{}ppm", Math.round((drift - 1) * 1e6));
+            mLocked = true;
+        }
+        mDrift = drift;
+    }
+
+    // Exponentially weighted least squares of position over time, relative to the first point
+    private static class Clock {
+        final String mName;
+        long mOriginTime;
+        long mOriginFrames;
+        long mLastTime;
+        int mCount;
+        int mRejected;
+        double mMeanTime;       // Seconds
+        double mMeanFrames;
+        double mVarTime;
+        double mCovariance;
+
+        Clock(String name) {
+            mName = name;
+        }
+
+        void add(long frames, long timeUs, int window) {
+            if (mCount == 0) {
+                mOriginTime = timeUs;
+                mOriginFrames = frames;
+            }
+            double t = (timeUs - mOriginTime) / 1e6;
+            double p = frames - mOriginFrames;
+            mCount++;
+            double k = 1.0 / Math.min(mCount, window);
+            double dt = t - mMeanTime;
+            double dp = p - mMeanFrames;
+            mMeanTime += k * dt;
+            mMeanFrames += k * dp;
+            mVarTime = (1 - k) * (mVarTime + k * dt * dt);
+            mCovariance = (1 - k) * (mCovariance + k * dt * dp);
+            mLastTime = timeUs;
+            mRejected = 0;
+        }
+
+        // Frames per second
+        double slope() {
+            return (mVarTime > 0) ? mCovariance / mVarTime : 0;
+        }
+
+        // Seconds covered by the points
+        double span() {
+            return (mCount > 1) ? (mLastTime - mOriginTime) / 1e6 : 0;
+        }
+
+        double residual(long frames, long timeUs) {
+            double t = (timeUs - mOriginTime) / 1e6;
+            return (frames - mOriginFrames) - (mMeanFrames + slope() * (t - mMeanTime));
+        }
+
+        void clear() {
+            mCount = 0;
+            mRejected = 0;
+            mMeanTime = 0;
+            mMeanFrames = 0;
+            mVarTime = 0;
+            mCovariance = 0;
+        }
+    }
+}
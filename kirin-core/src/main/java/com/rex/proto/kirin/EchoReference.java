@@ -0,0 +1,190 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Far end signal of an echo canceller, mono samples looked up by the time they leave the speaker
+ * The output writes what it plays with the time its first sample is presented, the capture side reads the
+ * samples presented at a capture timestamp. The first written times are averaged into one timeline at the
+ * nominal rate, which then holds still, as any movement of it moves the echo path under the canceller.
+ * Clock drift and output restarts are followed by discrete steps, when the average error leaves a small
+ * tolerance the timeline shifts by it, and a single jump beyond a larger one starts a new timeline.
+ * One writer and one reader thread, the timeline is published with a sequence counter.
+ */
+public class EchoReference {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(EchoReference.class);
+
+    private static final long RESYNC_TOLERANCE = 20000; // us, a jump that starts a new timeline
+    private static final long SHIFT_TOLERANCE = 2000;   // us, average error that shifts the timeline once
+    private static final int TIMELINE_SETTLE = 256;     // Writes averaged into the start of the timeline
+    private static final int ERROR_SMOOTHING = 1024;    // Writes averaged by the error, about 10s
+
+    private final int mCapacityMillis;
+    private float[] mRing;
+    private int mMask;
+    private float[] mMono;
+    private volatile int mSampleRate;
+    private volatile long mWritten;     // Samples written since start
+
+    // Timeline, position of a sample and its presentation time, odd sequence while being updated
+    private volatile int mSequence;
+    private long mAnchorPosition;
+    private double mAnchorTime;
+    private int mTimelineWrites;
+    private double mError;          // Average error of the written times against the timeline, us
+    private volatile long mResyncs;
+    private volatile long mShifts;
+
+    public EchoReference() {
+        this(1000);
+    }
+
+    /** @param capacityMillis history kept for the reader, covers the output latency */
+    public EchoReference(int capacityMillis) {
+        mCapacityMillis = capacityMillis;
+    }
+
+    /** Writer side, a new stream at the rate, clears the history */
+    public void start(int sampleRate) {
+        sLogger.trace("sampleRate:{}", sampleRate);
+        int capacity = Integer.highestOneBit(Math.max(1, sampleRate * mCapacityMillis / 1000) * 4 - 1); // Twice, readers use half
+        if (mRing == null || mRing.length != capacity) {
+            mRing = new float[capacity];
+            mMask = capacity - 1;
+        }
+        mSequence++;
+        mAnchorPosition = -1;
+        mWritten = 0;
+        mSampleRate = sampleRate;
+        mSequence++;
+    }
+
+    /** Writer side, the output stops, readers get silence */
+    public void stop() {
+        sLogger.trace("shifts:{} resyncs:{}", mShifts, mResyncs);
+        mSampleRate = 0;
+    }
+
+    /** 0 while not started */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /** Timeline steps following the drift of the written times */
+    public long getShiftCount() {
+        return mShifts;
+    }
+
+    /** Timeline restarts after the written times jumped */
+    public long getResyncCount() {
+        return mResyncs;
+    }
+
+    /**
+     * Writer side, decode and downmix PCM written to the output
+     * @param buffer  PCM in native byte order
+     * @param timeUs  monotonic time the first sample is presented
+     */
+    public void write(@NonNull ByteBuffer buffer, int offset, int size, int sampleBits, int numChannels, long timeUs) {
+        int frames = size / (Math.max(1, numChannels) * sampleBits / Byte.SIZE);
+        if (mMono == null || mMono.length < frames) {
+            mMono = new float[frames];
+        }
+        AudioBuffers.readMono(buffer, offset, size, sampleBits, numChannels, mMono);
+        write(mMono, frames, timeUs);
+    }
+
+    /**
+     * Writer side
+     * @param timeUs monotonic time the first sample is presented
+     */
+    public void write(@NonNull float[] mono, int frames, long timeUs) {
+        float[] ring = mRing;
+        int rate = mSampleRate;
+        if (ring == null || rate <= 0 || frames <= 0) {
+            return;
+        }
+        long position = mWritten;
+        mSequence++;
+        if (mAnchorPosition < 0) {
+            mAnchorPosition = position;
+            mAnchorTime = timeUs;
+            mTimelineWrites = 1;
+            mError = 0;
+        } else {
+            double predicted = mAnchorTime + (position - mAnchorPosition) * 1e6 / rate;
+            double error = timeUs - predicted;
+            if (Math.abs(error) > RESYNC_TOLERANCE) {
+                sLogger.debug("Resync reference timeline, error:{}us", Math.round(error));
+                mResyncs++;
+                predicted = timeUs;
+                error = 0;
+                mTimelineWrites = 0;
+                mError = 0;
+            }
+            if (mTimelineWrites < TIMELINE_SETTLE) {
+                mTimelineWrites++;
+                predicted += error / mTimelineWrites;
+            } else {
+                mError += (error - mError) / ERROR_SMOOTHING;
+                if (Math.abs(mError) > SHIFT_TOLERANCE) {
+                    sLogger.debug("Shift reference timeline by {}us", Math.round(mError));
+                    mShifts++;
+                    predicted += mError;
+                    mError = 0;
+                }
+            }
+            mAnchorPosition = position;
+            mAnchorTime = predicted;
+        }
+        mSequence++;
+        int mask = mMask;
+        for (int i = 0; i < frames; i++) {
+            ring[(int) ((position + i) & mask)] = mono[i];
+        }
+        mWritten = position + frames;
+    }
+
+    /**
+     * Reader side, samples presented from the time on, silence where nothing was written
+     * @return frames found in the history
+     */
+    public int read(@NonNull float[] out, int frames, long timeUs) {
+        int rate = mSampleRate; // Published after the ring
+        float[] ring = mRing;
+        long anchorPosition;
+        double anchorTime;
+        int sequence;
+        do {
+            sequence = mSequence;
+            anchorPosition = mAnchorPosition;
+            anchorTime = mAnchorTime;
+        } while ((sequence & 1) != 0 || sequence != mSequence);
+        if (ring == null || rate <= 0 || anchorPosition < 0) {
+            Arrays.fill(out, 0, frames, 0);
+            return 0;
+        }
+        long start = anchorPosition + Math.round((timeUs - anchorTime) * rate / 1e6);
+        long written = mWritten;
+        long oldest = written - ring.length / 2; // Keep clear of the part being overwritten
+        int mask = mMask;
+        int found = 0;
+        for (int i = 0; i < frames; i++) {
+            long position = start + i;
+            if (position >= oldest && position < written) {
+                out[i] = ring[(int) (position & mask)];
+                found++;
+            } else {
+                out[i] = 0;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,85 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free triple buffer of float arrays, one producer thread and one consumer thread
+ * Producer fills back() then publish(), consumer calls update() then reads front(),
+ * only the latest published array is seen and nothing is allocated unless the length changes.
+ */
+public class FloatTripleBuffer {
+
+    private static final int DIRTY = 4; // Middle holds data not seen by consumer
+    private static final int INDEX = 3;
+
+    private final float[][] mBuffers = new float[3][];
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+    private int mBack = 0;  // Producer side only
+    private int mFront = 2; // Consumer side only
+
+    /**
+     * Producer side, array to fill, exactly length long
+     */
+    @NonNull
+    public float[] back(int length) {
+        float[] back = mBuffers[mBack];
+        if (back == null || back.length != length) {
+            back = new float[length];
+            mBuffers[mBack] = back;
+        }
+        return back;
+    }
+
+    /**
+     * Producer side, make the back array the latest data
+     */
+    public void publish() {
+        int prev = mMiddle.getAndSet(mBack | DIRTY);
+        if ((prev & DIRTY) != 0) {
+            mCoalesced.incrementAndGet(); // Previous data never reached the consumer
+        }
+        mPublished.incrementAndGet();
+        mBack = prev & INDEX;
+    }
+
+    /**
+     * Producer side, copy data into the back array and publish it
+     */
+    public void publish(@NonNull float[] data, int length) {
+        System.arraycopy(data, 0, back(length), 0, length);
+        publish();
+    }
+
+    /**
+     * Consumer side, take the latest published array as front
+     * @return false if nothing new since last update
+     */
+    public boolean update() {
+        if ((mMiddle.get() & DIRTY) == 0) {
+            return false;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX;
+        return true;
+    }
+
+    /**
+     * Consumer side, valid until next update(), may be null before first publish
+     */
+    public float[] front() {
+        return mBuffers[mFront];
+    }
+
+    public long getPublishedCount() {
+        return mPublished.get();
+    }
+
+    /** Published arrays replaced before the consumer saw them */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+}
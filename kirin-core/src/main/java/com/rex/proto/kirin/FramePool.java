@@ -0,0 +1,112 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of direct AudioFrame buffers with the same capacity
+ * Frames are created on demand up to the max count and recycled forever after,
+ * acquire and recycle never allocate once the pool is warm.
+ * Leak detection records the acquire call site of each frame, meant for debug builds only.
+ */
+public class FramePool {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(FramePool.class);
+
+    private final int mFrameSize;
+    private final AudioFrame[] mFrames;
+    private final ArrayBlockingQueue<AudioFrame> mFree;
+    private final AtomicInteger mCreated = new AtomicInteger();
+    private final AtomicInteger mExhausted = new AtomicInteger();
+    private volatile boolean mLeakDetection;
+
+    public FramePool(int frameSize, int maxFrames) {
+        sLogger.trace("frameSize:{} maxFrames:{}", frameSize, maxFrames);
+        if (frameSize <= 0 || maxFrames <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + frameSize + " or max frames " + maxFrames);
+        }
+        mFrameSize = frameSize;
+        mFrames = new AudioFrame[maxFrames];
+        mFree = new ArrayBlockingQueue<>(maxFrames);
+    }
+
+    public FramePool setLeakDetection(boolean enable) {
+        sLogger.trace("enable:{}", enable);
+        mLeakDetection = enable;
+        return this;
+    }
+
+    /**
+     * @return frame with one reference, or null if all frames are in use
+     */
+    @Nullable
+    public AudioFrame acquire() {
+        AudioFrame frame = mFree.poll();
+        if (frame == null) {
+            int index = mCreated.getAndIncrement();
+            if (index >= mFrames.length) {
+                mCreated.decrementAndGet();
+                mExhausted.incrementAndGet();
+                return null;
+            }
+            frame = new AudioFrame(this, ByteBuffer.allocateDirect(mFrameSize).order(ByteOrder.nativeOrder()));
+            mFrames[index] = frame;
+        }
+        frame.acquired();
+        frame.set(0, 0);
+        if (mLeakDetection) {
+            frame.mTrace = new Throwable("Frame acquired here");
+        }
+        return frame;
+    }
+
+    void recycle(AudioFrame frame) {
+        frame.mTrace = null;
+        if (!mFree.offer(frame)) {
+            sLogger.warn("Failed to recycle frame, pool full");
+        }
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /** Frames currently owned by someone */
+    public int getOutstanding() {
+        return mCreated.get() - mFree.size();
+    }
+
+    /** Times acquire failed because all frames were in use */
+    public int getExhaustedCount() {
+        return mExhausted.get();
+    }
+
+    /**
+     * Report frames not released, call after all consumers stopped
+     * @return number of leaked frames
+     */
+    public int checkLeaks() {
+        int leaks = 0;
+        int created = Math.min(mCreated.get(), mFrames.length);
+        for (int i = 0; i < created; i++) {
+            AudioFrame frame = mFrames[i];
+            if (frame != null && frame.refCount() > 0) {
+                leaks++;
+                Throwable trace = frame.mTrace;
+                if (trace != null) {
+                    sLogger.warn("Leaked " + frame, trace);
+                } else {
+                    sLogger.warn("Leaked {}", frame);
+                }
+            }
+        }
+        return leaks;
+    }
+}
@@ -0,0 +1,274 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Playout buffer that holds the end to end delay at a target instead of letting it drift
+ * Latency is the queued data here plus the frames the output has accepted but not played yet.
+ * Output starts once the target is buffered, then every push writes what the output takes without blocking.
+ * After an underrun the target is buffered again before writing resumes.
+ * When the latency leaves target +/- tolerance it is corrected on silent frames only, by dropping part of the
+ * frame or repeating its tail, at most half a frame each time so the correction is gradual and inaudible.
+ * Single thread, push and drain from the producer, statistics readable from any thread.
+ */
+public class JitterBuffer {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(JitterBuffer.class);
+
+    private static final float DEFAULT_SILENCE_DB = -50f;
+
+    /** Non-blocking sink of the buffered PCM, e.g. AudioTrack with WRITE_NON_BLOCKING */
+    public interface Output {
+        /**
+         * Write from the buffer position without blocking
+         * @return bytes accepted, 0 when full, negative on error
+         */
+        int write(@NonNull ByteBuffer buffer, int size);
+        /** Frames accepted but not played yet */
+        int getQueuedFrames();
+    }
+
+    private final int mSampleRate;
+    private final int mSampleBits;
+    private final int mFrameBytes;      // Bytes of one sample in all channels
+    private final int mTargetFrames;
+    private final ByteBuffer mRing;
+    private final ByteBuffer mReadView;
+    private final int mCapacity;        // Bytes
+    private int mToleranceFrames;
+    private float mSilenceLevel;
+    private int mRead;
+    private int mFill;
+    private boolean mPrimed;
+    private ByteBuffer mSource;
+    private ByteBuffer mSourceView;
+
+    private volatile int mLatencyFrames;
+    private volatile long mUnderruns;
+    private volatile long mOverruns;
+    private volatile long mOverrunFrames;
+    private volatile long mDroppedFrames;
+    private volatile long mInsertedFrames;
+
+    /**
+     * @param targetFrames   end to end delay to hold, in frames of all channels
+     * @param capacityFrames max queued frames, beyond it the oldest are dropped
+     */
+    public JitterBuffer(int sampleRate, int sampleBits, int numChannels, int targetFrames, int capacityFrames) {
+        if (sampleRate <= 0 || (sampleBits != 8 && sampleBits != 16 && sampleBits != 32) || numChannels <= 0
+                || targetFrames < 0 || capacityFrames <= targetFrames) {
+            throw new IllegalArgumentException("Invalid format " + sampleRate + "/" + sampleBits + "/" + numChannels
+                    + " target " + targetFrames + " capacity " + capacityFrames);
+        }
+        mSampleRate = sampleRate;
+        mSampleBits = sampleBits;
+        mFrameBytes = numChannels * sampleBits / Byte.SIZE;
+        mTargetFrames = targetFrames;
+        mCapacity = capacityFrames * mFrameBytes;
+        mRing = ByteBuffer.allocateDirect(mCapacity).order(ByteOrder.nativeOrder());
+        mReadView = mRing.duplicate();
+        mToleranceFrames = sampleRate / 200; // 5ms
+        setSilenceThreshold(DEFAULT_SILENCE_DB);
+    }
+
+    /** Latency error ignored by the catch-up, in frames */
+    public JitterBuffer setTolerance(int frames) {
+        sLogger.trace("frames:{}", frames);
+        mToleranceFrames = Math.max(0, frames);
+        return this;
+    }
+
+    /** Peak level below which a frame may be dropped or repeated, in dBFS */
+    public JitterBuffer setSilenceThreshold(float db) {
+        sLogger.trace("db:{}", db);
+        mSilenceLevel = (float) Math.pow(10, db / 20);
+        return this;
+    }
+
+    /**
+     * Queue one frame and feed the output
+     * @return true when the target is reached, first time and after each underrun, start the output if idle
+     */
+    public boolean push(@NonNull ByteBuffer buffer, int offset, int size, @NonNull Output output) {
+        int frames = size / mFrameBytes;
+        size = frames * mFrameBytes;
+        boolean started = false;
+        int queued = mPrimed ? Math.max(0, output.getQueuedFrames()) : 0;
+        if (mPrimed && queued == 0 && mFill == 0) { // Output ran dry, e.g. capture stalled, build the target up again
+            mUnderruns++;
+            mPrimed = false;
+        }
+        if (mPrimed) {
+            int latency = queued + mFill / mFrameBytes;
+            mLatencyFrames = latency;
+            int error = latency - mTargetFrames;
+            if (Math.abs(error) > mToleranceFrames && isSilent(buffer, offset, size)) {
+                int adjust = Math.min(Math.abs(error), frames / 2);
+                if (error > 0) {
+                    enqueue(buffer, offset, size - adjust * mFrameBytes);
+                    mDroppedFrames += adjust;
+                } else {
+                    enqueue(buffer, offset, size);
+                    enqueue(buffer, offset + size - adjust * mFrameBytes, adjust * mFrameBytes);
+                    mInsertedFrames += adjust;
+                }
+            } else {
+                enqueue(buffer, offset, size);
+            }
+        } else { // Start once the incoming frame would wait the target, it then plays with the target delay
+            if (mFill >= mTargetFrames * mFrameBytes) {
+                sLogger.debug("Primed with {} frames", mFill / mFrameBytes);
+                mPrimed = true;
+                started = true;
+                mLatencyFrames = mFill / mFrameBytes;
+            }
+            enqueue(buffer, offset, size);
+        }
+        if (mPrimed) {
+            drain(output);
+        }
+        return started;
+    }
+
+    /** Write queued data until the output is full, returns bytes written */
+    public int drain(@NonNull Output output) {
+        int total = 0;
+        while (mFill > 0) {
+            int size = Math.min(mFill, mCapacity - mRead);
+            mReadView.limit(mRead + size);
+            mReadView.position(mRead);
+            int written = output.write(mReadView, size);
+            if (written <= 0) {
+                break;
+            }
+            written = Math.min(written, size);
+            mRead = (mRead + written) % mCapacity;
+            mFill -= written;
+            total += written;
+            if (written < size) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /** Discard queued data and wait for the target again */
+    public void reset() {
+        sLogger.trace("");
+        mRead = 0;
+        mFill = 0;
+        mPrimed = false;
+        mLatencyFrames = 0;
+    }
+
+    public boolean isPrimed() {
+        return mPrimed;
+    }
+
+    public int getTargetFrames() {
+        return mTargetFrames;
+    }
+
+    /** Frames queued here, not counting the output */
+    public int getFillFrames() {
+        return mFill / mFrameBytes;
+    }
+
+    /** End to end delay seen by the last push, in frames */
+    public int getLatencyFrames() {
+        return mLatencyFrames;
+    }
+
+    public float getLatencyMillis() {
+        return mLatencyFrames * 1000f / mSampleRate;
+    }
+
+    /** Pushes that found both this buffer and the output empty, each one buffers the target again */
+    public long getUnderrunCount() {
+        return mUnderruns;
+    }
+
+    /** Pushes that overflowed the capacity and dropped the oldest data */
+    public long getOverrunCount() {
+        return mOverruns;
+    }
+
+    public long getOverrunFrames() {
+        return mOverrunFrames;
+    }
+
+    /** Silent frames dropped to catch up */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /** Silent frames repeated to slow down */
+    public long getInsertedFrames() {
+        return mInsertedFrames;
+    }
+
+    private void enqueue(ByteBuffer buffer, int offset, int size) {
+        if (size <= 0) {
+            return;
+        }
+        if (size > mCapacity) { // Keep the newest part only
+            offset += size - mCapacity;
+            size = mCapacity;
+        }
+        int overflow = mFill + size - mCapacity;
+        if (overflow > 0) {
+            mRead = (mRead + overflow) % mCapacity;
+            mFill -= overflow;
+            mOverruns++;
+            mOverrunFrames += overflow / mFrameBytes;
+        }
+        int write = (mRead + mFill) % mCapacity;
+        int first = Math.min(size, mCapacity - write);
+        AudioBuffers.copy(buffer, offset, mRing, write, first);
+        if (first < size) {
+            AudioBuffers.copy(buffer, offset + first, mRing, 0, size - first);
+        }
+        mFill += size;
+    }
+
+    private boolean isSilent(ByteBuffer buffer, int offset, int size) {
+        ByteBuffer view = buffer;
+        if (buffer.order() != ByteOrder.nativeOrder()) { // Reuse the view while the source recycles its buffer
+            if (mSource != buffer) {
+                mSource = buffer;
+                mSourceView = buffer.duplicate().order(ByteOrder.nativeOrder());
+            }
+            view = mSourceView;
+        }
+        float level = mSilenceLevel;
+        switch (mSampleBits) {
+        case 8: {
+            int limit = (int) (level * 128);
+            for (int i = 0; i < size; i++) {
+                if (Math.abs((view.get(offset + i) & 0xFF) - 128) > limit) return false;
+            }
+            return true;
+        }
+        case 16: {
+            int limit = (int) (level * 32768);
+            for (int i = 0; i < size; i += 2) {
+                if (Math.abs(view.getShort(offset + i)) > limit) return false;
+            }
+            return true;
+        }
+        case 32: {
+            for (int i = 0; i < size; i += 4) {
+                if (Math.abs(view.getFloat(offset + i)) > level) return false;
+            }
+            return true;
+        }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds with fixed log-linear buckets
+ * Each power of two range is split in 16 linear buckets, so any reported value is within 6.25% of the recorded one.
+ * record() is a couple of atomic increments and never allocates, safe to call from the audio threads,
+ * values from 0 to about 35 minutes are kept, larger values count in the last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 30;
+    private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BITS + 2) * SUB_COUNT;
+    private static final long MAX_VALUE = (1L << (MAX_MAGNITUDE + 1)) - 1;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mMax = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+
+    public LatencyHistogram(@NonNull String name) {
+        mName = name;
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /** Negative values from clock skew count as 0 */
+    public void record(long micros) {
+        long value = Math.max(0, Math.min(MAX_VALUE, micros));
+        mCounts.incrementAndGet(indexOf(value));
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // Retry, another thread raised the max
+        }
+    }
+
+    /** Statistics since creation or last reset */
+    @NonNull
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(mName, counts, mSum.get(), mMax.get());
+    }
+
+    /**
+     * Statistics since last reset and start a new interval
+     * Every record counts in exactly one interval, but its sum and max may land in the neighbour one when it runs
+     * during the reset, so mean and max are approximate across the boundary.
+     */
+    @NonNull
+    public Snapshot snapshotAndReset() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.getAndSet(i, 0);
+        }
+        return new Snapshot(mName, counts, mSum.getAndSet(0), mMax.getAndSet(0));
+    }
+
+    public void reset() {
+        snapshotAndReset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    /** Highest value counted in the bucket */
+    static long highestOf(int index) {
+        int group = index / SUB_COUNT;
+        int sub = index % SUB_COUNT;
+        if (group == 0) {
+            return sub;
+        }
+        int shift = group - 1;
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Immutable view of a histogram, percentiles are the highest value of the bucket and never above max
+     */
+    public static final class Snapshot {
+        private final String mName;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(String name, long[] counts, long sum, long max) {
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            mName = name;
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        @NonNull
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return (mCount > 0) ? mSum / mCount : 0;
+        }
+
+        /** @param percentile in [0, 100] */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            double p = Math.max(0, Math.min(100, percentile));
+            long rank = Math.max(1, (long) Math.ceil(p * mCount / 100 - 1e-9)); // Guard 99.9 * 1000 rounding up
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(highestOf(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        public long getP50() {
+            return getPercentile(50);
+        }
+
+        public long getP99() {
+            return getPercentile(99);
+        }
+
+        public long getP999() {
+            return getPercentile(99.9);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return mName + " count:" + mCount + " p50:" + getP50() + "us p99:" + getP99() + "us p99.9:" + getP999()
+                    + "us max:" + mMax + "us";
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Capture to stage latency of a sink chain, one LatencyHistogram per named stage
+ * Frame timestamps are capture time in monotonic microseconds, AudioTimestamp.TIMEBASE_MONOTONIC and
+ * System.nanoTime() share CLOCK_MONOTONIC so the latency is now() minus the frame timestamp.
+ * Stages keep the order they were added, chains are built from the sink side so register the stage names
+ * in source order first for a readable report.
+ */
+public class LatencyTracer {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(LatencyTracer.class);
+
+    private final List<LatencyHistogram> mStages = new CopyOnWriteArrayList<>();
+
+    public LatencyTracer() {
+        sLogger.trace("");
+    }
+
+    /** Monotonic clock of the frame timestamps in microseconds */
+    public static long now() {
+        return System.nanoTime() / 1000;
+    }
+
+    /** Histogram of the stage, created on first use */
+    @NonNull
+    public synchronized LatencyHistogram stage(@NonNull String name) {
+        for (LatencyHistogram histogram : mStages) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        LatencyHistogram histogram = new LatencyHistogram(name);
+        mStages.add(histogram);
+        return histogram;
+    }
+
+    /** Record the latency of every frame entering the sink as the stage */
+    @NonNull
+    public AudioSink trace(@NonNull String name, AudioSink sink) {
+        sLogger.trace("name:{} sink:{}", name, sink);
+        return new AudioSinkTrace(sink, stage(name));
+    }
+
+    /** Statistics of all stages since start or last reset, in stage order */
+    @NonNull
+    public List<LatencyHistogram.Snapshot> snapshot() {
+        List<LatencyHistogram.Snapshot> snapshots = new ArrayList<>(mStages.size());
+        for (LatencyHistogram histogram : mStages) {
+            snapshots.add(histogram.snapshot());
+        }
+        return snapshots;
+    }
+
+    public void reset() {
+        sLogger.trace("");
+        for (LatencyHistogram histogram : mStages) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.rex.proto.kirin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AtomicLong taking a whole cache line, so producer and consumer counters never false share
+ */
+class PaddedAtomicLong extends AtomicLong {
+
+    private static final long serialVersionUID = 1L;
+
+    @SuppressWarnings("unused")
+    volatile long p1, p2, p3, p4, p5, p6, p7;
+
+    PaddedAtomicLong() {
+        super();
+    }
+}
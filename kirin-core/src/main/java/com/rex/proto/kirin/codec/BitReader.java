@@ -0,0 +1,127 @@
+package com.rex.proto.kirin.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MSB first bit reader over a ByteBuffer by absolute positions, refills a 64-bit cache byte by byte
+ */
+class BitReader {
+
+    private ByteBuffer mBuffer;
+    private int mPos;       // Next byte to load
+    private int mLimit;
+    private long mCache;    // Valid bits left aligned
+    private int mBits;
+
+    void reset(ByteBuffer buffer, int offset, int limit) {
+        mBuffer = buffer;
+        mPos = offset;
+        mLimit = limit;
+        mCache = 0;
+        mBits = 0;
+    }
+
+    private void fill() {
+        while (mBits <= 56) {
+            if (mPos >= mLimit) {
+                if (mBits == 0) {
+                    throw new IndexOutOfBoundsException("End of data");
+                }
+                return;
+            }
+            mCache |= (mBuffer.get(mPos++) & 0xFFL) << (56 - mBits);
+            mBits += 8;
+        }
+    }
+
+    /** Unsigned value of bits, at most 32 */
+    int read(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        if (mBits < bits) {
+            fill();
+            if (mBits < bits) {
+                throw new IndexOutOfBoundsException("End of data");
+            }
+        }
+        int value = (int) (mCache >>> (64 - bits));
+        mCache <<= bits;
+        mBits -= bits;
+        return value;
+    }
+
+    int readSigned(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        int value = read(bits);
+        return (value << (32 - bits)) >> (32 - bits);
+    }
+
+    long readLong(int bits) {
+        if (bits > 32) {
+            long high = read(bits - 32) & 0xFFFFFFFFL;
+            return (high << 32) | (read(32) & 0xFFFFFFFFL);
+        }
+        return read(bits) & 0xFFFFFFFFL;
+    }
+
+    int readUnary() {
+        int count = 0;
+        while (true) {
+            if (mBits == 0) {
+                fill();
+            }
+            if (mCache == 0) {
+                count += mBits;
+                mCache = 0;
+                mBits = 0;
+                continue;
+            }
+            int zeros = Long.numberOfLeadingZeros(mCache);
+            if (zeros < mBits) {
+                count += zeros;
+                mCache <<= zeros + 1;
+                mBits -= zeros + 1;
+                return count;
+            }
+            count += mBits;
+            mCache = 0;
+            mBits = 0;
+        }
+    }
+
+    int readRice(int k) {
+        int q = readUnary();
+        int u = (q << k) | read(k);
+        return (u >>> 1) ^ -(u & 1);
+    }
+
+    long readUtf8() {
+        int first = read(8);
+        if (first < 0x80) {
+            return first;
+        }
+        int bytes = Integer.numberOfLeadingZeros(~(first << 24));
+        if (bytes < 2 || bytes > 7) {
+            throw new IllegalStateException("Invalid UTF-8 number");
+        }
+        long value = first & (0x7F >> bytes);
+        for (int i = 1; i < bytes; i++) {
+            value = (value << 6) | (read(8) & 0x3F);
+        }
+        return value;
+    }
+
+    void align() {
+        int drop = mBits & 7;
+        mCache <<= drop;
+        mBits -= drop;
+    }
+
+    /** Byte position of the next unread byte, only valid when aligned */
+    int position() {
+        return mPos - mBits / 8;
+    }
+}
@@ -0,0 +1,89 @@
+package com.rex.proto.kirin.codec;
+
+/**
+ * MSB first bit packer into a byte array, bits are staged in a 64-bit accumulator
+ */
+class BitWriter {
+
+    private byte[] mBuffer;
+    private int mPos;       // Bytes flushed
+    private long mAcc;
+    private int mBits;      // Bits pending in mAcc
+
+    void reset(byte[] buffer, int offset) {
+        mBuffer = buffer;
+        mPos = offset;
+        mAcc = 0;
+        mBits = 0;
+    }
+
+    /** Write the low bits of value, bits at most 32 */
+    void write(int value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        mAcc = (mAcc << bits) | (value & (0xFFFFFFFFL >>> (32 - bits)));
+        mBits += bits;
+        while (mBits >= 8) {
+            mBits -= 8;
+            mBuffer[mPos++] = (byte) (mAcc >>> mBits);
+        }
+    }
+
+    void writeLong(long value, int bits) {
+        if (bits > 32) {
+            write((int) (value >>> 32), bits - 32);
+            bits = 32;
+        }
+        write((int) value, bits);
+    }
+
+    /** Rice code of a signed value, zigzag folded, q zeros then a one then k low bits */
+    void writeRice(int value, int k) {
+        int u = (value << 1) ^ (value >> 31);
+        int q = u >>> k;
+        while (q >= 32) {
+            write(0, 32);
+            q -= 32;
+        }
+        if (k + q + 1 <= 32) {
+            write((1 << k) | (u & ((1 << k) - 1)), q + 1 + k);
+        } else {
+            write(1, q + 1);
+            write(u, k);
+        }
+    }
+
+    /** UTF-8 like variable length coding of frame numbers */
+    void writeUtf8(long value) {
+        if (value < 0x80) {
+            write((int) value, 8);
+            return;
+        }
+        int bytes = 2;
+        while (bytes < 7 && value >= (1L << (5 * bytes + 1))) {
+            bytes++;
+        }
+        int shift = (bytes - 1) * 6;
+        write((0xFF00 >> bytes) & 0xFF | (int) (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            write(0x80 | (int) ((value >>> shift) & 0x3F), 8);
+        }
+    }
+
+    void align() {
+        if (mBits > 0) {
+            write(0, 8 - mBits);
+        }
+    }
+
+    /** Bytes written so far, after align() */
+    int position() {
+        return mPos;
+    }
+
+    long bitCount(int offset) {
+        return (long) (mPos - offset) * 8 + mBits;
+    }
+}
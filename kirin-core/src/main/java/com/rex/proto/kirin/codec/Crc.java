@@ -0,0 +1,60 @@
+package com.rex.proto.kirin.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CRC-8 (poly 0x07) of FLAC frame headers and CRC-16 (poly 0x8005) of whole frames, MSB first, zero init
+ */
+final class Crc {
+
+    private static final int[] CRC8 = new int[256];
+    private static final int[] CRC16 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int b = 0; b < 8; b++) {
+                crc8 = ((crc8 & 0x80) != 0) ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = ((crc16 & 0x8000) != 0) ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8[i] = crc8 & 0xFF;
+            CRC16[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private Crc() {
+    }
+
+    static int crc8(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = CRC8[crc ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16[(crc >>> 8) ^ (data[i] & 0xFF)];
+        }
+        return crc;
+    }
+
+    static int crc8(ByteBuffer data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = CRC8[crc ^ (data.get(i) & 0xFF)];
+        }
+        return crc;
+    }
+
+    static int crc16(ByteBuffer data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            crc = ((crc << 8) & 0xFFFF) ^ CRC16[(crc >>> 8) ^ (data.get(i) & 0xFF)];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,276 @@
+package com.rex.proto.kirin.codec;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FLAC stream decoder working on a ByteBuffer by absolute offsets, e.g. a memory mapped file
+ * Supports all subframe types, Rice and Rice2 residuals with escapes, wasted bits and stereo decorrelation,
+ * frame CRCs are verified. Output samples are sign extended to the stream bits per sample.
+ */
+public class FlacDecoder {
+
+    private final BitReader mReader = new BitReader();
+    private final long[] mQlp = new long[32];
+    private int mSampleRate;
+    private int mBits;
+    private int mChannels;
+    private int mMinBlockSize;
+    private int mMaxBlockSize;
+    private long mTotalSamples;
+    private int mBlockSize;         // Samples per channel of the last decoded frame
+    private long mFrameNumber;      // Coded number of the last decoded frame
+
+    /**
+     * Parse the fLaC marker and metadata blocks
+     * @return offset of the first frame
+     */
+    public int readHeader(@NonNull ByteBuffer buffer, int offset, int limit) {
+        if (limit - offset < 42 || buffer.get(offset) != 'f' || buffer.get(offset + 1) != 'L'
+                || buffer.get(offset + 2) != 'a' || buffer.get(offset + 3) != 'C') {
+            throw new IllegalArgumentException("Not a FLAC stream");
+        }
+        BitReader reader = mReader;
+        int pos = offset + 4;
+        boolean last = false;
+        boolean hasInfo = false;
+        while (!last) {
+            if (pos + 4 > limit) {
+                throw new IllegalArgumentException("Truncated metadata");
+            }
+            reader.reset(buffer, pos, pos + 4);
+            int header = reader.read(32);
+            last = (header & 0x80000000) != 0;
+            int type = (header >>> 24) & 0x7F;
+            int length = header & 0xFFFFFF;
+            if (type == 0) { // STREAMINFO
+                reader.reset(buffer, pos + 4, pos + 4 + length);
+                mMinBlockSize = reader.read(16);
+                mMaxBlockSize = reader.read(16);
+                reader.read(24); // Min frame size
+                reader.read(24); // Max frame size
+                mSampleRate = reader.read(20);
+                mChannels = reader.read(3) + 1;
+                mBits = reader.read(5) + 1;
+                mTotalSamples = reader.readLong(36);
+                hasInfo = true;
+            }
+            pos += 4 + length;
+        }
+        if (!hasInfo) {
+            throw new IllegalArgumentException("Missing STREAMINFO");
+        }
+        return pos;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getBitsPerSample() {
+        return mBits;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public int getMinBlockSize() {
+        return mMinBlockSize;
+    }
+
+    public int getMaxBlockSize() {
+        return mMaxBlockSize;
+    }
+
+    /** Samples per channel of the whole stream, 0 if unknown */
+    public long getTotalSamples() {
+        return mTotalSamples;
+    }
+
+    /** Samples per channel of the last decoded frame */
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    /**
+     * Decode one frame
+     * @param out channels arrays of at least the max block size
+     * @return bytes of the frame, the next frame starts right after
+     */
+    public int decode(@NonNull ByteBuffer buffer, int offset, int limit, @NonNull int[][] out) {
+        BitReader reader = mReader;
+        reader.reset(buffer, offset, limit);
+        if (reader.read(14) != 0x3FFE || reader.read(1) != 0) {
+            throw new IllegalArgumentException("Invalid frame sync at " + offset);
+        }
+        reader.read(1); // Blocking strategy, frame or sample number follows
+        int blockCode = reader.read(4);
+        int rateCode = reader.read(4);
+        int assignment = reader.read(4);
+        int sizeCode = reader.read(3);
+        reader.read(1);
+        mFrameNumber = reader.readUtf8();
+        int blockSize;
+        switch (blockCode) {
+        case 0: throw new IllegalArgumentException("Reserved block size");
+        case 1: blockSize = 192; break;
+        case 6: blockSize = reader.read(8) + 1; break;
+        case 7: blockSize = reader.read(16) + 1; break;
+        default: blockSize = (blockCode < 6) ? 576 << (blockCode - 2) : 256 << (blockCode - 8); break;
+        }
+        switch (rateCode) {
+        case 12: reader.read(8); break;
+        case 13: case 14: reader.read(16); break;
+        }
+        int bits;
+        switch (sizeCode) {
+        case 0: bits = mBits; break;
+        case 1: bits = 8; break;
+        case 2: bits = 12; break;
+        case 4: bits = 16; break;
+        case 5: bits = 20; break;
+        case 6: bits = 24; break;
+        case 7: bits = 32; break;
+        default: throw new IllegalArgumentException("Reserved sample size");
+        }
+        int headerEnd = reader.position();
+        if (reader.read(8) != Crc.crc8(buffer, offset, headerEnd - offset)) {
+            throw new IllegalArgumentException("Header CRC mismatch at " + offset);
+        }
+        if (blockSize > out[0].length) {
+            throw new IllegalArgumentException("Block size " + blockSize + " over " + out[0].length);
+        }
+
+        int channels = (assignment < 8) ? assignment + 1 : 2;
+        if (assignment > 10 || channels > out.length) {
+            throw new IllegalArgumentException("Invalid channel assignment " + assignment);
+        }
+        for (int c = 0; c < channels; c++) {
+            boolean side = (assignment == 8 && c == 1) || (assignment == 9 && c == 0) || (assignment == 10 && c == 1);
+            subframe(out[c], blockSize, side ? bits + 1 : bits);
+        }
+        switch (assignment) {
+        case 8: // Left side
+            for (int i = 0; i < blockSize; i++) out[1][i] = out[0][i] - out[1][i];
+            break;
+        case 9: // Side right
+            for (int i = 0; i < blockSize; i++) out[0][i] += out[1][i];
+            break;
+        case 10: // Mid side
+            for (int i = 0; i < blockSize; i++) {
+                int side = out[1][i];
+                int mid = (out[0][i] << 1) | (side & 1);
+                out[0][i] = (mid + side) >> 1;
+                out[1][i] = (mid - side) >> 1;
+            }
+            break;
+        }
+
+        reader.align();
+        int end = reader.position();
+        if (reader.read(16) != Crc.crc16(buffer, offset, end - offset)) {
+            throw new IllegalArgumentException("Frame CRC mismatch at " + offset);
+        }
+        mBlockSize = blockSize;
+        return end + 2 - offset;
+    }
+
+    private void subframe(int[] out, int count, int bits) {
+        BitReader reader = mReader;
+        if (reader.read(1) != 0) {
+            throw new IllegalArgumentException("Invalid subframe padding");
+        }
+        int type = reader.read(6);
+        int wasted = 0;
+        if (reader.read(1) != 0) {
+            wasted = reader.readUnary() + 1;
+            bits -= wasted;
+        }
+        if (type == 0) { // Constant
+            int value = reader.readSigned(bits);
+            for (int i = 0; i < count; i++) out[i] = value;
+        } else if (type == 1) { // Verbatim
+            for (int i = 0; i < count; i++) out[i] = reader.readSigned(bits);
+        } else if (type >= 8 && type <= 12) { // Fixed
+            int order = type - 8;
+            for (int i = 0; i < order; i++) out[i] = reader.readSigned(bits);
+            residual(out, count, order);
+            fixedRestore(out, count, order);
+        } else if (type >= 32) { // LPC
+            int order = type - 31;
+            for (int i = 0; i < order; i++) out[i] = reader.readSigned(bits);
+            int precision = reader.read(4) + 1;
+            int shift = reader.readSigned(5);
+            if (precision == 16 || shift < 0) {
+                throw new IllegalArgumentException("Invalid LPC precision " + precision + " shift " + shift);
+            }
+            long[] qlp = mQlp;
+            for (int i = 0; i < order; i++) qlp[i] = reader.readSigned(precision);
+            residual(out, count, order);
+            for (int i = order; i < count; i++) {
+                long sum = 0;
+                for (int j = 0; j < order; j++) {
+                    sum += qlp[j] * out[i - j - 1];
+                }
+                out[i] += (int) (sum >> shift);
+            }
+        } else {
+            throw new IllegalArgumentException("Reserved subframe type " + type);
+        }
+        if (wasted > 0) {
+            for (int i = 0; i < count; i++) out[i] <<= wasted;
+        }
+    }
+
+    // Residual into out[order..count)
+    private void residual(int[] out, int count, int order) {
+        BitReader reader = mReader;
+        int method = reader.read(2);
+        if (method > 1) {
+            throw new IllegalArgumentException("Reserved residual coding " + method);
+        }
+        int paramBits = (method == 0) ? 4 : 5;
+        int escape = (1 << paramBits) - 1;
+        int po = reader.read(4);
+        int partitions = 1 << po;
+        int size = count >> po;
+        if ((size << po) != count || size < order) {
+            throw new IllegalArgumentException("Invalid partition order " + po);
+        }
+        for (int p = 0, i = order; p < partitions; p++) {
+            int k = reader.read(paramBits);
+            int end = (p + 1) * size;
+            if (k == escape) {
+                int raw = reader.read(5);
+                for (; i < end; i++) out[i] = reader.readSigned(raw);
+            } else {
+                for (; i < end; i++) out[i] = reader.readRice(k);
+            }
+        }
+    }
+
+    private static void fixedRestore(int[] x, int count, int order) {
+        switch (order) {
+        case 0:
+            break;
+        case 1:
+            for (int i = 1; i < count; i++) x[i] += x[i - 1];
+            break;
+        case 2:
+            for (int i = 2; i < count; i++) x[i] += 2 * x[i - 1] - x[i - 2];
+            break;
+        case 3:
+            for (int i = 3; i < count; i++) x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+            break;
+        default:
+            for (int i = 4; i < count; i++) x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+            break;
+        }
+    }
+}
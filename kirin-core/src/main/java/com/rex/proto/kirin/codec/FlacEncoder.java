@@ -0,0 +1,619 @@
+package com.rex.proto.kirin.codec;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Streaming FLAC encoder of fixed size blocks, output is a standard FLAC stream
+ * Every channel tries constant, verbatim, fixed polynomial predictors of order 0-4 and quantized LPC
+ * of order 8 and 12 (streamable subset limit) from Levinson-Durbin on a Tukey windowed autocorrelation,
+ * residuals are Rice coded with the best partition order. Stereo picks the cheapest of left/right, left/side, side/right and mid/side.
+ * All work arrays are allocated in the constructor, encode() never allocates. MD5 signature is left unset.
+ * Ref: <a href="https://www.rfc-editor.org/rfc/rfc9639">RFC 9639</a>
+ */
+public class FlacEncoder {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    public static final int HEADER_SIZE = 42;           // fLaC marker and STREAMINFO
+
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int[] LPC_ORDERS = { 8, 12 };
+    private static final int MAX_LPC_ORDER = 12;
+    private static final int LPC_PRECISION = 12;        // Keep qlp * sample sums of 16-bit input in 32 bits
+    private static final int MAX_PARTITION_ORDER = 6;
+    private static final int MAX_RICE_PARAM = 30;
+
+    private static final int TYPE_CONSTANT = 0;
+    private static final int TYPE_VERBATIM = 1;
+    private static final int TYPE_FIXED = 2;
+    private static final int TYPE_LPC = 3;
+
+    private static final int CHANNEL_LEFT_SIDE = 8;
+    private static final int CHANNEL_SIDE_RIGHT = 9;
+    private static final int CHANNEL_MID_SIDE = 10;
+
+    private final int mSampleRate;
+    private final int mBits;
+    private final int mChannels;
+    private final int mBlockSize;
+    private final BitWriter mWriter = new BitWriter();
+    private final Subframe[] mSubframes;    // One per channel, stereo adds mid and side
+    private final int[] mMid;
+    private final int[] mSide;
+    private final double[] mWindow;
+    private final double[] mShortWindow;    // Window of the last short frame
+    private int mShortLength;
+    private final double[] mWindowed;
+    private final long[] mErrors = new long[MAX_FIXED_ORDER + 1];
+    private final double[] mAutoc = new double[MAX_LPC_ORDER + 1];
+    private final double[] mLpc = new double[MAX_LPC_ORDER + 1];
+    private final double[] mLpcTmp = new double[MAX_LPC_ORDER + 1];
+    private final long[] mSums = new long[1 << MAX_PARTITION_ORDER];
+    private final int[] mParams = new int[1 << MAX_PARTITION_ORDER];        // Best of the last riceCost()
+    private final int[] mScratchParams = new int[1 << MAX_PARTITION_ORDER];
+    private int mPartitionOrder;                                            // Best of the last riceCost()
+
+    private long mFrameNumber;
+    private long mTotalSamples;
+    private int mMinFrameSize;
+    private int mMaxFrameSize;
+
+    private static class Subframe {
+        int[] mData;
+        int mBits;              // Sample bits, side channel has one more
+        int mType;
+        int mOrder;
+        long mCost;             // Estimated bits, never below the written size
+        int[] mResidual;
+        int[] mScratch;
+        final int[] mQlp = new int[MAX_LPC_ORDER];
+        final int[] mQlpScratch = new int[MAX_LPC_ORDER];
+        int mShift;
+        int mPartitionOrder;
+        final int[] mParams = new int[1 << MAX_PARTITION_ORDER];
+        Subframe(int blockSize) {
+            mResidual = new int[blockSize];
+            mScratch = new int[blockSize];
+        }
+    }
+
+    /**
+     * @param bitsPerSample 4 to 24
+     * @param blockSize     samples per channel of every frame except the last, 16 to 65535
+     */
+    public FlacEncoder(int sampleRate, int bitsPerSample, int channels, int blockSize) {
+        if (sampleRate <= 0 || sampleRate >= (1 << 20) || bitsPerSample < 4 || bitsPerSample > 24
+                || channels < 1 || channels > 8 || blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Unsupported format " + sampleRate + "/" + bitsPerSample + "/" + channels
+                    + " block " + blockSize);
+        }
+        mSampleRate = sampleRate;
+        mBits = bitsPerSample;
+        mChannels = channels;
+        mBlockSize = blockSize;
+        mSubframes = new Subframe[(channels == 2) ? 4 : channels];
+        for (int i = 0; i < mSubframes.length; i++) {
+            mSubframes[i] = new Subframe(blockSize);
+        }
+        mMid = (channels == 2) ? new int[blockSize] : null;
+        mSide = (channels == 2) ? new int[blockSize] : null;
+        mWindow = new double[blockSize];
+        mShortWindow = new double[blockSize];
+        mWindowed = new double[blockSize];
+        tukey(mWindow, blockSize);
+        mMinFrameSize = Integer.MAX_VALUE;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    /** Upper bound of one encoded frame in bytes */
+    public int getMaxFrameSize() {
+        return 18 + mChannels * ((mBlockSize * (mBits + 1) + 8 + 7) / 8) + 2;
+    }
+
+    public long getTotalSamples() {
+        return mTotalSamples;
+    }
+
+    public long getFrameCount() {
+        return mFrameNumber;
+    }
+
+    /**
+     * fLaC marker and STREAMINFO with the statistics so far, write it first and again over the start when done
+     * @return bytes written, HEADER_SIZE
+     */
+    public int writeHeader(@NonNull byte[] out, int offset) {
+        BitWriter writer = mWriter;
+        writer.reset(out, offset);
+        writer.write(0x664C6143, 32); // "fLaC"
+        writer.write(1, 1); // Last metadata block
+        writer.write(0, 7); // STREAMINFO
+        writer.write(34, 24);
+        writer.write(mBlockSize, 16);
+        writer.write(mBlockSize, 16);
+        writer.write((mMinFrameSize == Integer.MAX_VALUE) ? 0 : mMinFrameSize, 24);
+        writer.write(mMaxFrameSize, 24);
+        writer.write(mSampleRate, 20);
+        writer.write(mChannels - 1, 3);
+        writer.write(mBits - 1, 5);
+        writer.writeLong(mTotalSamples, 36);
+        for (int i = 0; i < 4; i++) {
+            writer.write(0, 32); // MD5 unknown
+        }
+        return writer.position() - offset;
+    }
+
+    /**
+     * Encode one frame
+     * @param samples per channel samples, sign extended to the sample bits
+     * @param count   samples per channel, at most the block size, only the last frame may be shorter
+     * @param out     capacity at least getMaxFrameSize() from offset
+     * @return bytes written
+     */
+    public int encode(@NonNull int[][] samples, int count, @NonNull byte[] out, int offset) {
+        if (count <= 0 || count > mBlockSize) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        int assignment = mChannels - 1;
+        if (mChannels == 2) {
+            int[] left = samples[0];
+            int[] right = samples[1];
+            for (int i = 0; i < count; i++) {
+                mMid[i] = (left[i] + right[i]) >> 1;
+                mSide[i] = left[i] - right[i];
+            }
+            analyze(mSubframes[0], left, count, mBits);
+            analyze(mSubframes[1], right, count, mBits);
+            analyze(mSubframes[2], mMid, count, mBits);
+            analyze(mSubframes[3], mSide, count, mBits + 1);
+            long l = mSubframes[0].mCost;
+            long r = mSubframes[1].mCost;
+            long m = mSubframes[2].mCost;
+            long s = mSubframes[3].mCost;
+            long best = l + r;
+            if (l + s < best) {
+                best = l + s;
+                assignment = CHANNEL_LEFT_SIDE;
+            }
+            if (s + r < best) {
+                best = s + r;
+                assignment = CHANNEL_SIDE_RIGHT;
+            }
+            if (m + s < best) {
+                assignment = CHANNEL_MID_SIDE;
+            }
+        } else {
+            for (int c = 0; c < mChannels; c++) {
+                analyze(mSubframes[c], samples[c], count, mBits);
+            }
+        }
+
+        BitWriter writer = mWriter;
+        writer.reset(out, offset);
+        writer.write(0x3FFE, 14); // Sync
+        writer.write(0, 1);
+        writer.write(0, 1); // Fixed block size, frame number coded
+        int blockCode = blockSizeCode(count);
+        writer.write(blockCode, 4);
+        writer.write(sampleRateCode(mSampleRate), 4);
+        writer.write(assignment, 4);
+        writer.write(sampleSizeCode(mBits), 3);
+        writer.write(0, 1);
+        writer.writeUtf8(mFrameNumber);
+        if (blockCode == 6) {
+            writer.write(count - 1, 8);
+        } else if (blockCode == 7) {
+            writer.write(count - 1, 16);
+        }
+        writer.write(Crc.crc8(out, offset, writer.position() - offset), 8);
+
+        switch (assignment) {
+        case CHANNEL_LEFT_SIDE:
+            write(mSubframes[0], count);
+            write(mSubframes[3], count);
+            break;
+        case CHANNEL_SIDE_RIGHT:
+            write(mSubframes[3], count);
+            write(mSubframes[1], count);
+            break;
+        case CHANNEL_MID_SIDE:
+            write(mSubframes[2], count);
+            write(mSubframes[3], count);
+            break;
+        default:
+            for (int c = 0; c < mChannels; c++) {
+                write(mSubframes[c], count);
+            }
+            break;
+        }
+        writer.align();
+        writer.write(Crc.crc16(out, offset, writer.position() - offset), 16);
+
+        int size = writer.position() - offset;
+        mFrameNumber++;
+        mTotalSamples += count;
+        mMinFrameSize = Math.min(mMinFrameSize, size);
+        mMaxFrameSize = Math.max(mMaxFrameSize, size);
+        return size;
+    }
+
+    private void analyze(Subframe sub, int[] data, int count, int bits) {
+        sub.mData = data;
+        sub.mBits = bits;
+
+        boolean constant = true;
+        for (int i = 1; i < count && constant; i++) {
+            constant = (data[i] == data[0]);
+        }
+        if (constant) {
+            sub.mType = TYPE_CONSTANT;
+            sub.mCost = 8 + bits;
+            return;
+        }
+        sub.mType = TYPE_VERBATIM;
+        sub.mCost = 8 + (long) count * bits;
+
+        // Fixed predictor with the smallest sum of absolute residuals
+        if (count > MAX_FIXED_ORDER) {
+            long[] error = mErrors;
+            fixedErrors(data, count, error);
+            int order = 0;
+            for (int o = 1; o <= MAX_FIXED_ORDER; o++) {
+                if (error[o] < error[order]) {
+                    order = o;
+                }
+            }
+            fixedResidual(data, count, order, sub.mScratch);
+            long cost = 8 + (long) order * bits + riceCost(sub.mScratch, count, order);
+            if (cost < sub.mCost) {
+                accept(sub, TYPE_FIXED, order, cost);
+            }
+        }
+
+        // Quantized LPC from the windowed autocorrelation
+        if (count > 2 * MAX_LPC_ORDER) {
+            double[] window = mWindow;
+            if (count != mBlockSize) { // Last short frame
+                window = mShortWindow;
+                if (mShortLength != count) {
+                    mShortLength = count;
+                    tukey(window, count);
+                }
+            }
+            double[] windowed = mWindowed;
+            for (int i = 0; i < count; i++) {
+                windowed[i] = data[i] * window[i];
+            }
+            for (int lag = 0; lag <= MAX_LPC_ORDER; lag++) {
+                double sum = 0;
+                for (int i = lag; i < count; i++) {
+                    sum += windowed[i] * windowed[i - lag];
+                }
+                mAutoc[lag] = sum;
+            }
+            if (mAutoc[0] > 0) {
+                mAutoc[0] *= 1.0 + 1e-9; // Tiny white noise keeps Levinson stable on pure tones
+                for (int order : LPC_ORDERS) {
+                    if (!levinson(order)) {
+                        break;
+                    }
+                    int shift = quantize(order, sub.mQlpScratch);
+                    if (shift < 0 || !lpcResidual(data, count, order, sub.mQlpScratch, shift, sub.mScratch)) {
+                        continue;
+                    }
+                    long cost = 8 + (long) order * bits + 4 + 5 + order * LPC_PRECISION + riceCost(sub.mScratch, count, order);
+                    if (cost < sub.mCost) {
+                        System.arraycopy(sub.mQlpScratch, 0, sub.mQlp, 0, order);
+                        sub.mShift = shift;
+                        accept(sub, TYPE_LPC, order, cost);
+                    }
+                }
+            }
+        }
+    }
+
+    // Keep the residual in mScratch and the partitions of the last riceCost()
+    private void accept(Subframe sub, int type, int order, long cost) {
+        int[] tmp = sub.mResidual;
+        sub.mResidual = sub.mScratch;
+        sub.mScratch = tmp;
+        sub.mType = type;
+        sub.mOrder = order;
+        sub.mCost = cost;
+        sub.mPartitionOrder = mPartitionOrder;
+        System.arraycopy(mParams, 0, sub.mParams, 0, 1 << mPartitionOrder);
+    }
+
+    // Bits of the residual with the best partition order and Rice parameters, result kept in mParams
+    private long riceCost(int[] residual, int count, int order) {
+        int maxOrder = 0;
+        while (maxOrder < MAX_PARTITION_ORDER && (count & ((1 << (maxOrder + 1)) - 1)) == 0
+                && (count >> (maxOrder + 1)) > order) {
+            maxOrder++;
+        }
+        int partitions = 1 << maxOrder;
+        int size = count >> maxOrder;
+        for (int p = 0, i = 0; p < partitions; p++) {
+            long sum = 0;
+            for (int end = (p + 1) * size; i < end; i++) {
+                if (i >= order) {
+                    int r = residual[i];
+                    sum += ((r << 1) ^ (r >> 31)) & 0xFFFFFFFFL;
+                }
+            }
+            mSums[p] = sum;
+        }
+        long best = Long.MAX_VALUE;
+        for (int po = maxOrder; po >= 0; po--) {
+            int n = count >> po;
+            long cost = 6;
+            int maxParam = 0;
+            for (int p = 0; p < (1 << po); p++) {
+                int samples = (p == 0) ? n - order : n;
+                long sum = mSums[p];
+                int k = 0;
+                if (samples > 0 && sum > samples) {
+                    k = 63 - Long.numberOfLeadingZeros(sum / samples);
+                }
+                long bits = Long.MAX_VALUE;
+                int bestK = 0;
+                for (int t = Math.max(0, k - 1); t <= Math.min(MAX_RICE_PARAM, k + 1); t++) {
+                    long b = (long) samples * (t + 1) + (sum >>> t);
+                    if (b < bits) {
+                        bits = b;
+                        bestK = t;
+                    }
+                }
+                mScratchParams[p] = bestK;
+                maxParam = Math.max(maxParam, bestK);
+                cost += bits;
+            }
+            cost += (long) (1 << po) * ((maxParam > 14) ? 5 : 4);
+            if (cost < best) {
+                best = cost;
+                mPartitionOrder = po;
+                System.arraycopy(mScratchParams, 0, mParams, 0, 1 << po);
+            }
+            for (int p = 0; p < (1 << po) / 2; p++) { // Merge pairs for the next order
+                mSums[p] = mSums[2 * p] + mSums[2 * p + 1];
+            }
+        }
+        return best;
+    }
+
+    private void write(Subframe sub, int count) {
+        BitWriter writer = mWriter;
+        int bits = sub.mBits;
+        int[] data = sub.mData;
+        writer.write(0, 1);
+        switch (sub.mType) {
+        case TYPE_CONSTANT:
+            writer.write(0, 6);
+            writer.write(0, 1);
+            writer.write(data[0], bits);
+            return;
+        case TYPE_VERBATIM:
+            writer.write(1, 6);
+            writer.write(0, 1);
+            for (int i = 0; i < count; i++) {
+                writer.write(data[i], bits);
+            }
+            return;
+        case TYPE_FIXED:
+            writer.write(0x08 | sub.mOrder, 6);
+            writer.write(0, 1);
+            for (int i = 0; i < sub.mOrder; i++) {
+                writer.write(data[i], bits);
+            }
+            break;
+        default:
+            writer.write(0x20 | (sub.mOrder - 1), 6);
+            writer.write(0, 1);
+            for (int i = 0; i < sub.mOrder; i++) {
+                writer.write(data[i], bits);
+            }
+            writer.write(LPC_PRECISION - 1, 4);
+            writer.write(sub.mShift, 5);
+            for (int i = 0; i < sub.mOrder; i++) {
+                writer.write(sub.mQlp[i], LPC_PRECISION);
+            }
+            break;
+        }
+
+        int po = sub.mPartitionOrder;
+        int partitions = 1 << po;
+        boolean rice2 = false;
+        for (int p = 0; p < partitions; p++) {
+            rice2 |= sub.mParams[p] > 14;
+        }
+        int paramBits = rice2 ? 5 : 4;
+        writer.write(rice2 ? 1 : 0, 2);
+        writer.write(po, 4);
+        int[] residual = sub.mResidual;
+        int size = count >> po;
+        for (int p = 0, i = sub.mOrder; p < partitions; p++) {
+            int k = sub.mParams[p];
+            writer.write(k, paramBits);
+            for (int end = (p + 1) * size; i < end; i++) {
+                writer.writeRice(residual[i], k);
+            }
+        }
+    }
+
+    // Sum of absolute residuals of every fixed order in one pass
+    private static void fixedErrors(int[] x, int count, long[] error) {
+        long e0 = 0, e1 = 0, e2 = 0, e3 = 0, e4 = 0;
+        for (int i = MAX_FIXED_ORDER; i < count; i++) {
+            long r0 = x[i];
+            long r1 = r0 - x[i - 1];
+            long r2 = r1 - (x[i - 1] - x[i - 2]);
+            long r3 = r2 - (x[i - 1] - 2L * x[i - 2] + x[i - 3]);
+            long r4 = r3 - (x[i - 1] - 3L * x[i - 2] + 3L * x[i - 3] - x[i - 4]);
+            e0 += Math.abs(r0);
+            e1 += Math.abs(r1);
+            e2 += Math.abs(r2);
+            e3 += Math.abs(r3);
+            e4 += Math.abs(r4);
+        }
+        error[0] = e0;
+        error[1] = e1;
+        error[2] = e2;
+        error[3] = e3;
+        error[4] = e4;
+    }
+
+    private static void fixedResidual(int[] x, int count, int order, int[] out) {
+        switch (order) {
+        case 0:
+            System.arraycopy(x, 0, out, 0, count);
+            break;
+        case 1:
+            for (int i = 1; i < count; i++) out[i] = x[i] - x[i - 1];
+            break;
+        case 2:
+            for (int i = 2; i < count; i++) out[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+            break;
+        case 3:
+            for (int i = 3; i < count; i++) out[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+            break;
+        default:
+            for (int i = 4; i < count; i++) out[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+            break;
+        }
+    }
+
+    // Predictor of the given order into mLpc[1..order], x[n] ~ sum mLpc[j] * x[n-j]
+    private boolean levinson(int order) {
+        double[] a = mLpc;
+        double[] tmp = mLpcTmp;
+        double[] r = mAutoc;
+        double err = r[0];
+        for (int j = 0; j <= order; j++) {
+            a[j] = 0;
+        }
+        for (int m = 1; m <= order; m++) {
+            double acc = r[m];
+            for (int j = 1; j < m; j++) {
+                acc -= a[j] * r[m - j];
+            }
+            double k = acc / err;
+            if (Double.isNaN(k) || Math.abs(k) >= 1) {
+                return false;
+            }
+            System.arraycopy(a, 0, tmp, 0, m);
+            for (int j = 1; j < m; j++) {
+                a[j] = tmp[j] - k * tmp[m - j];
+            }
+            a[m] = k;
+            err *= 1 - k * k;
+            if (err <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Quantize mLpc with error feedback, return the shift or -1 when coefficients do not fit
+    private int quantize(int order, int[] qlp) {
+        double max = 0;
+        for (int j = 1; j <= order; j++) {
+            max = Math.max(max, Math.abs(mLpc[j]));
+        }
+        if (max <= 0) {
+            return -1;
+        }
+        int exponent = Math.getExponent(max) + 1; // max < 2^exponent
+        int shift = Math.min(15, LPC_PRECISION - 1 - exponent);
+        if (shift < 0) {
+            return -1;
+        }
+        int limit = (1 << (LPC_PRECISION - 1)) - 1;
+        double error = 0;
+        for (int j = 0; j < order; j++) {
+            error += mLpc[j + 1] * (1 << shift);
+            long q = Math.round(error);
+            q = Math.max(-limit - 1, Math.min(limit, q));
+            error -= q;
+            qlp[j] = (int) q;
+        }
+        return shift;
+    }
+
+    private static boolean lpcResidual(int[] x, int count, int order, int[] qlp, int shift, int[] out) {
+        for (int i = order; i < count; i++) {
+            long sum = 0;
+            for (int j = 0; j < order; j++) {
+                sum += (long) qlp[j] * x[i - j - 1];
+            }
+            long r = x[i] - (sum >> shift);
+            if (r > (1 << 30) || r < -(1 << 30)) {
+                return false;
+            }
+            out[i] = (int) r;
+        }
+        return true;
+    }
+
+    private static void tukey(double[] window, int count) {
+        double alpha = 0.5;
+        double edge = alpha * (count - 1) / 2;
+        for (int i = 0; i < count; i++) {
+            if (i < edge) {
+                window[i] = 0.5 * (1 - Math.cos(Math.PI * i / edge));
+            } else if (i > count - 1 - edge) {
+                window[i] = 0.5 * (1 - Math.cos(Math.PI * (count - 1 - i) / edge));
+            } else {
+                window[i] = 1;
+            }
+        }
+    }
+
+    private static int blockSizeCode(int count) {
+        switch (count) {
+        case 192: return 1;
+        case 576: return 2;
+        case 1152: return 3;
+        case 2304: return 4;
+        case 4608: return 5;
+        case 256: return 8;
+        case 512: return 9;
+        case 1024: return 10;
+        case 2048: return 11;
+        case 4096: return 12;
+        case 8192: return 13;
+        case 16384: return 14;
+        case 32768: return 15;
+        }
+        return (count <= 256) ? 6 : 7;
+    }
+
+    private static int sampleRateCode(int rate) {
+        switch (rate) {
+        case 88200: return 1;
+        case 176400: return 2;
+        case 192000: return 3;
+        case 8000: return 4;
+        case 16000: return 5;
+        case 22050: return 6;
+        case 24000: return 7;
+        case 32000: return 8;
+        case 44100: return 9;
+        case 48000: return 10;
+        case 96000: return 11;
+        }
+        return 0; // From STREAMINFO
+    }
+
+    private static int sampleSizeCode(int bits) {
+        switch (bits) {
+        case 8: return 1;
+        case 12: return 2;
+        case 16: return 4;
+        case 20: return 5;
+        case 24: return 6;
+        }
+        return 0; // From STREAMINFO
+    }
+}
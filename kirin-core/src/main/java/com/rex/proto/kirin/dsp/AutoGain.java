@@ -0,0 +1,253 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Automatic gain control with a look-ahead peak limiter
+ * The level is a slow mean square envelope of the channel mean, the gain brings it to the target level,
+ * dropping fast and rising slow. Level and gain hold while a fast envelope is below the gate, so pauses and
+ * background noise are neither pulled up nor counted in the level. Output is the input delayed by the
+ * look-ahead, the limiter takes the gain keeping the largest peak of the delayed samples under the ceiling,
+ * released slowly, and averages it over the look-ahead, so the gain is down before a peak reaches the output.
+ * All buffers are allocated up front. Not thread safe.
+ */
+public class AutoGain {
+
+    private static final float DEFAULT_TARGET = -18;        // dBFS RMS
+    private static final float DEFAULT_MAX_GAIN = 30;       // dB
+    private static final float DEFAULT_GATE = -55;          // dBFS RMS
+    private static final float DEFAULT_CEILING = -1;        // dBFS peak
+    private static final float MIN_GAIN = 0.1f;             // -20dB
+    private static final double LEVEL_TIME = 0.4;           // Seconds, level envelope
+    private static final double GATE_TIME = 0.02;           // Seconds, envelope compared with the gate
+    private static final double ATTACK_TIME = 0.05;         // Seconds, gain dropping for a louder level
+    private static final double RELEASE_TIME = 1.5;         // Seconds, gain rising for a softer level
+    private static final double LIMIT_RELEASE_TIME = 0.08;  // Seconds, limiter letting go after a peak
+    private static final int CONTROL_FRAMES = 32;           // Frames per level gain update
+
+    private final int mChannels;
+    private final int mLookAhead;
+    private final float[] mDelay;       // Ring of lookAhead + 1 frames
+    private final float[] mPeakValue;   // Sliding maximum, descending peaks of the frames in the delay ring
+    private final long[] mPeakFrame;
+    private final float[] mHold;        // Ring of limited gains averaged over the look-ahead
+    private final float mLevelCoef;     // Per frame
+    private final float mGateCoef;
+    private final float mAttackCoef;    // Per control update
+    private final float mReleaseCoef;
+    private final float mLimitReleaseCoef; // Per frame
+    private float mTarget;              // Mean square
+    private float mMaxGain;
+    private float mGate;                // Mean square
+    private float mCeiling;
+    private float mLevel;
+    private float mGateLevel;
+    private float mLevelGain = 1;
+    private float mLimitGain = 1;
+    private double mHoldSum;
+    private float mGain;
+    private int mControl;
+    private int mWrite;
+    private int mPeakHead;
+    private int mPeakCount;
+    private long mFrames;
+    private long mLimitedFrames;
+
+    /**
+     * @param sampleRate samples per second, sets the time constants
+     * @param channels   interleaved channels
+     * @param lookAhead  frames the output is delayed, the limiter ramps down over them
+     */
+    public AutoGain(int sampleRate, int channels, int lookAhead) {
+        if (sampleRate <= 0 || channels <= 0 || lookAhead < 0) {
+            throw new IllegalArgumentException("Invalid rate " + sampleRate + " channels " + channels + " look-ahead " + lookAhead);
+        }
+        mChannels = channels;
+        mLookAhead = lookAhead;
+        mDelay = new float[(lookAhead + 1) * channels];
+        mPeakValue = new float[lookAhead + 1];
+        mPeakFrame = new long[lookAhead + 1];
+        mHold = new float[lookAhead + 1];
+        mLevelCoef = (float) (1 - Math.exp(-1.0 / (LEVEL_TIME * sampleRate)));
+        mGateCoef = (float) (1 - Math.exp(-1.0 / (GATE_TIME * sampleRate)));
+        mAttackCoef = (float) (1 - Math.exp(-CONTROL_FRAMES / (ATTACK_TIME * sampleRate)));
+        mReleaseCoef = (float) (1 - Math.exp(-CONTROL_FRAMES / (RELEASE_TIME * sampleRate)));
+        mLimitReleaseCoef = (float) (1 - Math.exp(-1.0 / (LIMIT_RELEASE_TIME * sampleRate)));
+        setTargetLevel(DEFAULT_TARGET);
+        setMaxGain(DEFAULT_MAX_GAIN);
+        setGate(DEFAULT_GATE);
+        setCeiling(DEFAULT_CEILING);
+        reset();
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    /** Frames the output lags the input */
+    public int lookAhead() {
+        return mLookAhead;
+    }
+
+    /** RMS level the gain aims for, in dBFS */
+    public AutoGain setTargetLevel(float dbfs) {
+        mTarget = (float) Math.pow(10, dbfs / 10);
+        return this;
+    }
+
+    /** Largest gain applied to a soft input, in dB */
+    public AutoGain setMaxGain(float db) {
+        if (!(db >= 0)) {
+            throw new IllegalArgumentException("Invalid gain " + db);
+        }
+        mMaxGain = (float) Math.pow(10, db / 20);
+        return this;
+    }
+
+    /** RMS level below which the gain holds, in dBFS */
+    public AutoGain setGate(float dbfs) {
+        mGate = (float) Math.pow(10, dbfs / 10);
+        return this;
+    }
+
+    /** Highest output peak, in dBFS */
+    public AutoGain setCeiling(float dbfs) {
+        mCeiling = (float) Math.pow(10, Math.min(0, dbfs) / 20);
+        return this;
+    }
+
+    /**
+     * Apply the gain
+     * @param in     interleaved samples
+     * @param out    interleaved samples delayed by the look-ahead, may be the in array
+     * @param frames frames in both
+     */
+    public void process(@NonNull float[] in, @NonNull float[] out, int frames) {
+        final int channels = mChannels;
+        final int ring = mLookAhead + 1;
+        final float[] delay = mDelay;
+        final float ceiling = mCeiling;
+        final float scale = 1f / channels;
+        final int hold = mHold.length;
+        float level = mLevel;
+        float gateLevel = mGateLevel;
+        float limitGain = mLimitGain;
+        for (int f = 0; f < frames; f++) {
+            int base = f * channels;
+            float power = 0;
+            float peak = 0;
+            int write = mWrite * channels;
+            for (int c = 0; c < channels; c++) {
+                float x = in[base + c];
+                power += x * x;
+                peak = Math.max(peak, Math.abs(x));
+                delay[write + c] = x;
+            }
+            power *= scale;
+            gateLevel += mGateCoef * (power - gateLevel);
+            boolean active = gateLevel >= mGate;
+            if (active) {
+                level += mLevelCoef * (power - level);
+            }
+            pushPeak(peak);
+            if (++mControl == CONTROL_FRAMES) {
+                mControl = 0;
+                if (active) {
+                    control(level);
+                }
+            }
+
+            // The sliding maximum covers the frame leaving the ring and all newer ones, so every gain averaged
+            // for the leaving frame kept its peak under the ceiling
+            float wanted = mLevelGain;
+            float top = mPeakValue[mPeakHead];
+            if (top * wanted > ceiling) {
+                wanted = ceiling / top;
+                mLimitedFrames++;
+            }
+            limitGain = (wanted < limitGain) ? wanted : limitGain + mLimitReleaseCoef * (wanted - limitGain);
+            int slot = mWrite;
+            mHoldSum += limitGain - mHold[slot];
+            mHold[slot] = limitGain;
+            float gain = (float) (mHoldSum / hold);
+            mWrite = (mWrite + 1 == ring) ? 0 : mWrite + 1;
+            int read = mWrite * channels; // Written lookAhead frames ago, the current one without look-ahead
+            for (int c = 0; c < channels; c++) {
+                float y = delay[read + c] * gain;
+                out[base + c] = Math.max(-ceiling, Math.min(ceiling, y));
+            }
+            mGain = gain;
+            mFrames++;
+        }
+        mLevel = level;
+        mGateLevel = gateLevel;
+        mLimitGain = limitGain;
+    }
+
+    /** Gain applied to the latest output frame, in dB */
+    public float getGain() {
+        return (float) (20 * Math.log10(mGain));
+    }
+
+    /** Frames where the limiter held the gain below the level gain */
+    public long getLimitedCount() {
+        return mLimitedFrames;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public void reset() {
+        Arrays.fill(mDelay, 0);
+        Arrays.fill(mHold, 1);
+        mHoldSum = mHold.length;
+        mLevel = 0;
+        mGateLevel = 0;
+        mLevelGain = 1;
+        mLimitGain = 1;
+        mGain = 1;
+        mControl = 0;
+        mWrite = 0;
+        mPeakHead = 0;
+        mPeakCount = 0;
+        mFrames = 0;
+        mLimitedFrames = 0;
+    }
+
+    // Level gain toward the target
+    private void control(float level) {
+        float target = (float) Math.sqrt(mTarget / level);
+        target = Math.max(MIN_GAIN, Math.min(mMaxGain, target));
+        mLevelGain += ((target < mLevelGain) ? mAttackCoef : mReleaseCoef) * (target - mLevelGain);
+    }
+
+    // Monotonic deque over the peaks of the latest lookAhead + 1 frames, head holds the maximum
+    private void pushPeak(float peak) {
+        final int size = mPeakValue.length;
+        long frame = mFrames;
+        if (mPeakCount > 0 && mPeakFrame[mPeakHead] <= frame - size) { // Left the ring
+            mPeakHead = (mPeakHead + 1 == size) ? 0 : mPeakHead + 1;
+            mPeakCount--;
+        }
+        while (mPeakCount > 0) {
+            int tail = mPeakHead + mPeakCount - 1;
+            if (tail >= size) {
+                tail -= size;
+            }
+            if (mPeakValue[tail] > peak) {
+                break;
+            }
+            mPeakCount--;
+        }
+        int slot = mPeakHead + mPeakCount;
+        if (slot >= size) {
+            slot -= size;
+        }
+        mPeakValue[slot] = peak;
+        mPeakFrame[slot] = frame;
+        mPeakCount++;
+    }
+}
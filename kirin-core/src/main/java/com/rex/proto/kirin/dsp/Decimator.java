@@ -0,0 +1,94 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Streaming integer factor decimator for one channel, windowed sinc low pass FIR
+ * Only every factor-th output is computed, history is kept across calls.
+ */
+public class Decimator {
+
+    private final int mFactor;
+    private final float[] mTaps;
+    private final float[] mHistory; // Doubled so the convolution window is always contiguous
+    private int mPos;
+    private int mPhase;
+
+    /**
+     * @param factor         input rate / output rate
+     * @param tapsPerFactor  filter length per unit of factor, more is sharper
+     */
+    public Decimator(int factor, int tapsPerFactor) {
+        if (factor < 1 || tapsPerFactor < 1) {
+            throw new IllegalArgumentException("Invalid factor " + factor + " taps " + tapsPerFactor);
+        }
+        mFactor = factor;
+        int n = factor * tapsPerFactor + 1;
+        mTaps = new float[n];
+        mHistory = new float[2 * n];
+        if (factor == 1) {
+            mTaps[n / 2] = 1;
+            return;
+        }
+        double cutoff = 0.5 / factor * 0.95; // Cycles per input sample, a bit below the output Nyquist
+        double center = (n - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double x = i - center;
+            double sinc = (x == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double blackman = 0.42 - 0.5 * Math.cos(2 * Math.PI * i / (n - 1)) + 0.08 * Math.cos(4 * Math.PI * i / (n - 1));
+            mTaps[i] = (float) (sinc * blackman);
+            sum += mTaps[i];
+        }
+        for (int i = 0; i < n; i++) {
+            mTaps[i] /= sum; // Unity gain at DC
+        }
+    }
+
+    public int factor() {
+        return mFactor;
+    }
+
+    /** Group delay in input samples */
+    public int delay() {
+        return (mTaps.length - 1) / 2;
+    }
+
+    public void reset() {
+        Arrays.fill(mHistory, 0);
+        mPos = 0;
+        mPhase = 0;
+    }
+
+    /**
+     * @return number of output samples written, at most ceil(count / factor)
+     */
+    public int process(@NonNull float[] in, int offset, int count, @NonNull float[] out, int outOffset) {
+        final int n = mTaps.length;
+        final float[] taps = mTaps;
+        final float[] history = mHistory;
+        int produced = 0;
+        for (int i = 0; i < count; i++) {
+            float x = in[offset + i];
+            history[mPos] = x;
+            history[mPos + n] = x;
+            if (mPhase == 0) {
+                int newest = mPos + n;
+                float sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum += taps[k] * history[newest - k];
+                }
+                out[outOffset + produced++] = sum;
+            }
+            if (++mPos == n) {
+                mPos = 0;
+            }
+            if (++mPhase == mFactor) {
+                mPhase = 0;
+            }
+        }
+        return produced;
+    }
+}
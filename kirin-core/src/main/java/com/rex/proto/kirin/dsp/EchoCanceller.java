@@ -0,0 +1,290 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Acoustic echo canceller, partitioned block frequency domain adaptive filter (PBFDAF)
+ * The echo path is modelled by partitions filters of block taps each, far end spectra of the latest
+ * partitions blocks are kept so the echo estimate is a sum of complex products per bin, overlap-save gives
+ * the time signal. Updates are normalized by the far end power per bin over the whole filter, and one
+ * partition per block is constrained back to block taps (alternating constraint) to save transforms.
+ * A Geigel detector holds the adaptation while the near end is louder than the echo can be, and errors
+ * far above their running scale are clipped, so blocks of double talk it misses barely move the filter.
+ * One filter per near end channel shares the far end spectra, all buffers are allocated up front.
+ * Not thread safe.
+ */
+public class EchoCanceller {
+
+    private static final float DEFAULT_STEP = 1f;
+    private static final float GEIGEL_THRESHOLD = 0.5f;    // Echo path attenuates at least 6dB
+    private static final int HANGOVER_BLOCKS = 8;
+    private static final float POWER_FLOOR = 1e-6f;        // Far end power per sample below which nothing adapts
+    private static final float ENERGY_SMOOTHING = 0.05f;
+    private static final float CLIP_SCALE = 2f;             // Error RMS beyond this times its scale is clipped
+    private static final float SCALE_SMOOTHING = 0.1f;
+
+    private final int mBlock;
+    private final int mPartitions;
+    private final int mChannels;
+    private final int mBins;
+    private final Fft mFft;
+    private final float[][] mFarRe;     // [partition][bin], ring of far end spectra, newest at mHead
+    private final float[][] mFarIm;
+    private final float[][][] mWeightRe; // [channel][partition][bin]
+    private final float[][][] mWeightIm;
+    private final float[] mFarPower;    // Sum over partitions per bin
+    private final float[] mFarPeaks;    // Ring of far end block peaks, same order as the spectra
+    private final float[] mFarTime;     // Previous and current far block
+    private final float[] mTime;
+    private final float[] mRe;
+    private final float[] mIm;
+    private final float[] mErrRe;
+    private final float[] mErrIm;
+    private final float[] mError;
+    private final float[] mErrorScale;  // Running RMS of the clipped error per channel
+    private final float mRegularization;
+    private float mStep = DEFAULT_STEP;
+    private int mHead;
+    private int mConstrain;
+    private int mHangover;
+    private long mBlocks;
+    private long mAdaptedBlocks;
+    private long mDoubleTalkBlocks;
+    private double mEchoEnergy;         // Smoothed near end and output energy while only the far end talks
+    private double mResidualEnergy;
+
+    /**
+     * @param block      samples per block, power of two, also the processing latency
+     * @param partitions filter length in blocks, covers the echo tail
+     * @param channels   near end channels, each with its own filter
+     */
+    public EchoCanceller(int block, int partitions, int channels) {
+        if (block < 2 || Integer.bitCount(block) != 1 || partitions <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Invalid block " + block + " partitions " + partitions + " channels " + channels);
+        }
+        mBlock = block;
+        mPartitions = partitions;
+        mChannels = channels;
+        mFft = new Fft(2 * block);
+        mBins = block + 1;
+        mFarRe = new float[partitions][mBins];
+        mFarIm = new float[partitions][mBins];
+        mWeightRe = new float[channels][partitions][mBins];
+        mWeightIm = new float[channels][partitions][mBins];
+        mFarPower = new float[mBins];
+        mFarPeaks = new float[partitions];
+        mFarTime = new float[2 * block];
+        mTime = new float[2 * block];
+        mRe = new float[mBins];
+        mIm = new float[mBins];
+        mErrRe = new float[mBins];
+        mErrIm = new float[mBins];
+        mError = new float[2 * block];
+        mErrorScale = new float[channels];
+        mRegularization = 2 * block * partitions * POWER_FLOOR;
+    }
+
+    public int block() {
+        return mBlock;
+    }
+
+    public int partitions() {
+        return mPartitions;
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    /** Normalized step size in (0, 1], smaller converges slower with less misadjustment */
+    public EchoCanceller setStepSize(float step) {
+        if (!(step > 0 && step <= 1)) {
+            throw new IllegalArgumentException("Invalid step " + step);
+        }
+        mStep = step;
+        return this;
+    }
+
+    /**
+     * Remove the echo of one far end block from one near end block
+     * @param far  block mono samples played by the output, aligned with the near end capture time
+     * @param near block interleaved samples captured
+     * @param out  block interleaved samples, may be the near array
+     */
+    public void process(@NonNull float[] far, @NonNull float[] near, @NonNull float[] out) {
+        final int block = mBlock;
+        final int bins = mBins;
+        final int partitions = mPartitions;
+
+        // Overlap-save input of the previous and the current far block
+        System.arraycopy(mFarTime, block, mFarTime, 0, block);
+        System.arraycopy(far, 0, mFarTime, block, block);
+        mHead = (mHead == 0) ? partitions - 1 : mHead - 1;
+        mFft.forward(mFarTime, mFarRe[mHead], mFarIm[mHead]);
+        float farPeak = 0;
+        for (int i = 0; i < block; i++) {
+            farPeak = Math.max(farPeak, Math.abs(far[i]));
+        }
+        mFarPeaks[mHead] = farPeak;
+        float farMax = 0;
+        for (float peak : mFarPeaks) {
+            farMax = Math.max(farMax, peak);
+        }
+        Arrays.fill(mFarPower, 0);
+        for (int p = 0; p < partitions; p++) {
+            float[] re = mFarRe[p];
+            float[] im = mFarIm[p];
+            for (int k = 0; k < bins; k++) {
+                mFarPower[k] += re[k] * re[k] + im[k] * im[k];
+            }
+        }
+
+        // Geigel, near end louder than any echo of the far end means someone talks there
+        float nearMax = 0;
+        for (int i = 0; i < block * mChannels; i++) {
+            nearMax = Math.max(nearMax, Math.abs(near[i]));
+        }
+        boolean farActive = farMax * farMax > POWER_FLOOR;
+        if (nearMax > GEIGEL_THRESHOLD * farMax) {
+            if (farActive) {
+                mDoubleTalkBlocks++;
+            }
+            mHangover = HANGOVER_BLOCKS;
+        } else if (mHangover > 0) {
+            mHangover--;
+        }
+        boolean adapt = farActive && mHangover == 0;
+
+        double nearEnergy = 0;
+        double outEnergy = 0;
+        for (int c = 0; c < mChannels; c++) {
+            filter(mWeightRe[c], mWeightIm[c]);
+            mFft.inverse(mRe, mIm, mTime);
+            float errorEnergy = 0;
+            for (int i = 0; i < block; i++) {
+                float x = near[i * mChannels + c];
+                float e = x - mTime[block + i];
+                out[i * mChannels + c] = e;
+                mError[block + i] = e;
+                nearEnergy += x * x;
+                errorEnergy += e * e;
+            }
+            outEnergy += errorEnergy;
+            if (adapt) {
+                adapt(mWeightRe[c], mWeightIm[c], clip(c, (float) Math.sqrt(errorEnergy / block)));
+            }
+        }
+        if (adapt) {
+            mConstrain = (mConstrain + 1) % partitions;
+            mAdaptedBlocks++;
+            mEchoEnergy += ENERGY_SMOOTHING * (nearEnergy - mEchoEnergy);
+            mResidualEnergy += ENERGY_SMOOTHING * (outEnergy - mResidualEnergy);
+        }
+        mBlocks++;
+    }
+
+    /** Echo return loss enhancement, smoothed over the blocks with only the far end active, in dB */
+    public float getErle() {
+        if (mResidualEnergy <= 0 || mEchoEnergy <= 0) {
+            return 0;
+        }
+        return (float) (10 * Math.log10(mEchoEnergy / mResidualEnergy));
+    }
+
+    public long getBlockCount() {
+        return mBlocks;
+    }
+
+    /** Blocks that updated the filters */
+    public long getAdaptedCount() {
+        return mAdaptedBlocks;
+    }
+
+    /** Blocks with far end audio that held the adaptation for the near end talking */
+    public long getDoubleTalkCount() {
+        return mDoubleTalkBlocks;
+    }
+
+    public void reset() {
+        for (int p = 0; p < mPartitions; p++) {
+            Arrays.fill(mFarRe[p], 0);
+            Arrays.fill(mFarIm[p], 0);
+            for (int c = 0; c < mChannels; c++) {
+                Arrays.fill(mWeightRe[c][p], 0);
+                Arrays.fill(mWeightIm[c][p], 0);
+            }
+        }
+        Arrays.fill(mFarPeaks, 0);
+        Arrays.fill(mFarTime, 0);
+        Arrays.fill(mErrorScale, 0);
+        mHead = 0;
+        mConstrain = 0;
+        mHangover = 0;
+        mEchoEnergy = 0;
+        mResidualEnergy = 0;
+    }
+
+    // Echo estimate spectrum into mRe and mIm
+    private void filter(float[][] weightRe, float[][] weightIm) {
+        final int bins = mBins;
+        final float[] re = mRe;
+        final float[] im = mIm;
+        Arrays.fill(re, 0);
+        Arrays.fill(im, 0);
+        for (int p = 0; p < mPartitions; p++) {
+            int slot = (mHead + p) % mPartitions;
+            float[] xRe = mFarRe[slot];
+            float[] xIm = mFarIm[slot];
+            float[] wRe = weightRe[p];
+            float[] wIm = weightIm[p];
+            for (int k = 0; k < bins; k++) {
+                re[k] += wRe[k] * xRe[k] - wIm[k] * xIm[k];
+                im[k] += wRe[k] * xIm[k] + wIm[k] * xRe[k];
+            }
+        }
+    }
+
+    // Gain bringing the error RMS of the channel within its running scale
+    private float clip(int channel, float rms) {
+        float scale = mErrorScale[channel];
+        if (scale <= 0) {
+            scale = rms;
+        }
+        float limit = CLIP_SCALE * scale;
+        float clipped = Math.min(rms, limit);
+        mErrorScale[channel] = (float) Math.sqrt(scale * scale + SCALE_SMOOTHING * (clipped * clipped - scale * scale));
+        return (rms > limit) ? limit / rms : 1f;
+    }
+
+    // Normalized gradient step from the error in the second half of mError, then constrain one partition
+    private void adapt(float[][] weightRe, float[][] weightIm, float gain) {
+        final int block = mBlock;
+        final int bins = mBins;
+        Arrays.fill(mError, 0, block, 0);
+        mFft.forward(mError, mErrRe, mErrIm);
+        for (int k = 0; k < bins; k++) {
+            float mu = gain * mStep / (mFarPower[k] + mRegularization);
+            mErrRe[k] *= mu;
+            mErrIm[k] *= mu;
+        }
+        for (int p = 0; p < mPartitions; p++) {
+            int slot = (mHead + p) % mPartitions;
+            float[] xRe = mFarRe[slot];
+            float[] xIm = mFarIm[slot];
+            float[] wRe = weightRe[p];
+            float[] wIm = weightIm[p];
+            for (int k = 0; k < bins; k++) { // conj(X) * E
+                wRe[k] += xRe[k] * mErrRe[k] + xIm[k] * mErrIm[k];
+                wIm[k] += xRe[k] * mErrIm[k] - xIm[k] * mErrRe[k];
+            }
+        }
+        // Keep the impulse response of one partition within block taps, the circular part is dropped
+        float[] wRe = weightRe[mConstrain];
+        float[] wIm = weightIm[mConstrain];
+        mFft.inverse(wRe, wIm, mTime);
+        Arrays.fill(mTime, block, 2 * block, 0);
+        mFft.forward(mTime, wRe, wIm);
+    }
+}
@@ -0,0 +1,187 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Real input FFT plan, radix-2 complex transform of half size plus split post processing
+ * Bit reversal and twiddle tables are computed once, work arrays are preallocated,
+ * so forward() and magnitude() never allocate. Not thread safe, use one plan per thread.
+ */
+public class Fft {
+
+    private final int mSize;    // Real input length N
+    private final int mHalf;    // Complex transform length M = N / 2
+    private final int[] mBitRev;
+    private final float[] mCos; // cos(2*PI*k/M), k < M/2
+    private final float[] mSin; // sin(2*PI*k/M), k < M/2
+    private final float[] mPostCos; // cos(2*PI*k/N), k <= M
+    private final float[] mPostSin; // sin(2*PI*k/N), k <= M
+    private final float[] mRe;
+    private final float[] mIm;
+
+    public Fft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be power of two and at least 4, got " + size);
+        }
+        mSize = size;
+        mHalf = size / 2;
+        mRe = new float[mHalf];
+        mIm = new float[mHalf];
+
+        int bits = Integer.numberOfTrailingZeros(mHalf);
+        mBitRev = new int[mHalf];
+        for (int i = 0; i < mHalf; i++) {
+            mBitRev[i] = (bits == 0) ? 0 : (Integer.reverse(i) >>> (Integer.SIZE - bits));
+        }
+
+        mCos = new float[Math.max(1, mHalf / 2)];
+        mSin = new float[Math.max(1, mHalf / 2)];
+        for (int k = 0; k < mHalf / 2; k++) {
+            double phi = 2 * Math.PI * k / mHalf;
+            mCos[k] = (float) Math.cos(phi);
+            mSin[k] = (float) Math.sin(phi);
+        }
+
+        mPostCos = new float[mHalf + 1];
+        mPostSin = new float[mHalf + 1];
+        for (int k = 0; k <= mHalf; k++) {
+            double phi = 2 * Math.PI * k / mSize;
+            mPostCos[k] = (float) Math.cos(phi);
+            mPostSin[k] = (float) Math.sin(phi);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /** Number of spectrum bins, DC to Nyquist inclusive */
+    public int bins() {
+        return mHalf + 1;
+    }
+
+    /**
+     * Forward transform of N real samples
+     * @param in    N real samples, not modified
+     * @param outRe real part, at least N/2+1 entries
+     * @param outIm imaginary part, at least N/2+1 entries
+     */
+    public void forward(@NonNull float[] in, @NonNull float[] outRe, @NonNull float[] outIm) {
+        final int m = mHalf;
+        final float[] re = mRe;
+        final float[] im = mIm;
+        // Pack even samples as real and odd samples as imaginary
+        for (int n = 0; n < m; n++) {
+            int j = mBitRev[n];
+            re[j] = in[2 * n];
+            im[j] = in[2 * n + 1];
+        }
+        transform(re, im);
+
+        // Split the half size spectrum into the real input spectrum
+        outRe[0] = re[0] + im[0];
+        outIm[0] = 0;
+        outRe[m] = re[0] - im[0];
+        outIm[m] = 0;
+        for (int k = 1; k < m; k++) {
+            int r = m - k;
+            float evenRe = (re[k] + re[r]) * 0.5f;
+            float evenIm = (im[k] - im[r]) * 0.5f;
+            float oddRe  = (im[k] + im[r]) * 0.5f;
+            float oddIm  = (re[r] - re[k]) * 0.5f;
+            float c = mPostCos[k];
+            float s = mPostSin[k];
+            outRe[k] = evenRe + c * oddRe + s * oddIm;
+            outIm[k] = evenIm + c * oddIm - s * oddRe;
+        }
+    }
+
+    /**
+     * Inverse transform back to N real samples, including the 1/N scale
+     * @param inRe real part, N/2+1 entries, not modified
+     * @param inIm imaginary part, N/2+1 entries, not modified
+     * @param out  N real samples
+     */
+    public void inverse(@NonNull float[] inRe, @NonNull float[] inIm, @NonNull float[] out) {
+        final int m = mHalf;
+        final float[] re = mRe;
+        final float[] im = mIm;
+        // Merge into the half size spectrum Z = Xe + i*Xo, conjugated for the forward kernel
+        for (int k = 0; k < m; k++) {
+            int r = m - k;
+            float evenRe = (inRe[k] + inRe[r]) * 0.5f;
+            float evenIm = (inIm[k] - inIm[r]) * 0.5f;
+            float diffRe = (inRe[k] - inRe[r]) * 0.5f;
+            float diffIm = (inIm[k] + inIm[r]) * 0.5f;
+            float c = mPostCos[k];
+            float s = mPostSin[k];
+            float oddRe = c * diffRe - s * diffIm;
+            float oddIm = c * diffIm + s * diffRe;
+            int j = mBitRev[k];
+            re[j] = evenRe - oddIm;
+            im[j] = -(evenIm + oddRe);
+        }
+        transform(re, im);
+
+        float scale = 1f / m;
+        for (int n = 0; n < m; n++) {
+            out[2 * n] = re[n] * scale;
+            out[2 * n + 1] = -im[n] * scale;
+        }
+    }
+
+    /**
+     * Magnitude spectrum of N real samples
+     * @param in  N real samples, not modified
+     * @param out at least N/2+1 magnitudes
+     */
+    public void magnitude(@NonNull float[] in, @NonNull float[] out) {
+        final int m = mHalf;
+        final float[] re = mRe;
+        final float[] im = mIm;
+        for (int n = 0; n < m; n++) {
+            int j = mBitRev[n];
+            re[j] = in[2 * n];
+            im[j] = in[2 * n + 1];
+        }
+        transform(re, im);
+
+        out[0] = Math.abs(re[0] + im[0]);
+        out[m] = Math.abs(re[0] - im[0]);
+        for (int k = 1; k < m; k++) {
+            int r = m - k;
+            float evenRe = (re[k] + re[r]) * 0.5f;
+            float evenIm = (im[k] - im[r]) * 0.5f;
+            float oddRe  = (im[k] + im[r]) * 0.5f;
+            float oddIm  = (re[r] - re[k]) * 0.5f;
+            float c = mPostCos[k];
+            float s = mPostSin[k];
+            float xr = evenRe + c * oddRe + s * oddIm;
+            float xi = evenIm + c * oddIm - s * oddRe;
+            out[k] = (float) Math.sqrt(xr * xr + xi * xi);
+        }
+    }
+
+    // In-place iterative radix-2 DIT butterflies, input already in bit reversed order
+    private void transform(float[] re, float[] im) {
+        final int m = mHalf;
+        for (int size = 2; size <= m; size <<= 1) {
+            int half = size >> 1;
+            int step = m / size;
+            for (int i = 0; i < m; i += size) {
+                for (int j = 0, t = 0; j < half; j++, t += step) {
+                    float c = mCos[t];
+                    float s = mSin[t];
+                    int a = i + j;
+                    int b = a + half;
+                    float tr = c * re[b] + s * im[b];
+                    float ti = c * im[b] - s * re[b];
+                    re[b] = re[a] - tr;
+                    im[b] = im[a] - ti;
+                    re[a] += tr;
+                    im[a] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Streaming sample rate converter for a ratio close to 1 that may change on every call, e.g. clock drift
+ * Kaiser windowed sinc with many phases, coefficients of the output phase are interpolated between the two
+ * nearest phases so the ratio has no rational restriction and can move by a fraction of a ppm.
+ * Filter history and output phase are kept across process() calls, samples are interleaved floats.
+ */
+public class FractionalResampler {
+
+    private static final int TAPS = 16;         // 8 zero crossings on each side
+    private static final int PHASES = 128;
+    private static final double PASSBAND = 0.90;
+    private static final double BETA = 8.0;
+    private static final double MAX_DEVIATION = 0.05;
+
+    private final int mChannels;
+    private final float[] mProto;       // [tap * PHASES + phase], one extra zero for the last phase
+    private final float[] mCoefs;       // Interpolated taps of the current output
+    private final float[][] mHistory;   // Per channel doubled ring of the latest taps samples
+    private int mPos;
+    private double mRatio = 1;
+    private double mStep = 1;           // Input samples per output sample
+    private double mTime;               // Next output time after the newest input sample, in input samples
+
+    public FractionalResampler(int channels) {
+        if (channels <= 0) {
+            throw new IllegalArgumentException("Invalid channels " + channels);
+        }
+        mChannels = channels;
+        mCoefs = new float[TAPS];
+        mHistory = new float[channels][2 * TAPS];
+
+        // Prototype low pass at PHASES times the rate, symmetric around the middle tap
+        int length = TAPS * PHASES;
+        mProto = new float[length + 1];
+        double cutoff = 0.5 / PHASES * PASSBAND;
+        double center = length / 2.0;
+        double norm = PolyphaseResampler.bessel0(BETA);
+        for (int i = 0; i <= length; i++) {
+            double x = i - center;
+            double sinc = (x == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double r = x / center;
+            double kaiser = PolyphaseResampler.bessel0(BETA * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            mProto[i] = (float) (sinc * kaiser * PHASES);
+        }
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    /** Output frames per input frame, within 5% of 1, applies from the next output sample */
+    public FractionalResampler setRatio(double ratio) {
+        if (!(Math.abs(ratio - 1) <= MAX_DEVIATION)) {
+            throw new IllegalArgumentException("Invalid ratio " + ratio);
+        }
+        mRatio = ratio;
+        mStep = 1 / ratio;
+        return this;
+    }
+
+    public double getRatio() {
+        return mRatio;
+    }
+
+    /** Group delay in input samples */
+    public double delay() {
+        return TAPS / 2.0;
+    }
+
+    /** Upper bound of output frames for the given input frames */
+    public int maxOutput(int inFrames) {
+        return (int) Math.ceil(inFrames * (1 + MAX_DEVIATION)) + 2;
+    }
+
+    public void reset() {
+        for (float[] history : mHistory) {
+            Arrays.fill(history, 0);
+        }
+        mPos = 0;
+        mTime = 0;
+    }
+
+    /**
+     * @param in       interleaved input samples
+     * @param inFrames number of input frames, samples per channel
+     * @param out      interleaved output, capacity at least maxOutput(inFrames) frames
+     * @return number of output frames written
+     */
+    public int process(@NonNull float[] in, int inFrames, @NonNull float[] out) {
+        final int channels = mChannels;
+        final float[] proto = mProto;
+        final float[] coefs = mCoefs;
+        final double step = mStep;
+        double time = mTime;
+        int pos = mPos;
+        int produced = 0;
+        for (int i = 0; i < inFrames; i++) {
+            for (int c = 0; c < channels; c++) {
+                float x = in[i * channels + c];
+                float[] history = mHistory[c];
+                history[pos] = x;
+                history[pos + TAPS] = x;
+            }
+            int newest = pos + TAPS;
+            while (time < 1) {
+                double phase = time * PHASES;
+                int index = (int) phase;
+                float frac = (float) (phase - index);
+                for (int k = 0, base = index; k < TAPS; k++, base += PHASES) {
+                    float a = proto[base];
+                    coefs[k] = a + frac * (proto[base + 1] - a);
+                }
+                for (int c = 0; c < channels; c++) {
+                    float[] history = mHistory[c];
+                    float sum = 0;
+                    for (int k = 0; k < TAPS; k++) {
+                        sum += coefs[k] * history[newest - k];
+                    }
+                    out[produced * channels + c] = sum;
+                }
+                produced++;
+                time += step;
+            }
+            time -= 1;
+            if (++pos == TAPS) {
+                pos = 0;
+            }
+        }
+        mTime = time;
+        mPos = pos;
+        return produced;
+    }
+}
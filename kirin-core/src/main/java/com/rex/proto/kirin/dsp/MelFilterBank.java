@@ -0,0 +1,101 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Triangular mel filterbank over a magnitude spectrum, HTK mel scale like YAMnet
+ * Only the non-zero weights of each band are kept, flattened in one array with start bin and length per band.
+ */
+public class MelFilterBank {
+
+    private final int mBands;
+    private final int[] mStart;     // First spectrum bin of each band
+    private final int[] mLength;    // Number of weights of each band
+    private final int[] mOffset;    // Offset of each band in mWeights
+    private final float[] mWeights;
+
+    /**
+     * @param bands      number of mel bands
+     * @param fftSize    FFT size, spectrum has fftSize/2+1 bins
+     * @param sampleRate sample rate of the analyzed signal
+     * @param lowHz      lower edge of the first band
+     * @param highHz     upper edge of the last band
+     */
+    public MelFilterBank(int bands, int fftSize, int sampleRate, float lowHz, float highHz) {
+        if (bands <= 0 || lowHz < 0 || highHz <= lowHz || highHz > sampleRate / 2f) {
+            throw new IllegalArgumentException("Invalid bands " + bands + " range " + lowHz + "-" + highHz);
+        }
+        mBands = bands;
+        mStart = new int[bands];
+        mLength = new int[bands];
+        mOffset = new int[bands];
+
+        int bins = fftSize / 2 + 1;
+        double melLow = hzToMel(lowHz);
+        double melHigh = hzToMel(highHz);
+        double[] edges = new double[bands + 2]; // Band edges in Hz
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = melToHz(melLow + (melHigh - melLow) * i / (bands + 1));
+        }
+
+        // Weights of bin k for band b, the same formula as tf.signal.linear_to_mel_weight_matrix
+        float[][] dense = new float[bands][bins];
+        int total = 0;
+        for (int b = 0; b < bands; b++) {
+            int first = -1;
+            int last = -1;
+            for (int k = 1; k < bins; k++) { // Skip DC
+                double hz = (double) k * sampleRate / fftSize;
+                double lower = (hz - edges[b]) / (edges[b + 1] - edges[b]);
+                double upper = (edges[b + 2] - hz) / (edges[b + 2] - edges[b + 1]);
+                double weight = Math.max(0, Math.min(lower, upper));
+                if (weight > 0) {
+                    dense[b][k] = (float) weight;
+                    if (first < 0) first = k;
+                    last = k;
+                }
+            }
+            mStart[b] = Math.max(first, 0);
+            mLength[b] = (first < 0) ? 0 : last - first + 1;
+            mOffset[b] = total;
+            total += mLength[b];
+        }
+        mWeights = new float[total];
+        for (int b = 0; b < bands; b++) {
+            System.arraycopy(dense[b], mStart[b], mWeights, mOffset[b], mLength[b]);
+        }
+    }
+
+    public int bands() {
+        return mBands;
+    }
+
+    /** Number of stored weights, for the cost of apply() */
+    public int weights() {
+        return mWeights.length;
+    }
+
+    /**
+     * @param spectrum magnitude spectrum, fftSize/2+1 bins
+     * @param out      mel energies, bands entries written from offset
+     */
+    public void apply(@NonNull float[] spectrum, @NonNull float[] out, int offset) {
+        for (int b = 0; b < mBands; b++) {
+            int start = mStart[b];
+            int base = mOffset[b];
+            float sum = 0;
+            for (int i = 0, n = mLength[b]; i < n; i++) {
+                sum += mWeights[base + i] * spectrum[start + i];
+            }
+            out[offset + b] = sum;
+        }
+    }
+
+    public static double hzToMel(double hz) {
+        return 1127.0 * Math.log(1 + hz / 700.0);
+    }
+
+    public static double melToHz(double mel) {
+        return 700.0 * (Math.exp(mel / 1127.0) - 1);
+    }
+}
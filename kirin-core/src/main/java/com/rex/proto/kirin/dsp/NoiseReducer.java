@@ -0,0 +1,247 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Stationary noise suppressor, Wiener gain per bin of a short time spectrum
+ * Frames of two blocks overlap by half under a square root Hann window for analysis and synthesis, so gains
+ * of 1 give the input back delayed by one block. The noise power per bin is the minimum of the smoothed
+ * power over a sliding window of about 1.5s (minimum statistics), tracked in sub windows so each block
+ * costs a compare per bin, and scaled up for the bias of a minimum. The a priori SNR is decision directed,
+ * which smooths the gain over time and keeps musical noise low, the gain never drops below the floor.
+ * All channels share one gain computed on their mean power, so the stereo image stays put.
+ * All buffers are allocated up front. Not thread safe.
+ */
+public class NoiseReducer {
+
+    private static final float DEFAULT_REDUCTION = 15;     // dB
+    private static final double SMOOTHING_TIME = 0.04;     // Seconds, power smoothing before the minimum
+    private static final double MINIMUM_WINDOW = 1.5;      // Seconds, longest speech taken for noise
+    private static final int SUB_WINDOWS = 8;
+    private static final float MINIMUM_BIAS = 2.5f;        // Mean over minimum of the smoothed noise power
+    private static final float PRIORI_SMOOTHING = 0.98f;   // Decision directed weight of the previous block
+    private static final float POWER_FLOOR = 1e-12f;
+
+    private final int mBlock;
+    private final int mChannels;
+    private final int mBins;
+    private final Fft mFft;
+    private final float[] mWindow;
+    private final float[][] mFrame;     // [channel][2 * block], latest input
+    private final float[][] mOverlap;   // [channel][block], synthesis tail
+    private final float[][] mRe;        // [channel][bin]
+    private final float[][] mIm;
+    private final float[] mTime;
+    private final float[] mPower;
+    private final float[] mSmoothed;
+    private final float[] mMinimum;     // Over the stored sub windows
+    private final float[] mCurrent;     // Minimum of the running sub window
+    private final float[][] mSubMinimum; // [sub window][bin]
+    private final float[] mNoise;
+    private final float[] mGain;
+    private final float[] mPosteriori;  // Previous block
+    private final float mAlpha;
+    private final int mSubLength;       // Blocks
+    private float mFloor;
+    private int mSubCount;
+    private int mSubIndex;
+    private int mSubFilled;
+    private boolean mStarted;
+    private long mBlocks;
+    private double mGainSum;            // Mean gain of the latest block, for statistics
+
+    /**
+     * @param sampleRate samples per second, sets the time constants
+     * @param block      samples per block, power of two, half the analysis frame and also the latency
+     * @param channels   interleaved channels
+     */
+    public NoiseReducer(int sampleRate, int block, int channels) {
+        if (sampleRate <= 0 || block < 2 || Integer.bitCount(block) != 1 || channels <= 0) {
+            throw new IllegalArgumentException("Invalid rate " + sampleRate + " block " + block + " channels " + channels);
+        }
+        mBlock = block;
+        mChannels = channels;
+        mFft = new Fft(2 * block);
+        mBins = block + 1;
+        mWindow = new float[2 * block];
+        for (int n = 0; n < 2 * block; n++) { // Periodic, squares of both halves sum to 1
+            mWindow[n] = (float) Math.sin(Math.PI * n / (2 * block));
+        }
+        mFrame = new float[channels][2 * block];
+        mOverlap = new float[channels][block];
+        mRe = new float[channels][mBins];
+        mIm = new float[channels][mBins];
+        mTime = new float[2 * block];
+        mPower = new float[mBins];
+        mSmoothed = new float[mBins];
+        mMinimum = new float[mBins];
+        mCurrent = new float[mBins];
+        mSubMinimum = new float[SUB_WINDOWS][mBins];
+        mNoise = new float[mBins];
+        mGain = new float[mBins];
+        mPosteriori = new float[mBins];
+        double blockTime = (double) block / sampleRate;
+        mAlpha = (float) Math.exp(-blockTime / SMOOTHING_TIME);
+        mSubLength = Math.max(1, (int) Math.round(MINIMUM_WINDOW / SUB_WINDOWS / blockTime));
+        setReduction(DEFAULT_REDUCTION);
+        reset();
+    }
+
+    public int block() {
+        return mBlock;
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    /** Most attenuation applied to noise, in dB */
+    public NoiseReducer setReduction(float db) {
+        if (!(db >= 0)) {
+            throw new IllegalArgumentException("Invalid reduction " + db);
+        }
+        mFloor = (float) Math.pow(10, -db / 20);
+        return this;
+    }
+
+    /**
+     * Suppress the noise of one block
+     * @param in  block interleaved samples
+     * @param out block interleaved samples of the previous input block, may be the in array
+     */
+    public void process(@NonNull float[] in, @NonNull float[] out) {
+        final int block = mBlock;
+        final int bins = mBins;
+        final int channels = mChannels;
+        final float[] window = mWindow;
+        final float[] time = mTime;
+        final float[] power = mPower;
+
+        Arrays.fill(power, 0);
+        for (int c = 0; c < channels; c++) {
+            float[] frame = mFrame[c];
+            System.arraycopy(frame, block, frame, 0, block);
+            for (int i = 0; i < block; i++) {
+                frame[block + i] = in[i * channels + c];
+            }
+            for (int n = 0; n < 2 * block; n++) {
+                time[n] = frame[n] * window[n];
+            }
+            float[] re = mRe[c];
+            float[] im = mIm[c];
+            mFft.forward(time, re, im);
+            for (int k = 0; k < bins; k++) {
+                power[k] += re[k] * re[k] + im[k] * im[k];
+            }
+        }
+        float scale = 1f / channels;
+        for (int k = 0; k < bins; k++) {
+            power[k] = power[k] * scale + POWER_FLOOR;
+        }
+
+        estimateNoise(power);
+        updateGain(power);
+
+        for (int c = 0; c < channels; c++) {
+            float[] re = mRe[c];
+            float[] im = mIm[c];
+            for (int k = 0; k < bins; k++) {
+                re[k] *= mGain[k];
+                im[k] *= mGain[k];
+            }
+            mFft.inverse(re, im, time);
+            float[] overlap = mOverlap[c];
+            for (int i = 0; i < block; i++) {
+                out[i * channels + c] = overlap[i] + time[i] * window[i];
+                overlap[i] = time[block + i] * window[block + i];
+            }
+        }
+        mBlocks++;
+    }
+
+    /** Mean gain over the bins of the latest block, in dB */
+    public float getGain() {
+        return (mBlocks > 0) ? (float) (20 * Math.log10(Math.max(mGainSum, 1e-6))) : 0;
+    }
+
+    /** Estimated noise power of a bin, as the squared magnitude of the windowed spectrum */
+    public float getNoise(int bin) {
+        return mNoise[bin];
+    }
+
+    public long getBlockCount() {
+        return mBlocks;
+    }
+
+    public void reset() {
+        for (int c = 0; c < mChannels; c++) {
+            Arrays.fill(mFrame[c], 0);
+            Arrays.fill(mOverlap[c], 0);
+        }
+        Arrays.fill(mGain, 1);
+        Arrays.fill(mPosteriori, 1);
+        mSubCount = 0;
+        mSubIndex = 0;
+        mSubFilled = 0;
+        mStarted = false;
+        mBlocks = 0;
+        mGainSum = 1;
+    }
+
+    // Minimum statistics, smoothed power minimum over the stored sub windows and the running one
+    private void estimateNoise(float[] power) {
+        final int bins = mBins;
+        if (!mStarted) {
+            System.arraycopy(power, 0, mSmoothed, 0, bins);
+            System.arraycopy(power, 0, mCurrent, 0, bins);
+            System.arraycopy(power, 0, mMinimum, 0, bins);
+            mStarted = true;
+        }
+        final float alpha = mAlpha;
+        for (int k = 0; k < bins; k++) {
+            float s = alpha * mSmoothed[k] + (1 - alpha) * power[k];
+            mSmoothed[k] = s;
+            if (s < mCurrent[k]) {
+                mCurrent[k] = s;
+            }
+            mNoise[k] = MINIMUM_BIAS * Math.min(mCurrent[k], mMinimum[k]);
+        }
+        if (++mSubCount < mSubLength) {
+            return;
+        }
+        // Sub window done, the oldest one leaves the minimum
+        mSubCount = 0;
+        System.arraycopy(mCurrent, 0, mSubMinimum[mSubIndex], 0, bins);
+        mSubIndex = (mSubIndex + 1) % SUB_WINDOWS;
+        mSubFilled = Math.min(SUB_WINDOWS, mSubFilled + 1);
+        System.arraycopy(mCurrent, 0, mMinimum, 0, bins);
+        for (int w = 0; w < mSubFilled; w++) {
+            float[] sub = mSubMinimum[w];
+            for (int k = 0; k < bins; k++) {
+                if (sub[k] < mMinimum[k]) {
+                    mMinimum[k] = sub[k];
+                }
+            }
+        }
+        System.arraycopy(mSmoothed, 0, mCurrent, 0, bins);
+    }
+
+    // Wiener gain from the decision directed a priori SNR
+    private void updateGain(float[] power) {
+        final int bins = mBins;
+        final float floor = mFloor;
+        double sum = 0;
+        for (int k = 0; k < bins; k++) {
+            float posteriori = power[k] / mNoise[k];
+            float previous = mGain[k] * mGain[k] * mPosteriori[k];
+            float priori = PRIORI_SMOOTHING * previous + (1 - PRIORI_SMOOTHING) * Math.max(posteriori - 1, 0);
+            float gain = Math.max(floor, priori / (1 + priori));
+            mGain[k] = gain;
+            mPosteriori[k] = posteriori;
+            sum += gain;
+        }
+        mGainSum = sum / bins;
+    }
+}
@@ -0,0 +1,172 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * PCM sample format conversion between integer samples and floats in [-1, 1]
+ * Kernels work on arrays with plain counted loops and no per sample branch, so the JIT can vectorize them.
+ * Buffer variants bulk copy through a typed view into a scratch array first, the byte order is the one
+ * of the view, use shortView() or floatView() to get one with an explicit order.
+ */
+public final class PcmConvert {
+
+    private static final float S16_SCALE = 1f / 32768f;
+    private static final float U8_SCALE = 1f / 128f;
+
+    private PcmConvert() {
+    }
+
+    /** Typed view of size bytes from offset, position and limit of the buffer are not changed */
+    @NonNull
+    public static ShortBuffer shortView(@NonNull ByteBuffer buffer, int offset, int size, @NonNull ByteOrder order) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + size).position(offset);
+        return slice.slice().order(order).asShortBuffer();
+    }
+
+    /** Typed view of size bytes from offset, position and limit of the buffer are not changed */
+    @NonNull
+    public static FloatBuffer floatView(@NonNull ByteBuffer buffer, int offset, int size, @NonNull ByteOrder order) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + size).position(offset);
+        return slice.slice().order(order).asFloatBuffer();
+    }
+
+    public static void s16ToFloat(@NonNull short[] in, int inOffset, @NonNull float[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = in[inOffset + i] * S16_SCALE;
+        }
+    }
+
+    /** Rounded and clipped to the 16 bits range */
+    public static void floatToS16(@NonNull float[] in, int inOffset, @NonNull short[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int v = (int) (in[inOffset + i] * 32768f + 32768.5f); // Offset to unsigned, truncation rounds
+            out[outOffset + i] = (short) (Math.max(0, Math.min(65535, v)) - 32768);
+        }
+    }
+
+    /** Unsigned 8 bits, 128 is zero */
+    public static void u8ToFloat(@NonNull byte[] in, int inOffset, @NonNull float[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            out[outOffset + i] = ((in[inOffset + i] & 0xFF) - 128) * U8_SCALE;
+        }
+    }
+
+    /** Rounded and clipped to the unsigned 8 bits range */
+    public static void floatToU8(@NonNull float[] in, int inOffset, @NonNull byte[] out, int outOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int v = (int) (in[inOffset + i] * 128f + 128.5f);
+            out[outOffset + i] = (byte) Math.max(0, Math.min(255, v));
+        }
+    }
+
+    /**
+     * Decode all remaining shorts of the view, the view position moves to its limit
+     * @param scratch any size, larger takes fewer bulk copies
+     * @return number of samples written
+     */
+    public static int s16ToFloat(@NonNull ShortBuffer in, @NonNull float[] out, int outOffset, @NonNull short[] scratch) {
+        int total = in.remaining();
+        for (int done = 0; done < total; ) {
+            int n = Math.min(scratch.length, total - done);
+            in.get(scratch, 0, n);
+            s16ToFloat(scratch, 0, out, outOffset + done, n);
+            done += n;
+        }
+        return total;
+    }
+
+    /**
+     * Encode count floats at the view position, the view position moves past them
+     * @param scratch any size, larger takes fewer bulk copies
+     */
+    public static void floatToS16(@NonNull float[] in, int inOffset, int count, @NonNull ShortBuffer out, @NonNull short[] scratch) {
+        for (int done = 0; done < count; ) {
+            int n = Math.min(scratch.length, count - done);
+            floatToS16(in, inOffset + done, scratch, 0, n);
+            out.put(scratch, 0, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Copy all remaining floats of the view, the view position moves to its limit
+     * @return number of samples written
+     */
+    public static int f32ToFloat(@NonNull FloatBuffer in, @NonNull float[] out, int outOffset) {
+        int total = in.remaining();
+        in.get(out, outOffset, total);
+        return total;
+    }
+
+    /**
+     * Split interleaved samples into one array per channel
+     * @param out numChannels arrays of at least frames samples
+     */
+    public static void deinterleave(@NonNull float[] in, int numChannels, int frames, @NonNull float[][] out) {
+        if (numChannels == 2) {
+            float[] left = out[0];
+            float[] right = out[1];
+            for (int i = 0; i < frames; i++) {
+                left[i] = in[2 * i];
+                right[i] = in[2 * i + 1];
+            }
+            return;
+        }
+        for (int c = 0; c < numChannels; c++) {
+            float[] plane = out[c];
+            for (int i = 0; i < frames; i++) {
+                plane[i] = in[i * numChannels + c];
+            }
+        }
+    }
+
+    /** Merge one array per channel into interleaved samples */
+    public static void interleave(@NonNull float[][] in, int numChannels, int frames, @NonNull float[] out) {
+        if (numChannels == 2) {
+            float[] left = in[0];
+            float[] right = in[1];
+            for (int i = 0; i < frames; i++) {
+                out[2 * i] = left[i];
+                out[2 * i + 1] = right[i];
+            }
+            return;
+        }
+        for (int c = 0; c < numChannels; c++) {
+            float[] plane = in[c];
+            for (int i = 0; i < frames; i++) {
+                out[i * numChannels + c] = plane[i];
+            }
+        }
+    }
+
+    /** Average of all channels, in and out may be the same array */
+    public static void downmix(@NonNull float[] in, int numChannels, int frames, @NonNull float[] out) {
+        switch (numChannels) {
+        case 1:
+            if (in != out) {
+                System.arraycopy(in, 0, out, 0, frames);
+            }
+            return;
+        case 2:
+            for (int i = 0; i < frames; i++) {
+                out[i] = (in[2 * i] + in[2 * i + 1]) * 0.5f;
+            }
+            return;
+        }
+        float gain = 1f / numChannels;
+        for (int i = 0; i < frames; i++) {
+            float sum = 0;
+            for (int c = 0, pos = i * numChannels; c < numChannels; c++) {
+                sum += in[pos + c];
+            }
+            out[i] = sum * gain;
+        }
+    }
+}
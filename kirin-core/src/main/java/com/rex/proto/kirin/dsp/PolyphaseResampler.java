@@ -0,0 +1,176 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Streaming rational sample rate converter with a polyphase FIR bank
+ * Ratio out/in is reduced to up/down, the Kaiser windowed sinc prototype runs at in*up and is split
+ * into up phases of taps coefficients, so each output sample costs taps multiply-adds per channel.
+ * Taps grow with the conversion ratio to keep the same transition band for every quality.
+ * Filter history is kept across process() calls, samples are interleaved floats.
+ */
+public class PolyphaseResampler {
+
+    public enum Quality {
+        LOW(8, 0.78, 6.0),      // Cheap, about 60dB stopband, for visualization or detection
+        MEDIUM(16, 0.85, 8.0),  // About 80dB stopband, for features and recording
+        HIGH(32, 0.90, 10.0);   // About 100dB stopband, for monitoring
+
+        final int mZeroCrossings;   // Sinc lobes on each side, in periods of the lower rate
+        final double mPassband;     // Cutoff relative to the lower Nyquist, stopband starts near Nyquist
+        final double mBeta;         // Kaiser window, higher is more stopband attenuation
+        Quality(int zeroCrossings, double passband, double beta) {
+            mZeroCrossings = zeroCrossings;
+            mPassband = passband;
+            mBeta = beta;
+        }
+    }
+
+    private final int mInRate;
+    private final int mOutRate;
+    private final int mUp;
+    private final int mDown;
+    private final int mTaps;
+    private final int mChannels;
+    private final float[] mCoefs;       // [phase][tap], tap 0 applies to the newest sample
+    private final float[][] mHistory;   // Per channel doubled ring of the latest taps samples
+    private int mPos;
+    private int mAcc;                   // Output position within the current input sample, in 1/up units
+
+    public PolyphaseResampler(int inRate, int outRate, int channels, @NonNull Quality quality) {
+        if (inRate <= 0 || outRate <= 0 || channels <= 0) {
+            throw new IllegalArgumentException("Invalid rate " + inRate + "->" + outRate + " channels " + channels);
+        }
+        int gcd = gcd(inRate, outRate);
+        mInRate = inRate;
+        mOutRate = outRate;
+        mUp = outRate / gcd;
+        mDown = inRate / gcd;
+        mTaps = (2 * quality.mZeroCrossings * Math.max(mUp, mDown) + mUp - 1) / mUp;
+        mChannels = channels;
+        mCoefs = new float[mUp * mTaps];
+        mHistory = new float[channels][2 * mTaps];
+
+        // Prototype low pass at rate in*up, cutoff below the lower of both Nyquist, gain up
+        int length = mUp * mTaps;
+        double cutoff = 0.5 / Math.max(mUp, mDown) * quality.mPassband; // Cycles per upsampled sample
+        double center = (length - 1) / 2.0;
+        double norm = bessel0(quality.mBeta);
+        for (int i = 0; i < length; i++) {
+            double x = i - center;
+            double sinc = (x == 0) ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * x) / (Math.PI * x);
+            double r = 2 * x / (length - 1);
+            double kaiser = bessel0(quality.mBeta * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            int phase = i % mUp;
+            int tap = i / mUp;
+            mCoefs[phase * mTaps + tap] = (float) (sinc * kaiser * mUp);
+        }
+    }
+
+    public int inRate() {
+        return mInRate;
+    }
+
+    public int outRate() {
+        return mOutRate;
+    }
+
+    public int channels() {
+        return mChannels;
+    }
+
+    /** Coefficients per phase, cost of one output sample per channel */
+    public int taps() {
+        return mTaps;
+    }
+
+    /** Group delay in input samples */
+    public double delay() {
+        return (mUp * mTaps - 1) / 2.0 / mUp;
+    }
+
+    /** Upper bound of output frames for the given input frames */
+    public int maxOutput(int inFrames) {
+        return (int) (((long) inFrames * mUp + mAcc) / mDown) + 1;
+    }
+
+    public void reset() {
+        for (float[] history : mHistory) {
+            Arrays.fill(history, 0);
+        }
+        mPos = 0;
+        mAcc = 0;
+    }
+
+    /**
+     * @param in       interleaved input samples
+     * @param inFrames number of input frames, samples per channel
+     * @param out      interleaved output, capacity at least maxOutput(inFrames) frames
+     * @return number of output frames written
+     */
+    public int process(@NonNull float[] in, int inFrames, @NonNull float[] out) {
+        final int taps = mTaps;
+        final int channels = mChannels;
+        final int up = mUp;
+        final int down = mDown;
+        final float[] coefs = mCoefs;
+        int acc = mAcc;
+        int pos = mPos;
+        int produced = 0;
+        for (int i = 0; i < inFrames; i++) {
+            for (int c = 0; c < channels; c++) {
+                float x = in[i * channels + c];
+                float[] history = mHistory[c];
+                history[pos] = x;
+                history[pos + taps] = x;
+            }
+            int newest = pos + taps;
+            while (acc < up) {
+                int base = acc * taps;
+                for (int c = 0; c < channels; c++) {
+                    float[] history = mHistory[c];
+                    float sum = 0;
+                    for (int k = 0; k < taps; k++) {
+                        sum += coefs[base + k] * history[newest - k];
+                    }
+                    out[produced * channels + c] = sum;
+                }
+                produced++;
+                acc += down;
+            }
+            acc -= up;
+            if (++pos == taps) {
+                pos = 0;
+            }
+        }
+        mAcc = acc;
+        mPos = pos;
+        return produced;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Zeroth order modified Bessel function of the first kind
+    static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        double half = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (half / k) * (half / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,111 @@
+package com.rex.proto.kirin.dsp;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Map a magnitude spectrum to one column of spectrogram pixels
+ * Rows follow a log frequency scale from bin 1 up to nyquist, each row takes the loudest bin it covers.
+ * Colors come from a lookup table over linear magnitude with the dB curve baked in, so mapping a column
+ * is O(rows + bins) without any log or allocation.
+ */
+public class WaterfallMapper {
+
+    private static final int LUT_SIZE = 4096;
+
+    private final int mRows;
+    private final int mBins;
+    private final int[] mRowStart;  // First bin of each row, row 0 is the top
+    private final int[] mRowEnd;    // Last bin of each row, exclusive
+    private final int[] mLut;
+    private final float mLutScale;
+
+    /**
+     * @param rows      pixels per column
+     * @param bins      spectrum length, fftSize/2+1 with DC first and nyquist last
+     * @param fullScale magnitude drawn with the hottest color
+     * @param rangeDb   dynamic range below full scale, quieter bins are drawn with the coldest color
+     */
+    public WaterfallMapper(int rows, int bins, float fullScale, float rangeDb) {
+        if (rows <= 0 || bins < 3 || fullScale <= 0 || rangeDb <= 0) {
+            throw new IllegalArgumentException("Invalid rows " + rows + " bins " + bins
+                    + " scale " + fullScale + " range " + rangeDb);
+        }
+        mRows = rows;
+        mBins = bins;
+        mRowStart = new int[rows];
+        mRowEnd = new int[rows];
+        double ratio = Math.log(bins - 1); // Bin 1 to bins-1 spread over the rows
+        for (int r = 0; r < rows; r++) {
+            int row = rows - 1 - r; // Low frequencies at the bottom
+            int start = (int) Math.floor(Math.exp(ratio * r / rows));
+            int end = (r == rows - 1) ? bins : (int) Math.floor(Math.exp(ratio * (r + 1) / rows) + 1e-9);
+            start = Math.min(Math.max(start, 1), bins - 1);
+            end = Math.min(Math.max(end, start + 1), bins);
+            mRowStart[row] = start;
+            mRowEnd[row] = end;
+        }
+
+        mLut = new int[LUT_SIZE];
+        mLutScale = (LUT_SIZE - 1) / fullScale;
+        for (int i = 0; i < LUT_SIZE; i++) {
+            double db = (i > 0) ? 20 * Math.log10((double) i / (LUT_SIZE - 1)) : -rangeDb;
+            mLut[i] = heat((float) Math.max(0, 1 + db / rangeDb));
+        }
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public int getBins() {
+        return mBins;
+    }
+
+    /**
+     * @param magnitudes spectrum of getBins() values
+     * @param column     ARGB pixels of getRows() values, top row first
+     */
+    public void map(@NonNull float[] magnitudes, @NonNull int[] column) {
+        int[] lut = mLut;
+        float scale = mLutScale;
+        for (int row = 0; row < mRows; row++) {
+            float peak = 0;
+            for (int k = mRowStart[row]; k < mRowEnd[row]; k++) {
+                peak = Math.max(peak, magnitudes[k]);
+            }
+            int index = (int) (peak * scale);
+            column[row] = lut[Math.min(index, LUT_SIZE - 1)];
+        }
+    }
+
+    /** First bin shown by the row, row 0 is the top */
+    public int getRowStart(int row) {
+        return mRowStart[row];
+    }
+
+    /** Last bin shown by the row, exclusive */
+    public int getRowEnd(int row) {
+        return mRowEnd[row];
+    }
+
+    /** Color for a level in [0, 1] */
+    public int getColor(float level) {
+        return heat(level);
+    }
+
+    // Black, blue, magenta, red, yellow, white
+    private static int heat(float level) {
+        float v = Math.max(0, Math.min(1, level)) * 5;
+        int segment = Math.min((int) v, 4);
+        int t = (int) ((v - segment) * 255);
+        int r, g, b;
+        switch (segment) {
+        case 0: r = 0;   g = 0;   b = t;       break;
+        case 1: r = t;   g = 0;   b = 255;     break;
+        case 2: r = 255; g = 0;   b = 255 - t; break;
+        case 3: r = 255; g = t;   b = 0;       break;
+        default: r = 255; g = 255; b = t;      break;
+        }
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,176 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioMixerTest {
+
+    private static final int RATE = 48000;
+    private static final int FRAME = 480; // 10ms
+    private static final long PERIOD = 10000; // us
+
+    /** Source fed by hand with constant frames */
+    private static class FakeSource implements AudioSource {
+        final int mChannels;
+        AudioSink mSink;
+        FakeSource(int channels) {
+            mChannels = channels;
+        }
+        @Override
+        public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+            mSink.onStart(sampleRate, 16, samplePerFrame * mChannels * 2, mChannels);
+            return true;
+        }
+        @Override
+        public boolean stop() {
+            mSink.onStop();
+            return true;
+        }
+        @Override
+        public AudioSource setOutput(AudioSink sink) {
+            mSink = sink;
+            return this;
+        }
+        void push(long timestamp, float value) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME * mChannels * 2).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < FRAME * mChannels; i++) {
+                buffer.putShort(i * 2, (short) Math.round(value * 32768));
+            }
+            mSink.onData(buffer, 0, buffer.capacity(), timestamp);
+        }
+    }
+
+    /** Keep the decoded samples and timestamp of every output frame */
+    private static class Collector implements AudioSink {
+        final List<float[]> mFrames = new ArrayList<>();
+        final List<Long> mTimestamps = new ArrayList<>();
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            fail("Mixer hands out frames");
+        }
+        @Override
+        public void onFrame(@NonNull AudioFrame frame) {
+            mFrames.add(Arrays.copyOf(frame.samples(), frame.sampleCount()));
+            mTimestamps.add(frame.timestamp());
+        }
+        @Override
+        public void onStop() {
+        }
+        float[] last() {
+            return mFrames.get(mFrames.size() - 1);
+        }
+    }
+
+    private static long ts(AudioMixer mixer, int frame) {
+        return mixer.getBaseTimestamp() + frame * PERIOD;
+    }
+
+    @Test
+    public void testGainAndAlignment() {
+        FakeSource a = new FakeSource(2);
+        FakeSource b = new FakeSource(2);
+        Collector out = new Collector();
+        AudioMixer mixer = new AudioMixer().setManualClock(true)
+                .addInput(a, 0.5f)
+                .addInput(b, 0.25f)
+                .setOutput(out);
+        mixer.start(RATE, 16, FRAME, 2);
+        for (int i = 0; i < 4; i++) {
+            a.push(ts(mixer, i) + (i % 2) * 300, 0.5f); // Jitter within tolerance keeps frames contiguous
+            b.push(ts(mixer, i), 0.4f);
+            mixer.mixFrame();
+            for (float v : out.last()) {
+                assertEquals(0.35f, v, 1e-3);
+            }
+            assertEquals(ts(mixer, i), (long) out.mTimestamps.get(i));
+        }
+        mixer.stop();
+    }
+
+    @Test
+    public void testLateStartAndUnderrun() {
+        FakeSource a = new FakeSource(2);
+        FakeSource b = new FakeSource(2);
+        Collector out = new Collector();
+        AudioMixer mixer = new AudioMixer().setManualClock(true)
+                .addInput(a, 1f)
+                .addInput(b, 1f)
+                .setOutput(out);
+        mixer.start(RATE, 16, FRAME, 2);
+        AudioMixer.Input inputB = mixer.getInputs().get(1);
+        for (int i = 0; i < 10; i++) {
+            a.push(ts(mixer, i), 0.25f);
+            if (i >= 3 && (i < 6 || i >= 8)) { // Starts late, stalls for 2 frames
+                b.push(ts(mixer, i), 0.5f);
+            }
+            mixer.mixFrame();
+            boolean hasB = i >= 3 && (i < 6 || i >= 8);
+            assertEquals("frame " + i, hasB ? 0.75f : 0.25f, out.last()[0], 1e-3);
+        }
+        assertEquals(2, inputB.getUnderrunCount()); // Not before its first frame
+        assertEquals(0, mixer.getInputs().get(0).getUnderrunCount());
+        mixer.stop();
+    }
+
+    @Test
+    public void testOffsetAndLateData() {
+        FakeSource a = new FakeSource(1); // Mono spread into stereo
+        Collector out = new Collector();
+        AudioMixer mixer = new AudioMixer().setManualClock(true)
+                .addInput(a, 1f)
+                .setOutput(out);
+        mixer.start(RATE, 16, FRAME, 2);
+        AudioMixer.Input input = mixer.getInputs().get(0);
+        a.push(ts(mixer, 0) + PERIOD / 2, 0.5f); // Captured half a frame later
+        mixer.mixFrame();
+        float[] first = out.last();
+        assertEquals(0, first[0], 0);
+        assertEquals(0, first[(FRAME / 2 - 1) * 2 + 1], 0);
+        assertEquals(0.5f, first[FRAME / 2 * 2], 1e-3);
+        assertEquals(0.5f, first[FRAME / 2 * 2 + 1], 1e-3);
+        mixer.mixFrame(); // Second half of the frame
+        assertEquals(0.5f, out.last()[0], 1e-3);
+        assertEquals(0, out.last()[FRAME], 0);
+
+        a.push(ts(mixer, 0), 0.5f); // Its time was mixed already
+        mixer.mixFrame();
+        assertEquals(1, input.getLateFrames());
+        assertEquals(0, out.last()[0], 0);
+        mixer.stop();
+    }
+
+    @Test
+    public void testMismatchedRateIgnored() {
+        FakeSource good = new FakeSource(2);
+        AudioSource wrong = new FakeSource(2) {
+            @Override
+            public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+                mSink.onStart(44100, 16, FRAME * 4, 2);
+                return true;
+            }
+        };
+        Collector out = new Collector();
+        AudioMixer mixer = new AudioMixer().setManualClock(true)
+                .addInput(good, 1f)
+                .addInput(wrong, 1f)
+                .setOutput(out);
+        mixer.start(RATE, 16, FRAME, 2);
+        good.push(ts(mixer, 0), 0.25f);
+        ((FakeSource) wrong).push(ts(mixer, 0), 0.5f);
+        mixer.mixFrame();
+        assertEquals(0.25f, out.last()[0], 1e-3);
+        mixer.stop();
+    }
+}
@@ -0,0 +1,185 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class AudioPipelineTest {
+
+    private static final AudioPipeline.Format FORMAT = new AudioPipeline.Format(48000, 16, 2);
+
+    /** Deliver frames on the thread calling start(), stop() ends the stream */
+    private static class FrameSource implements AudioSource {
+        final int mFrames;
+        AudioSink mOutput;
+        FrameSource(int frames) {
+            mFrames = frames;
+        }
+        @Override
+        public boolean start(int sampleRate, int sampleBits, int samplePerFrame, int numChannels) {
+            int size = samplePerFrame * numChannels * sampleBits / Byte.SIZE;
+            mOutput.onStart(sampleRate, sampleBits, size, numChannels);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < mFrames; i++) {
+                mOutput.onData(buffer, 0, size, i * 10000L);
+            }
+            return true;
+        }
+        @Override
+        public boolean stop() {
+            mOutput.onStop();
+            return true;
+        }
+        @Override
+        public AudioSource setOutput(AudioSink sink) {
+            mOutput = sink;
+            return this;
+        }
+    }
+
+    /** Remember the thread of each stage, spin to take some time */
+    private static class Recorder extends AudioSink.Wrapper {
+        final String mName;
+        final Map<String, String> mThreads;
+        final long mSpin;   // ns
+        Recorder(AudioSink sink, String name, Map<String, String> threads, long spin) {
+            super(sink);
+            mName = name;
+            mThreads = threads;
+            mSpin = spin;
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            mThreads.put(mName, Thread.currentThread().getName());
+            long end = System.nanoTime() + mSpin;
+            while (System.nanoTime() < end) {
+                Thread.yield();
+            }
+            super.onData(buffer, offset, size, timestamp);
+        }
+    }
+
+    private static AudioPipeline.Builder source() {
+        return new AudioPipeline.Builder().source("read", new FrameSource(10), FORMAT, 480);
+    }
+
+    private static String buildError(AudioPipeline.Builder builder) {
+        try {
+            builder.build();
+        } catch (IllegalStateException ex) {
+            return ex.getMessage();
+        }
+        fail("Built");
+        return null;
+    }
+
+    @Test
+    public void testValidate() {
+        AudioPipeline.Stage pass = AudioSink.Wrapper::new;
+        assertTrue(buildError(source()
+                .stage("float", pass).requireBits(32)
+                .edge("read", "float")).contains("float can't take 48000Hz/16bit/2ch"));
+        assertTrue(buildError(source()
+                .stage("mono", pass).requireChannels(1, 1)
+                .edge("read", "mono")).contains("mono"));
+        assertTrue(buildError(source()
+                .edge("read", "missing")).contains("unknown stage missing"));
+        assertTrue(buildError(source()
+                .stage("a", pass)
+                .stage("b", pass)
+                .edge("read", "a").edge("read", "b").edge("a", "b")).contains("fed by"));
+        assertTrue(buildError(source()
+                .stage("orphan", pass)).contains("orphan not reached"));
+        assertTrue(buildError(source()
+                .sink("leaf", new AudioSink.Wrapper(null), AudioPipeline.Mode.INLINE)
+                .stage("after", pass)
+                .chain("read", "leaf", "after")).contains("leaves sink leaf"));
+        assertTrue(buildError(new AudioPipeline.Builder()).contains("No source"));
+
+        // A resampler changes the rate seen by the stages behind it
+        AudioPipeline pipeline = source()
+                .stage("resample", next -> new AudioSinkResampler(next, 16000)).output(16000, 0, 0)
+                .stage("narrow", pass).requireRate(16000).requireBits(16)
+                .chain("read", "resample", "narrow")
+                .build();
+        assertEquals(new AudioPipeline.Format(16000, 16, 2), pipeline.getNode("narrow").getInput());
+        assertEquals(FORMAT, pipeline.getNode("resample").getInput());
+    }
+
+    @Test
+    public void testThreads() {
+        // read -> a -> b -> { c blocking, d heavy, e inline }, the inline chain stays on the source thread
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        long spin = 200000;
+        AudioPipeline pipeline = new AudioPipeline.Builder()
+                .source("read", new FrameSource(20), FORMAT, 480)
+                .stage("a", next -> new Recorder(next, "a", threads, spin))
+                .stage("b", next -> new Recorder(next, "b", threads, 0))
+                .sink("c", new Recorder(null, "c", threads, 0), AudioPipeline.Mode.BLOCKING).capacity(32)
+                .sink("d", new Recorder(null, "d", threads, 0), AudioPipeline.Mode.HEAVY).capacity(32)
+                .sink("e", new Recorder(null, "e", threads, 0), AudioPipeline.Mode.INLINE)
+                .chain("read", "a", "b", "c")
+                .edge("b", "d")
+                .edge("b", "e")
+                .build();
+        assertEquals(Arrays.asList("read", "c", "d"), pipeline.getThreads());
+        assertEquals("read", pipeline.getNode("e").getThread());
+        assertEquals(Arrays.asList("c", "d", "e"), pipeline.getNode("b").getOutputs());
+        assertTrue(pipeline.start());
+        pipeline.stop();
+
+        String source = Thread.currentThread().getName();
+        assertEquals(source, threads.get("a"));
+        assertEquals(source, threads.get("b"));
+        assertEquals(source, threads.get("e"));
+        assertEquals("Pipeline-c", threads.get("c"));
+        assertEquals("Pipeline-d", threads.get("d"));
+        for (AudioPipeline.Node node : pipeline.getNodes()) {
+            assertEquals(node.getName(), 20, node.getFrames());
+            assertEquals(node.getName(), 0, node.getDropped());
+        }
+
+        // Time of a counts a only, the stages it calls are taken out
+        AudioPipeline.Node a = pipeline.getNode("a");
+        AudioPipeline.Node b = pipeline.getNode("b");
+        assertTrue("a " + a.getAverageTime(), a.getAverageTime() >= spin / 1000);
+        assertTrue("b " + b.getAverageTime(), b.getAverageTime() < spin / 1000);
+        assertTrue(a.getLoad() > 0);
+        assertEquals(pipeline.getThreadLoad("read"), pipeline.getNode("read").getLoad() + a.getLoad() + b.getLoad()
+                + pipeline.getNode("e").getLoad(), 0.05f);
+        String description = pipeline.describe();
+        for (String name : Arrays.asList("read", "a", "b", "c", "d", "e")) {
+            assertTrue(description, description.contains("Node{" + name + " "));
+        }
+    }
+
+    @Test
+    public void testTracer() {
+        LatencyTracer tracer = new LatencyTracer();
+        AudioPipeline pipeline = source()
+                .setTracer(tracer)
+                .sink("player", new AudioSink.Wrapper(null), AudioPipeline.Mode.BLOCKING)
+                .stage("gate", AudioSink.Wrapper::new)
+                .chain("read", "gate", "player")
+                .build();
+        pipeline.start();
+        pipeline.stop();
+        List<LatencyHistogram.Snapshot> snapshots = tracer.snapshot();
+        assertEquals(3, snapshots.size()); // Source order, whatever the declaration order
+        assertEquals("read", snapshots.get(0).getName());
+        assertEquals("gate", snapshots.get(1).getName());
+        assertEquals("player", snapshots.get(2).getName());
+        for (LatencyHistogram.Snapshot snapshot : snapshots) {
+            assertEquals(snapshot.getName(), 10, snapshot.getCount());
+        }
+    }
+}
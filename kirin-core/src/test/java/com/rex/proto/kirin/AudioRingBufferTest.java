@@ -0,0 +1,96 @@
+package com.rex.proto.kirin;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class AudioRingBufferTest {
+
+    @Test
+    public void testOrder() {
+        AudioRingBuffer ring = new AudioRingBuffer(3, 8, AudioRingBuffer.Overflow.DROP_NEWEST);
+        assertEquals(4, ring.getCapacity());
+        assertTrue(ring.isEmpty());
+
+        ByteBuffer src = ByteBuffer.allocate(8);
+        ByteBuffer dst = ByteBuffer.allocateDirect(8);
+        for (int i = 0; i < 3; i++) {
+            src.putInt(0, i);
+            assertTrue(ring.offer(src, 0, 4, i * 10));
+        }
+        assertEquals(3, ring.getFillLevel());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(4, ring.poll(dst));
+            assertEquals(i, dst.getInt(0));
+            assertEquals(i * 10, ring.getReadTimestamp());
+        }
+        assertEquals(-1, ring.poll(dst));
+        assertEquals(0, src.position());
+        assertEquals(8, src.limit());
+    }
+
+    @Test
+    public void testDropNewest() {
+        AudioRingBuffer ring = new AudioRingBuffer(4, 4, AudioRingBuffer.Overflow.DROP_NEWEST);
+        ByteBuffer src = ByteBuffer.allocate(4);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        for (int i = 0; i < 6; i++) {
+            src.putInt(0, i);
+            assertEquals(i < 4, ring.offer(src, 0, 4, i));
+        }
+        assertEquals(2, ring.getDroppedFrames());
+        assertEquals(4, ring.poll(dst));
+        assertEquals(0, dst.getInt(0));
+    }
+
+    @Test
+    public void testDropOldest() {
+        AudioRingBuffer ring = new AudioRingBuffer(4, 4, AudioRingBuffer.Overflow.DROP_OLDEST);
+        ByteBuffer src = ByteBuffer.allocate(4);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        for (int i = 0; i < 6; i++) {
+            src.putInt(0, i);
+            assertTrue(ring.offer(src, 0, 4, i));
+        }
+        assertEquals(2, ring.getDroppedFrames());
+        assertEquals(4, ring.getFillLevel());
+        assertEquals(4, ring.poll(dst));
+        assertEquals(2, dst.getInt(0));
+    }
+
+    @Test
+    public void testBlockConcurrent() throws Exception {
+        final int total = 100000;
+        final AudioRingBuffer ring = new AudioRingBuffer(8, 4, AudioRingBuffer.Overflow.BLOCK);
+        final AtomicReference<String> error = new AtomicReference<>();
+        Thread consumer = new Thread(() -> {
+            ByteBuffer dst = ByteBuffer.allocateDirect(4);
+            int expect = 0;
+            while (expect < total) {
+                if (ring.poll(dst) < 0) {
+                    ring.await(1, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                if (dst.getInt(0) != expect || ring.getReadTimestamp() != expect) {
+                    error.set("Expect " + expect + " got " + dst.getInt(0));
+                    return;
+                }
+                expect++;
+            }
+        });
+        consumer.start();
+        ByteBuffer src = ByteBuffer.allocateDirect(4);
+        for (int i = 0; i < total; i++) {
+            src.putInt(0, i);
+            assertTrue(ring.offer(src, 0, 4, i));
+        }
+        consumer.join(10000);
+        assertNull(error.get());
+        assertEquals(0, ring.getDroppedFrames());
+        assertEquals(total, ring.getWrittenFrames());
+    }
+}
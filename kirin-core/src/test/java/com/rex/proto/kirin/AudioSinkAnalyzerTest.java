@@ -0,0 +1,74 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkAnalyzerTest {
+
+    @Test
+    public void testSinePeak() {
+        final int sampleRate = 48000;
+        final int samplePerFrame = 480;
+        final int numChannels = 2;
+        final int frameSize = samplePerFrame * numChannels * 2;
+        final int[] count = new int[3];
+        final int[] peak = new int[1];
+        final float[] level = new float[1];
+        AudioSink downstream = new AudioSink() {
+            @Override
+            public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+                count[0]++;
+            }
+            @Override
+            public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+                count[1] += size;
+            }
+            @Override
+            public void onStop() {
+                count[2]++;
+            }
+        };
+        AudioSinkAnalyzer analyzer = new AudioSinkAnalyzer(downstream)
+                .setFftSize(1024)
+                .setCallback((fmt, data) -> {
+                    if (fmt == AudioFxCallback.FFT) {
+                        int max = 1;
+                        for (int k = 1; k < data.length; k++) {
+                            if (data[k] > data[max]) max = k;
+                        }
+                        peak[0] = max;
+                        level[0] = data[max];
+                    }
+                });
+
+        // 1500Hz lands exactly on bin 32 for 1024 points at 48kHz
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.nativeOrder());
+        analyzer.onStart(sampleRate, 16, frameSize, numChannels);
+        long start = System.nanoTime();
+        int frames = sampleRate / samplePerFrame; // 1 second
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < samplePerFrame; i++) {
+                double t = (double) (f * samplePerFrame + i) / sampleRate;
+                short s = (short) (Math.sin(2 * Math.PI * 1500 * t) * 32767);
+                buffer.putShort((i * numChannels) * 2, s);
+                buffer.putShort((i * numChannels + 1) * 2, s);
+            }
+            analyzer.onData(buffer, 0, frameSize, f * 10000L);
+        }
+        long cost = System.nanoTime() - start;
+        analyzer.onStop();
+
+        assertEquals(1, count[0]);
+        assertEquals(frames * frameSize, count[1]);
+        assertEquals(1, count[2]);
+        assertEquals(32, peak[0]);
+        assertEquals(128f, level[0], 2f);
+        assertTrue("Slower than real time " + cost + "ns", cost < 1000000000L);
+    }
+}
@@ -0,0 +1,131 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.rex.proto.kirin.dsp.TestSignals.*;
+import static org.junit.Assert.*;
+
+public class AudioSinkEchoCancellerTest {
+
+    private static final int FRAME = 480; // 10ms
+    private static final long BASE = 1000000000L; // us
+
+    /** Keep the decoded samples and timestamps of the output */
+    private static class Collector implements AudioSink {
+        final List<float[]> mFrames = new ArrayList<>();
+        final List<Long> mTimestamps = new ArrayList<>();
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            float[] samples = new float[size / 2];
+            AudioBuffers.readSamples(buffer, offset, size, 16, samples);
+            mFrames.add(samples);
+            mTimestamps.add(timestamp);
+        }
+        @Override
+        public void onStop() {
+        }
+    }
+
+    private static long time(long frames) {
+        return BASE + frames * 1000000L / RATE;
+    }
+
+    @Test
+    public void testCancelEchoOfReference() {
+        int frames = 8 * RATE;
+        float[] far = talker(1, 8, 0.3f);
+        // Speaker to mic, 6ms acoustic delay and a weaker reflection
+        float[] echo = new float[frames];
+        int delay = RATE * 6 / 1000;
+        for (int i = 0; i < frames; i++) {
+            float direct = (i >= delay) ? far[i - delay] : 0;
+            float reflection = (i >= 3 * delay) ? far[i - 3 * delay] : 0;
+            echo[i] = 0.25f * direct - 0.08f * reflection;
+        }
+
+        EchoReference reference = new EchoReference();
+        Collector out = new Collector();
+        AudioSinkEchoCanceller aec = new AudioSinkEchoCanceller(out, reference);
+        aec.onStart(RATE, 16, FRAME * 2, 1);
+        reference.start(RATE);
+        Random jitter = new Random(5);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME * 2).order(ByteOrder.nativeOrder());
+        float[] frame = new float[FRAME];
+        int written = 0;
+        for (int pos = 0; pos + FRAME <= frames; pos += FRAME) {
+            while (written < pos + 5 * FRAME && written + FRAME <= frames) { // Output runs 50ms ahead
+                System.arraycopy(far, written, frame, 0, FRAME);
+                long presented = time(written) + 2000 + (long) (jitter.nextGaussian() * 1000); // Estimate 2ms late
+                reference.write(frame, FRAME, presented);
+                written += FRAME;
+            }
+            for (int i = 0; i < FRAME; i++) {
+                buffer.putShort(i * 2, (short) Math.round(echo[pos + i] * 32767));
+            }
+            aec.onData(buffer, 0, FRAME * 2, time(pos));
+        }
+        aec.onStop();
+
+        assertEquals(frames / FRAME, out.mFrames.size());
+        long latency = 256 * 1000000L / RATE;
+        assertEquals(time(FRAME) - latency, (long) out.mTimestamps.get(1));
+        double echoEnergy = 0;
+        double residualEnergy = 0;
+        for (int n = out.mFrames.size() - 200; n < out.mFrames.size(); n++) { // Last 2 seconds
+            for (int i = 0; i < FRAME; i++) {
+                echoEnergy += echo[n * FRAME + i] * echo[n * FRAME + i];
+                residualEnergy += out.mFrames.get(n)[i] * out.mFrames.get(n)[i];
+            }
+        }
+        double erle = db(echoEnergy, residualEnergy);
+        assertTrue("ERLE " + erle, erle > 20);
+        assertTrue(aec.getErle() > 20);
+        assertEquals(0, reference.getResyncCount());
+    }
+
+    @Test
+    public void testReferenceTimeline() {
+        EchoReference reference = new EchoReference();
+        float[] out = new float[FRAME];
+        assertEquals(0, reference.read(out, FRAME, BASE)); // Not started
+        reference.start(RATE);
+        float[] frame = new float[FRAME];
+        for (int n = 0; n < 10; n++) {
+            Arrays.fill(frame, n);
+            reference.write(frame, FRAME, time(n * FRAME));
+        }
+        assertEquals(FRAME, reference.read(out, FRAME, time(3 * FRAME)));
+        assertEquals(3, out[0], 0);
+        assertEquals(FRAME / 2, reference.read(out, FRAME, time(9 * FRAME + FRAME / 2))); // Partly written
+        assertEquals(9, out[0], 0);
+        assertEquals(0, out[FRAME - 1], 0);
+
+        Arrays.fill(frame, 10);
+        reference.write(frame, FRAME, time(20 * FRAME)); // Output restarted 100ms later
+        assertEquals(1, reference.getResyncCount());
+        reference.read(out, FRAME, time(20 * FRAME));
+        assertEquals(10, out[0], 0);
+        reference.stop();
+        assertEquals(0, reference.read(out, FRAME, time(20 * FRAME)));
+
+        reference.start(RATE); // Output clock 200ppm slow, followed by small steps
+        for (int n = 0; n < 3000; n++) {
+            reference.write(frame, FRAME, BASE + Math.round(n * 10000 * (1 + 200e-6)));
+        }
+        assertTrue(reference.getShiftCount() > 0);
+        assertEquals(1, reference.getResyncCount());
+        assertEquals(FRAME, reference.read(out, FRAME, BASE + Math.round(2990 * 10000 * (1 + 200e-6))));
+    }
+}
@@ -0,0 +1,76 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkFileTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkFileTest.class);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final int frames = 1000; // 10s of 48kHz stereo 16-bit
+        final int frameSize = 1920;
+        File file = mFolder.newFile("record.wav");
+        AudioSinkFile sink = new AudioSinkFile(file).setCapacity(frames); // Nothing dropped even on slow storage
+        sink.onStart(48000, 16, frameSize, 2);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.nativeOrder());
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < frameSize / 2; i++) {
+                buffer.putShort(i * 2, (short) (f * 31 + i));
+            }
+            sink.onData(buffer, 0, frameSize, f * 10000L);
+        }
+        sink.onStop();
+        sLogger.info("Throughput:{}MB/s maxEnqueue:{}us", String.format("%.1f", sink.getWriteThroughput()), sink.getMaxEnqueueLatency());
+        assertEquals(0, sink.getDroppedFrames());
+        assertEquals((long) frames * frameSize, sink.getBytesWritten());
+        assertEquals(44L + frames * frameSize, file.length());
+
+        // Header sizes patched, read it back with the file source
+        final int[] format = new int[3];
+        final ByteBuffer data = ByteBuffer.allocate(frames * frameSize).order(ByteOrder.nativeOrder());
+        AudioSourceFile source = new AudioSourceFile(file)
+                .setPacing(AudioSourceFile.Pacing.UNTHROTTLED)
+                .setOutput(new AudioSink() {
+                    @Override
+                    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+                        format[0] = sampleRate;
+                        format[1] = sampleBits;
+                        format[2] = numChannels;
+                    }
+                    @Override
+                    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+                        for (int i = 0; i < size; i += 2) {
+                            data.putShort(buffer.getShort(offset + i));
+                        }
+                    }
+                    @Override
+                    public void onStop() {
+                    }
+                });
+        assertTrue(source.start(8000, 8, 480, 1));
+        assertTrue(source.awaitEnd(5, TimeUnit.SECONDS));
+        source.stop();
+        assertArrayEquals(new int[] { 48000, 16, 2 }, format);
+        assertEquals(frames * frameSize, data.position());
+        for (int f = 0; f < frames; f += 97) {
+            assertEquals((short) (f * 31 + 5), data.getShort(f * frameSize + 10));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkFlacTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AudioSinkFlacTest.class);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        final int frames = 1000; // 10s of 48kHz stereo 16-bit, speech like bursts over a quiet floor
+        final int frameSize = 1920;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * frameSize).order(ByteOrder.nativeOrder());
+        Random random = new Random(1);
+        for (int i = 0; i < frames * 480; i++) {
+            double t = i / 48000.0;
+            double envelope = (t % 2 < 1) ? 0.3 : 0;
+            double x = envelope * (Math.sin(2 * Math.PI * 180 * t) + 0.4 * Math.sin(2 * Math.PI * 540 * t));
+            pcm.putShort((short) (x * 32767 + random.nextGaussian() * 4));
+            pcm.putShort((short) (x * 30000 + random.nextGaussian() * 4));
+        }
+
+        File file = mFolder.newFile("record.flac");
+        AudioSinkFlac sink = new AudioSinkFlac(file).setCapacity(frames);
+        sink.onStart(48000, 16, frameSize, 2);
+        for (int f = 0; f < frames; f++) {
+            sink.onData(pcm, f * frameSize, frameSize, f * 10000L);
+        }
+        sink.onStop();
+        sLogger.info("Ratio:{}", String.format("%.2f", sink.getCompressionRatio()));
+        assertEquals(0, sink.getDroppedFrames());
+        assertEquals(file.length(), sink.getBytesWritten());
+        assertTrue(sink.getCompressionRatio() > 3);
+
+        final ByteBuffer decoded = ByteBuffer.allocate(frames * frameSize).order(ByteOrder.nativeOrder());
+        final int[] format = new int[3];
+        AudioSourceFlac source = new AudioSourceFlac(file)
+                .setPacing(AudioSourceFile.Pacing.UNTHROTTLED)
+                .setOutput(new AudioSink() {
+                    @Override
+                    public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+                        format[0] = sampleRate;
+                        format[1] = sampleBits;
+                        format[2] = numChannels;
+                    }
+                    @Override
+                    public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+                        for (int i = 0; i < size; i += 2) {
+                            decoded.putShort(buffer.getShort(offset + i));
+                        }
+                    }
+                    @Override
+                    public void onStop() {
+                    }
+                });
+        assertTrue(source.start(0, 0, 0, 0));
+        assertTrue(source.awaitEnd(10, TimeUnit.SECONDS));
+        source.stop();
+        assertArrayEquals(new int[] { 48000, 16, 2 }, format);
+        assertEquals(frames * 480, source.getFramesDelivered());
+        assertEquals(pcm.capacity(), decoded.position());
+        assertArrayEquals(pcm.array(), decoded.array());
+    }
+}
@@ -0,0 +1,79 @@
+package com.rex.proto.kirin;
+
+import com.rex.proto.kirin.dsp.MelFilterBank;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkMelFeatureTest {
+
+    @Test
+    public void testPatches() {
+        final List<Long> timestamps = new ArrayList<>();
+        final int[] peakBand = new int[1];
+        AudioSinkMelFeature mel = new AudioSinkMelFeature(null)
+                .setCallback((patch, frames, bands, timestamp) -> {
+                    assertEquals(AudioSinkMelFeature.PATCH_FRAMES, frames);
+                    assertEquals(AudioSinkMelFeature.MEL_BANDS, bands);
+                    timestamps.add(timestamp);
+                    int last = (frames - 1) * bands;
+                    int max = 0;
+                    for (int b = 1; b < bands; b++) {
+                        if (patch[last + b] > patch[last + max]) max = b;
+                    }
+                    peakBand[0] = max;
+                });
+
+        final int sampleRate = 48000;
+        final int samplePerFrame = 480;
+        final int frameSize = samplePerFrame * 2 * 2;
+        final int seconds = 10;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.nativeOrder());
+        mel.onStart(sampleRate, 16, frameSize, 2);
+        for (int f = 0; f < seconds * sampleRate / samplePerFrame; f++) {
+            for (int i = 0; i < samplePerFrame; i++) {
+                double t = (double) (f * samplePerFrame + i) / sampleRate;
+                short s = (short) (Math.sin(2 * Math.PI * 1000 * t) * 16000);
+                buffer.putShort(i * 4, s);
+                buffer.putShort(i * 4 + 2, s);
+            }
+            mel.onData(buffer, 0, frameSize, 1000000L + f * 10000L);
+        }
+        double factor = mel.getRealTimeFactor();
+        mel.onStop();
+
+        // 998 frames of 10ms, first patch after 96 frames then every 48 frames
+        assertEquals(998, mel.getFrameCount());
+        assertEquals(19, timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertEquals(480000, timestamps.get(i) - timestamps.get(i - 1), 100);
+        }
+        assertEquals(1000000L, timestamps.get(0), 1000);
+
+        double melLow = MelFilterBank.hzToMel(125);
+        double melHigh = MelFilterBank.hzToMel(7500);
+        double center = MelFilterBank.melToHz(melLow + (melHigh - melLow) * (peakBand[0] + 1) / 65);
+        assertEquals(1000, center, 60);
+        assertTrue("Real time factor " + factor, factor < 0.5);
+    }
+
+    @Test
+    public void testFilterBankSparse() {
+        MelFilterBank bank = new MelFilterBank(64, 512, 16000, 125, 7500);
+        assertTrue(bank.weights() < 257 * 2);
+        float[] flat = new float[257];
+        Arrays.fill(flat, 1f);
+        float[] out = new float[64];
+        bank.apply(flat, out, 0);
+        for (int b = 0; b < 64; b++) {
+            assertTrue(out[b] > 0);
+        }
+    }
+}
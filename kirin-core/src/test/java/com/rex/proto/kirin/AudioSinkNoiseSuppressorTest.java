@@ -0,0 +1,92 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkNoiseSuppressorTest {
+
+    private static final int RATE = 48000;
+    private static final int FRAME = 480; // 10ms, not a multiple of the block
+    private static final int BLOCK = 256;
+    private static final long BASE = 1000000000L; // us
+
+    /** Keep the decoded samples and timestamps of the output */
+    private static class Collector implements AudioSink {
+        final List<float[]> mFrames = new ArrayList<>();
+        final List<Long> mTimestamps = new ArrayList<>();
+        int mFrameSize;
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            mFrameSize = frameSize;
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            float[] samples = new float[size / 4];
+            AudioBuffers.readSamples(buffer, offset, size, 32, samples);
+            mFrames.add(samples);
+            mTimestamps.add(timestamp);
+        }
+        @Override
+        public void onStop() {
+        }
+    }
+
+    @Test
+    public void testFramesAndLatency() {
+        // Without reduction the stage only delays, by the block and the overlap of the analysis frames
+        Collector out = new Collector();
+        AudioSinkNoiseSuppressor ns = new AudioSinkNoiseSuppressor(out).setReduction(0);
+        ns.onStart(RATE, 32, FRAME * 2 * 4, 2);
+        assertEquals(FRAME * 2 * 4, out.mFrameSize);
+        Random random = new Random(1);
+        int frames = RATE;
+        float[] input = new float[frames * 2];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) (0.2 * random.nextGaussian());
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME * 2 * 4).order(ByteOrder.nativeOrder());
+        float[] frame = new float[FRAME * 2];
+        for (int pos = 0; pos + FRAME <= frames; pos += FRAME) {
+            System.arraycopy(input, pos * 2, frame, 0, FRAME * 2);
+            int size = AudioBuffers.writeSamples(frame, FRAME * 2, 32, buffer, 0);
+            ns.onData(buffer, 0, size, BASE + pos * 1000000L / RATE);
+        }
+        ns.onStop();
+
+        int delay = 2 * BLOCK;
+        long latency = delay * 1000000L / RATE;
+        float maxError = 0;
+        for (int f = 0; f < out.mFrames.size(); f++) {
+            float[] samples = out.mFrames.get(f);
+            assertEquals(FRAME * 2, samples.length);
+            assertEquals(BASE + f * FRAME * 1000000L / RATE - latency, (long) out.mTimestamps.get(f));
+            for (int i = 0; i < samples.length; i++) {
+                int source = f * FRAME * 2 + i - delay * 2;
+                float expected = (source >= 0) ? input[source] : 0;
+                maxError = Math.max(maxError, Math.abs(samples[i] - expected));
+            }
+        }
+        assertTrue("Error " + maxError, maxError < 1e-4f);
+        assertEquals(frames / FRAME, out.mFrames.size());
+    }
+
+    @Test
+    public void testBypass24Bits() {
+        Collector out = new Collector();
+        AudioSinkNoiseSuppressor ns = new AudioSinkNoiseSuppressor(out);
+        ns.onStart(RATE, 24, FRAME * 3, 1);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME * 3);
+        ns.onData(buffer, 0, FRAME * 3, BASE);
+        assertEquals(BASE, (long) out.mTimestamps.get(0));
+        assertEquals(0, ns.getGain(), 0);
+    }
+}
@@ -0,0 +1,92 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkRingTest {
+
+    /** Log frames and signals in arrival order, slow enough for the producer to run ahead */
+    static class EventSink implements AudioSink {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> mThreads = Collections.synchronizedList(new ArrayList<String>());
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            mEvents.add("data:" + timestamp);
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        @Override
+        public void onStop() {
+        }
+        @Override
+        public void onGap(long timestamp) {
+            mEvents.add("gap:" + timestamp);
+            mThreads.add(Thread.currentThread().getName());
+        }
+        @Override
+        public void onResume(long timestamp) {
+            mEvents.add("resume:" + timestamp);
+            mThreads.add(Thread.currentThread().getName());
+        }
+    }
+
+    // Frames 0-2, gap at 3, resume at 6 with frames 6-7, gap at 8 right before stop
+    static void feed(AudioSink sink) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+        sink.onStart(48000, 16, 64, 2);
+        for (int i = 0; i < 3; i++) {
+            sink.onData(buffer, 0, 64, i);
+        }
+        sink.onGap(3);
+        sink.onResume(6);
+        for (int i = 6; i < 8; i++) {
+            sink.onData(buffer, 0, 64, i);
+        }
+        sink.onGap(8);
+        sink.onStop();
+    }
+
+    static final List<String> EXPECTED = Arrays.asList(
+            "data:0", "data:1", "data:2", "gap:3", "resume:6", "data:6", "data:7", "gap:8");
+
+    @Test
+    public void testSignalOrder() {
+        EventSink events = new EventSink();
+        feed(new AudioSinkRing(events).setCapacity(16).setOverflow(AudioRingBuffer.Overflow.BLOCK).setThreadName("Consumer"));
+        assertEquals(EXPECTED, events.mEvents);
+        assertEquals(Arrays.asList("Consumer", "Consumer", "Consumer"), events.mThreads);
+    }
+
+    @Test
+    public void testSignalSurvivesDrop() {
+        // Frames behind the gap get dropped by overflow, the gap itself still comes after the kept ones
+        EventSink events = new EventSink();
+        AudioSinkRing ring = new AudioSinkRing(events).setCapacity(2).setOverflow(AudioRingBuffer.Overflow.DROP_OLDEST);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64).order(ByteOrder.nativeOrder());
+        ring.onStart(48000, 16, 64, 2);
+        for (int i = 0; i < 20; i++) {
+            ring.onData(buffer, 0, 64, i);
+        }
+        ring.onGap(20);
+        ring.onStop();
+        assertTrue(ring.getDroppedFrames() > 0);
+        assertEquals("gap:20", events.mEvents.get(events.mEvents.size() - 1));
+        assertEquals(1, events.mThreads.size());
+    }
+}
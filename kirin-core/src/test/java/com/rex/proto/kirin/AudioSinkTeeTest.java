@@ -0,0 +1,187 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkTeeTest {
+
+    private static class CountSink implements AudioSink {
+        final AtomicInteger mStart = new AtomicInteger();
+        final AtomicInteger mData = new AtomicInteger();
+        final AtomicInteger mStop = new AtomicInteger();
+        final long mDelayMs;
+        volatile long mLastTimestamp = -1;
+        volatile boolean mOrdered = true;
+        CountSink(long delayMs) {
+            mDelayMs = delayMs;
+        }
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            mStart.incrementAndGet();
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            if (timestamp <= mLastTimestamp || buffer.getInt(offset) != (int) timestamp) {
+                mOrdered = false;
+            }
+            mLastTimestamp = timestamp;
+            mData.incrementAndGet();
+            if (mDelayMs > 0) {
+                try {
+                    Thread.sleep(mDelayMs);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        @Override
+        public void onStop() {
+            mStop.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testSlowBranchIndependent() {
+        final int frames = 200;
+        CountSink fast = new CountSink(0);
+        CountSink slow = new CountSink(5);
+        AudioSinkTee tee = new AudioSinkTee()
+                .addBranch(fast, 256, AudioRingBuffer.Overflow.BLOCK)
+                .addBranch(slow, 4, AudioRingBuffer.Overflow.DROP_NEWEST);
+        tee.onStart(48000, 16, 64, 2);
+
+        FramePool pool = new FramePool(64, frames);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            if ((i & 1) == 0) { // Mix both paths
+                AudioFrame frame = pool.acquire();
+                frame.buffer().putInt(0, i);
+                tee.onFrame(frame.set(64, i));
+                frame.release();
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+                buffer.putInt(0, i);
+                tee.onData(buffer, 0, 64, i);
+            }
+        }
+        long cost = System.nanoTime() - start;
+        tee.onStop();
+
+        assertTrue("Producer blocked by slow branch " + cost + "ns", cost < 500_000_000L);
+        assertEquals(1, fast.mStart.get());
+        assertEquals(1, fast.mStop.get());
+        assertEquals(frames, fast.mData.get());
+        assertTrue(fast.mOrdered);
+        assertEquals(0, tee.getBranches().get(0).getDropped());
+
+        AudioSinkTee.Branch branch = tee.getBranches().get(1);
+        assertTrue(slow.mData.get() < frames);
+        assertTrue(slow.mOrdered);
+        assertEquals(frames, slow.mData.get() + branch.getDropped());
+        assertTrue(branch.getMaxLatency() >= 5000);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    /** Read the frame with relative gets, the way sinks moving position and limit do */
+    private static class RelativeSink implements AudioSink {
+        volatile int mFrames;
+        volatile int mCorrupted;
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            buffer.limit(offset + size);
+            buffer.position(offset);
+            int count = 0;
+            while (buffer.hasRemaining()) {
+                if (buffer.getInt() != (int) timestamp * 1000 + count) {
+                    mCorrupted++;
+                }
+                count++;
+                Thread.yield();
+            }
+            if (count != size / 4) {
+                mCorrupted++;
+            }
+            mFrames++;
+        }
+        @Override
+        public void onStop() {
+        }
+    }
+
+    @Test
+    public void testBranchesOwnBufferView() {
+        final int frames = 100;
+        RelativeSink first = new RelativeSink();
+        RelativeSink second = new RelativeSink();
+        AudioSinkTee tee = new AudioSinkTee()
+                .addBranch(first, frames, AudioRingBuffer.Overflow.BLOCK)
+                .addBranch(second, frames, AudioRingBuffer.Overflow.BLOCK);
+        tee.onStart(48000, 16, 256, 2);
+        FramePool pool = new FramePool(256, 4);
+        for (int i = 0; i < frames; i++) {
+            AudioFrame frame = pool.acquire();
+            for (int pos = 0; pos < 256; pos += 4) {
+                frame.buffer().putInt(pos, i * 1000 + pos / 4);
+            }
+            tee.onFrame(frame.set(256, i));
+            frame.release();
+            while (pool.getOutstanding() >= 4) { // Frames come back once both branches read them
+                Thread.yield();
+            }
+        }
+        tee.onStop();
+
+        assertEquals(0, tee.getBranches().get(0).getErrors() + tee.getBranches().get(1).getErrors());
+        assertEquals(frames, first.mFrames);
+        assertEquals(frames, second.mFrames);
+        assertEquals(0, first.mCorrupted);
+        assertEquals(0, second.mCorrupted);
+    }
+
+    @Test
+    public void testBranchSurvivesException() {
+        CountSink counter = new CountSink(0) {
+            @Override
+            public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+                super.onData(buffer, offset, size, timestamp);
+                if (timestamp == 1) {
+                    throw new IllegalStateException("Sink failed");
+                }
+            }
+        };
+        AudioSinkTee tee = new AudioSinkTee().addBranch(counter, 8, AudioRingBuffer.Overflow.BLOCK);
+        tee.onStart(48000, 16, 64, 2);
+        ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 4; i++) {
+            buffer.putInt(0, i);
+            tee.onData(buffer, 0, 64, i);
+        }
+        tee.onStop();
+
+        assertEquals(4, counter.mData.get());
+        AudioSinkTee.Branch branch = tee.getBranches().get(0);
+        assertEquals(4, branch.getDelivered());
+        assertEquals(1, branch.getErrors());
+    }
+
+    @Test
+    public void testSignalOrder() {
+        AudioSinkRingTest.EventSink first = new AudioSinkRingTest.EventSink();
+        AudioSinkRingTest.EventSink second = new AudioSinkRingTest.EventSink();
+        AudioSinkRingTest.feed(new AudioSinkTee()
+                .addBranch(first, 16, AudioRingBuffer.Overflow.BLOCK)
+                .addBranch(second, 16, AudioRingBuffer.Overflow.BLOCK));
+        assertEquals(AudioSinkRingTest.EXPECTED, first.mEvents);
+        assertEquals(AudioSinkRingTest.EXPECTED, second.mEvents);
+    }
+}
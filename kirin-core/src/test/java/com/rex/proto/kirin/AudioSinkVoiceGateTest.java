@@ -0,0 +1,109 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AudioSinkVoiceGateTest {
+
+    private static class EventSink implements AudioSink {
+        final List<String> mEvents = new ArrayList<>();
+        final List<Long> mTimestamps = new ArrayList<>();
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            mEvents.add("start");
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            mTimestamps.add(timestamp);
+        }
+        @Override
+        public void onStop() {
+            mEvents.add("stop");
+        }
+        @Override
+        public void onGap(long timestamp) {
+            mEvents.add("gap@" + timestamp);
+        }
+        @Override
+        public void onResume(long timestamp) {
+            mEvents.add("resume@" + timestamp);
+        }
+    }
+
+    // 10ms mono frames at 16kHz, background noise at -70dBFS with a voiced burst from 1s to 1.5s
+    private static void feed(AudioSink sink, int frames) {
+        Random random = new Random(1);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(320).order(ByteOrder.nativeOrder());
+        int sample = 0;
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < 160; i++, sample++) {
+                double x = random.nextGaussian() * 0.0003;
+                if (sample >= 16000 && sample < 24000) { // Harmonics of 200Hz
+                    for (int h = 1; h <= 5; h++) {
+                        x += 0.1 / h * Math.sin(2 * Math.PI * 200 * h * sample / 16000);
+                    }
+                }
+                buffer.putShort(i * 2, (short) (x * 32767));
+            }
+            sink.onData(buffer, 0, 320, f * 10000L);
+        }
+    }
+
+    @Test
+    public void testGapAndResume() {
+        EventSink out = new EventSink();
+        AudioSinkVoiceGate gate = new AudioSinkVoiceGate(out).setHangover(200).setPreRoll(50);
+        gate.onStart(16000, 16, 320, 1);
+        feed(gate, 300);
+        gate.onStop();
+
+        // Closed on the first frame, opened at the onset minus 5 frames of pre-roll, closed after the hangover
+        // from the last voiced frame
+        assertEquals("start", out.mEvents.get(0));
+        assertEquals("gap@0", out.mEvents.get(1));
+        assertEquals("resume@950000", out.mEvents.get(2));
+        String gap = out.mEvents.get(3);
+        long closed = Long.parseLong(gap.substring(4));
+        assertTrue(gap, closed >= 1490000 + 200000 && closed <= 1500000 + 230000);
+        assertEquals("stop", out.mEvents.get(4));
+
+        // Delivered frames are contiguous from pre-roll to the close
+        assertEquals(950000L, (long) out.mTimestamps.get(0));
+        for (int i = 1; i < out.mTimestamps.size(); i++) {
+            assertEquals(out.mTimestamps.get(i - 1) + 10000L, (long) out.mTimestamps.get(i));
+        }
+        assertEquals(closed - 10000L, (long) out.mTimestamps.get(out.mTimestamps.size() - 1));
+        assertEquals(300, gate.getFrameCount());
+        assertEquals(300 - out.mTimestamps.size(), gate.getSkippedFrames());
+        assertTrue(gate.getSkippedRatio() > 0.7);
+    }
+
+    @Test
+    public void testStationaryNoiseAbsorbed() {
+        EventSink out = new EventSink();
+        AudioSinkVoiceGate gate = new AudioSinkVoiceGate(out);
+        gate.onStart(16000, 16, 320, 1);
+        Random random = new Random(2);
+        ByteBuffer buffer = ByteBuffer.allocate(320).order(ByteOrder.LITTLE_ENDIAN);
+        for (int f = 0; f < 500; f++) {
+            double gain = (f < 100) ? 0.0003 : 0.01; // Background gets louder and stays white
+            for (int i = 0; i < 160; i++) {
+                buffer.putShort(i * 2, (short) (random.nextGaussian() * gain * 32767));
+            }
+            gate.onData(buffer, 0, 320, f * 10000L);
+        }
+        gate.onStop();
+        assertFalse(gate.isOpen());
+        // Opens on the jump, closes again once the floor window only sees the louder noise
+        assertTrue("ratio " + gate.getSkippedRatio(), gate.getSkippedRatio() > 0.4);
+    }
+}
@@ -0,0 +1,169 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AudioSourceFileTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static class CollectSink implements AudioSink {
+        int mSampleRate;
+        int mFrameSize;
+        int mNumChannels;
+        final ByteBuffer mData = ByteBuffer.allocate(1 << 20);
+        final List<Long> mTimestamps = new ArrayList<>();
+        boolean mStopped;
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            mSampleRate = sampleRate;
+            mFrameSize = frameSize;
+            mNumChannels = numChannels;
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            for (int i = 0; i < size; i++) {
+                mData.put(buffer.get(offset + i));
+            }
+            mTimestamps.add(timestamp);
+        }
+        @Override
+        public void onStop() {
+            mStopped = true;
+        }
+    }
+
+    private static byte[] pcm(int samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (i * 7));
+        }
+        return buffer.array();
+    }
+
+    private File wave(String name, int sampleRate, int numChannels, byte[] data) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(58).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(50 + data.length).putInt(0x45564157);
+        header.putInt(0x20746d66).putInt(16).putShort((short) 1).putShort((short) numChannels)
+                .putInt(sampleRate).putInt(sampleRate * numChannels * 2).putShort((short) (numChannels * 2)).putShort((short) 16);
+        header.putInt(0x5453494c).putInt(1).put((byte) 0).put((byte) 0); // Odd sized LIST chunk with pad byte
+        header.putInt(0x61746164).putInt(data.length);
+        File file = mFolder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array(), 0, header.position());
+            out.write(data);
+        }
+        return file;
+    }
+
+    @Test
+    public void testWaveUnthrottled() throws Exception {
+        byte[] data = pcm(16000 * 2 + 100); // 1s stereo plus a partial frame
+        CollectSink sink = new CollectSink();
+        AudioSourceFile source = new AudioSourceFile(wave("test.wav", 16000, 2, data))
+                .setPacing(AudioSourceFile.Pacing.UNTHROTTLED)
+                .setOutput(sink);
+        long start = System.nanoTime();
+        assertTrue(source.start(48000, 16, 160, 1)); // WAV header wins over the arguments
+        assertTrue(source.awaitEnd(5, TimeUnit.SECONDS));
+        long cost = System.nanoTime() - start;
+        source.stop();
+
+        assertTrue("Throttled " + cost / 1000000 + "ms", cost < 500_000_000L);
+        assertEquals(16000, sink.mSampleRate);
+        assertEquals(2, sink.mNumChannels);
+        assertEquals(160 * 4, sink.mFrameSize);
+        assertTrue(sink.mStopped);
+        assertEquals(16050, source.getFramesDelivered());
+        assertEquals(data.length, sink.mData.position());
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(data[i], sink.mData.get(i));
+        }
+        assertEquals(101, sink.mTimestamps.size());
+        long base = sink.mTimestamps.get(0);
+        for (int i = 0; i < sink.mTimestamps.size(); i++) {
+            assertEquals(base + i * 10000L, (long) sink.mTimestamps.get(i));
+        }
+    }
+
+    @Test
+    public void testRawRealtime() throws Exception {
+        byte[] data = pcm(8000 * 3 / 10); // 300ms mono at 8kHz
+        File file = mFolder.newFile("test.pcm");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        CollectSink sink = new CollectSink();
+        AudioSourceFile source = new AudioSourceFile(file).setOutput(sink);
+        long start = System.nanoTime();
+        assertTrue(source.start(8000, 16, 80, 1));
+        assertTrue(source.awaitEnd(5, TimeUnit.SECONDS));
+        long cost = System.nanoTime() - start;
+        source.stop();
+
+        assertEquals(8000, sink.mSampleRate);
+        assertEquals(30, sink.mTimestamps.size());
+        assertTrue("Too fast " + cost / 1000000 + "ms", cost >= 280_000_000L); // Last frame starts at 290ms
+        assertEquals(data.length, sink.mData.position());
+    }
+
+    // fmt chunk of the tag, extended with the SubFormat GUID of subTag when not 0
+    private File wave(String name, int tag, int numChannels, int bits, int subTag) throws IOException {
+        int fmt = (subTag != 0) ? 40 : 16;
+        ByteBuffer header = ByteBuffer.allocate(20 + fmt + 8 + 64).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x46464952).putInt(header.capacity() - 8).putInt(0x45564157);
+        header.putInt(0x20746d66).putInt(fmt).putShort((short) tag).putShort((short) numChannels)
+                .putInt(16000).putInt(16000 * numChannels * bits / 8).putShort((short) (numChannels * bits / 8)).putShort((short) bits);
+        if (subTag != 0) {
+            header.putShort((short) 22).putShort((short) bits).putInt(0);
+            header.putShort((short) subTag).put(new byte[] {
+                    0, 0, 0, 0, 0x10, 0, (byte) 0x80, 0, 0, (byte) 0xAA, 0, 0x38, (byte) 0x9B, 0x71 });
+        }
+        header.putInt(0x61746164).putInt(64);
+        File file = mFolder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(header.array());
+        }
+        return file;
+    }
+
+    private static boolean starts(File file) {
+        AudioSourceFile source = new AudioSourceFile(file).setPacing(AudioSourceFile.Pacing.UNTHROTTLED);
+        boolean started = source.start(48000, 16, 160, 1);
+        if (started) {
+            source.stop();
+        }
+        return started;
+    }
+
+    @Test
+    public void testWaveFormats() throws Exception {
+        assertTrue(starts(wave("pcm8.wav", 1, 1, 8, 0)));
+        assertTrue(starts(wave("float.wav", 3, 2, 32, 0)));
+        assertTrue(starts(wave("extensible.wav", 0xFFFE, 2, 16, 1)));
+        assertTrue(starts(wave("extensibleFloat.wav", 0xFFFE, 2, 32, 3)));
+        assertFalse(starts(wave("pcm32.wav", 1, 2, 32, 0))); // int32, not the float the pipeline reads
+        assertFalse(starts(wave("pcm24.wav", 1, 2, 24, 0)));
+        assertFalse(starts(wave("float16.wav", 3, 2, 16, 0)));
+        assertFalse(starts(wave("extensible24.wav", 0xFFFE, 2, 24, 1)));
+        assertFalse(starts(wave("extensibleAlaw.wav", 0xFFFE, 1, 8, 6)));
+        assertFalse(starts(wave("extensibleShort.wav", 0xFFFE, 2, 16, 0)));
+        assertFalse(starts(wave("noChannels.wav", 1, 0, 16, 0)));
+        assertFalse(starts(wave("noBits.wav", 1, 2, 0, 0)));
+    }
+}
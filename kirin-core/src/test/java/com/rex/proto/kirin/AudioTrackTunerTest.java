@@ -0,0 +1,131 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AudioTrackTunerTest {
+
+    private static final String KEY = "48000/2/16";
+
+    /** Track that rounds sizes up to bursts and underruns while the buffer is below what the device needs */
+    private static class FakeTrack implements AudioTrackTuner.Track {
+        final int mBurst;
+        final int mCapacity;
+        final int mRequired;
+        int mSize;
+        int mUnderruns;
+        FakeTrack(int burst, int capacity, int required) {
+            mBurst = burst;
+            mCapacity = capacity;
+            mRequired = required;
+            mSize = capacity;
+        }
+        @Override
+        public int setBufferSizeInFrames(int frames) {
+            int bursts = (Math.max(1, frames) + mBurst - 1) / mBurst;
+            mSize = Math.min(mCapacity, bursts * mBurst);
+            return mSize;
+        }
+        @Override
+        public int getBufferSizeInFrames() {
+            return mSize;
+        }
+        @Override
+        public int getBufferCapacityInFrames() {
+            return mCapacity;
+        }
+        @Override
+        public int getUnderrunCount() {
+            return mUnderruns;
+        }
+        void play() {
+            if (mSize < mRequired) {
+                mUnderruns++;
+            }
+        }
+    }
+
+    private static class MapStore implements AudioTrackTuner.Store {
+        final Map<String, Integer> mValues = new HashMap<>();
+        int mSaves;
+        @Override
+        public int load(@NonNull String key, int defaultValue) {
+            Integer value = mValues.get(key);
+            return (value != null) ? value : defaultValue;
+        }
+        @Override
+        public void save(@NonNull String key, int value) {
+            mValues.put(key, value);
+            mSaves++;
+        }
+    }
+
+    private static void run(AudioTrackTuner tuner, FakeTrack track, int seconds) {
+        for (long ts = 0; ts < seconds * 1000000L; ts += 10000) { // 10ms frames
+            track.play();
+            tuner.update(ts);
+        }
+    }
+
+    @Test
+    public void testGrowUntilStable() {
+        FakeTrack track = new FakeTrack(96, 3840, 600);
+        MapStore store = new MapStore();
+        AudioTrackTuner tuner = new AudioTrackTuner(track, store, KEY);
+        assertEquals(96, tuner.start());
+        assertEquals(96, tuner.getBurstSize());
+        run(tuner, track, 5);
+        assertEquals(672, tuner.getBufferSize()); // Smallest burst multiple above 600
+        assertEquals(672, track.getBufferSizeInFrames());
+        assertEquals(6, tuner.getGrowCount());
+        assertEquals(672, store.load(KEY, 0));
+
+        int underruns = track.getUnderrunCount();
+        run(tuner, track, 5);
+        assertEquals(underruns, track.getUnderrunCount());
+        assertEquals(672, tuner.getBufferSize());
+    }
+
+    @Test
+    public void testStartFromLearned() {
+        MapStore store = new MapStore();
+        store.save(KEY, 672);
+        FakeTrack track = new FakeTrack(96, 3840, 600);
+        AudioTrackTuner tuner = new AudioTrackTuner(track, store, KEY);
+        assertEquals(672, tuner.start());
+        run(tuner, track, 5);
+        assertEquals(0, track.getUnderrunCount());
+        assertEquals(0, tuner.getGrowCount());
+        assertEquals(1, store.mSaves);
+    }
+
+    @Test
+    public void testCapacityLimit() {
+        FakeTrack track = new FakeTrack(192, 960, 5000); // Underruns whatever the size
+        MapStore store = new MapStore();
+        AudioTrackTuner tuner = new AudioTrackTuner(track, store, KEY);
+        tuner.start();
+        run(tuner, track, 5);
+        assertEquals(960, tuner.getBufferSize());
+        assertEquals(4, tuner.getGrowCount());
+
+        AudioTrackTuner next = new AudioTrackTuner(new FakeTrack(192, 768, 5000), store, KEY);
+        assertEquals(768, next.start()); // Learned size clamped to a smaller capacity
+    }
+
+    @Test
+    public void testCheckInterval() {
+        FakeTrack track = new FakeTrack(96, 3840, 600);
+        AudioTrackTuner tuner = new AudioTrackTuner(track, new MapStore(), KEY)
+                .setCheckInterval(500000);
+        tuner.start();
+        run(tuner, track, 1); // Checks at 0 and 500ms only
+        assertEquals(2, tuner.getGrowCount());
+    }
+}
@@ -0,0 +1,124 @@
+package com.rex.proto.kirin;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockDriftEstimatorTest {
+
+    private static final int RATE = 48000;
+    private static final int FRAME = 480; // 10ms
+
+    /** Capture frames every 10ms and the playback head every 100ms, with timestamp jitter */
+    private static class Clocks {
+        final Random mRandom = new Random(1);
+        final double mSourceRate;
+        final double mSinkRate;
+        final long mJitter;
+        long mTime;         // us
+        long mSourceFrames;
+        Clocks(double sourcePpm, double sinkPpm, long jitter) {
+            mSourceRate = RATE * (1 + sourcePpm * 1e-6);
+            mSinkRate = RATE * (1 + sinkPpm * 1e-6);
+            mJitter = jitter;
+        }
+        long jitter() {
+            return (mJitter > 0) ? (long) (mRandom.nextGaussian() * mJitter) : 0;
+        }
+        void run(ClockDriftEstimator estimator, double seconds, long sinkOffset) {
+            long end = mTime + (long) (seconds * 1000000);
+            while (mTime < end) {
+                estimator.addSource(mSourceFrames, mTime + jitter());
+                mSourceFrames += FRAME;
+                long next = Math.round(mSourceFrames * 1e6 / mSourceRate);
+                if (mTime / 100000 != next / 100000) {
+                    estimator.addSink(Math.round(mTime * mSinkRate / 1e6) + sinkOffset, mTime + jitter());
+                }
+                mTime = next;
+            }
+        }
+    }
+
+    private static double expectedPpm(double sourcePpm, double sinkPpm) {
+        return ((1 + sinkPpm * 1e-6) / (1 + sourcePpm * 1e-6) - 1) * 1e6;
+    }
+
+    @Test
+    public void testDriftEstimate() {
+        ClockDriftEstimator estimator = new ClockDriftEstimator(RATE);
+        Clocks clocks = new Clocks(80, -40, 300);
+        clocks.run(estimator, 5, 0);
+        assertFalse(estimator.isLocked());
+        assertEquals(1.0, estimator.getDrift(), 0);
+        clocks.run(estimator, 115, 0);
+        assertTrue(estimator.isLocked());
+        assertEquals(expectedPpm(80, -40), estimator.getDriftPpm(), 3);
+        assertEquals(RATE * (1 + 80e-6), estimator.getSourceRate(), 0.2);
+        assertEquals(RATE * (1 - 40e-6), estimator.getSinkRate(), 0.2);
+        assertEquals(0, estimator.getOutlierCount());
+    }
+
+    @Test
+    public void testFileSource() {
+        // AudioSourceFile timestamps are the file position on the system clock, exact nominal rate
+        ClockDriftEstimator estimator = new ClockDriftEstimator(RATE);
+        Clocks clocks = new Clocks(0, 50, 0);
+        clocks.run(estimator, 60, 0);
+        assertEquals(50, estimator.getDriftPpm(), 1);
+    }
+
+    @Test
+    public void testOutlierAndRestart() {
+        ClockDriftEstimator estimator = new ClockDriftEstimator(RATE);
+        Clocks clocks = new Clocks(30, 0, 200);
+        clocks.run(estimator, 60, 0);
+        double ppm = estimator.getDriftPpm();
+        assertEquals(expectedPpm(30, 0), ppm, 3);
+
+        long time = clocks.mTime + 500000;
+        long frames = Math.round(time * clocks.mSinkRate / 1e6);
+        assertFalse(estimator.addSink(frames + RATE / 20, time)); // One late timestamp, 50ms off
+        assertEquals(1, estimator.getOutlierCount());
+        assertEquals(ppm, estimator.getDriftPpm(), 0);
+
+        clocks.run(estimator, 60, -RATE); // Head stalled for a second, the fit starts over
+        assertEquals(1, estimator.getRestartCount());
+        assertTrue(estimator.isLocked());
+        assertEquals(expectedPpm(30, 0), estimator.getDriftPpm(), 5);
+    }
+
+    @Test
+    public void testOccupancyHeldForHours() {
+        // Capture 150ppm fast and playback 100ppm slow, resampled into a buffer held at 40ms
+        ClockDriftEstimator estimator = new ClockDriftEstimator(RATE);
+        Random random = new Random(2);
+        double sourceRate = RATE * (1 + 150e-6);
+        double sinkRate = RATE * (1 - 100e-6);
+        double target = RATE * 0.040;
+        double occupancy = target;
+        double produced = 0;
+        double consumed = 0;
+        double worst = 0;
+        long sourceFrames = 0;
+        for (long time = 0; time < 3 * 3600 * 1000000L; time += 10000) {
+            long capture = Math.round(time * sourceRate / 1e6);
+            int frames = (int) (capture - sourceFrames);
+            estimator.addSource(sourceFrames, time + (long) (random.nextGaussian() * 300));
+            sourceFrames = capture;
+            estimator.addSink(Math.round(consumed), time + (long) (random.nextGaussian() * 300));
+            double measured = occupancy + random.nextGaussian() * FRAME; // Playback head moves in bursts
+            double ratio = estimator.getRatio(measured - target);
+            produced = frames * ratio;
+            consumed += sinkRate / 100;
+            occupancy += produced - sinkRate / 100;
+            if (time > 600 * 1000000L) {
+                worst = Math.max(worst, Math.abs(occupancy - target));
+            }
+        }
+        assertTrue(estimator.isLocked());
+        assertEquals(expectedPpm(150, -100), estimator.getDriftPpm(), 3);
+        assertTrue("Occupancy error " + worst + " frames", worst < RATE * 0.002);
+    }
+}
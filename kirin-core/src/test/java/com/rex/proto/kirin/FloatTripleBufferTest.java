@@ -0,0 +1,110 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class FloatTripleBufferTest {
+
+    @Test
+    public void testLatestWins() {
+        FloatTripleBuffer buffer = new FloatTripleBuffer();
+        assertFalse(buffer.update());
+        buffer.publish(new float[] { 1, 2 }, 2);
+        buffer.publish(new float[] { 3, 4 }, 2);
+        assertTrue(buffer.update());
+        assertArrayEquals(new float[] { 3, 4 }, buffer.front(), 0);
+        assertFalse(buffer.update());
+        assertEquals(2, buffer.getPublishedCount());
+        assertEquals(1, buffer.getCoalescedCount());
+    }
+
+    @Test
+    public void testNoSharedArray() {
+        FloatTripleBuffer buffer = new FloatTripleBuffer();
+        for (int i = 0; i < 10; i++) {
+            float[] back = buffer.back(4);
+            buffer.publish();
+            assertTrue(buffer.update());
+            assertSame(back, buffer.front());
+            assertNotSame(buffer.front(), buffer.back(4));
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        final FloatTripleBuffer buffer = new FloatTripleBuffer();
+        final int total = 200000;
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= total; i++) {
+                float[] back = buffer.back(8);
+                for (int k = 0; k < back.length; k++) {
+                    back[k] = i;
+                }
+                buffer.publish();
+            }
+        });
+        producer.start();
+        float last = 0;
+        while (last < total) {
+            if (buffer.update()) {
+                float[] front = buffer.front();
+                for (float v : front) {
+                    assertEquals("Torn array", front[0], v, 0);
+                }
+                assertTrue(front[0] >= last);
+                last = front[0];
+            }
+        }
+        producer.join();
+    }
+
+    @Test
+    public void testVisualizationAllocationFree() {
+        final FloatTripleBuffer wav = new FloatTripleBuffer();
+        final FloatTripleBuffer fft = new FloatTripleBuffer();
+        AudioSinkAnalyzer analyzer = new AudioSinkAnalyzer(new AudioSink() {
+            @Override
+            public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            }
+            @Override
+            public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            }
+            @Override
+            public void onStop() {
+            }
+        }).setCallback((fmt, data) -> {
+            FloatTripleBuffer target = (fmt == AudioFxCallback.FFT) ? fft : wav;
+            target.publish(data, data.length);
+            target.update(); // Consumer side, same thread is enough to cover the recycling
+        });
+
+        final int frameSize = 480 * 2 * 2;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < frameSize / 2; i++) {
+            buffer.putShort(i * 2, (short) (Math.sin(i * 0.1) * 10000));
+        }
+        analyzer.onStart(48000, 16, frameSize, 2);
+        for (int i = 0; i < 500; i++) { // Warm up, allocate all recycled arrays
+            analyzer.onData(buffer, 0, frameSize, i);
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 6000; i++) { // 60 seconds
+            analyzer.onData(buffer, 0, frameSize, i);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        analyzer.onStop();
+
+        assertTrue(fft.getPublishedCount() > 1000);
+        assertTrue("Allocated " + allocated + " bytes", allocated < 1024);
+    }
+}
@@ -0,0 +1,126 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class FramePoolTest {
+
+    @Test
+    public void testRecycle() {
+        FramePool pool = new FramePool(16, 2);
+        AudioFrame frame = pool.acquire();
+        assertNotNull(frame);
+        assertEquals(1, frame.refCount());
+        assertEquals(16, frame.capacity());
+        assertTrue(frame.buffer().isDirect());
+        assertEquals(ByteOrder.nativeOrder(), frame.buffer().order());
+
+        frame.set(8, 1234);
+        frame.retain();
+        frame.release();
+        assertEquals(1, pool.getOutstanding());
+        frame.release();
+        assertEquals(0, pool.getOutstanding());
+        assertSame(frame, pool.acquire());
+    }
+
+    @Test
+    public void testExhausted() {
+        FramePool pool = new FramePool(16, 2);
+        AudioFrame a = pool.acquire();
+        AudioFrame b = pool.acquire();
+        assertNotNull(a);
+        assertNotNull(b);
+        assertNull(pool.acquire());
+        assertEquals(1, pool.getExhaustedCount());
+        b.release();
+        assertSame(b, pool.acquire());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleRelease() {
+        FramePool pool = new FramePool(16, 1);
+        AudioFrame frame = pool.acquire();
+        frame.release();
+        frame.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRetainReleased() {
+        FramePool pool = new FramePool(16, 1);
+        AudioFrame frame = pool.acquire();
+        frame.release();
+        frame.retain();
+    }
+
+    @Test
+    public void testLeakDetection() {
+        FramePool pool = new FramePool(16, 4).setLeakDetection(true);
+        AudioFrame kept = pool.acquire();
+        AudioFrame done = pool.acquire();
+        done.release();
+        assertEquals(1, pool.checkLeaks());
+        kept.release();
+        assertEquals(0, pool.checkLeaks());
+    }
+
+    @Test
+    public void testOnFrameFallback() {
+        final int[] received = new int[2];
+        AudioSink sink = new AudioSink() {
+            @Override
+            public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+            }
+            @Override
+            public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+                received[0] = size;
+                received[1] = (int) timestamp;
+            }
+            @Override
+            public void onStop() {
+            }
+        };
+        FramePool pool = new FramePool(16, 1);
+        AudioFrame frame = pool.acquire();
+        new AudioSink.Wrapper(sink).onFrame(frame.set(12, 42));
+        frame.release();
+        assertEquals(12, received[0]);
+        assertEquals(42, received[1]);
+    }
+
+    @Test
+    public void testSamplesDecodedOnce() {
+        FramePool pool = new FramePool(16, 1);
+        AudioFrame frame = pool.acquire();
+        frame.buffer().putShort(0, (short) 16384).putShort(2, (short) -16384).putShort(4, (short) 8192).putShort(6, (short) 0);
+        frame.buffer().position(3); // Owners may move the position, decode uses absolute offsets
+        frame.setFormat(16, 2).set(8, 0);
+        assertEquals(4, frame.sampleCount());
+        assertEquals(2, frame.frameCount());
+        float[] samples = frame.samples();
+        assertArrayEquals(new float[] { 0.5f, -0.5f, 0.25f, 0 }, Arrays.copyOf(samples, 4), 0);
+        assertSame(samples, frame.samples());
+        float[] mono = frame.mono();
+        assertEquals(0, mono[0], 0);
+        assertEquals(0.125f, mono[1], 0);
+
+        frame.buffer().putShort(0, (short) -32768);
+        frame.set(4, 10); // New content
+        assertEquals(-1f, frame.samples()[0], 0);
+        assertEquals(-0.75f, frame.mono()[0], 0);
+        frame.release();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSamplesWithoutFormat() {
+        FramePool pool = new FramePool(16, 1);
+        pool.acquire().set(8, 0).samples();
+    }
+}
@@ -0,0 +1,150 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+
+    private static final int RATE = 48000;
+    private static final int FRAME = 480; // 10ms
+    private static final int TARGET = 1920; // 40ms
+
+    /** Track that plays queued frames at its own clock */
+    private static class FakeTrack implements JitterBuffer.Output {
+        final int mCapacity;
+        int mQueued;
+        int mStarved;
+        double mPending;
+        FakeTrack(int capacity) {
+            mCapacity = capacity;
+        }
+        @Override
+        public int write(@NonNull ByteBuffer buffer, int size) {
+            int frames = Math.min(size / 2, mCapacity - mQueued);
+            buffer.position(buffer.position() + frames * 2);
+            mQueued += frames;
+            return frames * 2;
+        }
+        @Override
+        public int getQueuedFrames() {
+            return mQueued;
+        }
+        void play(double frames) {
+            mPending += frames;
+            int n = (int) mPending;
+            mPending -= n;
+            if (n > mQueued) {
+                mStarved++;
+            }
+            mQueued = Math.max(0, mQueued - n);
+        }
+    }
+
+    // 200ms speech then 200ms silence
+    private static ByteBuffer frame(int index) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(FRAME * 2).order(ByteOrder.nativeOrder());
+        boolean speech = (index / 20) % 2 == 0;
+        for (int i = 0; i < FRAME; i++) {
+            double v = speech ? 0.3 * Math.sin(2 * Math.PI * 440 * (index * FRAME + i) / RATE) : 0;
+            buffer.putShort(i * 2, (short) Math.round(v * 32767));
+        }
+        return buffer;
+    }
+
+    private static int run(JitterBuffer jitter, FakeTrack track, double clockRatio, int frames) {
+        boolean playing = jitter.isPrimed();
+        for (int i = 0; i < frames; i++) {
+            if (jitter.push(frame(i), 0, FRAME * 2, track)) {
+                playing = true;
+            }
+            if (playing) {
+                track.play(FRAME * clockRatio);
+            }
+        }
+        return jitter.getLatencyFrames();
+    }
+
+    @Test
+    public void testPrime() {
+        JitterBuffer jitter = new JitterBuffer(RATE, 16, 1, TARGET, 4 * TARGET);
+        FakeTrack track = new FakeTrack(4800);
+        for (int i = 0; i < 4; i++) {
+            assertFalse(jitter.push(frame(i), 0, FRAME * 2, track));
+            assertEquals(0, track.getQueuedFrames());
+        }
+        assertTrue(jitter.push(frame(4), 0, FRAME * 2, track)); // This frame waits the target
+        assertTrue(jitter.isPrimed());
+        assertEquals(TARGET, jitter.getLatencyFrames());
+        assertEquals(TARGET + FRAME, track.getQueuedFrames());
+        assertEquals(0, jitter.getFillFrames());
+        assertFalse(jitter.push(frame(5), 0, FRAME * 2, track));
+    }
+
+    @Test
+    public void testFastOutputClock() {
+        JitterBuffer jitter = new JitterBuffer(RATE, 16, 1, TARGET, 4 * TARGET);
+        FakeTrack track = new FakeTrack(4800);
+        int latency = run(jitter, track, 1.01, 2000); // 20s, drift would drain 200ms
+        assertEquals(TARGET, latency, 240 + FRAME);
+        assertTrue(jitter.getInsertedFrames() > 0);
+        assertEquals(0, jitter.getDroppedFrames());
+        assertEquals(0, track.mStarved);
+    }
+
+    @Test
+    public void testSlowOutputClock() {
+        JitterBuffer jitter = new JitterBuffer(RATE, 16, 1, TARGET, 4 * TARGET);
+        FakeTrack track = new FakeTrack(48000);
+        int latency = run(jitter, track, 0.99, 2000); // 20s, drift would add 200ms
+        assertEquals(TARGET, latency, 240 + FRAME);
+        assertTrue(jitter.getDroppedFrames() > 0);
+        assertEquals(0, jitter.getInsertedFrames());
+    }
+
+    @Test
+    public void testBurstCatchUp() {
+        JitterBuffer jitter = new JitterBuffer(RATE, 16, 1, TARGET, 20 * TARGET);
+        FakeTrack track = new FakeTrack(48000);
+        run(jitter, track, 1.0, 100);
+        // Capture stalls for 200ms and then delivers the backlog at once, playback underruns meanwhile
+        for (int i = 0; i < 20; i++) {
+            track.play(FRAME);
+        }
+        jitter.push(frame(100), 0, FRAME * 2, track);
+        assertTrue(track.mStarved > 0);
+        assertEquals(1, jitter.getUnderrunCount());
+        for (int i = 101; i < 120; i++) {
+            jitter.push(frame(i), 0, FRAME * 2, track);
+        }
+        assertTrue(jitter.getLatencyFrames() > TARGET);
+        int latency = run(jitter, track, 1.0, 400);
+        assertEquals(TARGET, latency, 240 + FRAME);
+        assertTrue(jitter.getDroppedFrames() > 0);
+    }
+
+    @Test
+    public void testUnderrunAndOverrun() {
+        JitterBuffer jitter = new JitterBuffer(RATE, 16, 1, FRAME, 4 * FRAME);
+        FakeTrack track = new FakeTrack(2 * FRAME);
+        jitter.push(frame(0), 0, FRAME * 2, track);
+        jitter.push(frame(1), 0, FRAME * 2, track);
+        track.play(2 * FRAME);
+        jitter.push(frame(2), 0, FRAME * 2, track); // Found everything played
+        assertEquals(1, jitter.getUnderrunCount());
+        for (int i = 3; i < 12; i++) { // Track stuck full
+            jitter.push(frame(i), 0, FRAME * 2, track);
+        }
+        assertEquals(4, jitter.getFillFrames() / FRAME);
+        assertTrue(jitter.getOverrunCount() > 0);
+        assertEquals(4 * FRAME, jitter.getOverrunFrames());
+        jitter.reset();
+        assertFalse(jitter.isPrimed());
+        assertEquals(0, jitter.getFillFrames());
+    }
+}
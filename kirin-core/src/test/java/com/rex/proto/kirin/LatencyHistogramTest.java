@@ -0,0 +1,141 @@
+package com.rex.proto.kirin;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketPrecision() {
+        for (long value = 0; value < (1L << 31); value = value * 5 / 4 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestOf(index);
+            assertTrue("value " + value + " highest " + highest, highest >= value);
+            assertTrue("value " + value + " highest " + highest, highest - value <= value / 16);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestOf(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram("uniform");
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000, snapshot.getMean());
+        assertEquals(5000, snapshot.getP50(), 5000 / 16.0);
+        assertEquals(9900, snapshot.getP99(), 9900 / 16.0);
+        assertEquals(9990, snapshot.getP999(), 10);
+        assertTrue(snapshot.getP999() <= snapshot.getMax());
+        assertEquals(1, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void testOutliers() {
+        LatencyHistogram histogram = new LatencyHistogram("outliers");
+        histogram.record(-20); // Clock skew
+        for (int i = 0; i < 998; i++) {
+            histogram.record(20000);
+        }
+        histogram.record(180000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(0.1));
+        assertEquals(20000, snapshot.getP99(), 20000 / 16.0);
+        assertEquals(20000, snapshot.getP999(), 20000 / 16.0);
+        assertEquals(180000, snapshot.getPercentile(100));
+        assertEquals(180000, snapshot.getMax());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        final int threads = 4;
+        final int records = 200000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < records; i++) {
+                    histogram.record(100 * (id + 1) + (i % 7));
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        long total = 0;
+        for (Thread worker : workers) {
+            while (worker.isAlive()) { // Interval snapshots while recording must not lose or double count
+                total += histogram.snapshotAndReset().getCount();
+            }
+            worker.join();
+        }
+        total += histogram.snapshotAndReset().getCount();
+        assertEquals((long) threads * records, total);
+        assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testTraceChain() {
+        LatencyTracer tracer = new LatencyTracer();
+        tracer.stage("head"); // Report in source order
+        CountSink terminal = new CountSink();
+        AudioSink chain = tracer.trace("head", new AudioSink.Wrapper(tracer.trace("tail", terminal)));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(960).order(ByteOrder.nativeOrder());
+        chain.onStart(48000, 16, 960, 1);
+        for (int i = 0; i < 100; i++) {
+            chain.onData(buffer, 0, 960, LatencyTracer.now() - 5000); // Captured 5ms ago
+        }
+        FramePool pool = new FramePool(960, 2);
+        AudioFrame frame = pool.acquire();
+        chain.onFrame(frame.set(960, LatencyTracer.now() - 5000));
+        frame.release();
+        chain.onStop();
+
+        assertEquals(101, terminal.mCount);
+        List<LatencyHistogram.Snapshot> snapshots = tracer.snapshot();
+        assertEquals(2, snapshots.size());
+        assertEquals("head", snapshots.get(0).getName());
+        assertEquals("tail", snapshots.get(1).getName());
+        for (LatencyHistogram.Snapshot snapshot : snapshots) {
+            assertEquals(101, snapshot.getCount());
+            assertTrue(snapshot.toString(), snapshot.getP50() >= 5000 && snapshot.getP50() < 10000);
+        }
+        assertSame(tracer.stage("head"), tracer.stage("head"));
+        tracer.reset();
+        assertEquals(0, tracer.snapshot().get(0).getCount());
+    }
+
+    private static class CountSink implements AudioSink {
+        int mCount;
+        @Override
+        public void onStart(int sampleRate, int sampleBits, int frameSize, int numChannels) {
+        }
+        @Override
+        public void onData(@NonNull ByteBuffer buffer, int offset, int size, long timestamp) {
+            mCount++;
+        }
+        @Override
+        public void onStop() {
+        }
+    }
+}
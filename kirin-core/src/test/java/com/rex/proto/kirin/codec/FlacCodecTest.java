@@ -0,0 +1,131 @@
+package com.rex.proto.kirin.codec;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FlacCodecTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(FlacCodecTest.class);
+
+    // Tonal content with noise, stereo channels correlated like a real capture
+    private static int[][] signal(int channels, int bits, int length, long seed) {
+        Random random = new Random(seed);
+        int[][] samples = new int[channels][length];
+        double full = (1 << (bits - 1)) - 1;
+        for (int i = 0; i < length; i++) {
+            double t = (double) i / 48000;
+            double common = 0.3 * Math.sin(2 * Math.PI * 220 * t) + 0.15 * Math.sin(2 * Math.PI * 1375 * t)
+                    + 0.05 * Math.sin(2 * Math.PI * 5120 * t) * Math.sin(2 * Math.PI * 3 * t);
+            for (int c = 0; c < channels; c++) {
+                double x = common * (1 - 0.1 * c) + 0.002 * random.nextGaussian();
+                samples[c][i] = (int) Math.round(Math.max(-1, Math.min(1, x)) * full);
+            }
+        }
+        return samples;
+    }
+
+    // Encode the whole signal, decode it back and compare
+    private static int roundTrip(int[][] samples, int bits, int blockSize) {
+        int channels = samples.length;
+        int length = samples[0].length;
+        FlacEncoder encoder = new FlacEncoder(48000, bits, channels, blockSize);
+        byte[] stream = new byte[FlacEncoder.HEADER_SIZE + (length / blockSize + 1) * encoder.getMaxFrameSize()];
+        int pos = encoder.writeHeader(stream, 0);
+        int[][] block = new int[channels][blockSize];
+        for (int start = 0; start < length; start += blockSize) {
+            int count = Math.min(blockSize, length - start);
+            for (int c = 0; c < channels; c++) {
+                System.arraycopy(samples[c], start, block[c], 0, count);
+            }
+            pos += encoder.encode(block, count, stream, pos);
+        }
+        encoder.writeHeader(stream, 0); // Final statistics
+
+        FlacDecoder decoder = new FlacDecoder();
+        ByteBuffer buffer = ByteBuffer.wrap(stream, 0, pos);
+        int offset = decoder.readHeader(buffer, 0, pos);
+        assertEquals(FlacEncoder.HEADER_SIZE, offset);
+        assertEquals(48000, decoder.getSampleRate());
+        assertEquals(bits, decoder.getBitsPerSample());
+        assertEquals(channels, decoder.getChannels());
+        assertEquals(length, decoder.getTotalSamples());
+        int[][] out = new int[channels][decoder.getMaxBlockSize()];
+        int decoded = 0;
+        while (offset < pos) {
+            offset += decoder.decode(buffer, offset, pos, out);
+            for (int c = 0; c < channels; c++) {
+                for (int i = 0; i < decoder.getBlockSize(); i++) {
+                    if (out[c][i] != samples[c][decoded + i]) {
+                        fail("Mismatch channel " + c + " sample " + (decoded + i));
+                    }
+                }
+            }
+            decoded += decoder.getBlockSize();
+        }
+        assertEquals(length, decoded);
+        return pos;
+    }
+
+    @Test
+    public void testLossless() {
+        roundTrip(signal(2, 16, 48000 + 123, 1), 16, 4096);    // Short last frame
+        roundTrip(signal(1, 16, 10000, 2), 16, 1152);
+        roundTrip(signal(2, 8, 9000, 3), 8, 576);
+        roundTrip(signal(2, 24, 20000, 4), 24, 4096);
+        roundTrip(signal(3, 12, 5000, 5), 12, 1000);
+
+        int[][] edge = new int[2][8192];
+        for (int i = 0; i < 4096; i++) { // Silence then full scale square on one side
+            edge[1][4096 + i] = ((i / 7) % 2 == 0) ? 32767 : -32768;
+        }
+        roundTrip(edge, 16, 4096);
+
+        int[][] noise = new int[2][8192];
+        Random random = new Random(6);
+        for (int i = 0; i < 8192; i++) { // Incompressible, falls back to verbatim
+            noise[0][i] = (short) random.nextInt();
+            noise[1][i] = (short) random.nextInt();
+        }
+        int size = roundTrip(noise, 16, 4096);
+        assertTrue(size < 8192 * 4 + 200);
+    }
+
+    @Test
+    public void testCompression() { // Throughput is measured by FlacBenchmark in kirin-bench
+        int length = 48000 * 20; // 20s stereo
+        int[][] samples = signal(2, 16, length, 7);
+        int blockSize = FlacEncoder.DEFAULT_BLOCK_SIZE;
+        FlacEncoder encoder = new FlacEncoder(48000, 16, 2, blockSize);
+        byte[] stream = new byte[(length / blockSize + 1) * encoder.getMaxFrameSize()];
+        int[][] block = new int[2][blockSize];
+
+        int pos = 0;
+        for (int s = 0; s < length; s += blockSize) {
+            int count = Math.min(blockSize, length - s);
+            System.arraycopy(samples[0], s, block[0], 0, count);
+            System.arraycopy(samples[1], s, block[1], 0, count);
+            pos += encoder.encode(block, count, stream, pos);
+        }
+
+        FlacDecoder decoder = new FlacDecoder();
+        byte[] header = new byte[FlacEncoder.HEADER_SIZE];
+        encoder.writeHeader(header, 0);
+        decoder.readHeader(ByteBuffer.wrap(header), 0, header.length);
+        ByteBuffer buffer = ByteBuffer.wrap(stream, 0, pos);
+        int frames = 0;
+        for (int offset = 0; offset < pos; frames++) {
+            offset += decoder.decode(buffer, offset, pos, block);
+        }
+        assertEquals((length + blockSize - 1) / blockSize, frames);
+
+        double ratio = length * 4.0 / pos;
+        sLogger.info("Ratio:{}", String.format("%.2f", ratio));
+        assertTrue("Ratio " + ratio, ratio > 1.6); // Noise floor of 0.002 alone needs 8 bits per sample
+    }
+}
@@ -0,0 +1,112 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.rex.proto.kirin.dsp.TestSignals.*;
+import static org.junit.Assert.*;
+
+public class AutoGainTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(AutoGainTest.class);
+
+    private static final int FRAME = 480;
+    private static final int LOOK_AHEAD = 240;
+
+    @Test
+    public void testDelay() {
+        AutoGain agc = new AutoGain(RATE, 2, LOOK_AHEAD).setMaxGain(0).setTargetLevel(0);
+        float[] in = new float[FRAME * 2];
+        float[] out = new float[FRAME * 2];
+        in[10 * 2] = 0.5f;
+        in[10 * 2 + 1] = -0.25f;
+        agc.process(in, out, FRAME);
+        assertEquals(0.5f, out[(10 + LOOK_AHEAD) * 2], 1e-6f);
+        assertEquals(-0.25f, out[(10 + LOOK_AHEAD) * 2 + 1], 1e-6f);
+        assertEquals(0, out[10 * 2], 0);
+    }
+
+    @Test
+    public void testReachTarget() {
+        // A soft talker is raised and a loud one lowered to the target
+        for (float level : new float[] { 0.05f, 2f }) {
+            float[] input = talker(1, 10, level);
+            AutoGain agc = new AutoGain(RATE, 1, LOOK_AHEAD);
+            float[] output = process(input, FRAME, frame -> agc.process(frame, frame, FRAME));
+            double in = rmsDb(input, 6 * RATE, 10 * RATE);
+            double out = rmsDb(output, 6 * RATE, 10 * RATE);
+            sLogger.info("Input {}dBFS output {}dBFS gain {}dB", String.format("%.1f", in), String.format("%.1f", out),
+                    String.format("%.1f", agc.getGain()));
+            assertEquals(-18, out, 1.5);
+        }
+    }
+
+    @Test
+    public void testLimitPeaks() {
+        // Sudden loud claps over a soft talker, the look-ahead lowers the gain before them without clipping
+        float[] input = talker(2, 8, 0.02f);
+        for (int second = 4; second < 8; second++) {
+            for (int i = 0; i < RATE / 50; i++) {
+                input[second * RATE + i] += (float) (0.8 * Math.sin(2 * Math.PI * 1000 * i / RATE) * Math.exp(-i / (RATE * 0.005)));
+            }
+        }
+        AutoGain agc = new AutoGain(RATE, 1, LOOK_AHEAD);
+        float[] output = process(input, FRAME, frame -> agc.process(frame, frame, FRAME));
+        float ceiling = (float) Math.pow(10, -1 / 20.0);
+        float peak = 0;
+        int near = 0; // Samples at the ceiling, a hard clip would flatten runs of them
+        for (float y : output) {
+            peak = Math.max(peak, Math.abs(y));
+            if (Math.abs(y) > 0.999f * ceiling) {
+                near++;
+            }
+        }
+        sLogger.info("Peak {} near ceiling {} limited {}", peak, near, agc.getLimitedCount());
+        assertTrue("Peak " + peak, peak <= ceiling);
+        assertTrue("Near " + near, near <= 8);
+        assertTrue(agc.getLimitedCount() > 0);
+    }
+
+    @Test
+    public void testGateHoldsGain() {
+        // Faint background between talk is not pulled up to the target
+        float[] input = talker(3, 10, 0.1f);
+        Random random = new Random(4);
+        for (int i = 6 * RATE; i < input.length; i++) {
+            input[i] = (float) (0.0003 * random.nextGaussian());
+        }
+        AutoGain agc = new AutoGain(RATE, 1, LOOK_AHEAD);
+        float[] talk = Arrays.copyOf(input, 6 * RATE);
+        process(talk, FRAME, frame -> agc.process(frame, frame, FRAME));
+        float talkGain = agc.getGain();
+        float[] output = process(Arrays.copyOfRange(input, 6 * RATE, input.length), FRAME,
+                frame -> agc.process(frame, frame, FRAME));
+        double background = rmsDb(output, 3 * RATE, 4 * RATE);
+        sLogger.info("Gain talk {}dB background {}dB, background {}dBFS", String.format("%.1f", talkGain),
+                String.format("%.1f", agc.getGain()), String.format("%.1f", background));
+        assertEquals(talkGain, agc.getGain(), 1);
+        assertTrue("Background " + background, background < -45);
+    }
+
+    @Test
+    public void testThroughput() {
+        AutoGain agc = new AutoGain(RATE, 2, LOOK_AHEAD);
+        float[] frame = talker(5, 0.02, 0.1f);
+        int frames = frame.length / 2;
+        int count = RATE * 10 / frames; // 10s of stereo
+        for (int i = 0; i < count; i++) { // Warm up
+            agc.process(frame, frame, frames);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            agc.process(frame, frame, frames);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        sLogger.info("Throughput {}x real time", String.format("%.0f", 10 / elapsed));
+        assertTrue("Elapsed " + elapsed, elapsed < 10);
+    }
+}
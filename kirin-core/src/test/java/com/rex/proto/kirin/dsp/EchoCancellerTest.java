@@ -0,0 +1,138 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static com.rex.proto.kirin.dsp.TestSignals.*;
+import static org.junit.Assert.*;
+
+public class EchoCancellerTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(EchoCancellerTest.class);
+
+    private static final int BLOCK = 256;
+
+    // Room like echo path, 10ms bulk delay then decaying reflections over 40ms, about -12dB
+    private static float[] echoPath() {
+        Random random = new Random(7);
+        float[] taps = new float[RATE / 20];
+        int delay = RATE / 100;
+        taps[delay] = 0.25f;
+        for (int i = delay + 1; i < taps.length; i++) {
+            taps[i] = (float) (0.01 * random.nextGaussian() * Math.exp(-(i - delay) / (RATE * 0.01)));
+        }
+        return taps;
+    }
+
+    private static float[] convolve(float[] signal, float[] taps) {
+        float[] out = new float[signal.length];
+        for (int i = 0; i < signal.length; i++) {
+            double sum = 0;
+            for (int k = 0; k < taps.length && k <= i; k++) {
+                sum += taps[k] * signal[i - k];
+            }
+            out[i] = (float) sum;
+        }
+        return out;
+    }
+
+    @Test
+    public void testErle() {
+        float[] far = talker(1, 8, 0.3f);
+        float[] echo = convolve(far, echoPath());
+        Random noise = new Random(3);
+        EchoCanceller aec = new EchoCanceller(BLOCK, 16, 1);
+        float[] farBlock = new float[BLOCK];
+        float[] nearBlock = new float[BLOCK];
+        float[] out = new float[BLOCK];
+        double echoEnergy = 0;
+        double residualEnergy = 0;
+        for (int pos = 0; pos + BLOCK <= far.length; pos += BLOCK) {
+            System.arraycopy(far, pos, farBlock, 0, BLOCK);
+            for (int i = 0; i < BLOCK; i++) {
+                nearBlock[i] = echo[pos + i] + (float) (1e-4 * noise.nextGaussian());
+            }
+            aec.process(farBlock, nearBlock, out);
+            if (pos >= far.length - 2 * RATE) {
+                for (int i = 0; i < BLOCK; i++) {
+                    echoEnergy += echo[pos + i] * echo[pos + i];
+                    residualEnergy += out[i] * out[i];
+                }
+            }
+        }
+        double erle = db(echoEnergy, residualEnergy);
+        sLogger.info("ERLE {}dB reported {}dB", String.format("%.1f", erle), String.format("%.1f", aec.getErle()));
+        assertTrue("ERLE " + erle, erle > 20);
+        assertEquals(erle, aec.getErle(), 6);
+        assertEquals(0, aec.getDoubleTalkCount());
+    }
+
+    @Test
+    public void testDoubleTalk() {
+        float[] far = talker(1, 10, 0.3f);
+        float[] echo = convolve(far, echoPath());
+        float[] local = talker(2, 10, 0.6f);
+        EchoCanceller aec = new EchoCanceller(BLOCK, 16, 2);
+        float[] farBlock = new float[BLOCK];
+        float[] nearBlock = new float[BLOCK * 2];
+        float[] out = new float[BLOCK * 2];
+        int talkStart = 6 * RATE;
+        double localEnergy = 0;
+        double errorEnergy = 0;
+        for (int pos = 0; pos + BLOCK <= far.length; pos += BLOCK) {
+            System.arraycopy(far, pos, farBlock, 0, BLOCK);
+            for (int i = 0; i < BLOCK; i++) {
+                float talk = (pos >= talkStart) ? local[pos + i] : 0;
+                nearBlock[2 * i] = echo[pos + i] + talk;
+                nearBlock[2 * i + 1] = 0.5f * echo[pos + i] + talk;
+            }
+            aec.process(farBlock, nearBlock, out);
+            if (pos >= talkStart) { // Near end talker kept, echo still removed
+                for (int i = 0; i < BLOCK; i++) {
+                    for (int c = 0; c < 2; c++) {
+                        float talk = local[pos + i];
+                        localEnergy += talk * talk;
+                        errorEnergy += (out[2 * i + c] - talk) * (out[2 * i + c] - talk);
+                    }
+                }
+            }
+        }
+        double db = db(localEnergy, errorEnergy);
+        sLogger.info("Near end to residual {}dB double talk blocks {}", String.format("%.1f", db), aec.getDoubleTalkCount());
+        assertTrue(aec.getDoubleTalkCount() > 0);
+        assertTrue("Near end to residual " + db, db > 20);
+    }
+
+    @Test
+    public void testThroughput() {
+        // 48kHz stereo with a 170ms tail, each 10ms of audio must take well under 10ms
+        int partitions = 32;
+        EchoCanceller aec = new EchoCanceller(BLOCK, partitions, 2);
+        float[] far = talker(1, 1, 0.3f);
+        float[] farBlock = new float[BLOCK];
+        float[] nearBlock = new float[BLOCK * 2];
+        float[] out = new float[BLOCK * 2];
+        int blocks = 10 * RATE / BLOCK;
+        long begin = 0;
+        for (int n = -blocks; n < blocks; n++) { // First half warms up the JIT
+            if (n == 0) {
+                begin = System.nanoTime();
+            }
+            int pos = ((n + blocks) * BLOCK) % (far.length - BLOCK);
+            System.arraycopy(far, pos, farBlock, 0, BLOCK);
+            for (int i = 0; i < BLOCK; i++) {
+                nearBlock[2 * i] = 0.1f * farBlock[i];
+                nearBlock[2 * i + 1] = 0.1f * farBlock[i];
+            }
+            aec.process(farBlock, nearBlock, out);
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        double audio = (double) blocks * BLOCK / RATE;
+        sLogger.info("Throughput stereo partitions:{} {}us per 10ms ({}x real time)", partitions,
+                String.format("%.0f", seconds / audio * 10000), String.format("%.0f", audio / seconds));
+        assertTrue(audio / seconds > 2);
+    }
+}
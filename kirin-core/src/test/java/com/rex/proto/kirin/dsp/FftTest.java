@@ -0,0 +1,70 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FftTest {
+
+    @Test
+    public void testForwardMatchDft() {
+        int n = 64;
+        float[] in = new float[n];
+        Random random = new Random(1);
+        for (int i = 0; i < n; i++) {
+            in[i] = random.nextFloat() * 2 - 1;
+        }
+        Fft fft = new Fft(n);
+        float[] re = new float[fft.bins()];
+        float[] im = new float[fft.bins()];
+        fft.forward(in, re, im);
+        for (int k = 0; k <= n / 2; k++) {
+            double sumRe = 0, sumIm = 0;
+            for (int i = 0; i < n; i++) {
+                sumRe += in[i] * Math.cos(2 * Math.PI * k * i / n);
+                sumIm -= in[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            assertEquals("re[" + k + "]", sumRe, re[k], 1e-3);
+            assertEquals("im[" + k + "]", sumIm, im[k], 1e-3);
+        }
+    }
+
+    @Test
+    public void testInverse() {
+        int n = 512;
+        float[] in = new float[n];
+        Random random = new Random(2);
+        for (int i = 0; i < n; i++) {
+            in[i] = random.nextFloat() * 2 - 1;
+        }
+        Fft fft = new Fft(n);
+        float[] re = new float[fft.bins()];
+        float[] im = new float[fft.bins()];
+        float[] out = new float[n];
+        fft.forward(in, re, im);
+        fft.inverse(re, im, out);
+        assertArrayEquals(in, out, 1e-5f);
+    }
+
+    @Test
+    public void testMagnitude() {
+        int n = 1024;
+        float[] in = new float[n];
+        for (int i = 0; i < n; i++) {
+            in[i] = (float) Math.sin(2 * Math.PI * 100 * i / n);
+        }
+        Fft fft = new Fft(n);
+        float[] mag = new float[fft.bins()];
+        fft.magnitude(in, mag);
+        assertEquals(n / 2f, mag[100], 1e-2f);
+        assertEquals(0f, mag[99], 1e-2f);
+        assertEquals(0f, mag[0], 1e-2f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new Fft(1000);
+    }
+}
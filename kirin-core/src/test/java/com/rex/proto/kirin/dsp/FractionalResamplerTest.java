@@ -0,0 +1,76 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FractionalResamplerTest {
+
+    private static final int RATE = 48000;
+    private static final int BLOCK = 480;
+
+    // Largest difference between the output and the tone sampled at the output times, after the filter settled
+    private static double toneError(double ratio, double hz, int channels) {
+        FractionalResampler resampler = new FractionalResampler(channels).setRatio(ratio);
+        float[] in = new float[BLOCK * channels];
+        float[] out = new float[resampler.maxOutput(BLOCK) * channels];
+        double w = 2 * Math.PI * hz / RATE;
+        double step = 1 / ratio;
+        double delay = resampler.delay();
+        double error = 0;
+        long produced = 0;
+        for (int pos = 0; pos < RATE; pos += BLOCK) {
+            for (int i = 0; i < BLOCK; i++) {
+                for (int c = 0; c < channels; c++) {
+                    in[i * channels + c] = (float) (0.5 * Math.sin(w * (pos + i) + c));
+                }
+            }
+            int n = resampler.process(in, BLOCK, out);
+            for (int j = 0; j < n; j++, produced++) {
+                double t = produced * step - delay; // Output time in input samples
+                if (t < 2 * delay) {
+                    continue;
+                }
+                for (int c = 0; c < channels; c++) {
+                    error = Math.max(error, Math.abs(out[j * channels + c] - 0.5 * Math.sin(w * t + c)));
+                }
+            }
+        }
+        return error;
+    }
+
+    @Test
+    public void testUnityRatio() {
+        assertTrue(toneError(1.0, 1000, 1) < 1e-3);
+    }
+
+    @Test
+    public void testDriftRatio() {
+        double[] ratios = { 1.0003, 0.99995, 1.01 };
+        for (double ratio : ratios) {
+            assertTrue(ratio + " 1kHz", toneError(ratio, 1000, 2) < 1e-3);
+            assertTrue(ratio + " 10kHz", toneError(ratio, 10000, 2) < 5e-3);
+        }
+    }
+
+    @Test
+    public void testOutputCount() {
+        FractionalResampler resampler = new FractionalResampler(1);
+        float[] in = new float[BLOCK];
+        float[] out = new float[resampler.maxOutput(BLOCK)];
+        double expected = 0;
+        long produced = 0;
+        for (int block = 0; block < 20000; block++) {
+            double ratio = 1 + 200e-6 * Math.sin(block / 500.0); // Ratio moving on every call
+            resampler.setRatio(ratio);
+            expected += BLOCK * ratio;
+            produced += resampler.process(in, BLOCK, out);
+        }
+        assertEquals(expected, produced, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRatioLimit() {
+        new FractionalResampler(1).setRatio(1.5);
+    }
+}
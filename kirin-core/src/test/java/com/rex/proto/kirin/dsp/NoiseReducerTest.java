@@ -0,0 +1,149 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+
+import static com.rex.proto.kirin.dsp.TestSignals.*;
+import static org.junit.Assert.*;
+
+public class NoiseReducerTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(NoiseReducerTest.class);
+
+    private static final int BLOCK = 256;
+
+    // Voiced speech like bursts, harmonics of a gliding pitch, half a second on and off
+    private static float[] voice(double seconds, float level) {
+        float[] signal = new float[(int) (RATE * seconds)];
+        double phase = 0;
+        for (int i = 0; i < signal.length; i++) {
+            double t = (double) i / RATE;
+            phase += 2 * Math.PI * (140 + 30 * Math.sin(2 * Math.PI * 1.3 * t)) / RATE;
+            boolean on = ((int) (t * 2) % 2) == 1;
+            if (!on) {
+                continue;
+            }
+            double sum = 0;
+            for (int h = 1; h <= 12; h++) {
+                sum += Math.sin(h * phase) / h;
+            }
+            signal[i] = (float) (level * sum);
+        }
+        return signal;
+    }
+
+    private static float[] noise(long seed, double seconds, float level) {
+        Random random = new Random(seed);
+        float[] signal = new float[(int) (RATE * seconds)];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (float) (level * random.nextGaussian());
+        }
+        return signal;
+    }
+
+    @Test
+    public void testReconstruction() {
+        NoiseReducer ns = new NoiseReducer(RATE, BLOCK, 2).setReduction(0);
+        Random random = new Random(1);
+        float[] in = new float[BLOCK * 2];
+        float[] out = new float[BLOCK * 2];
+        float[] previous = new float[BLOCK * 2];
+        float maxError = 0;
+        for (int b = 0; b < 50; b++) {
+            for (int i = 0; i < in.length; i++) {
+                in[i] = (float) (0.3 * random.nextGaussian());
+            }
+            ns.process(in, out);
+            if (b > 0) {
+                for (int i = 0; i < out.length; i++) {
+                    maxError = Math.max(maxError, Math.abs(out[i] - previous[i]));
+                }
+            }
+            System.arraycopy(in, 0, previous, 0, in.length);
+        }
+        sLogger.info("Reconstruction error {}", maxError);
+        assertTrue("Error " + maxError, maxError < 1e-5f);
+    }
+
+    @Test
+    public void testSuppressNoise() {
+        double seconds = 8;
+        float[] clean = voice(seconds, 0.1f);
+        float[] noise = noise(3, seconds, 0.01f);
+        float[] input = new float[clean.length];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = clean[i] + noise[i];
+        }
+        NoiseReducer ns = new NoiseReducer(RATE, BLOCK, 1);
+        float[] output = process(input, BLOCK, block -> ns.process(block, block));
+
+        // Judge from 2s on, output lags one block
+        double noiseIn = 0, noiseOut = 0, speechIn = 0, speechOut = 0, residual = 0, inputError = 0;
+        for (int second = 2; second < seconds; second++) {
+            for (int half = 0; half < 2; half++) { // Voice in the second half
+                int f = second * RATE + half * RATE / 2 + RATE / 20; // Skip the edges of the bursts
+                int t = f + RATE / 2 - RATE / 10;
+                if (half == 1) {
+                    speechIn += energy(input, f, t);
+                    speechOut += energy(output, f + BLOCK, t + BLOCK);
+                    for (int i = f; i < t; i++) {
+                        residual += Math.pow(output[i + BLOCK] - clean[i], 2);
+                        inputError += Math.pow(noise[i], 2);
+                    }
+                } else {
+                    noiseIn += energy(input, f, t);
+                    noiseOut += energy(output, f + BLOCK, t + BLOCK);
+                }
+            }
+        }
+        double attenuation = db(noiseIn, noiseOut);
+        double speechLoss = db(speechIn, speechOut);
+        double improvement = db(inputError, residual);
+        sLogger.info("Noise attenuation {}dB speech loss {}dB SNR improvement {}dB gain {}dB",
+                String.format("%.1f", attenuation), String.format("%.2f", speechLoss),
+                String.format("%.1f", improvement), String.format("%.1f", ns.getGain()));
+        assertTrue("Attenuation " + attenuation, attenuation > 12);
+        assertTrue("Speech loss " + speechLoss, Math.abs(speechLoss) < 1);
+        assertTrue("Improvement " + improvement, improvement > 6);
+    }
+
+    @Test
+    public void testFollowNoiseLevel() {
+        // Noise steps up 10dB, the estimate follows within the minimum window
+        float[] input = noise(5, 6, 0.003f);
+        for (int i = 3 * RATE; i < input.length; i++) {
+            input[i] *= 3.16f;
+        }
+        NoiseReducer ns = new NoiseReducer(RATE, BLOCK, 1);
+        float[] output = process(input, BLOCK, block -> ns.process(block, block));
+        double before = db(energy(input, 2 * RATE, 3 * RATE), energy(output, 2 * RATE, 3 * RATE));
+        double after = db(energy(input, 5 * RATE, 6 * RATE), energy(output, 5 * RATE, 6 * RATE));
+        sLogger.info("Attenuation before {}dB after {}dB", String.format("%.1f", before), String.format("%.1f", after));
+        assertTrue("Before " + before, before > 12);
+        assertTrue("After " + after, after > 12);
+    }
+
+    @Test
+    public void testThroughput() {
+        NoiseReducer ns = new NoiseReducer(RATE, BLOCK, 2);
+        float[] block = new float[BLOCK * 2];
+        Random random = new Random(9);
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (float) (0.1 * random.nextGaussian());
+        }
+        int blocks = RATE * 10 / BLOCK; // 10s of stereo
+        for (int i = 0; i < blocks; i++) { // Warm up
+            ns.process(block, block);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < blocks; i++) {
+            ns.process(block, block);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        sLogger.info("Throughput {}x real time", String.format("%.0f", 10 / elapsed));
+        assertTrue("Elapsed " + elapsed, elapsed < 10);
+    }
+}
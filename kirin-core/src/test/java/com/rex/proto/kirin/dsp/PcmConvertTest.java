@@ -0,0 +1,92 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+public class PcmConvertTest {
+
+    @Test
+    public void testS16RoundTrip() {
+        short[] in = { 0, 1, -1, 16384, -16384, Short.MAX_VALUE, Short.MIN_VALUE };
+        float[] floats = new float[in.length];
+        PcmConvert.s16ToFloat(in, 0, floats, 0, in.length);
+        assertEquals(0.5f, floats[3], 0);
+        assertEquals(-1f, floats[6], 0);
+        short[] out = new short[in.length];
+        PcmConvert.floatToS16(floats, 0, out, 0, in.length);
+        assertArrayEquals(in, out);
+
+        PcmConvert.floatToS16(new float[] { 1.5f, -2f }, 0, out, 0, 2); // Clipped
+        assertEquals(Short.MAX_VALUE, out[0]);
+        assertEquals(Short.MIN_VALUE, out[1]);
+    }
+
+    @Test
+    public void testU8RoundTrip() {
+        byte[] in = { 0, (byte) 64, (byte) 128, (byte) 192, (byte) 255 };
+        float[] floats = new float[in.length];
+        PcmConvert.u8ToFloat(in, 0, floats, 0, in.length);
+        assertArrayEquals(new float[] { -1f, -0.5f, 0, 0.5f, 127 / 128f }, floats, 0);
+        byte[] out = new byte[in.length];
+        PcmConvert.floatToU8(floats, 0, out, 0, in.length);
+        assertArrayEquals(in, out);
+    }
+
+    @Test
+    public void testExplicitByteOrder() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8).order(ByteOrder.BIG_ENDIAN);
+        buffer.putShort(2, (short) 16384).putShort(4, (short) -8192);
+        ShortBuffer view = PcmConvert.shortView(buffer, 2, 4, ByteOrder.BIG_ENDIAN);
+        float[] out = new float[2];
+        assertEquals(2, PcmConvert.s16ToFloat(view, out, 0, new short[1])); // Two bulk copies
+        assertArrayEquals(new float[] { 0.5f, -0.25f }, out, 0);
+        assertEquals(0, buffer.position());
+
+        ShortBuffer little = PcmConvert.shortView(buffer, 0, 8, ByteOrder.LITTLE_ENDIAN);
+        PcmConvert.floatToS16(new float[] { 0.5f }, 0, 1, little, new short[4]);
+        assertEquals(0x0040, buffer.getShort(0)); // 0x4000 little endian read back big endian
+
+        ByteBuffer floats = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        floats.putFloat(0, 0.75f).putFloat(4, -0.125f);
+        float[] copied = new float[2];
+        PcmConvert.f32ToFloat(PcmConvert.floatView(floats, 0, 8, ByteOrder.LITTLE_ENDIAN), copied, 0);
+        assertArrayEquals(new float[] { 0.75f, -0.125f }, copied, 0);
+    }
+
+    @Test
+    public void testPlanar() {
+        for (int channels = 1; channels <= 3; channels++) {
+            int frames = 5;
+            float[] in = new float[frames * channels];
+            for (int i = 0; i < in.length; i++) {
+                in[i] = i;
+            }
+            float[][] planes = new float[channels][frames];
+            PcmConvert.deinterleave(in, channels, frames, planes);
+            for (int c = 0; c < channels; c++) {
+                assertEquals(c + channels, planes[c][1], 0);
+            }
+            float[] out = new float[in.length];
+            PcmConvert.interleave(planes, channels, frames, out);
+            assertArrayEquals(in, out, 0);
+        }
+    }
+
+    @Test
+    public void testDownmix() {
+        float[] stereo = { 1, 0, 0.5f, -0.5f, -1, -1 };
+        float[] mono = new float[3];
+        PcmConvert.downmix(stereo, 2, 3, mono);
+        assertArrayEquals(new float[] { 0.5f, 0, -1 }, mono, 0);
+
+        float[] three = { 0.3f, 0.3f, 0.3f, 1, 2, 3 };
+        PcmConvert.downmix(three, 3, 2, three); // In place
+        assertEquals(0.3f, three[0], 1e-6);
+        assertEquals(2f, three[1], 1e-6);
+    }
+}
@@ -0,0 +1,129 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseResamplerTest {
+
+    private static final Logger sLogger = LoggerFactory.getLogger(PolyphaseResamplerTest.class);
+
+    // Feed signal in 10ms blocks, return RMS of output after the filter settled
+    private static double run(PolyphaseResampler resampler, float[] signal) {
+        int inRate = resampler.inRate();
+        int block = inRate / 100;
+        float[] out = new float[resampler.maxOutput(block) + 1];
+        float[] in = new float[block];
+        double sum = 0;
+        long count = 0;
+        long produced = 0;
+        int skip = resampler.outRate() / 10; // 100ms settle
+        for (int pos = 0; pos + block <= signal.length; pos += block) {
+            System.arraycopy(signal, pos, in, 0, block);
+            int n = resampler.process(in, block, out);
+            for (int i = 0; i < n; i++, produced++) {
+                if (produced >= skip) {
+                    sum += out[i] * out[i];
+                    count++;
+                }
+            }
+        }
+        return Math.sqrt(sum / count);
+    }
+
+    private static float[] tone(int rate, double hz, double seconds) {
+        float[] signal = new float[(int) (rate * seconds)];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * hz * i / rate));
+        }
+        return signal;
+    }
+
+    private static float[] sweep(int rate, double fromHz, double toHz, double seconds) {
+        float[] signal = new float[(int) (rate * seconds)];
+        double phase = 0;
+        for (int i = 0; i < signal.length; i++) {
+            double hz = fromHz + (toHz - fromHz) * i / signal.length;
+            phase += 2 * Math.PI * hz / rate;
+            signal[i] = (float) (0.5 * Math.sin(phase));
+        }
+        return signal;
+    }
+
+    @Test
+    public void testPassband() {
+        int[] targets = { 16000, 22050, 44100 };
+        for (int target : targets) {
+            for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+                PolyphaseResampler resampler = new PolyphaseResampler(48000, target, 1, quality);
+                double rms = run(resampler, tone(48000, 1000, 1));
+                double db = 20 * Math.log10(rms / (0.5 / Math.sqrt(2)));
+                assertEquals(target + " " + quality, 0, db, 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void testAliasingSweep() {
+        double[] limits = { -45, -65, -85 }; // LOW, MEDIUM, HIGH
+        int[] targets = { 16000, 22050, 44100 };
+        for (int target : targets) {
+            for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+                PolyphaseResampler resampler = new PolyphaseResampler(48000, target, 1, quality);
+                // Everything above the new Nyquist plus a little guard band must fold back attenuated
+                double rms = run(resampler, sweep(48000, target / 2.0 * 1.05, 23500, 2));
+                double db = 20 * Math.log10(rms / (0.5 / Math.sqrt(2)));
+                sLogger.info("Aliasing 48000->{} {} {}dB", target, quality, String.format("%.1f", db));
+                assertTrue(target + " " + quality + " " + db + "dB", db < limits[quality.ordinal()]);
+            }
+        }
+    }
+
+    @Test
+    public void testStereoChannelsIndependent() {
+        PolyphaseResampler resampler = new PolyphaseResampler(48000, 16000, 2, PolyphaseResampler.Quality.MEDIUM);
+        float[] in = new float[480 * 2];
+        for (int i = 0; i < 480; i++) {
+            in[i * 2] = 0.5f;
+            in[i * 2 + 1] = -0.25f;
+        }
+        float[] out = new float[resampler.maxOutput(480) * 2];
+        int n = 0;
+        for (int k = 0; k < 10; k++) {
+            n = resampler.process(in, 480, out);
+        }
+        assertEquals(160, n);
+        assertEquals(0.5f, out[(n - 1) * 2], 1e-3f);
+        assertEquals(-0.25f, out[(n - 1) * 2 + 1], 1e-3f);
+    }
+
+    @Test
+    public void testThroughput() {
+        int[] targets = { 16000, 22050, 44100 };
+        float[] in = new float[480 * 2];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (float) Math.sin(i * 0.01);
+        }
+        for (int target : targets) {
+            for (PolyphaseResampler.Quality quality : PolyphaseResampler.Quality.values()) {
+                PolyphaseResampler resampler = new PolyphaseResampler(48000, target, 2, quality);
+                float[] out = new float[resampler.maxOutput(480) * 2 + 2];
+                int frames = 3000; // 30s stereo
+                for (int i = 0; i < 200; i++) { // Warm up
+                    resampler.process(in, 480, out);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < frames; i++) {
+                    resampler.process(in, 480, out);
+                }
+                long cost = System.nanoTime() - start;
+                double rate = frames * 480.0 * 2 / (cost / 1e9);
+                sLogger.info("Throughput 48000->{} {} taps:{} {} Msamples/s ({}x real time)", target, quality,
+                        resampler.taps(), String.format("%.1f", rate / 1e6), String.format("%.0f", rate / 96000));
+                assertTrue(quality + " slower than real time", rate > 96000);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.rex.proto.kirin.dsp;
+
+import java.util.Random;
+
+/**
+ * Test signals and measures shared by the DSP tests, 48kHz mono
+ */
+public final class TestSignals {
+
+    public static final int RATE = 48000;
+
+    /** One block processed in place */
+    public interface Block {
+        void process(float[] block);
+    }
+
+    private TestSignals() {
+    }
+
+    /** Speech like, low passed noise with a syllable rate envelope */
+    public static float[] talker(long seed, double seconds, float level) {
+        Random random = new Random(seed);
+        float[] signal = new float[(int) (RATE * seconds)];
+        float lp = 0;
+        for (int i = 0; i < signal.length; i++) {
+            lp = 0.8f * lp + 0.2f * (float) random.nextGaussian();
+            double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 4 * i / RATE + seed);
+            signal[i] = (float) (level * envelope * lp);
+        }
+        return signal;
+    }
+
+    /** Run the input through the processor in whole blocks, a trailing partial block stays silent */
+    public static float[] process(float[] input, int size, Block processor) {
+        float[] output = new float[input.length];
+        float[] block = new float[size];
+        for (int pos = 0; pos + size <= input.length; pos += size) {
+            System.arraycopy(input, pos, block, 0, size);
+            processor.process(block);
+            System.arraycopy(block, 0, output, pos, size);
+        }
+        return output;
+    }
+
+    public static double energy(float[] signal, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += signal[i] * signal[i];
+        }
+        return sum;
+    }
+
+    public static double db(double a, double b) {
+        return 10 * Math.log10(a / b);
+    }
+
+    /** Mean power in dBFS */
+    public static double rmsDb(float[] signal, int from, int to) {
+        return db(energy(signal, from, to), to - from);
+    }
+}
@@ -0,0 +1,54 @@
+package com.rex.proto.kirin.dsp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaterfallMapperTest {
+
+    private static final int BLACK = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    @Test
+    public void testRowsCoverAllBins() {
+        int bins = 513;
+        WaterfallMapper mapper = new WaterfallMapper(256, bins, 128, 60);
+        assertEquals(1, mapper.getRowStart(255)); // Bottom row starts above DC
+        assertEquals(bins, mapper.getRowEnd(0));  // Top row ends with nyquist
+        int next = 1;
+        for (int row = 255; row >= 0; row--) {
+            assertTrue(mapper.getRowStart(row) <= next);
+            assertTrue(mapper.getRowEnd(row) > mapper.getRowStart(row));
+            next = Math.max(next, mapper.getRowEnd(row));
+        }
+        assertEquals(bins, next);
+        // Log scale, the bottom half of the rows shows far fewer bins than the top half
+        assertTrue(mapper.getRowStart(128) < bins / 8);
+    }
+
+    @Test
+    public void testToneLightsItsRow() {
+        int bins = 257;
+        WaterfallMapper mapper = new WaterfallMapper(64, bins, 100, 60);
+        float[] magnitudes = new float[bins];
+        magnitudes[100] = 100;
+        int[] column = new int[64];
+        mapper.map(magnitudes, column);
+        for (int row = 0; row < 64; row++) {
+            boolean lit = mapper.getRowStart(row) <= 100 && 100 < mapper.getRowEnd(row);
+            assertEquals("row " + row, lit ? WHITE : BLACK, column[row]);
+        }
+    }
+
+    @Test
+    public void testColorScale() {
+        WaterfallMapper mapper = new WaterfallMapper(1, 3, 100, 60);
+        int[] column = new int[1];
+        mapper.map(new float[] { 0, 1000, 0 }, column); // Above full scale saturates
+        assertEquals(WHITE, column[0]);
+        mapper.map(new float[] { 0, 0.05f, 0 }, column); // Below range
+        assertEquals(BLACK, column[0]);
+        mapper.map(new float[] { 0, 10, 0 }, column); // -20dB
+        assertEquals(mapper.getColor(2f / 3), column[0], 0x030303);
+    }
+}
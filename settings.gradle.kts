@@ -17,3 +17,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "ProtoKirin"
 include(":app")
+include(":kirin-core")
+include(":kirin-bench")